@@ -0,0 +1,135 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Measure a full planning round with {@link LoadBalancerPlanBuilder}: create
+ * the builder from the previous plan and the resource reports, change the
+ * weight of every container, add some new containers and create the plan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = LoadBalancerPlanBuilderBenchmark.MEASUREMENT_ITERATIONS, time = 1)
+@Fork(1)
+public class LoadBalancerPlanBuilderBenchmark {
+
+    /* package */ static final int MEASUREMENT_ITERATIONS = 5;
+
+    private static final int NUM_NODES = 10;
+    private static final int NUM_SERVICES = 20;
+    private static final int NEW_CONTAINER_INTERVAL = 10;
+
+    @Param({ "100", "1000", "10000" })
+    private int numContainers;
+
+    private final RegionIdentifier region = new StringRegionIdentifier("region");
+    private LoadBalancerPlan prevPlan;
+    private ImmutableSet<ResourceReport> reports;
+
+    private static NodeIdentifier node(final int index) {
+        return new DnsNameIdentifier("node" + index);
+    }
+
+    private static NodeIdentifier container(final int index) {
+        return new DnsNameIdentifier("container" + index);
+    }
+
+    private static ServiceIdentifier<?> service(final int index) {
+        return new StringServiceIdentifier("service" + (index % NUM_SERVICES));
+    }
+
+    /**
+     * Create the previous plan and the reports.
+     */
+    @Setup
+    public void setup() {
+        final ImmutableMap.Builder<NodeIdentifier, ImmutableCollection<LoadBalancerPlan.ContainerInfo>> servicePlan = ImmutableMap
+                .builder();
+        final ImmutableSet.Builder<ResourceReport> reportsBuilder = ImmutableSet.builder();
+        for (int n = 0; n < NUM_NODES; ++n) {
+            final ImmutableList.Builder<LoadBalancerPlan.ContainerInfo> infos = ImmutableList.builder();
+            final ImmutableMap.Builder<NodeIdentifier, ContainerResourceReport> containerReports = ImmutableMap
+                    .builder();
+            for (int c = n; c < numContainers; c += NUM_NODES) {
+                infos.add(new LoadBalancerPlan.ContainerInfo(container(c), service(c), 1, false, false));
+                containerReports.put(container(c),
+                        new ContainerResourceReport(container(c), 0, service(c), ServiceStatus.RUNNING,
+                                ResourceReport.EstimationWindow.SHORT, ImmutableMap.of(), ImmutableMap.of(),
+                                ImmutableMap.of(), 0));
+            }
+            servicePlan.put(node(n), infos.build());
+            reportsBuilder.add(new ResourceReport(node(n), 0, ResourceReport.EstimationWindow.SHORT,
+                    ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of(),
+                    containerReports.build(), Integer.MAX_VALUE, 0));
+        }
+        prevPlan = new LoadBalancerPlan(region, servicePlan.build(), ImmutableMap.of());
+        reports = reportsBuilder.build();
+    }
+
+    /**
+     * @return the new plan
+     */
+    @Benchmark
+    public LoadBalancerPlan planRound() {
+        final LoadBalancerPlanBuilder builder = new LoadBalancerPlanBuilder(prevPlan, reports);
+        for (int c = 0; c < numContainers; ++c) {
+            final NodeIdentifier node = node(c % NUM_NODES);
+            builder.setContainerWeight(node, container(c), 2);
+            if (0 == c % NEW_CONTAINER_INTERVAL) {
+                builder.addService(node, service(c), 1);
+            }
+        }
+        return builder.toLoadBalancerPlan(reports, ImmutableMap.of());
+    }
+
+}
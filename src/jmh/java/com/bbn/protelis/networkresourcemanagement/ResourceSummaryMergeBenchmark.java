@@ -0,0 +1,223 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Compare sequential and parallel merging in {@link ResourceSummaryMerger}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = ResourceSummaryMergeBenchmark.MEASUREMENT_ITERATIONS, time = 1)
+@Fork(1)
+public class ResourceSummaryMergeBenchmark {
+
+    /* package */ static final int MEASUREMENT_ITERATIONS = 5;
+
+    private static final int NUM_REGIONS = 50;
+    private static final int NUM_NODES_PER_REGION = 20;
+    private static final int NUM_SERVICES = 20;
+    private static final int NUM_FLOWS = 5;
+    private static final long SEED = 42;
+
+    @Param({ "100", "1000", "10000" })
+    private int numInputs;
+
+    private List<ResourceSummary> summaries;
+    private List<ResourceReport> reports;
+    private final RegionIdentifier globalRegion = new StringRegionIdentifier("global");
+
+    private static RegionIdentifier region(final int index) {
+        return new StringRegionIdentifier("region" + index);
+    }
+
+    private static NodeIdentifier node(final int index) {
+        return new DnsNameIdentifier("node" + index);
+    }
+
+    private static ServiceIdentifier<?> service(final int index) {
+        return new StringServiceIdentifier("service" + index);
+    }
+
+    private static RegionIdentifier lookupRegion(final NodeIdentifier node) {
+        final int index = Integer.parseInt(node.getName().substring("node".length()));
+        return region(index / NUM_NODES_PER_REGION);
+    }
+
+    /**
+     * Create the inputs.
+     */
+    @Setup
+    public void setup() {
+        final Random random = new Random(SEED);
+        summaries = new ArrayList<>(numInputs);
+        reports = new ArrayList<>(numInputs);
+        for (int i = 0; i < numInputs; ++i) {
+            summaries.add(createSummary(random, i));
+            reports.add(createReport(random, i));
+        }
+    }
+
+    private static ResourceSummary createSummary(final Random random, final int index) {
+        final RegionIdentifier region = region(index % NUM_REGIONS);
+
+        final ImmutableMap.Builder<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, ImmutableMap<NodeAttribute, Double>>> serverLoad = ImmutableMap
+                .builder();
+        final ImmutableMap.Builder<RegionIdentifier, ImmutableMap<RegionNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad = ImmutableMap
+                .builder();
+        final ImmutableMap.Builder<RegionIdentifier, ImmutableMap<LinkAttribute, Double>> networkCapacity = ImmutableMap
+                .builder();
+        for (int s = 0; s < NUM_SERVICES; ++s) {
+            final RegionIdentifier source = region(random.nextInt(NUM_REGIONS));
+            serverLoad.put(service(s), ImmutableMap.of(source,
+                    ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble(), NodeAttribute.CPU,
+                            random.nextDouble())));
+        }
+        for (int n = 1; n <= NUM_FLOWS; ++n) {
+            final RegionIdentifier neighbor = region((index + n) % NUM_REGIONS);
+            final ImmutableMap.Builder<RegionNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>> flows = ImmutableMap
+                    .builder();
+            for (int f = 0; f < NUM_FLOWS; ++f) {
+                flows.put(new RegionNetworkFlow(region((index + f) % NUM_REGIONS), region, region),
+                        ImmutableMap.of(service(random.nextInt(NUM_SERVICES)),
+                                ImmutableMap.of(LinkAttribute.DATARATE_TX, random.nextDouble(),
+                                        LinkAttribute.DATARATE_RX, random.nextDouble())));
+            }
+            networkLoad.put(neighbor, flows.build());
+            networkCapacity.put(neighbor, ImmutableMap.of(LinkAttribute.DATARATE_TX, random.nextDouble()));
+        }
+
+        final ImmutableMap<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, ImmutableMap<NodeAttribute, Double>>> load = serverLoad
+                .build();
+        final ImmutableMap<RegionIdentifier, ImmutableMap<RegionNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> netLoad = networkLoad
+                .build();
+        return new ResourceSummary(region, index, index, ResourceReport.EstimationWindow.SHORT,
+                ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble()), load, load,
+                ImmutableMap.of(service(0), random.nextDouble()), networkCapacity.build(), netLoad, netLoad,
+                NUM_SERVICES, random.nextInt(NUM_SERVICES));
+    }
+
+    private static ResourceReport createReport(final Random random, final int index) {
+        final int numNodes = NUM_REGIONS * NUM_NODES_PER_REGION;
+        final NodeIdentifier nodeId = node(index % numNodes);
+
+        final ImmutableMap.Builder<NodeIdentifier, ContainerResourceReport> containers = ImmutableMap.builder();
+        for (int s = 0; s < NUM_SERVICES; ++s) {
+            final NodeIdentifier containerId = new DnsNameIdentifier("container" + index + "_" + s);
+            final ImmutableMap<NodeIdentifier, ImmutableMap<NodeAttribute, Double>> computeLoad = ImmutableMap.of(
+                    node(random.nextInt(numNodes)),
+                    ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble()));
+            containers.put(containerId,
+                    new ContainerResourceReport(containerId, index, service(s), ServiceStatus.RUNNING,
+                            ResourceReport.EstimationWindow.SHORT, ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, 1D),
+                            computeLoad, computeLoad, random.nextDouble()));
+        }
+
+        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> networkCapacity = ImmutableMap
+                .builder();
+        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad = ImmutableMap
+                .builder();
+        for (int n = 1; n <= NUM_FLOWS; ++n) {
+            final NodeIdentifier neighborId = node((index + n * NUM_NODES_PER_REGION) % numNodes);
+            final InterfaceIdentifier ii = new InterfaceIdentifier("interface-" + neighborId.getName(),
+                    ImmutableSet.of(neighborId));
+            networkCapacity.put(ii, ImmutableMap.of(LinkAttribute.DATARATE_TX, random.nextDouble()));
+            networkLoad.put(ii,
+                    ImmutableMap.of(new NodeNetworkFlow(node(random.nextInt(numNodes)), nodeId, nodeId),
+                            ImmutableMap.of(service(random.nextInt(NUM_SERVICES)),
+                                    ImmutableMap.of(LinkAttribute.DATARATE_RX, random.nextDouble()))));
+        }
+
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> netLoad = networkLoad
+                .build();
+        return new ResourceReport(nodeId, index, ResourceReport.EstimationWindow.SHORT,
+                ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble()), networkCapacity.build(), netLoad,
+                netLoad, containers.build(), NUM_SERVICES, NUM_SERVICES);
+    }
+
+    /**
+     * @return sequential merge of the summaries
+     */
+    @Benchmark
+    public ResourceSummary sequentialSummaries() {
+        return ResourceSummaryMerger.mergeSummaries(globalRegion, ResourceReport.EstimationWindow.SHORT, summaries);
+    }
+
+    /**
+     * @return parallel merge of the summaries
+     */
+    @Benchmark
+    public ResourceSummary parallelSummaries() {
+        return ResourceSummaryMerger.parallelMergeSummaries(globalRegion, ResourceReport.EstimationWindow.SHORT,
+                summaries);
+    }
+
+    /**
+     * @return sequential merge of the reports
+     */
+    @Benchmark
+    public ResourceSummary sequentialReports() {
+        return ResourceSummaryMerger.mergeReports(globalRegion, ResourceReport.EstimationWindow.SHORT,
+                ResourceSummaryMergeBenchmark::lookupRegion, reports);
+    }
+
+    /**
+     * @return parallel merge of the reports
+     */
+    @Benchmark
+    public ResourceSummary parallelReports() {
+        return ResourceSummaryMerger.parallelMergeReports(globalRegion, ResourceReport.EstimationWindow.SHORT,
+                ResourceSummaryMergeBenchmark::lookupRegion, reports);
+    }
+
+}
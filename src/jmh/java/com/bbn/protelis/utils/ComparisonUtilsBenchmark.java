@@ -0,0 +1,245 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.utils;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbn.protelis.networkresourcemanagement.DnsNameIdentifier;
+import com.bbn.protelis.networkresourcemanagement.InterfaceIdentifier;
+import com.bbn.protelis.networkresourcemanagement.LinkAttribute;
+import com.bbn.protelis.networkresourcemanagement.NodeIdentifier;
+import com.bbn.protelis.networkresourcemanagement.NodeNetworkFlow;
+import com.bbn.protelis.networkresourcemanagement.ServiceIdentifier;
+import com.bbn.protelis.networkresourcemanagement.StringServiceIdentifier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Compare the loop based map comparisons in {@link ComparisonUtils} against
+ * the previous stream based implementation. The maps have the shape of the
+ * network load in a resource report and the two maps compared are equal, but
+ * don't share any inner maps, so every entry is visited.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = ComparisonUtilsBenchmark.MEASUREMENT_ITERATIONS, time = 1)
+@Fork(1)
+public class ComparisonUtilsBenchmark {
+
+    /* package */ static final int MEASUREMENT_ITERATIONS = 5;
+
+    private static final int NUM_SERVICES = 5;
+    private static final long SEED = 42;
+    private static final double TOLERANCE = ComparisonUtils.LINK_ATTRIBUTE_COMPARISON_TOLERANCE;
+
+    @Param({ "4", "16", "64" })
+    private int numNeighbors;
+
+    private ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> one;
+    private ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> two;
+
+    /**
+     * Create the maps to compare.
+     */
+    @Setup
+    public void setup() {
+        one = createNetworkLoad(new Random(SEED));
+        two = createNetworkLoad(new Random(SEED));
+    }
+
+    private ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>
+            createNetworkLoad(final Random random) {
+        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> builder = ImmutableMap
+                .builder();
+        for (int n = 0; n < numNeighbors; ++n) {
+            final NodeIdentifier neighbor = new DnsNameIdentifier("neighbor" + n);
+            final ImmutableMap.Builder<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>> flows = ImmutableMap
+                    .builder();
+            for (int f = 0; f < numNeighbors; ++f) {
+                final NodeIdentifier source = new DnsNameIdentifier("client" + f);
+                final NodeNetworkFlow flow = new NodeNetworkFlow(source, neighbor, neighbor);
+
+                final ImmutableMap.Builder<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>> services = ImmutableMap
+                        .builder();
+                for (int s = 0; s < NUM_SERVICES; ++s) {
+                    services.put(new StringServiceIdentifier("service" + s),
+                            ImmutableMap.of(LinkAttribute.DATARATE_TX, random.nextDouble(),
+                                    LinkAttribute.DATARATE_RX, random.nextDouble()));
+                }
+                flows.put(flow, services.build());
+            }
+            builder.put(new InterfaceIdentifier("interface-" + n, ImmutableSet.of(neighbor)), flows.build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the result of the comparison
+     */
+    @Benchmark
+    public boolean loop() {
+        return ComparisonUtils.doubleMapEquals4(one, two, TOLERANCE);
+    }
+
+    /**
+     * @return the result of the comparison
+     */
+    @Benchmark
+    public boolean stream() {
+        return StreamComparison.doubleMapEquals4(one, two, TOLERANCE);
+    }
+
+    /**
+     * The stream based implementation that was in {@link ComparisonUtils}
+     * before it was replaced with loops.
+     */
+    private static final class StreamComparison {
+        private StreamComparison() {
+        }
+
+        private static <T> boolean doubleMapEquals(final Map<T, Double> one,
+                final Map<T, Double> two,
+                final double tolerance) {
+            if (one == two) {
+                return true;
+            } else if (null == one || null == two) {
+                return false;
+            } else if (one.size() != two.size()) {
+                return false;
+            } else {
+                return one.entrySet().stream().allMatch(entry -> {
+                    final T oneKey = entry.getKey();
+                    final Double oneValue = entry.getValue();
+                    if (!two.containsKey(oneKey)) {
+                        return false;
+                    } else {
+                        final Double twoValue = two.get(oneKey);
+                        if (null == oneValue && null == twoValue) {
+                            return true;
+                        } else if (null == oneValue || null == twoValue) {
+                            return false;
+                        } else {
+                            return Math.abs(oneValue - twoValue) < tolerance;
+                        }
+                    }
+                });
+            }
+        }
+
+        private static <K1, K2, M1 extends Map<K2, Double>> boolean doubleMapEquals2(final Map<K1, M1> mapOne,
+                final Map<K1, M1> mapTwo,
+                final double tolerance) {
+            if (mapOne == mapTwo) {
+                return true;
+            } else if (null == mapOne || null == mapTwo) {
+                return false;
+            } else if (mapOne.size() != mapTwo.size()) {
+                return false;
+            } else {
+                return mapOne.entrySet().stream().allMatch(entry -> {
+                    final K1 oneKey = entry.getKey();
+                    if (!mapTwo.containsKey(oneKey)) {
+                        return false;
+                    } else {
+                        final Map<K2, Double> oneValue = entry.getValue();
+                        final Map<K2, Double> twoValue = mapTwo.get(oneKey);
+                        if (oneValue == twoValue) {
+                            return true;
+                        } else if (null == oneValue || null == twoValue) {
+                            return false;
+                        } else {
+                            return doubleMapEquals(oneValue, twoValue, tolerance);
+                        }
+                    }
+                });
+            }
+        }
+
+        private static <K1, K2, K3, M1 extends Map<K2, M2>, M2 extends Map<K3, Double>> boolean
+                doubleMapEquals3(final Map<K1, M1> mapOne, final Map<K1, M1> mapTwo, final double tolerance) {
+            if (mapOne == mapTwo) {
+                return true;
+            } else if (null == mapOne || null == mapTwo) {
+                return false;
+            } else if (mapOne.size() != mapTwo.size()) {
+                return false;
+            } else {
+                return mapOne.entrySet().stream().allMatch(entry -> {
+                    final K1 oneKey = entry.getKey();
+                    if (!mapTwo.containsKey(oneKey)) {
+                        return false;
+                    } else {
+                        return doubleMapEquals2(entry.getValue(), mapTwo.get(oneKey), tolerance);
+                    }
+                });
+            }
+        }
+
+        private static <K1, K2, K3, K4, M1 extends Map<K2, M2>, M2 extends Map<K3, M3>, M3 extends Map<K4, Double>>
+                boolean
+                doubleMapEquals4(final Map<K1, M1> mapOne, final Map<K1, M1> mapTwo, final double tolerance) {
+            if (mapOne == mapTwo) {
+                return true;
+            } else if (null == mapOne || null == mapTwo) {
+                return false;
+            } else if (mapOne.size() != mapTwo.size()) {
+                return false;
+            } else {
+                return mapOne.entrySet().stream().allMatch(entry -> {
+                    final K1 oneKey = entry.getKey();
+                    if (!mapTwo.containsKey(oneKey)) {
+                        return false;
+                    } else {
+                        return doubleMapEquals3(entry.getValue(), mapTwo.get(oneKey), tolerance);
+                    }
+                });
+            }
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Weighted random choice using the alias method. Building the table is linear
+ * in the number of choices, each choice after that is constant time. Objects
+ * of this class are immutable and safe to share between threads.
+ * 
+ * @param <T>
+ *            the type of the choices
+ */
+public final class AliasTable<T> {
+
+    private final List<T> values;
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * Build a table from weights. Entries with a weight that is not greater
+     * than 0 are never chosen.
+     * 
+     * @param weights
+     *            the relative weight of each value
+     * @throws IllegalArgumentException
+     *             if a weight is infinite or NaN
+     */
+    public AliasTable(@Nonnull final Map<T, Double> weights) throws IllegalArgumentException {
+        final List<T> positiveValues = new ArrayList<>(weights.size());
+        final List<Double> positiveWeights = new ArrayList<>(weights.size());
+        double total = 0;
+        for (final Map.Entry<T, Double> entry : weights.entrySet()) {
+            final double weight = entry.getValue();
+            if (Double.isNaN(weight) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Weight for " + entry.getKey() + " is not finite: " + weight);
+            }
+            if (weight > 0) {
+                positiveValues.add(entry.getKey());
+                positiveWeights.add(weight);
+                total += weight;
+            }
+        }
+
+        final int size = positiveValues.size();
+        this.values = positiveValues;
+        this.probability = new double[size];
+        this.alias = new int[size];
+
+        // Vose's algorithm: scale the weights so that the average is 1, then
+        // pair each entry below 1 with an entry above 1 to fill its column
+        final double[] scaled = new double[size];
+        final int[] small = new int[size];
+        final int[] large = new int[size];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (int i = 0; i < size; ++i) {
+            scaled[i] = positiveWeights.get(i) * size / total;
+            if (scaled[i] < 1) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+
+        while (numSmall > 0 && numLarge > 0) {
+            final int less = small[--numSmall];
+            final int more = large[--numLarge];
+
+            probability[less] = scaled[less];
+            alias[less] = more;
+
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[numSmall++] = more;
+            } else {
+                large[numLarge++] = more;
+            }
+        }
+
+        // anything left over is 1 within rounding error
+        while (numLarge > 0) {
+            final int index = large[--numLarge];
+            probability[index] = 1;
+            alias[index] = index;
+        }
+        while (numSmall > 0) {
+            final int index = small[--numSmall];
+            probability[index] = 1;
+            alias[index] = index;
+        }
+    }
+
+    /**
+     * @return true if there is nothing to choose from
+     */
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * @return the number of values that can be chosen
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Choose a value using {@link ThreadLocalRandom}.
+     * 
+     * @return the chosen value, null if the table is empty
+     */
+    public T choose() {
+        return choose(ThreadLocalRandom.current());
+    }
+
+    /**
+     * Choose a value.
+     * 
+     * @param random
+     *            the source of randomness
+     * @return the chosen value, null if the table is empty
+     */
+    public T choose(@Nonnull final Random random) {
+        if (values.isEmpty()) {
+            return null;
+        }
+
+        final int column = random.nextInt(values.size());
+        if (random.nextDouble() < probability[column]) {
+            return values.get(column);
+        } else {
+            return values.get(alias[column]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + " [ values: " + values + " ]";
+    }
+
+}
@@ -0,0 +1,184 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Counters for the AP sharing connections of a {@link NodeNetworkManager}.
+ * The bytes allocated by the sending thread are measured around the encoding
+ * and writing of each message when the JVM supports per-thread allocation
+ * accounting. Compression is tracked per neighbor and kept across
+ * reconnects.
+ */
+public final class ApConnectionMetrics {
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN;
+    static {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            ALLOCATION_BEAN = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            ALLOCATION_BEAN = null;
+        }
+    }
+
+    /**
+     * Value returned by {@link #startAllocationMeasurement()} when
+     * allocations can't be measured.
+     */
+    /* package */ static final long NOT_MEASURED = -1;
+
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong measuredMessages = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final Map<NodeIdentifier, CompressionStatistics> compression = new ConcurrentHashMap<>();
+
+    /**
+     * @return true if the bytes allocated per message can be measured in this
+     *         JVM
+     */
+    public static boolean isAllocationMeasurementSupported() {
+        return null != ALLOCATION_BEAN && ALLOCATION_BEAN.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * @return the counter incremented for each frame that is dropped
+     */
+    /* package */ AtomicLong getDroppedFramesCounter() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the number of frames dropped because they were corrupt, of an
+     *         unknown type or couldn't be decoded
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return the number of messages sent
+     */
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * @return the number of bytes sent, including the frame headers
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return the average number of bytes allocated by the sending thread to
+     *         encode and write a message, NaN if no messages have been
+     *         measured
+     * @see #isAllocationMeasurementSupported()
+     */
+    public double getAllocatedBytesPerMessage() {
+        final long messages = measuredMessages.get();
+        if (messages < 1) {
+            return Double.NaN;
+        } else {
+            return (double) allocatedBytes.get() / messages;
+        }
+    }
+
+    /**
+     * 
+     * @param neighbor
+     *            the neighbor to get the statistics for
+     * @return the compression statistics for messages sent to
+     *         {@code neighbor}, created if needed
+     */
+    @Nonnull
+    public CompressionStatistics getCompressionStatistics(@Nonnull final NodeIdentifier neighbor) {
+        return compression.computeIfAbsent(neighbor, k -> new CompressionStatistics());
+    }
+
+    /**
+     * @return the compression statistics of all neighbors that have been
+     *         sent to, this is an immutable snapshot of the map, the values
+     *         continue to be updated
+     */
+    @Nonnull
+    public Map<NodeIdentifier, CompressionStatistics> getCompressionStatistics() {
+        return ImmutableMap.copyOf(compression);
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread so far or
+     *         {@link #NOT_MEASURED}
+     */
+    /* package */ static long startAllocationMeasurement() {
+        if (isAllocationMeasurementSupported()) {
+            return ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return NOT_MEASURED;
+        }
+    }
+
+    /**
+     * Record that a message was sent by the current thread.
+     * 
+     * @param allocationStart
+     *            the value from {@link #startAllocationMeasurement()} taken
+     *            before the message was encoded
+     * @param frameBytes
+     *            the number of bytes written
+     */
+    /* package */ void recordSend(final long allocationStart, final int frameBytes) {
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(frameBytes);
+        if (NOT_MEASURED != allocationStart) {
+            final long end = startAllocationMeasurement();
+            if (NOT_MEASURED != end) {
+                measuredMessages.incrementAndGet();
+                allocatedBytes.addAndGet(end - allocationStart);
+            }
+        }
+    }
+
+}
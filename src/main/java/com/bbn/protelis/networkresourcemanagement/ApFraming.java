@@ -0,0 +1,613 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Framing of the messages exchanged by {@link NetworkNeighbor} after the
+ * handshake. Each frame is: magic (int), message type and flags (byte),
+ * payload length (int), payload, CRC32C of the type, length and payload (int).
+ * The two high bits of the type byte are flags, see {@link #FLAG_COMPRESSED}
+ * and {@link #FLAG_DICTIONARY}. All integers are
+ * big-endian. A frame that fails validation is dropped and the reader
+ * searches for the next magic value rather than giving up on the connection.
+ */
+/* package */ final class ApFraming {
+
+    private ApFraming() {
+    }
+
+    /**
+     * Marks the start of a frame, "APFR" in ASCII.
+     */
+    /* package */ static final int MAGIC = 0x41504652;
+
+    private static final int MAGIC_SIZE = Integer.BYTES;
+    private static final int TYPE_SIZE = Byte.BYTES;
+    private static final int LENGTH_SIZE = Integer.BYTES;
+    private static final int CRC_SIZE = Integer.BYTES;
+
+    /**
+     * Size of the frame before the payload.
+     */
+    /* package */ static final int HEADER_SIZE = MAGIC_SIZE + TYPE_SIZE + LENGTH_SIZE;
+
+    /**
+     * Number of bytes added to the payload by the framing.
+     */
+    /* package */ static final int OVERHEAD = HEADER_SIZE + CRC_SIZE;
+
+    /**
+     * Largest payload that can be written, limited by the largest buffer in
+     * the {@link FrameBufferPool}. Readers may use a smaller limit, see
+     * {@link GlobalNetworkConfiguration#getMaxFrameSize()}.
+     */
+    /* package */ static final int MAX_PAYLOAD_SIZE = FrameBufferPool.MAX_BUFFER_SIZE - OVERHEAD;
+
+    /**
+     * Bits of the type byte that hold the message type.
+     */
+    /* package */ static final byte TYPE_MASK = 0x3F;
+
+    /**
+     * Set in the type byte when the payload data is compressed.
+     */
+    /* package */ static final byte FLAG_COMPRESSED = (byte) 0x80;
+
+    /**
+     * Set in the type byte along with {@link #FLAG_COMPRESSED} when the
+     * payload data was compressed with the {@link CompressionDictionary}
+     * agreed for the connection.
+     */
+    /* package */ static final byte FLAG_DICTIONARY = 0x40;
+
+    private static final HashFunction CRC32C = Hashing.crc32c();
+
+    private static final int BYTE_MASK = 0xFF;
+    private static final int BYTE_BITS = 8;
+
+    /**
+     * Write a frame as a single call to {@code output}.
+     * 
+     * @param output
+     *            where to write the frame
+     * @param type
+     *            the message type
+     * @param payload
+     *            contains the payload
+     * @param offset
+     *            start of the payload in {@code payload}
+     * @param length
+     *            number of bytes in the payload
+     * @throws IOException
+     *             if there is an error writing
+     * @throws IllegalArgumentException
+     *             if the payload is larger than {@link #MAX_PAYLOAD_SIZE}
+     */
+    /* package */ static void writeFrame(@Nonnull final OutputStream output,
+            final byte type,
+            @Nonnull final byte[] payload,
+            final int offset,
+            final int length) throws IOException {
+        if (length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload is too large for a frame: " + length);
+        }
+
+        final byte[] frame = new byte[OVERHEAD + length];
+        putInt(frame, 0, MAGIC);
+        frame[MAGIC_SIZE] = type;
+        putInt(frame, MAGIC_SIZE + TYPE_SIZE, length);
+        System.arraycopy(payload, offset, frame, HEADER_SIZE, length);
+        putInt(frame, HEADER_SIZE + length, crc(frame, MAGIC_SIZE, TYPE_SIZE + LENGTH_SIZE + length));
+
+        output.write(frame);
+    }
+
+    /**
+     * @return the CRC32C of the specified bytes
+     */
+    /* package */ static int crc(final byte[] buf, final int offset, final int length) {
+        final Hasher hasher = CRC32C.newHasher();
+        hasher.putBytes(buf, offset, length);
+        return hasher.hash().asInt();
+    }
+
+    /* package */ static void putInt(final byte[] buf, final int offset, final int value) {
+        for (int i = 0; i < Integer.BYTES; ++i) {
+            buf[offset + i] = (byte) (value >>> (BYTE_BITS * (Integer.BYTES - 1 - i)));
+        }
+    }
+
+    /* package */ static int getInt(final byte[] buf, final int offset) {
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; ++i) {
+            value = (value << BYTE_BITS) | (buf[offset + i] & BYTE_MASK);
+        }
+        return value;
+    }
+
+    /* package */ static void putLong(final byte[] buf, final int offset, final long value) {
+        for (int i = 0; i < Long.BYTES; ++i) {
+            buf[offset + i] = (byte) (value >>> (BYTE_BITS * (Long.BYTES - 1 - i)));
+        }
+    }
+
+    /* package */ static long getLong(final byte[] buf, final int offset) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; ++i) {
+            value = (value << BYTE_BITS) | (buf[offset + i] & BYTE_MASK);
+        }
+        return value;
+    }
+
+    /**
+     * Reads frames from a stream. The bytes are read into an internal buffer
+     * so that when a frame fails validation the search for the next frame can
+     * start at the byte after the bad magic value. Frames larger than the
+     * maximum size are dropped without allocating space for them. The buffer
+     * comes from a {@link FrameBufferPool}. After a large frame the buffer
+     * is exchanged for a small one so that idle connections don't hold large
+     * arrays. This class is not thread-safe.
+     */
+    /* package */ static final class Reader implements AutoCloseable {
+        private final InputStream input;
+        private final AtomicLong droppedFrames;
+        private final int maxPayloadSize;
+        private final FrameBufferPool pool;
+        private byte[] buffer;
+        /** index of the first unconsumed byte */
+        private int start = 0;
+        /** index after the last byte read */
+        private int end = 0;
+        private boolean inSync = true;
+        private long resyncs = 0;
+
+        private byte type;
+        private byte flags;
+        private int payloadOffset;
+        private int payloadLength;
+
+        /**
+         * 
+         * @param input
+         *            where to read frames from
+         * @param droppedFrames
+         *            incremented each time a corrupt frame or unframed data
+         *            is skipped
+         */
+        /* package */ Reader(@Nonnull final InputStream input, @Nonnull final AtomicLong droppedFrames) {
+            this(input, droppedFrames, GlobalNetworkConfiguration.getInstance().getMaxFrameSize(),
+                    FrameBufferPool.SHARED);
+        }
+
+        /**
+         * 
+         * @param input
+         *            where to read frames from
+         * @param droppedFrames
+         *            incremented each time a corrupt frame or unframed data
+         *            is skipped
+         * @param maxPayloadSize
+         *            frames with a larger payload are treated as corrupt
+         * @param pool
+         *            where to get buffers from
+         */
+        /* package */ Reader(@Nonnull final InputStream input,
+                @Nonnull final AtomicLong droppedFrames,
+                final int maxPayloadSize,
+                @Nonnull final FrameBufferPool pool) {
+            this.input = input;
+            this.droppedFrames = droppedFrames;
+            this.maxPayloadSize = Math.min(maxPayloadSize, MAX_PAYLOAD_SIZE);
+            this.pool = pool;
+            this.buffer = pool.acquire(FrameBufferPool.MIN_BUFFER_SIZE);
+        }
+
+        /**
+         * Return the buffer to the pool. The reader cannot be used after this.
+         */
+        @Override
+        public void close() {
+            if (null != buffer) {
+                pool.release(buffer);
+                buffer = null;
+            }
+        }
+
+        /**
+         * Read the next valid frame. The payload is only valid until the next
+         * call.
+         * 
+         * @throws EOFException
+         *             if the end of the stream is reached
+         * @throws IOException
+         *             if there is an error reading
+         */
+        /* package */ void next() throws IOException {
+            shrink();
+            while (true) {
+                fill(HEADER_SIZE);
+
+                if (getInt(buffer, start) != MAGIC) {
+                    lostSync();
+                    continue;
+                }
+
+                final int length = getInt(buffer, start + MAGIC_SIZE + TYPE_SIZE);
+                if (length < 0 || length > maxPayloadSize) {
+                    lostSync();
+                    continue;
+                }
+
+                fill(OVERHEAD + length);
+                final int expectedCrc = getInt(buffer, start + HEADER_SIZE + length);
+                if (crc(buffer, start + MAGIC_SIZE, TYPE_SIZE + LENGTH_SIZE + length) != expectedCrc) {
+                    lostSync();
+                    continue;
+                }
+
+                type = (byte) (buffer[start + MAGIC_SIZE] & TYPE_MASK);
+                flags = (byte) (buffer[start + MAGIC_SIZE] & ~TYPE_MASK);
+                payloadOffset = start + HEADER_SIZE;
+                payloadLength = length;
+                start += OVERHEAD + length;
+                inSync = true;
+                return;
+            }
+        }
+
+        /**
+         * Skip one byte and count a dropped frame if this is the first bad
+         * byte since the last good frame.
+         */
+        private void lostSync() {
+            if (inSync) {
+                droppedFrames.incrementAndGet();
+                ++resyncs;
+                inSync = false;
+            }
+            ++start;
+        }
+
+        /**
+         * If the buffer grew for a large frame and the unconsumed bytes fit in
+         * a small buffer, return the large buffer to the pool.
+         */
+        private void shrink() {
+            final int available = end - start;
+            if (buffer.length > FrameBufferPool.MIN_BUFFER_SIZE && available <= FrameBufferPool.MIN_BUFFER_SIZE) {
+                final byte[] small = pool.acquire(FrameBufferPool.MIN_BUFFER_SIZE);
+                System.arraycopy(buffer, start, small, 0, available);
+                pool.release(buffer);
+                buffer = small;
+                start = 0;
+                end = available;
+            }
+        }
+
+        /**
+         * Make sure that at least {@code count} bytes are available starting
+         * at {@link #start}.
+         */
+        private void fill(final int count) throws IOException {
+            if (end - start >= count) {
+                return;
+            }
+
+            if (buffer.length - start < count) {
+                // move the unconsumed bytes to the front and grow if needed
+                final int available = end - start;
+                if (count > buffer.length) {
+                    final byte[] target = pool.acquire(count);
+                    System.arraycopy(buffer, start, target, 0, available);
+                    pool.release(buffer);
+                    buffer = target;
+                } else {
+                    System.arraycopy(buffer, start, buffer, 0, available);
+                }
+                start = 0;
+                end = available;
+            }
+
+            while (end - start < count) {
+                final int read = input.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    throw new EOFException("End of stream reading frame");
+                }
+                end += read;
+            }
+        }
+
+        /**
+         * @return the number of times this reader has skipped corrupt data
+         *         looking for the next frame, each time at least one frame
+         *         was lost
+         */
+        /* package */ long getResyncCount() {
+            return resyncs;
+        }
+
+        /**
+         * @return the message type of the current frame
+         */
+        /* package */ byte getType() {
+            return type;
+        }
+
+        /**
+         * @return the flags of the current frame, such as
+         *         {@link ApFraming#FLAG_COMPRESSED}
+         */
+        /* package */ byte getFlags() {
+            return flags;
+        }
+
+        /**
+         * @return the buffer containing the payload of the current frame
+         */
+        /* package */ byte[] getPayloadBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return the start of the payload in {@link #getPayloadBuffer()}
+         */
+        /* package */ int getPayloadOffset() {
+            return payloadOffset;
+        }
+
+        /**
+         * @return the number of bytes in the payload
+         */
+        /* package */ int getPayloadLength() {
+            return payloadLength;
+        }
+    }
+
+    /**
+     * Builds a frame in a pooled buffer. The payload is written directly
+     * after space reserved for the header, then the header and checksum are
+     * filled in so that the whole frame is sent with a single write and
+     * without copying the payload. This class is not thread-safe.
+     */
+    /* package */ static final class Writer extends OutputStream {
+        private final FrameBufferPool pool;
+        private byte[] buffer;
+        private int size;
+        private byte type;
+        private byte flags;
+
+        /**
+         * 
+         * @param pool
+         *            where to get buffers from
+         */
+        /* package */ Writer(@Nonnull final FrameBufferPool pool) {
+            this.pool = pool;
+            this.buffer = pool.acquire(FrameBufferPool.MIN_BUFFER_SIZE);
+        }
+
+        /**
+         * Start a new frame, discarding any current contents.
+         * 
+         * @param frameType
+         *            the message type
+         */
+        /* package */ void begin(final byte frameType) {
+            type = frameType;
+            flags = 0;
+            size = HEADER_SIZE;
+        }
+
+        /**
+         * 
+         * @param frameFlags
+         *            flags to set on the current frame, such as
+         *            {@link ApFraming#FLAG_COMPRESSED}
+         */
+        /* package */ void setFlags(final byte frameFlags) {
+            flags = frameFlags;
+        }
+
+        /**
+         * Discard everything written from {@code position} on.
+         * 
+         * @param position
+         *            the new value of {@link #getSize()}
+         */
+        /* package */ void truncate(final int position) {
+            if (position < HEADER_SIZE || position > size) {
+                throw new IllegalArgumentException("Position " + position + " is outside of the frame");
+            }
+            size = position;
+        }
+
+        /**
+         * Copy everything written from {@code position} on into a pooled
+         * array. The array should be returned with {@link #recycle(byte[])}.
+         * 
+         * @param position
+         *            where to start copying
+         * @return an array holding the {@code getSize() - position} bytes at
+         *         its start
+         */
+        /* package */ byte[] copyFrom(final int position) {
+            final byte[] copy = pool.acquire(size - position);
+            System.arraycopy(buffer, position, copy, 0, size - position);
+            return copy;
+        }
+
+        /**
+         * 
+         * @param copy
+         *            an array from {@link #copyFrom(int)}
+         */
+        /* package */ void recycle(@Nonnull final byte[] copy) {
+            pool.release(copy);
+        }
+
+        /**
+         * @return the number of bytes in the frame so far, including the
+         *         header
+         */
+        /* package */ int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the number of payload bytes written
+         */
+        /* package */ int getPayloadLength() {
+            return size - HEADER_SIZE;
+        }
+
+        /**
+         * Reserve space for an integer to be filled in later with
+         * {@link #putInt(int, int)}.
+         * 
+         * @return the position of the integer
+         */
+        /* package */ int reserveInt() {
+            ensureCapacity(size + Integer.BYTES);
+            final int position = size;
+            size += Integer.BYTES;
+            return position;
+        }
+
+        /**
+         * 
+         * @param position
+         *            from {@link #reserveInt()}
+         * @param value
+         *            the value to store
+         */
+        /* package */ void putInt(final int position, final int value) {
+            ApFraming.putInt(buffer, position, value);
+        }
+
+        /**
+         * Append a long in the format written by
+         * {@link ApFraming#putLong(byte[], int, long)}.
+         * 
+         * @param value
+         *            the value to append
+         */
+        /* package */ void writeLong(final long value) {
+            ensureCapacity(size + Long.BYTES);
+            for (int i = 0; i < Long.BYTES; ++i) {
+                buffer[size++] = (byte) (value >>> (BYTE_BITS * (Long.BYTES - 1 - i)));
+            }
+        }
+
+        @Override
+        public void write(final int b) {
+            ensureCapacity(size + 1);
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, buffer, size, len);
+            size += len;
+        }
+
+        /**
+         * Complete the frame and write it to {@code output} with one call.
+         * Afterwards a large buffer is exchanged for a small one.
+         * 
+         * @param output
+         *            where to write
+         * @return the number of bytes written
+         * @throws IOException
+         *             if there is an error writing
+         * @throws IllegalStateException
+         *             if the payload is larger than {@link #MAX_PAYLOAD_SIZE}
+         */
+        /* package */ int writeTo(@Nonnull final OutputStream output) throws IOException {
+            final int length = getPayloadLength();
+            if (length > MAX_PAYLOAD_SIZE) {
+                throw new IllegalStateException("Payload is too large for a frame: " + length);
+            }
+
+            ApFraming.putInt(buffer, 0, MAGIC);
+            buffer[MAGIC_SIZE] = (byte) ((type & TYPE_MASK) | flags);
+            ApFraming.putInt(buffer, MAGIC_SIZE + TYPE_SIZE, length);
+            ensureCapacity(size + CRC_SIZE);
+            ApFraming.putInt(buffer, size, crc(buffer, MAGIC_SIZE, TYPE_SIZE + LENGTH_SIZE + length));
+
+            final int frameSize = size + CRC_SIZE;
+            output.write(buffer, 0, frameSize);
+
+            if (buffer.length > FrameBufferPool.MIN_BUFFER_SIZE) {
+                pool.release(buffer);
+                buffer = pool.acquire(FrameBufferPool.MIN_BUFFER_SIZE);
+            }
+            size = HEADER_SIZE;
+            return frameSize;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > buffer.length) {
+                // pool buffers are powers of 2, so this at least doubles the size
+                final byte[] target = pool.acquire(capacity);
+                System.arraycopy(buffer, 0, target, 0, size);
+                pool.release(buffer);
+                buffer = target;
+            }
+        }
+
+        /**
+         * Return the buffer to the pool. The writer cannot be used after
+         * this.
+         */
+        @Override
+        public void close() {
+            if (null != buffer) {
+                pool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+}
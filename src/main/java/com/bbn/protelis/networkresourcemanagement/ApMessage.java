@@ -38,13 +38,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
-import org.nustaq.serialization.FSTObjectInput;
 import org.nustaq.serialization.FSTObjectOutput;
 
 /**
@@ -75,18 +78,91 @@ public abstract class ApMessage {
      * @throws IOException
      *             if there is an error writing the data
      * @see #decodeData(Class, byte[])
+     * @see #encodeData(Object, OutputStream)
      */
     public static byte[] encodeData(final Object data) throws IOException {
         try (ByteArrayOutputStream bytes = new ByteArrayOutputStream()) {
-            try (OutputStream gz = getCompressionOutputStream(bytes)) {
-                try (ObjectOutput oos = getSerializationOutputStream(gz)) {
-                    oos.writeObject(data);
-                } // serialization
-            } // gzip
+            encodeData(data, bytes);
             return bytes.toByteArray();
         } // byte array
     }
 
+    /**
+     * Encode an object directly into {@code output}. The compressor is taken
+     * from a pool and the serializer is reused by the thread, so the only
+     * objects created are small stream wrappers. {@code output} is not
+     * closed.
+     * 
+     * @param data
+     *            the object to encode, needs to be serializable
+     * @param output
+     *            where to write the encoded data
+     * @throws IOException
+     *             if there is an error writing the data
+     * @see #decodeData(Class, byte[], int, int)
+     */
+    public static void encodeData(final Object data, final OutputStream output) throws IOException {
+        if (GlobalNetworkConfiguration.getInstance().getUseCompression()) {
+            final Deflater deflater = acquireDeflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                final DeflaterOutputStream compressed = new DeflaterOutputStream(output, deflater,
+                        CODEC_BUFFER_SIZE);
+                serializeData(data, compressed);
+                compressed.finish();
+            } finally {
+                releaseDeflater(deflater);
+            }
+        } else {
+            serializeData(data, output);
+        }
+    }
+
+    /**
+     * Compress bytes with a pooled compressor. The result is read with
+     * {@link #decodeData(Class, byte[], int, int, boolean)}.
+     * 
+     * @param bytes
+     *            contains the data to compress
+     * @param offset
+     *            the start of the data
+     * @param length
+     *            the number of bytes to compress
+     * @param level
+     *            the deflate level, see {@link Deflater#setLevel(int)}
+     * @param dictionary
+     *            if not null, the data is compressed as a raw deflate stream
+     *            using this preset dictionary
+     * @param output
+     *            where to write the compressed data, not closed
+     * @throws IOException
+     *             if there is an error writing
+     */
+    /* package */ static void compressData(final byte[] bytes,
+            final int offset,
+            final int length,
+            final int level,
+            final byte[] dictionary,
+            final OutputStream output) throws IOException {
+        final Deflater deflater;
+        if (null == dictionary) {
+            deflater = acquireDeflater(level);
+        } else {
+            deflater = acquireDictionaryDeflater(level);
+            deflater.setDictionary(dictionary);
+        }
+        try {
+            final DeflaterOutputStream compressed = new DeflaterOutputStream(output, deflater, CODEC_BUFFER_SIZE);
+            compressed.write(bytes, offset, length);
+            compressed.finish();
+        } finally {
+            if (null == dictionary) {
+                releaseDeflater(deflater);
+            } else {
+                releaseDictionaryDeflater(deflater);
+            }
+        }
+    }
+
     /**
      * Inverse of {@link #encodeData(Object)}.
      * 
@@ -104,56 +180,216 @@ public abstract class ApMessage {
      */
     public static <T> T decodeData(final Class<T> clazz, final byte[] bytes)
             throws IOException, StreamSyncLostException {
-        try (ByteArrayInputStream input = new ByteArrayInputStream(bytes)) {
-            try (InputStream gz = getCompressionInputStream(input)) {
-                try (ObjectInput iis = getSerializationInputStream(gz)) {
-                    try {
-                        final Object incoming = iis.readObject();
-
-                        if (clazz.isInstance(incoming)) {
-                            final T data = clazz.cast(incoming);
-                            return data;
-                        } else {
-                            throw new StreamSyncLostException("Got unexpected type of object: "
-                                    + (null == incoming ? "NULL" : incoming.getClass().getName()));
-                        }
-                    } catch (final ClassNotFoundException e) {
-                        throw new StreamSyncLostException("Unknown class received", e);
-                    }
-                } // serialization
-            } // gzip
-        } // byte array
+        return decodeData(clazz, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decode data from part of an array. The data is decompressed and
+     * deserialized directly from {@code bytes} without copying it.
+     * 
+     * @param clazz
+     *            class definition for type of data to decode
+     * @param bytes
+     *            contains the data to decode
+     * @param offset
+     *            the start of the data in {@code bytes}
+     * @param length
+     *            the number of bytes of data
+     * @param <T>
+     *            type of data being decoded
+     * @return the decoded object
+     * @throws IOException
+     *             if there is an error reading the data
+     * @throws StreamSyncLostException
+     *             if something goes wrong decoding the data
+     * @see #decodeData(Class, byte[])
+     */
+    public static <T> T decodeData(final Class<T> clazz, final byte[] bytes, final int offset, final int length)
+            throws IOException, StreamSyncLostException {
+        return decodeData(clazz, bytes, offset, length, GlobalNetworkConfiguration.getInstance().getUseCompression(),
+                null);
+    }
+
+    /**
+     * Decode data that may or may not be compressed, independent of
+     * {@link GlobalNetworkConfiguration#getUseCompression()}.
+     * 
+     * @param clazz
+     *            class definition for type of data to decode
+     * @param bytes
+     *            contains the data to decode
+     * @param offset
+     *            the start of the data in {@code bytes}
+     * @param length
+     *            the number of bytes of data
+     * @param compressed
+     *            true if the data was compressed
+     * @param dictionary
+     *            if not null, the data is a raw deflate stream compressed with
+     *            this preset dictionary, only used if {@code compressed} is
+     *            true
+     * @param <T>
+     *            type of data being decoded
+     * @return the decoded object
+     * @throws IOException
+     *             if there is an error reading the data
+     * @throws StreamSyncLostException
+     *             if something goes wrong decoding the data
+     */
+    /* package */ static <T> T decodeData(final Class<T> clazz,
+            final byte[] bytes,
+            final int offset,
+            final int length,
+            final boolean compressed,
+            final byte[] dictionary) throws IOException, StreamSyncLostException {
+        final InputStream input = new ByteArrayInputStream(bytes, offset, length);
+        if (compressed && null != dictionary) {
+            final Inflater inflater = acquireDictionaryInflater();
+            try {
+                inflater.setDictionary(dictionary);
+                return deserialize(clazz, new InflaterInputStream(input, inflater, CODEC_BUFFER_SIZE));
+            } finally {
+                releaseDictionaryInflater(inflater);
+            }
+        } else if (compressed) {
+            final Inflater inflater = acquireInflater();
+            try {
+                return deserialize(clazz, new InflaterInputStream(input, inflater, CODEC_BUFFER_SIZE));
+            } finally {
+                releaseInflater(inflater);
+            }
+        } else {
+            return deserialize(clazz, input);
+        }
     }
 
-    private static ObjectOutput getSerializationOutputStream(final OutputStream output) throws IOException {
+    /**
+     * Serialize an object without compression.
+     * 
+     * @param data
+     *            the object to serialize
+     * @param output
+     *            where to write, not closed
+     * @throws IOException
+     *             if there is an error writing
+     */
+    /* package */ static void serializeData(final Object data, final OutputStream output) throws IOException {
         if (GlobalNetworkConfiguration.getInstance().getUseJavaSerialization()) {
-            return new ObjectOutputStream(output);
+            final ObjectOutputStream oos = new ObjectOutputStream(output);
+            oos.writeObject(data);
+            oos.flush();
         } else {
-            return new FSTObjectOutput(output, GlobalNetworkConfiguration.getInstance().getFstConfiguration());
+            // the per-thread output must be flushed and not closed
+            final FSTObjectOutput oos = GlobalNetworkConfiguration.getInstance().getFstConfiguration()
+                    .getObjectOutput(output);
+            oos.writeObject(data);
+            oos.flush();
         }
     }
 
-    private static ObjectInput getSerializationInputStream(final InputStream input) throws IOException {
+    private static <T> T deserialize(final Class<T> clazz, final InputStream input)
+            throws IOException, StreamSyncLostException {
+        final ObjectInput iis;
         if (GlobalNetworkConfiguration.getInstance().getUseJavaSerialization()) {
-            return new ObjectInputStream(input);
+            iis = new ObjectInputStream(input);
         } else {
-            return new FSTObjectInput(input, GlobalNetworkConfiguration.getInstance().getFstConfiguration());
+            iis = GlobalNetworkConfiguration.getInstance().getFstConfiguration().getObjectInput(input);
+        }
+
+        try {
+            final Object incoming = iis.readObject();
+
+            if (clazz.isInstance(incoming)) {
+                final T data = clazz.cast(incoming);
+                return data;
+            } else {
+                throw new StreamSyncLostException("Got unexpected type of object: "
+                        + (null == incoming ? "NULL" : incoming.getClass().getName()));
+            }
+        } catch (final ClassNotFoundException e) {
+            throw new StreamSyncLostException("Unknown class received", e);
+        } catch (final ZipException e) {
+            throw new StreamSyncLostException("Corrupt compressed data", e);
         }
     }
 
-    private static OutputStream getCompressionOutputStream(final OutputStream output) throws IOException {
-        if (GlobalNetworkConfiguration.getInstance().getUseCompression()) {
-            return new GZIPOutputStream(output);
+    /**
+     * Size of the buffers used by the compression streams.
+     */
+    private static final int CODEC_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Maximum number of idle compressors and decompressors of each type to
+     * keep. Each one holds native memory.
+     */
+    private static final int MAX_POOLED_CODECS = 64;
+
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(MAX_POOLED_CODECS);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(MAX_POOLED_CODECS);
+
+    // A zlib stream can only be given its preset dictionary after the
+    // header has been read, which InflaterInputStream doesn't support, so
+    // dictionary compression uses raw deflate streams.
+    private static final BlockingQueue<Deflater> DICTIONARY_DEFLATERS = new ArrayBlockingQueue<>(
+            MAX_POOLED_CODECS);
+    private static final BlockingQueue<Inflater> DICTIONARY_INFLATERS = new ArrayBlockingQueue<>(
+            MAX_POOLED_CODECS);
+
+    private static Deflater acquireDeflater(final int level) {
+        final Deflater deflater = DEFLATERS.poll();
+        if (null == deflater) {
+            return new Deflater(level);
         } else {
-            return output;
+            deflater.setLevel(level);
+            return deflater;
         }
     }
 
-    private static InputStream getCompressionInputStream(final InputStream input) throws IOException {
-        if (GlobalNetworkConfiguration.getInstance().getUseCompression()) {
-            return new GZIPInputStream(input);
+    private static Deflater acquireDictionaryDeflater(final int level) {
+        final Deflater deflater = DICTIONARY_DEFLATERS.poll();
+        if (null == deflater) {
+            return new Deflater(level, true);
         } else {
-            return input;
+            deflater.setLevel(level);
+            return deflater;
+        }
+    }
+
+    private static void releaseDeflater(final Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static void releaseDictionaryDeflater(final Deflater deflater) {
+        deflater.reset();
+        if (!DICTIONARY_DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static Inflater acquireInflater() {
+        final Inflater inflater = INFLATERS.poll();
+        return null == inflater ? new Inflater() : inflater;
+    }
+
+    private static Inflater acquireDictionaryInflater() {
+        final Inflater inflater = DICTIONARY_INFLATERS.poll();
+        return null == inflater ? new Inflater(true) : inflater;
+    }
+
+    private static void releaseInflater(final Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    private static void releaseDictionaryInflater(final Inflater inflater) {
+        inflater.reset();
+        if (!DICTIONARY_INFLATERS.offer(inflater)) {
+            inflater.end();
         }
     }
 
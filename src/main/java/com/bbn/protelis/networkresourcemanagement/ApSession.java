@@ -0,0 +1,198 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.protelis.vm.CodePath;
+
+/**
+ * The AP delta state of a connection to a neighbor. Kept after the connection
+ * is lost so that a new connection can continue sending deltas against the
+ * state the neighbor already has, rather than sending the full state. Both
+ * sides decide whether to resume each direction using the same values from the
+ * exchanged {@link HelloMessage}s so that they always agree.
+ */
+/* package */ final class ApSession {
+
+    private final long peerSessionId;
+    private final Map<CodePath, Object> sentState;
+    private final long sentSequence;
+    private final Map<CodePath, Object> receivedState;
+    private final long receivedSequence;
+
+    /**
+     * 
+     * @param peerSessionId
+     *            see {@link #getPeerSessionId()}
+     * @param sentState
+     *            see {@link #getSentState()}
+     * @param sentSequence
+     *            see {@link #getSentSequence()}
+     * @param receivedState
+     *            see {@link #getReceivedState()}
+     * @param receivedSequence
+     *            see {@link #getReceivedSequence()}
+     */
+    /* package */ ApSession(final long peerSessionId,
+            @Nonnull final Map<CodePath, Object> sentState,
+            final long sentSequence,
+            @Nonnull final Map<CodePath, Object> receivedState,
+            final long receivedSequence) {
+        this.peerSessionId = peerSessionId;
+        this.sentState = sentState;
+        this.sentSequence = sentSequence;
+        this.receivedState = receivedState;
+        this.receivedSequence = receivedSequence;
+    }
+
+    /**
+     * @return the session id of the neighbor
+     */
+    /* package */ long getPeerSessionId() {
+        return peerSessionId;
+    }
+
+    /**
+     * @return the full state last sent to the neighbor, the base for the next
+     *         delta
+     */
+    @Nonnull
+    /* package */ Map<CodePath, Object> getSentState() {
+        return sentState;
+    }
+
+    /**
+     * @return the number of messages sent to the neighbor
+     */
+    /* package */ long getSentSequence() {
+        return sentSequence;
+    }
+
+    /**
+     * @return the state received from the neighbor, the base for the next
+     *         received delta
+     */
+    @Nonnull
+    /* package */ Map<CodePath, Object> getReceivedState() {
+        return receivedState;
+    }
+
+    /**
+     * @return the number of messages received from the neighbor
+     */
+    /* package */ long getReceivedSequence() {
+        return receivedSequence;
+    }
+
+    /**
+     * Create the hello message to send to a neighbor.
+     * 
+     * @param localId
+     *            this node
+     * @param nonce
+     *            see {@link HelloMessage#getNonce()}
+     * @param localSessionId
+     *            the session id of this node
+     * @param saved
+     *            the saved session with the neighbor, may be null
+     * @param dictionary
+     *            the compression dictionary of this node, may be null
+     * @param identifierTableSize
+     *            the identifier table size of this node, 0 if disabled
+     * @return the message
+     */
+    /* package */ static HelloMessage createHello(@Nonnull final NodeIdentifier localId,
+            final int nonce,
+            final long localSessionId,
+            final ApSession saved,
+            final CompressionDictionary dictionary,
+            final int identifierTableSize) {
+        int capabilities = HelloMessage.CAPABILITY_SESSION_RESUMPTION;
+        final int dictionaryId;
+        if (null == dictionary) {
+            dictionaryId = HelloMessage.NO_DICTIONARY;
+        } else {
+            capabilities |= HelloMessage.CAPABILITY_COMPRESSION_DICTIONARY;
+            dictionaryId = dictionary.getId();
+        }
+        if (identifierTableSize > 0) {
+            capabilities |= HelloMessage.CAPABILITY_IDENTIFIER_TABLE;
+        }
+
+        if (null == saved) {
+            return new HelloMessage(localId, nonce, capabilities, localSessionId, HelloMessage.NO_SESSION, 0, 0,
+                    dictionaryId, identifierTableSize);
+        } else {
+            return new HelloMessage(localId, nonce, capabilities, localSessionId, saved.getPeerSessionId(),
+                    saved.getSentSequence(), saved.getReceivedSequence(), dictionaryId, identifierTableSize);
+        }
+    }
+
+    /**
+     * Determine the initial state of a new connection. The send direction is
+     * resumed if the neighbor received everything that was sent. The receive
+     * direction is resumed if everything the neighbor sent was received.
+     * Otherwise the direction starts from empty state.
+     * 
+     * @param localSessionId
+     *            the session id of this node
+     * @param saved
+     *            the saved session that was used to create the local hello,
+     *            may be null
+     * @param remote
+     *            the hello message from the neighbor
+     * @return the initial session state for the connection
+     */
+    @Nonnull
+    /* package */ static ApSession resume(final long localSessionId,
+            final ApSession saved,
+            @Nonnull final HelloMessage remote) {
+        final boolean sessionsMatch = null != saved
+                && remote.hasCapability(HelloMessage.CAPABILITY_SESSION_RESUMPTION)
+                && remote.getSessionId() == saved.getPeerSessionId()
+                && remote.getResumeSessionId() == localSessionId;
+
+        final boolean resumeSend = sessionsMatch && remote.getLastReceivedSequence() == saved.getSentSequence();
+        final boolean resumeReceive = sessionsMatch && remote.getLastSentSequence() == saved.getReceivedSequence();
+
+        return new ApSession(remote.getSessionId(), //
+                resumeSend ? saved.getSentState() : Collections.emptyMap(), //
+                resumeSend ? saved.getSentSequence() : 0, //
+                resumeReceive ? saved.getReceivedState() : Collections.emptyMap(), //
+                resumeReceive ? saved.getReceivedSequence() : 0);
+    }
+
+}
@@ -33,23 +33,34 @@ package com.bbn.protelis.networkresourcemanagement;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.bbn.protelis.utils.ImmutableUtils;
 import com.bbn.protelis.utils.VirtualClock;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 /**
  * Basic {@link ResourceManager} that expects to get report values from the
- * extra data that was parsed when the node was created. The demand is static
- * and equal to the load. All load is from inside the same region. One could
+ * extra data that was parsed when the node was created. The load is static and
+ * the network demand is estimated from samples of the load with
+ * {@link DemandEstimation}. All load is from inside the same region. One could
  * expand the extra data to include this information as well.
  * 
+ * No container reports are produced, and the compute demand of a
+ * {@link ResourceReport} is computed only from its container reports, so the
+ * reports have no compute demand. For the same reason the server load of
+ * failed requests is recorded but not reported, only their network load is
+ * added to the network demand. Reporting it would need a container report for
+ * each container with failed requests, and the
+ * {@link LoadBalancerPlanBuilder} expects every container in a report to be
+ * in the plan.
+ * 
  * Note: This class does is not functional and is only provided as an example
  * for implementations.
  */
@@ -88,8 +99,17 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
     private final ImmutableMap<NodeAttribute, Double> computeCapacity;
     private final ImmutableMap<ServiceIdentifier<?>, Double> serverAvgProcTime;
     private final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad;
+    /**
+     * The load from {@link #networkLoad} for the interface named "*", used for
+     * neighbors without their own entry. May be null.
+     */
+    private final ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>> networkLoadGlob;
     private final VirtualClock clock;
     private final int maximumContainers = Integer.MAX_VALUE;
+    private final DemandEstimation demandEstimation = new DemandEstimation();
+    private final Object sampleLock = new Object();
+    private long lastSampleTime = -1;
+    private final FailedRequestLog failedRequests = new FailedRequestLog();
 
     /**
      * Construct a resource manager for the specified node.
@@ -120,6 +140,10 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
         this.networkLoad = ImmutableMap.of();
         // }
 
+        this.networkLoadGlob = this.networkLoad.entrySet().stream()
+                .filter(entry -> entry.getKey().getName().equals("*")).map(Map.Entry::getValue).findFirst()
+                .orElse(null);
+
     }
 
     private NetworkServer node;
@@ -312,7 +336,11 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
         final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> nodeNetworkCapacity = node
                 .getNeighborLinkCapacity(LinkAttribute.DATARATE_TX);
         final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> nodeNetworkLoad = networkLoad;
-        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> nodeNetworkDemand = computeNeighborLinkDemand();
+        sampleLoad();
+        final FailedRequestLog.Aggregate failed = failedRequests.aggregate(getClock().getCurrentTime(),
+                demandWindow);
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> nodeNetworkDemand = addFailedNetworkDemand(
+                demandEstimation.getNetworkDemand(demandWindow), failed.getNetworkDemand());
 
         final ResourceReport report = new ResourceReport(node.getNodeIdentifier(), System.currentTimeMillis(),
                 demandWindow, this.computeCapacity, nodeNetworkCapacity, nodeNetworkLoad, nodeNetworkDemand,
@@ -320,24 +348,98 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
         return report;
     }
 
+    /**
+     * Add the network load of failed requests to the estimated demand. The
+     * load is put on the interface to the client, with the same assumption
+     * as {@link #getCurrentResourceReport(ResourceReport.EstimationWindow)}
+     * that all clients are neighbors.
+     */
     @Nonnull
     private ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>
-            computeNeighborLinkDemand() {
+            addFailedNetworkDemand(
+                    @Nonnull final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> estimated,
+                    @Nonnull final ImmutableMap<NodeIdentifier, ImmutableMap<NodeIdentifier, ImmutableMap<LinkAttribute, Double>>> failed) {
+        if (failed.isEmpty()) {
+            return estimated;
+        }
+
+        final Map<InterfaceIdentifier, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> demand = new HashMap<>();
+        estimated.forEach((ii, flows) -> flows.forEach((flow, services) -> services
+                .forEach((service, attrs) -> demand.computeIfAbsent(ii, k -> new HashMap<>())
+                        .computeIfAbsent(flow, k -> new HashMap<>()).put(service, new HashMap<>(attrs)))));
+
+        final NodeIdentifier nodeId = node.getNodeIdentifier();
+        failed.forEach((container, clients) -> {
+            final ServiceIdentifier<?> service = runningServices.get(container);
+            if (null == service) {
+                return;
+            }
+
+            clients.forEach((client, attrs) -> {
+                final Map<LinkAttribute, Double> serviceDemand = demand
+                        .computeIfAbsent(node.getNeighborInterface(client), k -> new HashMap<>())
+                        .computeIfAbsent(new NodeNetworkFlow(client, nodeId, nodeId), k -> new HashMap<>())
+                        .computeIfAbsent(service, k -> new HashMap<>());
+                attrs.forEach((attr, value) -> serviceDemand.merge(attr, value, Double::sum));
+            });
+        });
+
+        return ImmutableUtils.makeImmutableMap4(demand, estimated);
+    }
+
+    /**
+     * Add a sample of the current load to the demand estimation. At most one
+     * sample is taken per clock tick so that asking for reports for multiple
+     * windows in the same round doesn't count the load more than once.
+     */
+    private void sampleLoad() {
+        synchronized (sampleLock) {
+            final long now = getClock().getCurrentTime();
+            if (now != lastSampleTime) {
+                lastSampleTime = now;
+                demandEstimation.addNetworkLoadSample(computeNeighborLinkLoad());
+            }
+        }
+    }
+
+    /**
+     * The load computed for {@link #lastConnectedNeighborsVersion}. Only accessed
+     * while holding {@link #sampleLock}.
+     */
+    private ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> lastNeighborLinkLoad = ImmutableMap
+            .of();
+    private long lastConnectedNeighborsVersion = -1;
+
+    /**
+     * The network load only depends on the connected neighbors, so the load
+     * is only recomputed when their version changes.
+     */
+    @Nonnull
+    private ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>
+            computeNeighborLinkLoad() {
+        // read the version first so that a concurrent change causes the load
+        // to be recomputed on the next call
+        final long version = this.node.getConnectedNeighborsVersion();
+        if (version == lastConnectedNeighborsVersion) {
+            return lastNeighborLinkLoad;
+        }
+        final Set<NodeIdentifier> connectedNeighbors = this.node.getConnectedNeighbors();
+
         final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> builder = ImmutableMap
                 .builder();
-        this.node.getConnectedNeighbors().forEach(neighborId -> {
-            final InterfaceIdentifier ii = BasicResourceManager.createInterfaceIdentifierForNeighbor(neighborId);
-            if (this.networkLoad.containsKey(ii)) {
-                builder.put(ii, this.networkLoad.get(ii));
-            } else {
-                final Optional<Map.Entry<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>> globEntry = this.networkLoad
-                        .entrySet().stream().filter(entry -> entry.getKey().getName().equals("*")).findFirst();
-                if (globEntry.isPresent()) {
-                    builder.put(ii, globEntry.get().getValue());
-                }
+        connectedNeighbors.forEach(neighborId -> {
+            final InterfaceIdentifier ii = node.getNeighborInterface(neighborId);
+            final ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>> load = this.networkLoad
+                    .get(ii);
+            if (null != load) {
+                builder.put(ii, load);
+            } else if (null != networkLoadGlob) {
+                builder.put(ii, networkLoadGlob);
             }
         });
-        return builder.build();
+        lastNeighborLinkLoad = builder.build();
+        lastConnectedNeighborsVersion = version;
+        return lastNeighborLinkLoad;
     }
 
     private int containerCounter = 0;
@@ -361,6 +463,7 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
         } else {
             LOGGER.info("Started service {} in container {}", service, containerName);
             runningServices.put(containerName, service);
+            invalidateNodeResourceReport();
             return containerName;
         }
     }
@@ -374,10 +477,17 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
         } else {
             LOGGER.info("Stopped service {} in container {}", existingService, containerName);
             runningServices.remove(containerName);
+            invalidateNodeResourceReport();
             return true;
         }
     }
 
+    private void invalidateNodeResourceReport() {
+        if (null != node) {
+            node.invalidateResourceReportCache();
+        }
+    }
+
     private ImmutableMap<NodeIdentifier, ServiceState> computeServiceState() {
         final ImmutableMap.Builder<NodeIdentifier, ServiceState> builder = ImmutableMap.builder();
         runningServices.forEach((name, service) -> {
@@ -428,7 +538,10 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
     }
 
     /**
-     * Do nothing.
+     * The request is recorded in a {@link FailedRequestLog} and its network
+     * load is added to the network demand in the following resource reports.
+     * The server load of the request is not reported, see the class
+     * documentation.
      */
     @Override
     public void addFailedRequest(final NodeIdentifier client,
@@ -437,6 +550,11 @@ public class BasicResourceManager implements ResourceManager<NetworkServer> {
             final Map<NodeAttribute, Double> serverLoad,
             final long networkEndTime,
             final Map<LinkAttribute, Double> networkLoad) {
-        // do nothing
+        if (null == client || null == containerId) {
+            return;
+        }
+        failedRequests.add(getClock().getCurrentTime(), client, containerId, serverEndTime,
+                null == serverLoad ? ImmutableMap.of() : serverLoad, networkEndTime,
+                null == networkLoad ? ImmutableMap.of() : networkLoad);
     }
 }
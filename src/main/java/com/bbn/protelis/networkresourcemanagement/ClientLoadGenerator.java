@@ -0,0 +1,433 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bbn.protelis.utils.VirtualClock;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Generates requests from the {@link ClientLoadProfile}s of
+ * {@link NetworkClient}s and charges the resulting load to the
+ * {@link ResourceManager}s of the servers that the requests are routed to.
+ * This closes the loop between the plans computed by the network and the load
+ * that they see, so planner reaction time and overload handling can be
+ * measured on a single machine.
+ * 
+ * Each {@link #step()} draws the number of requests since the previous step
+ * for each client and service from a Poisson distribution. Each request
+ * enters the network at a neighbor of the client and is routed with the
+ * {@link RoutingTable} of that server to a region and then with the
+ * {@link RoutingTable} of a server in that region to a container. The request
+ * rate of each client at each container and the network load on the link
+ * between the client and its server are then given to the
+ * {@link ClientLoadSink} of the resource managers. Load from the previous step
+ * that wasn't seen again is removed. Requests that can't be routed or whose
+ * container doesn't accept them are counted as dropped.
+ */
+public class ClientLoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientLoadGenerator.class);
+
+    /**
+     * Above this mean the Poisson distribution is approximated with a normal
+     * distribution.
+     */
+    private static final double POISSON_NORMAL_THRESHOLD = 30;
+
+    private static final double TIME_UNITS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
+
+    private final VirtualClock clock;
+    private final Random random;
+    private final List<ClientEntry> clients = new ArrayList<>();
+    private final Map<NodeIdentifier, NetworkServer> servers = new HashMap<>();
+    private final Map<RegionIdentifier, List<NetworkServer>> serversByRegion = new HashMap<>();
+    private final Set<NodeIdentifier> warnedNotSink = new HashSet<>();
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private final AtomicLong droppedRequestCount = new AtomicLong(0);
+
+    // guarded by this
+    private long lastStep = -1;
+    private Map<RateKey, Double> previousRates = new HashMap<>();
+    private Map<NetworkKey, Double> previousNetworkLoad = new HashMap<>();
+
+    /**
+     * A client and the server its requests enter the network at.
+     */
+    private static final class ClientEntry {
+        private final NetworkClient client;
+        private final NetworkServer ingress;
+        private final InterfaceIdentifier ingressInterface;
+
+        /* package */ ClientEntry(final NetworkClient client, final NetworkServer ingress) {
+            this.client = client;
+            this.ingress = ingress;
+            this.ingressInterface = BasicResourceManager
+                    .createInterfaceIdentifierForNeighbor(client.getNodeIdentifier());
+        }
+    }
+
+    /**
+     * Requests from a client to a container.
+     */
+    private static final class RateKey {
+        private final NetworkServer host;
+        private final NodeIdentifier container;
+        private final NodeIdentifier client;
+
+        /* package */ RateKey(final NetworkServer host, final NodeIdentifier container, final NodeIdentifier client) {
+            this.host = host;
+            this.container = container;
+            this.client = client;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host.getNodeIdentifier(), container, client);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            } else if (o instanceof RateKey) {
+                final RateKey other = (RateKey) o;
+                return host == other.host && container.equals(other.container) && client.equals(other.client);
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Network load of a flow on an interface of a server.
+     */
+    private static final class NetworkKey {
+        private final NetworkServer server;
+        private final InterfaceIdentifier ii;
+        private final NodeNetworkFlow flow;
+        private final ServiceIdentifier<?> service;
+
+        /* package */ NetworkKey(final NetworkServer server,
+                final InterfaceIdentifier ii,
+                final NodeNetworkFlow flow,
+                final ServiceIdentifier<?> service) {
+            this.server = server;
+            this.ii = ii;
+            this.flow = flow;
+            this.service = service;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(server.getNodeIdentifier(), ii, flow, service);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            } else if (o instanceof NetworkKey) {
+                final NetworkKey other = (NetworkKey) o;
+                return server == other.server && ii.equals(other.ii) && flow.equals(other.flow)
+                        && service.equals(other.service);
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param clock
+     *            the clock of the scenario
+     * @param clients
+     *            the clients to generate requests for, clients without a
+     *            neighboring server in <code>servers</code> are ignored
+     * @param servers
+     *            all servers in the network
+     * @param seed
+     *            the seed for the random numbers so that runs are repeatable
+     */
+    public ClientLoadGenerator(@Nonnull final VirtualClock clock,
+            @Nonnull final Collection<? extends NetworkClient> clients,
+            @Nonnull final Collection<? extends NetworkServer> servers,
+            final long seed) {
+        this.clock = clock;
+        this.random = new Random(seed);
+
+        servers.forEach(server -> {
+            this.servers.put(server.getNodeIdentifier(), server);
+            serversByRegion.computeIfAbsent(server.getRegionIdentifier(), k -> new ArrayList<>()).add(server);
+        });
+        // make the choices independent of the iteration order of the
+        // collection
+        serversByRegion.values().forEach(l -> l.sort(Comparator.comparing(NetworkServer::getName)));
+
+        clients.stream().sorted(Comparator.comparing(NetworkClient::getName)).forEach(client -> {
+            final Optional<NetworkServer> ingress = client.getNeighbors().stream().map(this.servers::get)
+                    .filter(Objects::nonNull).min(Comparator.comparing(NetworkServer::getName));
+            if (ingress.isPresent()) {
+                this.clients.add(new ClientEntry(client, ingress.get()));
+            } else {
+                LOGGER.warn("Client {} is not connected to a server, no load will be generated for it", client);
+            }
+        });
+    }
+
+    /**
+     * @return the number of requests generated
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of requests that could not be routed to a container
+     *         or were not accepted by the container
+     */
+    public long getDroppedRequestCount() {
+        return droppedRequestCount.get();
+    }
+
+    /**
+     * Generate the requests since the previous step and charge the load. The
+     * first call only records the time.
+     */
+    public synchronized void step() {
+        final long now = clock.getCurrentTime();
+        if (lastStep < 0 || now <= lastStep) {
+            lastStep = Math.max(lastStep, now);
+            return;
+        }
+
+        final double seconds = (now - lastStep) / TIME_UNITS_PER_SECOND;
+        final long midpoint = lastStep + (now - lastStep) / 2;
+        lastStep = now;
+
+        final Map<RateKey, Double> requests = new HashMap<>();
+        final Map<NetworkKey, Double> megabits = new HashMap<>();
+        for (final ClientEntry entry : clients) {
+            final NodeIdentifier clientId = entry.client.getNodeIdentifier();
+            entry.client.getLoadProfiles().forEach((service, profile) -> {
+                final double mean = profile.getRequestRate(midpoint) * entry.client.getNumClients() * seconds;
+                final long count = samplePoisson(mean);
+                requestCount.addAndGet(count);
+
+                for (long i = 0; i < count; ++i) {
+                    final RateKey key = route(entry, service);
+                    if (null == key) {
+                        droppedRequestCount.incrementAndGet();
+                    } else {
+                        requests.merge(key, 1D, Double::sum);
+                        if (profile.getRequestSize() > 0) {
+                            final NodeNetworkFlow flow = new NodeNetworkFlow(clientId,
+                                    entry.ingress.getNodeIdentifier(), key.host.getNodeIdentifier());
+                            megabits.merge(new NetworkKey(entry.ingress, entry.ingressInterface, flow, service),
+                                    profile.getRequestSize(), Double::sum);
+                        }
+                    }
+                }
+            });
+        }
+
+        final Map<RateKey, Double> rates = new HashMap<>();
+        requests.forEach((key, count) -> {
+            final ClientLoadSink sink = getSink(key.host);
+            if (null != sink && sink.setClientRequestRate(key.container, key.client, count / seconds)) {
+                rates.put(key, count);
+            } else {
+                droppedRequestCount.addAndGet(count.longValue());
+            }
+        });
+        previousRates.keySet().stream().filter(key -> !rates.containsKey(key)).forEach(key -> {
+            final ClientLoadSink sink = getSink(key.host);
+            if (null != sink) {
+                sink.setClientRequestRate(key.container, key.client, 0);
+            }
+        });
+        previousRates = rates;
+
+        megabits.forEach((key, value) -> {
+            final ClientLoadSink sink = getSink(key.server);
+            if (null != sink) {
+                sink.setNetworkLoad(key.ii, key.flow, key.service,
+                        ImmutableMap.of(LinkAttribute.DATARATE_TX, value / seconds));
+            }
+        });
+        previousNetworkLoad.keySet().stream().filter(key -> !megabits.containsKey(key)).forEach(key -> {
+            final ClientLoadSink sink = getSink(key.server);
+            if (null != sink) {
+                sink.setNetworkLoad(key.ii, key.flow, key.service, ImmutableMap.of());
+            }
+        });
+        previousNetworkLoad = megabits;
+    }
+
+    /**
+     * @return where the request goes, null if it can't be routed
+     */
+    private RateKey route(final ClientEntry entry, final ServiceIdentifier<?> service) {
+        final RegionIdentifier region = entry.ingress.getNetworkState().getRoutingTable().chooseRegion(service,
+                random);
+        if (null == region) {
+            return null;
+        }
+
+        final NetworkServer regionServer;
+        if (region.equals(entry.ingress.getRegionIdentifier())) {
+            regionServer = entry.ingress;
+        } else {
+            final List<NetworkServer> candidates = serversByRegion.get(region);
+            if (null == candidates) {
+                return null;
+            }
+            regionServer = candidates.get(random.nextInt(candidates.size()));
+        }
+
+        final RoutingTable table = regionServer.getNetworkState().getRoutingTable();
+        final NodeIdentifier container = table.chooseContainer(service, random);
+        if (null == container) {
+            return null;
+        }
+
+        final NetworkServer host = servers.get(table.getNodeForContainer(container));
+        if (null == host) {
+            return null;
+        } else {
+            return new RateKey(host, container, entry.client.getNodeIdentifier());
+        }
+    }
+
+    private ClientLoadSink getSink(final NetworkServer server) {
+        final ResourceManager<?> manager = server.getResourceManager();
+        if (manager instanceof ClientLoadSink) {
+            return (ClientLoadSink) manager;
+        } else {
+            if (warnedNotSink.add(server.getNodeIdentifier())) {
+                LOGGER.warn("The resource manager of {} cannot accept client load, requests to it are dropped",
+                        server.getName());
+            }
+            return null;
+        }
+    }
+
+    private long samplePoisson(final double mean) {
+        if (mean <= 0) {
+            return 0;
+        } else if (mean < POISSON_NORMAL_THRESHOLD) {
+            // Knuth's method
+            final double limit = Math.exp(-mean);
+            long count = 0;
+            double product = random.nextDouble();
+            while (product > limit) {
+                ++count;
+                product *= random.nextDouble();
+            }
+            return count;
+        } else {
+            return Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+        }
+    }
+
+    private Thread thread = null;
+    private volatile boolean running = false;
+
+    /**
+     * Call {@link #step()} every <code>period</code> on the clock from a
+     * background thread until {@link #stop()} is called or the clock is shut
+     * down.
+     * 
+     * @param period
+     *            time between steps in clock units
+     * @throws IllegalArgumentException
+     *             if the period is not positive
+     * @throws IllegalStateException
+     *             if the generator is already running
+     */
+    public synchronized void start(final long period) throws IllegalArgumentException, IllegalStateException {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        if (null != thread) {
+            throw new IllegalStateException("Already running");
+        }
+
+        running = true;
+        thread = new Thread(() -> {
+            step();
+            while (running && !clock.isShutdown()) {
+                clock.waitUntilTime(clock.getCurrentTime() + period);
+                if (running) {
+                    step();
+                }
+            }
+        }, "ClientLoadGenerator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the background thread. The load from the last step stays charged.
+     */
+    public void stop() {
+        final Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (null != t) {
+            t.interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Describes the requests that a single client sends for a service. The
+ * requests arrive as a Poisson process whose rate may vary with time.
+ * 
+ * @see ClientLoadGenerator
+ * @see NetworkClient#getLoadProfiles()
+ */
+public final class ClientLoadProfile {
+
+    /**
+     * Key in the profile map for the type of profile, one of
+     * {@link #TYPE_POISSON}, {@link #TYPE_BURSTY} or {@link #TYPE_DIURNAL}.
+     */
+    public static final String TYPE_KEY = "type";
+    /**
+     * Requests arrive at a constant mean rate.
+     */
+    public static final String TYPE_POISSON = "poisson";
+    /**
+     * The rate is {@link #BURST_RATE_KEY} for {@link #BURST_DURATION_KEY} at
+     * the start of each {@link #PERIOD_KEY} and {@link #RATE_KEY} otherwise.
+     */
+    public static final String TYPE_BURSTY = "bursty";
+    /**
+     * The rate follows a sine wave around {@link #RATE_KEY} with
+     * {@link #AMPLITUDE_KEY} and {@link #PERIOD_KEY}.
+     */
+    public static final String TYPE_DIURNAL = "diurnal";
+    /**
+     * Key for the mean or base rate in requests per second.
+     */
+    public static final String RATE_KEY = "rate";
+    /**
+     * Key for the rate during a burst in requests per second.
+     */
+    public static final String BURST_RATE_KEY = "burstRate";
+    /**
+     * Key for the length of a burst in clock units.
+     */
+    public static final String BURST_DURATION_KEY = "burstDuration";
+    /**
+     * Key for the length of a cycle in clock units.
+     */
+    public static final String PERIOD_KEY = "period";
+    /**
+     * Key for the amplitude of the diurnal profile in requests per second.
+     */
+    public static final String AMPLITUDE_KEY = "amplitude";
+    /**
+     * Key for the size of each request in megabits, see
+     * {@link #getRequestSize()}.
+     */
+    public static final String REQUEST_SIZE_KEY = "requestSize";
+
+    /**
+     * Default value for {@link #getRequestSize()}.
+     */
+    public static final double DEFAULT_REQUEST_SIZE = 0;
+
+    /**
+     * Rate as a function of time.
+     */
+    @FunctionalInterface
+    private interface RateFunction {
+        double getRate(long time);
+    }
+
+    private final RateFunction rate;
+    private final double requestSize;
+
+    private ClientLoadProfile(final RateFunction rate, final double requestSize) {
+        if (!(requestSize >= 0) || Double.isInfinite(requestSize)) {
+            throw new IllegalArgumentException("Request size must be non-negative: " + requestSize);
+        }
+        this.rate = rate;
+        this.requestSize = requestSize;
+    }
+
+    private static double checkRate(final String name, final double value) {
+        if (!(value >= 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(name + " must be a non-negative rate: " + value);
+        }
+        return value;
+    }
+
+    private static long checkPeriod(final long value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * @param time
+     *            the time of the clock
+     * @return the mean number of requests per second at the time
+     */
+    public double getRequestRate(final long time) {
+        return rate.getRate(time);
+    }
+
+    /**
+     * @return the size of each request in megabits, used to compute the
+     *         network load
+     */
+    public double getRequestSize() {
+        return requestSize;
+    }
+
+    /**
+     * @param requestsPerSecond
+     *            the mean rate
+     * @param requestSize
+     *            see {@link #getRequestSize()}
+     * @return profile with a constant rate
+     * @throws IllegalArgumentException
+     *             if a parameter is out of range
+     */
+    @Nonnull
+    public static ClientLoadProfile poisson(final double requestsPerSecond, final double requestSize)
+            throws IllegalArgumentException {
+        final double value = checkRate("Rate", requestsPerSecond);
+        return new ClientLoadProfile(time -> value, requestSize);
+    }
+
+    /**
+     * @param baseRate
+     *            the rate outside of bursts in requests per second
+     * @param burstRate
+     *            the rate during bursts in requests per second
+     * @param period
+     *            the time between the start of bursts
+     * @param burstDuration
+     *            the length of a burst
+     * @param requestSize
+     *            see {@link #getRequestSize()}
+     * @return profile with periodic bursts
+     * @throws IllegalArgumentException
+     *             if a parameter is out of range
+     */
+    @Nonnull
+    public static ClientLoadProfile bursty(final double baseRate,
+            final double burstRate,
+            final long period,
+            final long burstDuration,
+            final double requestSize) throws IllegalArgumentException {
+        checkRate("Base rate", baseRate);
+        checkRate("Burst rate", burstRate);
+        checkPeriod(period);
+        if (burstDuration < 0 || burstDuration > period) {
+            throw new IllegalArgumentException("Burst duration must be between 0 and the period: " + burstDuration);
+        }
+        return new ClientLoadProfile(time -> Math.floorMod(time, period) < burstDuration ? burstRate : baseRate,
+                requestSize);
+    }
+
+    /**
+     * @param meanRate
+     *            the mean rate in requests per second
+     * @param amplitude
+     *            the amplitude of the variation, the rate never goes below 0
+     * @param period
+     *            the length of a cycle
+     * @param requestSize
+     *            see {@link #getRequestSize()}
+     * @return profile that follows a sine wave
+     * @throws IllegalArgumentException
+     *             if a parameter is out of range
+     */
+    @Nonnull
+    public static ClientLoadProfile diurnal(final double meanRate,
+            final double amplitude,
+            final long period,
+            final double requestSize) throws IllegalArgumentException {
+        checkRate("Mean rate", meanRate);
+        checkRate("Amplitude", amplitude);
+        checkPeriod(period);
+        return new ClientLoadProfile(
+                time -> Math.max(0, meanRate + amplitude * Math.sin(2 * Math.PI * Math.floorMod(time, period) / period)),
+                requestSize);
+    }
+
+    /**
+     * Parse a profile from the extra data of a {@link NetworkClient}.
+     * 
+     * @param values
+     *            the profile values, see the key constants in this class
+     * @return the profile
+     * @throws IllegalArgumentException
+     *             if the type is unknown or a value is missing or invalid
+     */
+    @Nonnull
+    public static ClientLoadProfile parse(@Nonnull final Map<String, Object> values) throws IllegalArgumentException {
+        final Object typeValue = values.get(TYPE_KEY);
+        final String type = null == typeValue ? TYPE_POISSON : typeValue.toString();
+        final double requestSize = values.containsKey(REQUEST_SIZE_KEY) ? getDouble(values, REQUEST_SIZE_KEY)
+                : DEFAULT_REQUEST_SIZE;
+
+        switch (type) {
+        case TYPE_POISSON:
+            return poisson(getDouble(values, RATE_KEY), requestSize);
+        case TYPE_BURSTY:
+            return bursty(getDouble(values, RATE_KEY), getDouble(values, BURST_RATE_KEY),
+                    (long) getDouble(values, PERIOD_KEY), (long) getDouble(values, BURST_DURATION_KEY),
+                    requestSize);
+        case TYPE_DIURNAL:
+            return diurnal(getDouble(values, RATE_KEY), getDouble(values, AMPLITUDE_KEY),
+                    (long) getDouble(values, PERIOD_KEY), requestSize);
+        default:
+            throw new IllegalArgumentException("Unknown load profile type: " + type);
+        }
+    }
+
+    private static double getDouble(final Map<String, Object> values, final String key) {
+        final Object value = values.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (null != value) {
+            try {
+                return Double.parseDouble(value.toString());
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Unable to parse " + key + " as a number: " + value, e);
+            }
+        } else {
+            throw new IllegalArgumentException("Missing value for " + key);
+        }
+    }
+
+}
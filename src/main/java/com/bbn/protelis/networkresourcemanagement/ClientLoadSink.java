@@ -0,0 +1,78 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Implemented by {@link ResourceManager}s that can be charged with load from
+ * a {@link ClientLoadGenerator}. Each call replaces the previous value for the
+ * same key.
+ */
+public interface ClientLoadSink {
+
+    /**
+     * Set the rate at which a client sends requests to a container managed by
+     * this object.
+     * 
+     * @param container
+     *            the container receiving the requests
+     * @param client
+     *            the client sending the requests
+     * @param requestsPerSecond
+     *            the rate, 0 to remove the client
+     * @return false if the container cannot accept requests
+     */
+    boolean setClientRequestRate(@Nonnull NodeIdentifier container,
+            @Nonnull NodeIdentifier client,
+            double requestsPerSecond);
+
+    /**
+     * Set the network load of a flow through the node managed by this object.
+     * 
+     * @param ii
+     *            the interface carrying the load
+     * @param flow
+     *            the flow
+     * @param service
+     *            the service the load is for
+     * @param load
+     *            the load, an empty map removes the flow
+     */
+    void setNetworkLoad(@Nonnull InterfaceIdentifier ii,
+            @Nonnull NodeNetworkFlow flow,
+            @Nonnull ServiceIdentifier<?> service,
+            @Nonnull ImmutableMap<LinkAttribute, Double> load);
+
+}
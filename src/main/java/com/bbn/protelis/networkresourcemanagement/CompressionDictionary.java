@@ -0,0 +1,230 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.protelis.vm.CodePath;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A preset dictionary for compressing AP messages. The class names and
+ * structure that appear in every message are in the dictionary, so even
+ * small messages compress well. Both ends of a connection must use the same
+ * dictionary. They agree on it during the hello exchange by comparing
+ * {@link #getId()}.
+ * 
+ * A dictionary can be trained from representative AP data with a
+ * {@link Trainer} and saved with {@link #write(Path)} for use with
+ * {@link GlobalNetworkConfiguration#getCompressionDictionaryPath()}. When no
+ * file is configured {@link #createDefault()} is used.
+ */
+public final class CompressionDictionary {
+
+    /**
+     * Maximum size of a dictionary. Deflate can only refer back this far.
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private final byte[] bytes;
+    private final int id;
+
+    /**
+     * 
+     * @param bytes
+     *            the dictionary contents, the most common strings should be
+     *            at the end
+     * @throws IllegalArgumentException
+     *             if bytes is empty or larger than {@link #MAX_SIZE}
+     */
+    public CompressionDictionary(@Nonnull final byte[] bytes) throws IllegalArgumentException {
+        if (bytes.length < 1 || bytes.length > MAX_SIZE) {
+            throw new IllegalArgumentException("Dictionary size must be between 1 and " + MAX_SIZE);
+        }
+        this.bytes = Arrays.copyOf(bytes, bytes.length);
+        final int crc = ApFraming.crc(this.bytes, 0, this.bytes.length);
+        this.id = HelloMessage.NO_DICTIONARY == crc ? 1 : crc;
+    }
+
+    /**
+     * @return identifies the contents of the dictionary, never
+     *         {@link HelloMessage#NO_DICTIONARY}
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the dictionary contents, must not be modified
+     */
+    /* package */ byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 
+     * @param path
+     *            the file to read
+     * @return the dictionary stored in the file
+     * @throws IOException
+     *             if there is an error reading the file
+     * @throws IllegalArgumentException
+     *             if the file is empty or larger than {@link #MAX_SIZE}
+     * @see #write(Path)
+     */
+    public static CompressionDictionary load(@Nonnull final Path path) throws IOException {
+        return new CompressionDictionary(Files.readAllBytes(path));
+    }
+
+    /**
+     * 
+     * @param path
+     *            the file to write the dictionary contents to
+     * @throws IOException
+     *             if there is an error writing the file
+     */
+    public void write(@Nonnull final Path path) throws IOException {
+        Files.write(path, bytes);
+    }
+
+    /**
+     * Classes that are commonly found in AP data, least common first.
+     */
+    private static final List<Class<?>> COMMON_CLASSES = Arrays.asList(ImmutableSet.class, ImmutableMap.class,
+            LinkAttribute.class, NodeAttribute.class, ContainerParameters.class, InterfaceIdentifier.class,
+            NodeNetworkFlow.class, RegionNetworkFlow.class, ServiceState.class, RegionServiceState.class,
+            ServiceReport.class, ContainerResourceReport.class, ResourceReport.class, RegionPlanPatch.class,
+            LoadBalancerPlanPatch.class, MapPatch.class, RegionPlan.class, LoadBalancerPlan.ContainerInfo.class,
+            LoadBalancerPlan.class, ResourceSummary.class, StringServiceIdentifier.class, DnsNameIdentifier.class,
+            StringRegionIdentifier.class, Double.class, Integer.class, String.class, HashMap.class);
+
+    /**
+     * The default dictionary contains the names of classes commonly found in
+     * AP data. It is built from the classes in the running code, so nodes
+     * running the same code build the same dictionary.
+     * 
+     * @return the default dictionary
+     */
+    public static CompressionDictionary createDefault() {
+        final StringBuilder contents = new StringBuilder();
+        COMMON_CLASSES.forEach(c -> contents.append(c.getName()));
+        return new CompressionDictionary(contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 
+     * @param local
+     *            the dictionary of this node, may be null
+     * @param remote
+     *            the hello message from the neighbor
+     * @return the dictionary to use for the connection or null if the
+     *         neighbor doesn't have the same dictionary
+     */
+    /* package */ static CompressionDictionary agree(final CompressionDictionary local,
+            @Nonnull final HelloMessage remote) {
+        if (null != local && remote.hasCapability(HelloMessage.CAPABILITY_COMPRESSION_DICTIONARY)
+                && remote.getDictionaryId() == local.getId()) {
+            return local;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Builds a dictionary from samples of AP data, such as the values passed
+     * to {@link NodeNetworkManager#shareState(Map)} during a scenario run. The
+     * serialized samples are kept up to {@link #MAX_SIZE} bytes, dropping the
+     * oldest, and concatenated. The serialization configured in
+     * {@link GlobalNetworkConfiguration} is used, so the same configuration
+     * must be used when the dictionary is used. This class is not
+     * thread-safe.
+     */
+    public static final class Trainer {
+        private final Deque<byte[]> samples = new ArrayDeque<>();
+        private int size = 0;
+
+        /**
+         * 
+         * @param data
+         *            AP data to add to the dictionary
+         * @throws IOException
+         *             if there is an error serializing the data
+         */
+        public void addSample(@Nonnull final Map<CodePath, Object> data) throws IOException {
+            final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            ApMessage.serializeData(data, serialized);
+            final byte[] sample = serialized.toByteArray();
+            if (sample.length > MAX_SIZE) {
+                // keep the end, which deflate prefers
+                samples.clear();
+                samples.addLast(Arrays.copyOfRange(sample, sample.length - MAX_SIZE, sample.length));
+                size = MAX_SIZE;
+                return;
+            }
+
+            samples.addLast(sample);
+            size += sample.length;
+            while (size > MAX_SIZE) {
+                size -= samples.removeFirst().length;
+            }
+        }
+
+        /**
+         * @return the dictionary
+         * @throws IllegalStateException
+         *             if no samples have been added
+         */
+        public CompressionDictionary build() {
+            if (samples.isEmpty()) {
+                throw new IllegalStateException("No samples have been added");
+            }
+            final ByteArrayOutputStream contents = new ByteArrayOutputStream(size);
+            samples.forEach(sample -> contents.write(sample, 0, sample.length));
+            return new CompressionDictionary(contents.toByteArray());
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.zip.Deflater;
+
+/**
+ * Decides whether and how much to compress each AP message. Small messages
+ * are not compressed since the deflate overhead makes them larger. Otherwise
+ * the level trades CPU time against bytes on the link: fast links get the
+ * fastest level, slow links get the best compression unless the message is so
+ * large that the CPU time would dominate.
+ * 
+ * @see GlobalNetworkConfiguration#getCompressionThreshold()
+ * @see GlobalNetworkConfiguration#getFastLinkBandwidth()
+ * @see GlobalNetworkConfiguration#getSlowLinkBandwidth()
+ */
+/* package */ final class CompressionPolicy {
+
+    private CompressionPolicy() {
+    }
+
+    /**
+     * Returned by {@link #chooseLevel(int, double)} when the message should
+     * not be compressed.
+     */
+    /* package */ static final int UNCOMPRESSED = Integer.MIN_VALUE;
+
+    /**
+     * Messages larger than this are not compressed with the slowest levels.
+     */
+    /* package */ static final int LARGE_MESSAGE_SIZE = 1024 * 1024;
+
+    /**
+     * 
+     * @param size
+     *            the number of bytes of serialized data
+     * @param bandwidth
+     *            the bandwidth of the link in megabits per second, NaN or not
+     *            positive if unknown
+     * @return the deflate level to use or {@link #UNCOMPRESSED}
+     */
+    /* package */ static int chooseLevel(final int size, final double bandwidth) {
+        final GlobalNetworkConfiguration config = GlobalNetworkConfiguration.getInstance();
+        if (!config.getUseCompression() || size < config.getCompressionThreshold()) {
+            return UNCOMPRESSED;
+        } else if (Double.isNaN(bandwidth) || bandwidth <= 0) {
+            return Deflater.DEFAULT_COMPRESSION;
+        } else if (bandwidth >= config.getFastLinkBandwidth()) {
+            return Deflater.BEST_SPEED;
+        } else if (bandwidth <= config.getSlowLinkBandwidth()) {
+            return size > LARGE_MESSAGE_SIZE ? Deflater.DEFAULT_COMPRESSION : Deflater.BEST_COMPRESSION;
+        } else {
+            return size > LARGE_MESSAGE_SIZE ? Deflater.BEST_SPEED : Deflater.DEFAULT_COMPRESSION;
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compression counters for the AP messages sent to one neighbor. The CPU time
+ * is measured with the thread CPU clock when the JVM supports it, otherwise
+ * with the wall clock.
+ * 
+ * @see CompressionPolicy
+ */
+public final class CompressionStatistics {
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong compressedMessages = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private final AtomicLong compressionTime = new AtomicLong();
+
+    /**
+     * @return the number of messages sent
+     */
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    /**
+     * @return the number of messages sent compressed
+     */
+    public long getCompressedMessageCount() {
+        return compressedMessages.get();
+    }
+
+    /**
+     * @return the number of bytes of serialized data before compression
+     */
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    /**
+     * @return the number of bytes of data sent, after compression
+     */
+    public long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    /**
+     * @return the bytes sent divided by the bytes before compression, NaN if
+     *         nothing has been sent
+     */
+    public double getCompressionRatio() {
+        final long raw = rawBytes.get();
+        if (raw < 1) {
+            return Double.NaN;
+        } else {
+            return (double) encodedBytes.get() / raw;
+        }
+    }
+
+    /**
+     * @return the time spent compressing in nanoseconds
+     */
+    public long getCompressionTime() {
+        return compressionTime.get();
+    }
+
+    /**
+     * @return the current time in nanoseconds on the clock used for
+     *         {@link #getCompressionTime()}
+     */
+    /* package */ static long currentTime() {
+        if (THREAD_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_BEAN.isThreadCpuTimeEnabled()) {
+            return THREAD_BEAN.getCurrentThreadCpuTime();
+        } else {
+            return System.nanoTime();
+        }
+    }
+
+    /**
+     * Record a message.
+     * 
+     * @param raw
+     *            bytes of serialized data
+     * @param encoded
+     *            bytes of data sent
+     * @param compressed
+     *            true if the data sent is compressed
+     * @param time
+     *            nanoseconds spent compressing, measured with
+     *            {@link #currentTime()}
+     */
+    /* package */ void record(final int raw, final int encoded, final boolean compressed, final long time) {
+        messages.incrementAndGet();
+        if (compressed) {
+            compressedMessages.incrementAndGet();
+        }
+        rawBytes.addAndGet(raw);
+        encodedBytes.addAndGet(encoded);
+        compressionTime.addAndGet(time);
+    }
+
+}
@@ -0,0 +1,311 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import com.bbn.protelis.utils.ImmutableUtils;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Estimate compute and network demand for each
+ * {@link ResourceReport.EstimationWindow} from periodic load samples. Each
+ * attribute has one {@link DemandEstimator} per estimation window, so the
+ * memory used is bounded by the number of attributes and the window sizes
+ * and reading the demand is proportional to the number of attributes
+ * regardless of how much history has been seen.
+ * 
+ * Each sample is a complete snapshot of the load. Attributes that are being
+ * tracked and are missing from a sample are treated as having zero load and
+ * are dropped once their estimators are idle.
+ */
+public final class DemandEstimation {
+
+    /**
+     * Default number of samples in the {@link ResourceReport.EstimationWindow#SHORT}
+     * window.
+     */
+    public static final int DEFAULT_SHORT_WINDOW_SIZE = 5;
+
+    /**
+     * Default number of samples in the {@link ResourceReport.EstimationWindow#LONG}
+     * window.
+     */
+    public static final int DEFAULT_LONG_WINDOW_SIZE = 30;
+
+    /**
+     * Default smoothing factor for the trend when using
+     * {@link DemandEstimator.Method#HOLT}.
+     */
+    public static final double DEFAULT_TREND_SMOOTHING = 0.1;
+
+    private final Supplier<EnumMap<ResourceReport.EstimationWindow, DemandEstimator>> estimatorFactory;
+
+    private final Level<ServiceIdentifier<?>, Map<RegionIdentifier, ? extends Map<NodeAttribute, Double>>, ImmutableMap<RegionIdentifier, ImmutableMap<NodeAttribute, Double>>> computeLoad;
+
+    private final Level<InterfaceIdentifier, Map<NodeNetworkFlow, ? extends Map<ServiceIdentifier<?>, ? extends Map<LinkAttribute, Double>>>, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad;
+
+    // the last estimates returned, used to share unchanged branches between
+    // successive estimates
+    private final Map<ResourceReport.EstimationWindow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, ImmutableMap<NodeAttribute, Double>>>> previousComputeDemand = new EnumMap<>(
+            ResourceReport.EstimationWindow.class);
+    private final Map<ResourceReport.EstimationWindow, ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>> previousNetworkDemand = new EnumMap<>(
+            ResourceReport.EstimationWindow.class);
+
+    /**
+     * Create an object using the default window sizes and
+     * {@link DemandEstimator.Method#EWMA}.
+     */
+    public DemandEstimation() {
+        this(DEFAULT_SHORT_WINDOW_SIZE, DEFAULT_LONG_WINDOW_SIZE, DemandEstimator.Method.EWMA,
+                DEFAULT_TREND_SMOOTHING);
+    }
+
+    /**
+     * 
+     * @param shortWindowSize
+     *            number of samples for
+     *            {@link ResourceReport.EstimationWindow#SHORT}
+     * @param longWindowSize
+     *            number of samples for
+     *            {@link ResourceReport.EstimationWindow#LONG}
+     * @param method
+     *            how the demand is estimated
+     * @param trendSmoothing
+     *            see {@link DemandEstimator#DemandEstimator(int, DemandEstimator.Method, double)}
+     * @throws IllegalArgumentException
+     *             if one of the window sizes is not positive or the trend
+     *             smoothing is not between 0 and 1
+     */
+    public DemandEstimation(final int shortWindowSize,
+            final int longWindowSize,
+            @Nonnull final DemandEstimator.Method method,
+            final double trendSmoothing) throws IllegalArgumentException {
+        if (shortWindowSize < 1 || longWindowSize < 1) {
+            throw new IllegalArgumentException(
+                    "Window sizes must be positive: " + shortWindowSize + ", " + longWindowSize);
+        }
+        if (trendSmoothing < 0 || trendSmoothing > 1) {
+            throw new IllegalArgumentException("Trend smoothing must be between 0 and 1: " + trendSmoothing);
+        }
+
+        this.estimatorFactory = () -> {
+            final EnumMap<ResourceReport.EstimationWindow, DemandEstimator> estimators = new EnumMap<>(
+                    ResourceReport.EstimationWindow.class);
+            estimators.put(ResourceReport.EstimationWindow.SHORT,
+                    new DemandEstimator(shortWindowSize, method, trendSmoothing));
+            estimators.put(ResourceReport.EstimationWindow.LONG,
+                    new DemandEstimator(longWindowSize, method, trendSmoothing));
+            return estimators;
+        };
+
+        this.computeLoad = new Level<>(() -> new Level<>(() -> new AttributeEstimators<>(estimatorFactory)));
+        this.networkLoad = new Level<>(
+                () -> new Level<>(() -> new Level<>(() -> new AttributeEstimators<>(estimatorFactory))));
+    }
+
+    /**
+     * Add a sample of the compute load.
+     * 
+     * @param load
+     *            service -> source region -> attribute -> value
+     */
+    public synchronized void addComputeLoadSample(
+            @Nonnull final Map<ServiceIdentifier<?>, ? extends Map<RegionIdentifier, ? extends Map<NodeAttribute, Double>>> load) {
+        computeLoad.addSample(load);
+    }
+
+    /**
+     * Add a sample of the network load.
+     * 
+     * @param load
+     *            interface -> flow -> service -> attribute -> value
+     */
+    public synchronized void addNetworkLoadSample(
+            @Nonnull final Map<InterfaceIdentifier, ? extends Map<NodeNetworkFlow, ? extends Map<ServiceIdentifier<?>, ? extends Map<LinkAttribute, Double>>>> load) {
+        networkLoad.addSample(load);
+    }
+
+    /**
+     * 
+     * @param window
+     *            the estimation window
+     * @return the estimated compute demand, same structure as
+     *         {@link #addComputeLoadSample(Map)}, branches that are unchanged
+     *         since the previous call are the same objects
+     */
+    @Nonnull
+    public synchronized ImmutableMap<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, ImmutableMap<NodeAttribute, Double>>>
+            getComputeDemand(@Nonnull final ResourceReport.EstimationWindow window) {
+        final ImmutableMap<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, ImmutableMap<NodeAttribute, Double>>> demand = ImmutableUtils
+                .makeImmutableMap3(computeLoad.estimate(window), previousComputeDemand.get(window));
+        previousComputeDemand.put(window, demand);
+        return demand;
+    }
+
+    /**
+     * 
+     * @param window
+     *            the estimation window
+     * @return the estimated network demand, same structure as
+     *         {@link #addNetworkLoadSample(Map)}, branches that are unchanged
+     *         since the previous call are the same objects
+     */
+    @Nonnull
+    public synchronized ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>
+            getNetworkDemand(@Nonnull final ResourceReport.EstimationWindow window) {
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> demand = ImmutableUtils
+                .makeImmutableMap4(networkLoad.estimate(window), previousNetworkDemand.get(window));
+        previousNetworkDemand.put(window, demand);
+        return demand;
+    }
+
+    /**
+     * One level of the nested load maps.
+     * 
+     * @param <L>
+     *            the type of load sample
+     * @param <E>
+     *            the type of estimate
+     */
+    private interface Sampled<L, E> {
+        void addSample(L load);
+
+        E estimate(ResourceReport.EstimationWindow window);
+
+        boolean isIdle();
+    }
+
+    /**
+     * Map from a key to the estimators for the next level down. A null sample
+     * is treated as an empty map.
+     */
+    private static final class Level<K, L, E> implements Sampled<Map<K, ? extends L>, ImmutableMap<K, E>> {
+        private final Supplier<Sampled<L, E>> childFactory;
+        private final Map<K, Sampled<L, E>> children = new HashMap<>();
+
+        Level(final Supplier<Sampled<L, E>> childFactory) {
+            this.childFactory = childFactory;
+        }
+
+        @Override
+        public void addSample(final Map<K, ? extends L> sample) {
+            final Map<K, ? extends L> load = null == sample ? ImmutableMap.of() : sample;
+            load.forEach((key, childLoad) -> {
+                children.computeIfAbsent(key, k -> childFactory.get()).addSample(childLoad);
+            });
+
+            final Iterator<Map.Entry<K, Sampled<L, E>>> iter = children.entrySet().iterator();
+            while (iter.hasNext()) {
+                final Map.Entry<K, Sampled<L, E>> entry = iter.next();
+                if (!load.containsKey(entry.getKey())) {
+                    entry.getValue().addSample(null);
+                }
+                if (entry.getValue().isIdle()) {
+                    iter.remove();
+                }
+            }
+        }
+
+        @Override
+        public ImmutableMap<K, E> estimate(final ResourceReport.EstimationWindow window) {
+            final ImmutableMap.Builder<K, E> builder = ImmutableMap.builder();
+            children.forEach((key, child) -> builder.put(key, child.estimate(window)));
+            return builder.build();
+        }
+
+        @Override
+        public boolean isIdle() {
+            return children.isEmpty();
+        }
+    }
+
+    /**
+     * Estimators for each attribute. A null sample is treated as zero for all
+     * attributes.
+     */
+    private static final class AttributeEstimators<A>
+            implements Sampled<Map<A, Double>, ImmutableMap<A, Double>> {
+        private final Supplier<EnumMap<ResourceReport.EstimationWindow, DemandEstimator>> estimatorFactory;
+        private final Map<A, EnumMap<ResourceReport.EstimationWindow, DemandEstimator>> estimators = new HashMap<>();
+
+        AttributeEstimators(
+                final Supplier<EnumMap<ResourceReport.EstimationWindow, DemandEstimator>> estimatorFactory) {
+            this.estimatorFactory = estimatorFactory;
+        }
+
+        @Override
+        public void addSample(final Map<A, Double> load) {
+            if (null != load) {
+                for (final A attr : load.keySet()) {
+                    estimators.computeIfAbsent(attr, k -> estimatorFactory.get());
+                }
+            }
+
+            final Iterator<Map.Entry<A, EnumMap<ResourceReport.EstimationWindow, DemandEstimator>>> iter = estimators
+                    .entrySet().iterator();
+            while (iter.hasNext()) {
+                final Map.Entry<A, EnumMap<ResourceReport.EstimationWindow, DemandEstimator>> entry = iter.next();
+                final Double value = null == load ? null : load.get(entry.getKey());
+                final double sample = null == value ? 0 : value;
+
+                boolean idle = true;
+                for (final DemandEstimator estimator : entry.getValue().values()) {
+                    estimator.addSample(sample);
+                    idle &= estimator.isIdle();
+                }
+                if (idle) {
+                    iter.remove();
+                }
+            }
+        }
+
+        @Override
+        public ImmutableMap<A, Double> estimate(final ResourceReport.EstimationWindow window) {
+            final ImmutableMap.Builder<A, Double> builder = ImmutableMap.builder();
+            estimators.forEach((attr, windows) -> builder.put(attr, windows.get(window).getEstimate()));
+            return builder.build();
+        }
+
+        @Override
+        public boolean isIdle() {
+            return estimators.isEmpty();
+        }
+    }
+
+}
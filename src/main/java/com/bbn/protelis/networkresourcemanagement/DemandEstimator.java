@@ -0,0 +1,186 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Estimate demand from a stream of load samples using a fixed amount of
+ * memory. The windowed mean, exponentially weighted moving average and
+ * optionally a Holt linear trend forecast are maintained as each sample is
+ * added, so reading an estimate is a constant time operation.
+ * 
+ * The smoothing factor for the moving average is derived from the window size
+ * as 2 / (windowSize + 1) so that the average has the same center of mass as
+ * the windowed mean.
+ */
+public final class DemandEstimator {
+
+    /**
+     * How to compute the estimate returned by {@link DemandEstimator#getEstimate()}.
+     */
+    public enum Method {
+        /**
+         * Mean of the samples in the window.
+         */
+        WINDOWED_MEAN,
+        /**
+         * Exponentially weighted moving average.
+         */
+        EWMA,
+        /**
+         * Holt linear trend, the estimate is the forecast for the next sample.
+         */
+        HOLT
+    }
+
+    /**
+     * Smoothed values with a magnitude below this are considered to be zero
+     * when checking if the estimator is idle.
+     */
+    private static final double IDLE_TOLERANCE = 1E-6;
+
+    private final SampleRingBuffer window;
+    private final Method method;
+    private final double alpha;
+    private final double beta;
+
+    private boolean initialized = false;
+    private double ewma = 0;
+    private double level = 0;
+    private double trend = 0;
+
+    /**
+     * 
+     * @param windowSize
+     *            the number of samples to keep for the windowed mean
+     * @param method
+     *            how to compute the value returned from {@link #getEstimate()}
+     * @param trendSmoothing
+     *            the smoothing factor for the trend, only used when the
+     *            method is {@link Method#HOLT}
+     * @throws IllegalArgumentException
+     *             if the window size is not positive or the trend smoothing
+     *             is not between 0 and 1
+     */
+    public DemandEstimator(final int windowSize, @Nonnull final Method method, final double trendSmoothing)
+            throws IllegalArgumentException {
+        if (trendSmoothing < 0 || trendSmoothing > 1) {
+            throw new IllegalArgumentException("Trend smoothing must be between 0 and 1: " + trendSmoothing);
+        }
+        this.window = new SampleRingBuffer(windowSize);
+        this.method = method;
+        this.alpha = 2.0 / (windowSize + 1);
+        this.beta = trendSmoothing;
+    }
+
+    /**
+     * Add a load sample.
+     * 
+     * @param value
+     *            the load observed since the previous sample
+     */
+    public void addSample(final double value) {
+        window.add(value);
+
+        if (!initialized) {
+            ewma = value;
+            if (Method.HOLT == method) {
+                level = value;
+            }
+            initialized = true;
+        } else {
+            ewma = alpha * value + (1 - alpha) * ewma;
+
+            if (Method.HOLT == method) {
+                final double previousLevel = level;
+                level = alpha * value + (1 - alpha) * (level + trend);
+                trend = beta * (level - previousLevel) + (1 - beta) * trend;
+            }
+        }
+    }
+
+    /**
+     * @return the mean of the samples in the window
+     */
+    public double getWindowedMean() {
+        return window.getMean();
+    }
+
+    /**
+     * @return the exponentially weighted moving average of the samples
+     */
+    public double getExponentialAverage() {
+        return ewma;
+    }
+
+    /**
+     * @return the forecast for the next sample using the Holt linear trend,
+     *         0 unless the method is {@link Method#HOLT}
+     */
+    public double getTrendForecast() {
+        return level + trend;
+    }
+
+    /**
+     * @return the estimate computed with the method specified at
+     *         construction, never negative
+     */
+    public double getEstimate() {
+        final double value;
+        switch (method) {
+        case WINDOWED_MEAN:
+            value = getWindowedMean();
+            break;
+        case EWMA:
+            value = getExponentialAverage();
+            break;
+        case HOLT:
+            value = getTrendForecast();
+            break;
+        default:
+            throw new IllegalStateException("Unknown estimation method: " + method);
+        }
+        return Math.max(0, value);
+    }
+
+    /**
+     * @return true if the window contains only zero samples and the smoothed
+     *         values have decayed to zero, such an estimator can be dropped
+     *         without changing the estimate
+     */
+    public boolean isIdle() {
+        return window.isFullOfZeros() && Math.abs(ewma) < IDLE_TOLERANCE
+                && Math.abs(getTrendForecast()) < IDLE_TOLERANCE;
+    }
+
+}
@@ -93,4 +93,13 @@ public class DnsNameIdentifier implements NodeIdentifier, Comparable<DnsNameIden
     public int compareTo(final DnsNameIdentifier other) {
         return this.nameLower.compareTo(other.nameLower);
     }
+
+    /**
+     * Sent through the identifier table when serialized on an AP connection.
+     * 
+     * @return the object to serialize
+     */
+    private Object writeReplace() {
+        return IdentifierTable.replace(this);
+    }
 }
@@ -0,0 +1,298 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+
+import com.bbn.protelis.utils.ImmutableUtils;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Fixed size record of the most recent failed requests, see
+ * {@link ResourceManager#addFailedRequest(NodeIdentifier, NodeIdentifier, long, Map, long, Map)}.
+ * 
+ * Adding a record doesn't lock. Each failure is stored as an immutable record
+ * that is published to its slot atomically, so readers always see a complete
+ * record. The record carries its own sequence number, readers skip records
+ * that are older than the last {@link #getCapacity()} and a record is never
+ * replaced by an older one. Once more than {@link #getCapacity()} records
+ * have been added the oldest records are overwritten. The load maps are
+ * stored by reference and must not be modified after they are passed in.
+ * 
+ * {@link #aggregate(long, ResourceReport.EstimationWindow)} computes the
+ * average load that the failed requests would have added over the window
+ * ending at the specified time. A request contributes its load for the part
+ * of the window between the time it failed and its end time.
+ */
+public final class FailedRequestLog {
+
+    /**
+     * Default value for {@link #getCapacity()}.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Default duration of {@link ResourceReport.EstimationWindow#SHORT}.
+     */
+    public static final long DEFAULT_SHORT_WINDOW_DURATION = 10000;
+
+    /**
+     * Default duration of {@link ResourceReport.EstimationWindow#LONG}.
+     */
+    public static final long DEFAULT_LONG_WINDOW_DURATION = 60000;
+
+    private final int mask;
+    private final long shortWindowDuration;
+    private final long longWindowDuration;
+
+    private final AtomicLong nextSequence = new AtomicLong(0);
+    private final AtomicReferenceArray<Record> records;
+
+    /**
+     * One failed request.
+     */
+    private static final class Record {
+        private final long sequence;
+        private final long failTime;
+        private final NodeIdentifier client;
+        private final NodeIdentifier container;
+        private final long serverEndTime;
+        private final Map<NodeAttribute, Double> serverLoad;
+        private final long networkEndTime;
+        private final Map<LinkAttribute, Double> networkLoad;
+
+        Record(final long sequence,
+                final long failTime,
+                final NodeIdentifier client,
+                final NodeIdentifier container,
+                final long serverEndTime,
+                final Map<NodeAttribute, Double> serverLoad,
+                final long networkEndTime,
+                final Map<LinkAttribute, Double> networkLoad) {
+            this.sequence = sequence;
+            this.failTime = failTime;
+            this.client = client;
+            this.container = container;
+            this.serverEndTime = serverEndTime;
+            this.serverLoad = serverLoad;
+            this.networkEndTime = networkEndTime;
+            this.networkLoad = networkLoad;
+        }
+    }
+
+    /**
+     * Create a log with the default capacity and window durations.
+     */
+    public FailedRequestLog() {
+        this(DEFAULT_CAPACITY, DEFAULT_SHORT_WINDOW_DURATION, DEFAULT_LONG_WINDOW_DURATION);
+    }
+
+    /**
+     * 
+     * @param capacity
+     *            the number of records to keep, rounded up to a power of 2
+     * @param shortWindowDuration
+     *            the duration of {@link ResourceReport.EstimationWindow#SHORT}
+     *            in clock units
+     * @param longWindowDuration
+     *            the duration of {@link ResourceReport.EstimationWindow#LONG}
+     *            in clock units
+     * @throws IllegalArgumentException
+     *             if a parameter isn't positive or the capacity is too large
+     */
+    public FailedRequestLog(final int capacity, final long shortWindowDuration, final long longWindowDuration)
+            throws IllegalArgumentException {
+        if (capacity < 1 || capacity > (1 << (Integer.SIZE - 2))) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        if (shortWindowDuration < 1 || longWindowDuration < 1) {
+            throw new IllegalArgumentException("Window durations must be positive: " + shortWindowDuration + ", "
+                    + longWindowDuration);
+        }
+
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity
+                : Integer.highestOneBit(capacity) << 1;
+        this.mask = size - 1;
+        this.shortWindowDuration = shortWindowDuration;
+        this.longWindowDuration = longWindowDuration;
+
+        this.records = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @return the number of records kept
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @param window
+     *            the window
+     * @return the duration of the window in clock units
+     */
+    public long getWindowDuration(@Nonnull final ResourceReport.EstimationWindow window) {
+        return ResourceReport.EstimationWindow.SHORT == window ? shortWindowDuration : longWindowDuration;
+    }
+
+    /**
+     * Record a failed request.
+     * 
+     * @param failTime
+     *            when the request failed
+     * @param client
+     *            the client executing the request
+     * @param container
+     *            the container that failed to process the request
+     * @param serverEndTime
+     *            the expected end time of the server load
+     * @param serverLoad
+     *            the expected server load
+     * @param networkEndTime
+     *            the expected end time of the network load
+     * @param networkLoad
+     *            the expected network load
+     * @see ResourceManager#addFailedRequest(NodeIdentifier, NodeIdentifier,
+     *      long, Map, long, Map)
+     */
+    public void add(final long failTime,
+            @Nonnull final NodeIdentifier client,
+            @Nonnull final NodeIdentifier container,
+            final long serverEndTime,
+            @Nonnull final Map<NodeAttribute, Double> serverLoad,
+            final long networkEndTime,
+            @Nonnull final Map<LinkAttribute, Double> networkLoad) {
+        final long sequence = nextSequence.getAndIncrement();
+        final int slot = (int) (sequence & mask);
+        final Record record = new Record(sequence, failTime, client, container, serverEndTime, serverLoad,
+                networkEndTime, networkLoad);
+
+        Record current;
+        do {
+            current = records.get(slot);
+            if (null != current && current.sequence > sequence) {
+                // a writer that got its sequence later has already wrapped
+                // around to this slot
+                return;
+            }
+        } while (!records.compareAndSet(slot, current, record));
+    }
+
+    /**
+     * The failed request load over a window.
+     */
+    public static final class Aggregate {
+        private final ImmutableMap<NodeIdentifier, ImmutableMap<NodeIdentifier, ImmutableMap<NodeAttribute, Double>>> computeDemand;
+        private final ImmutableMap<NodeIdentifier, ImmutableMap<NodeIdentifier, ImmutableMap<LinkAttribute, Double>>> networkDemand;
+
+        private Aggregate(
+                final ImmutableMap<NodeIdentifier, ImmutableMap<NodeIdentifier, ImmutableMap<NodeAttribute, Double>>> computeDemand,
+                final ImmutableMap<NodeIdentifier, ImmutableMap<NodeIdentifier, ImmutableMap<LinkAttribute, Double>>> networkDemand) {
+            this.computeDemand = computeDemand;
+            this.networkDemand = networkDemand;
+        }
+
+        /**
+         * @return container -> client -> attribute -> average load
+         */
+        @Nonnull
+        public ImmutableMap<NodeIdentifier, ImmutableMap<NodeIdentifier, ImmutableMap<NodeAttribute, Double>>>
+                getComputeDemand() {
+            return computeDemand;
+        }
+
+        /**
+         * @return container -> client -> attribute -> average load
+         */
+        @Nonnull
+        public ImmutableMap<NodeIdentifier, ImmutableMap<NodeIdentifier, ImmutableMap<LinkAttribute, Double>>>
+                getNetworkDemand() {
+            return networkDemand;
+        }
+    }
+
+    /**
+     * Compute the average load of the failed requests over a window.
+     * 
+     * @param now
+     *            the end of the window
+     * @param window
+     *            which window to use
+     * @return the aggregated load
+     */
+    @Nonnull
+    public Aggregate aggregate(final long now, @Nonnull final ResourceReport.EstimationWindow window) {
+        final long duration = getWindowDuration(window);
+        final long windowStart = now - duration;
+
+        final Map<NodeIdentifier, Map<NodeIdentifier, Map<NodeAttribute, Double>>> compute = new HashMap<>();
+        final Map<NodeIdentifier, Map<NodeIdentifier, Map<LinkAttribute, Double>>> network = new HashMap<>();
+        // records before this have been overwritten or are about to be
+        final long oldestSequence = nextSequence.get() - getCapacity();
+        for (int slot = 0; slot <= mask; ++slot) {
+            final Record record = records.get(slot);
+            if (null == record || record.sequence < oldestSequence) {
+                continue;
+            }
+
+            final double serverWeight = overlap(record.failTime, record.serverEndTime, windowStart, now)
+                    / (double) duration;
+            if (serverWeight > 0) {
+                addWeighted(compute.computeIfAbsent(record.container, k -> new HashMap<>())
+                        .computeIfAbsent(record.client, k -> new HashMap<>()), record.serverLoad, serverWeight);
+            }
+
+            final double networkWeight = overlap(record.failTime, record.networkEndTime, windowStart, now)
+                    / (double) duration;
+            if (networkWeight > 0) {
+                addWeighted(network.computeIfAbsent(record.container, k -> new HashMap<>())
+                        .computeIfAbsent(record.client, k -> new HashMap<>()), record.networkLoad, networkWeight);
+            }
+        }
+
+        return new Aggregate(ImmutableUtils.makeImmutableMap3(compute), ImmutableUtils.makeImmutableMap3(network));
+    }
+
+    private static long overlap(final long start, final long end, final long windowStart, final long windowEnd) {
+        return Math.max(0, Math.min(end, windowEnd) - Math.max(start, windowStart));
+    }
+
+    private static <A> void addWeighted(final Map<A, Double> sum, final Map<A, Double> load, final double weight) {
+        load.forEach((attr, value) -> sum.merge(attr, value * weight, Double::sum));
+    }
+
+}
@@ -0,0 +1,173 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Pool of byte arrays used to send and receive frames. Arrays are
+ * allocated in power of 2 sizes so that an array released by one connection
+ * can be reused by another connection that needs a similar size. The pool
+ * holds at most a configured number of bytes, arrays released past that limit
+ * are left for the garbage collector. This class is thread-safe.
+ */
+/* package */ final class FrameBufferPool {
+
+    /**
+     * The pool used by all neighbor connections for both sending and
+     * receiving.
+     */
+    /* package */ static final FrameBufferPool SHARED = new FrameBufferPool(
+            () -> GlobalNetworkConfiguration.getInstance().getMaxPooledFrameBytes());
+
+    /**
+     * Smallest array handed out.
+     */
+    /* package */ static final int MIN_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Largest array handed out.
+     */
+    /* package */ static final int MAX_BUFFER_SIZE = 1 << (Integer.SIZE - 2);
+
+    private static final int SIZE_CLASSES = Integer.SIZE;
+
+    private final LongSupplier maxPooledBytes;
+    private final Object lock = new Object();
+    private final List<Deque<byte[]>> pooled;
+    private long pooledBytes = 0;
+
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+
+    /**
+     * 
+     * @param maxPooledBytes
+     *            the maximum number of bytes to keep in the pool, read each
+     *            time an array is released
+     */
+    /* package */ FrameBufferPool(@Nonnull final LongSupplier maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.pooled = new ArrayList<>(SIZE_CLASSES);
+        for (int i = 0; i < SIZE_CLASSES; ++i) {
+            pooled.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * @return the size class that holds arrays of at least {@code size} bytes
+     */
+    private static int sizeClass(final int size) {
+        final int bounded = Math.max(size, MIN_BUFFER_SIZE);
+        return Integer.SIZE - Integer.numberOfLeadingZeros(bounded - 1);
+    }
+
+    /**
+     * 
+     * @param size
+     *            the minimum size needed
+     * @return an array of at least {@code size} bytes, the contents are
+     *         undefined
+     * @throws IllegalArgumentException
+     *             if size is negative or larger than {@link #MAX_BUFFER_SIZE}
+     */
+    @Nonnull
+    /* package */ byte[] acquire(final int size) {
+        if (size < 0 || size > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid buffer size: " + size);
+        }
+        final int sizeClass = sizeClass(size);
+        synchronized (lock) {
+            final byte[] buffer = pooled.get(sizeClass).pollFirst();
+            if (null != buffer) {
+                pooledBytes -= buffer.length;
+                reuses.incrementAndGet();
+                return buffer;
+            }
+        }
+        allocations.incrementAndGet();
+        return new byte[1 << sizeClass];
+    }
+
+    /**
+     * Return an array to the pool. The caller must not use the array after
+     * this call.
+     * 
+     * @param buffer
+     *            an array from {@link #acquire(int)}
+     */
+    /* package */ void release(@Nonnull final byte[] buffer) {
+        final int sizeClass = sizeClass(buffer.length);
+        if (buffer.length != 1 << sizeClass) {
+            // not from this pool
+            return;
+        }
+        synchronized (lock) {
+            if (pooledBytes + buffer.length <= maxPooledBytes.getAsLong()) {
+                pooled.get(sizeClass).addFirst(buffer);
+                pooledBytes += buffer.length;
+            }
+        }
+    }
+
+    /**
+     * @return the number of arrays that were allocated because the pool had
+     *         none of the needed size
+     */
+    /* package */ long getAllocationCount() {
+        return allocations.get();
+    }
+
+    /**
+     * @return the number of arrays that were reused from the pool
+     */
+    /* package */ long getReuseCount() {
+        return reuses.get();
+    }
+
+    /**
+     * @return the number of bytes currently held by the pool
+     */
+    /* package */ long getPooledBytes() {
+        synchronized (lock) {
+            return pooledBytes;
+        }
+    }
+
+}
@@ -33,8 +33,10 @@ package com.bbn.protelis.networkresourcemanagement;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import javax.annotation.Nonnull;
 
@@ -119,7 +121,9 @@ public final class GlobalNetworkConfiguration {
 
     /**
      * If this number is greater than 0, then it is the percentage of messages
-     * to drop to simulate network failures. The default value is 0.
+     * to drop to simulate network failures. The default value is 0. A dropped
+     * AP share is recovered like a lost frame, the receiver asks the neighbor
+     * for its full state and ignores deltas until it arrives.
      * 
      * @return the percentage of messages to drop
      */
@@ -141,11 +145,22 @@ public final class GlobalNetworkConfiguration {
         messageDropPercentage = v;
     }
 
+    private final Object fstConfigurationLock = new Object();
+    private transient FSTConfiguration fstConfiguration = null;
+
     /**
-     * @return the FST serialization configuration for this thread
+     * Creating the configuration is expensive, so it is created once and
+     * shared. The configuration is thread-safe.
+     * 
+     * @return the FST serialization configuration
      */
     public FSTConfiguration getFstConfiguration() {
-        return FSTConfiguration.createDefaultConfiguration();
+        synchronized (fstConfigurationLock) {
+            if (null == fstConfiguration) {
+                fstConfiguration = FSTConfiguration.createDefaultConfiguration();
+            }
+            return fstConfiguration;
+        }
     }
 
     private static final boolean USE_JAVA_SERIALIZATION_DEFAULT = false;
@@ -176,7 +191,10 @@ public final class GlobalNetworkConfiguration {
 
     /**
      * 
-     * @return if true, then use compression for AP messages.
+     * @return if true, then use compression for AP messages. Whether an
+     *         individual message is compressed and at what level is decided
+     *         by its size and the bandwidth of the link, see
+     *         {@link #getCompressionThreshold()}.
      */
     public boolean getUseCompression() {
         return useCompression;
@@ -212,4 +230,282 @@ public final class GlobalNetworkConfiguration {
         useDeltaCompression = v;
     }
 
+    private static final int MAX_FRAME_SIZE_DEFAULT = 64 * 1024 * 1024;
+
+    private int maxFrameSize = MAX_FRAME_SIZE_DEFAULT;
+
+    /**
+     * Frames received from neighbors with a larger payload are treated as
+     * corrupt and dropped without allocating space for them. The default is 64
+     * MB.
+     * 
+     * @return the maximum payload size of a frame in bytes
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getMaxFrameSize()}
+     * @throws IllegalArgumentException
+     *             if the value is not positive
+     */
+    public void setMaxFrameSize(final int v) throws IllegalArgumentException {
+        if (v <= 0) {
+            throw new IllegalArgumentException("Maximum frame size must be positive");
+        }
+        maxFrameSize = v;
+    }
+
+    private static final long MAX_POOLED_FRAME_BYTES_DEFAULT = 256 * 1024 * 1024;
+
+    private long maxPooledFrameBytes = MAX_POOLED_FRAME_BYTES_DEFAULT;
+
+    /**
+     * Buffers used to send and receive frames are returned to a pool when
+     * they are no longer needed so that large frames don't allocate a new
+     * array each time. The default is 256 MB.
+     * 
+     * @return the maximum number of bytes held by the frame buffer pool
+     */
+    public long getMaxPooledFrameBytes() {
+        return maxPooledFrameBytes;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getMaxPooledFrameBytes()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public void setMaxPooledFrameBytes(final long v) throws IllegalArgumentException {
+        if (v < 0) {
+            throw new IllegalArgumentException("Maximum pooled frame bytes cannot be negative");
+        }
+        maxPooledFrameBytes = v;
+    }
+
+    private static final int COMPRESSION_THRESHOLD_DEFAULT = 512;
+
+    private int compressionThreshold = COMPRESSION_THRESHOLD_DEFAULT;
+
+    /**
+     * AP messages whose serialized data is smaller than this are sent
+     * uncompressed since compression usually makes them larger. The default is
+     * 512 bytes.
+     * 
+     * @return the minimum number of bytes to compress
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getCompressionThreshold()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public void setCompressionThreshold(final int v) throws IllegalArgumentException {
+        if (v < 0) {
+            throw new IllegalArgumentException("Compression threshold cannot be negative");
+        }
+        compressionThreshold = v;
+    }
+
+    private static final double FAST_LINK_BANDWIDTH_DEFAULT = 1000;
+
+    private double fastLinkBandwidth = FAST_LINK_BANDWIDTH_DEFAULT;
+
+    /**
+     * AP messages sent over links with at least this bandwidth are compressed
+     * with the fastest level since the time spent compressing is more than the
+     * time saved sending. The default is 1000 Mbps.
+     * 
+     * @return the bandwidth in megabits per second
+     */
+    public double getFastLinkBandwidth() {
+        return fastLinkBandwidth;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getFastLinkBandwidth()}
+     */
+    public void setFastLinkBandwidth(final double v) {
+        fastLinkBandwidth = v;
+    }
+
+    private static final double SLOW_LINK_BANDWIDTH_DEFAULT = 10;
+
+    private double slowLinkBandwidth = SLOW_LINK_BANDWIDTH_DEFAULT;
+
+    /**
+     * AP messages sent over links with at most this bandwidth are compressed
+     * with the best compression level. The default is 10 Mbps.
+     * 
+     * @return the bandwidth in megabits per second
+     */
+    public double getSlowLinkBandwidth() {
+        return slowLinkBandwidth;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getSlowLinkBandwidth()}
+     */
+    public void setSlowLinkBandwidth(final double v) {
+        slowLinkBandwidth = v;
+    }
+
+    private static final boolean USE_COMPRESSION_DICTIONARY_DEFAULT = true;
+
+    private boolean useCompressionDictionary = USE_COMPRESSION_DICTIONARY_DEFAULT;
+
+    /**
+     * Only used when {@link #getUseCompression()} is true. The dictionary is
+     * only used with neighbors that have the same dictionary.
+     * 
+     * @return if true, then compress AP messages with a preset dictionary, see
+     *         {@link #getCompressionDictionary()}
+     */
+    public boolean getUseCompressionDictionary() {
+        return useCompressionDictionary;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getUseCompressionDictionary()}
+     */
+    public void setUseCompressionDictionary(final boolean v) {
+        synchronized (compressionDictionaryLock) {
+            useCompressionDictionary = v;
+            compressionDictionary = null;
+        }
+    }
+
+    private String compressionDictionaryPath = null;
+
+    /**
+     * 
+     * @return the file containing the compression dictionary, see
+     *         {@link CompressionDictionary#write(java.nio.file.Path)}, null
+     *         to use {@link CompressionDictionary#createDefault()}
+     */
+    public String getCompressionDictionaryPath() {
+        return compressionDictionaryPath;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getCompressionDictionaryPath()}
+     */
+    public void setCompressionDictionaryPath(final String v) {
+        synchronized (compressionDictionaryLock) {
+            compressionDictionaryPath = v;
+            compressionDictionary = null;
+        }
+    }
+
+    private final Object compressionDictionaryLock = new Object();
+    private transient CompressionDictionary compressionDictionary = null;
+
+    /**
+     * The dictionary is loaded the first time it's needed.
+     * 
+     * @return the dictionary to offer to neighbors or null if compression or
+     *         dictionaries are disabled
+     * @throws UncheckedIOException
+     *             if the dictionary file can't be read
+     * @see #getUseCompressionDictionary()
+     * @see #getCompressionDictionaryPath()
+     */
+    public CompressionDictionary getCompressionDictionary() throws UncheckedIOException {
+        if (!getUseCompression()) {
+            return null;
+        }
+        synchronized (compressionDictionaryLock) {
+            if (!useCompressionDictionary) {
+                return null;
+            } else if (null == compressionDictionary) {
+                if (null == compressionDictionaryPath) {
+                    compressionDictionary = CompressionDictionary.createDefault();
+                } else {
+                    try {
+                        compressionDictionary = CompressionDictionary.load(Paths.get(compressionDictionaryPath));
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(
+                                "Unable to read compression dictionary " + compressionDictionaryPath, e);
+                    }
+                }
+            }
+            return compressionDictionary;
+        }
+    }
+
+    private static final int IDENTIFIER_TABLE_SIZE_DEFAULT = 4096;
+
+    private int identifierTableSize = IDENTIFIER_TABLE_SIZE_DEFAULT;
+
+    /**
+     * Node, service, region and interface names in AP messages are sent in
+     * full the first time they are used on a connection and as a reference to
+     * a per-connection table afterwards. This is the limit on the size of the
+     * table, counted as the length of each name plus 32. The smaller of the
+     * values of the two nodes is used. The default is 4096.
+     * 
+     * @return the maximum size of the identifier table, 0 to not use one
+     */
+    public int getIdentifierTableSize() {
+        return identifierTableSize;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getIdentifierTableSize()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public void setIdentifierTableSize(final int v) throws IllegalArgumentException {
+        if (v < 0) {
+            throw new IllegalArgumentException("Identifier table size cannot be negative");
+        }
+        identifierTableSize = v;
+    }
+
+    private static final boolean USE_PLAN_PATCHES_DEFAULT = false;
+
+    private boolean usePlanPatches = USE_PLAN_PATCHES_DEFAULT;
+
+    /**
+     * Only used when {@link #getUseDeltaCompression()} is true. A neighbor
+     * that receives a patch that doesn't apply to its copy of the plan asks
+     * for the full state. Defaults to false.
+     * 
+     * @return if true, then changed {@link LoadBalancerPlan} and
+     *         {@link RegionPlan} values in AP messages are sent as patches
+     *         against the previously sent plan.
+     */
+    public boolean getUsePlanPatches() {
+        return usePlanPatches;
+    }
+
+    /**
+     * 
+     * @param v
+     *            {@link #getUsePlanPatches()}
+     */
+    public void setUsePlanPatches(final boolean v) {
+        usePlanPatches = v;
+    }
+
 }
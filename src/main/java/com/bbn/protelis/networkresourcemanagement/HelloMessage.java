@@ -34,19 +34,64 @@ package com.bbn.protelis.networkresourcemanagement;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Sent to initiate a connection.
+ * Sent to initiate a connection. The message has a fixed binary layout:
+ * protocol version (byte), length of the id (unsigned short), id as UTF-8,
+ * nonce (int), capability bits (int), session id (long), resume session id
+ * (long), last sent sequence (long), last received sequence (long),
+ * compression dictionary id (int), identifier table size (int).
+ * 
+ * Only the name of the id is sent and it is read back as a
+ * {@link DnsNameIdentifier}, so the id must be a {@link DnsNameIdentifier}.
  * 
  * @author jschewe
  *
  */
 public class HelloMessage extends ApMessage {
 
+    /**
+     * The version of the protocol written by {@link #writeMessage(DataOutputStream)}.
+     */
+    public static final byte PROTOCOL_VERSION = 6;
+
+    /**
+     * Capability bit signaling that the sender supports resuming AP sessions.
+     * 
+     * @see #getCapabilities()
+     */
+    public static final int CAPABILITY_SESSION_RESUMPTION = 1;
+
+    /**
+     * Capability bit signaling that the sender can compress AP messages with
+     * the dictionary identified by {@link #getDictionaryId()}.
+     */
+    public static final int CAPABILITY_COMPRESSION_DICTIONARY = 2;
+
+    /**
+     * Capability bit signaling that the sender can send identifiers using a
+     * per-connection table of at most {@link #getIdentifierTableSize()}.
+     */
+    public static final int CAPABILITY_IDENTIFIER_TABLE = 4;
+
+    /**
+     * Value for {@link #getResumeSessionId()} when there is no session to
+     * resume.
+     */
+    public static final long NO_SESSION = 0;
+
+    /**
+     * Value for {@link #getDictionaryId()} when the sender has no
+     * compression dictionary.
+     */
+    public static final int NO_DICTIONARY = 0;
+
     private final NodeIdentifier id;
 
     /**
-     * @return the id of the sender
+     * @return the id of the sender, a {@link DnsNameIdentifier} when read
+     *         from a stream
      */
     public NodeIdentifier getId() {
         return id;
@@ -61,29 +106,158 @@ public class HelloMessage extends ApMessage {
         return nonce;
     }
 
+    private final int capabilities;
+
+    /**
+     * @return bit set of CAPABILITY_ constants supported by the sender
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * 
+     * @param capability
+     *            one of the CAPABILITY_ constants
+     * @return true if the sender supports the capability
+     */
+    public boolean hasCapability(final int capability) {
+        return (capabilities & capability) == capability;
+    }
+
+    private final long sessionId;
+
+    /**
+     * @return identifies the AP session of the sender, a new value is chosen
+     *         each time the sender starts
+     */
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    private final long resumeSessionId;
+
+    /**
+     * @return the session id of the receiver that the sender has state for,
+     *         {@link #NO_SESSION} if the sender has no state to resume
+     */
+    public long getResumeSessionId() {
+        return resumeSessionId;
+    }
+
+    private final long lastSentSequence;
+
+    /**
+     * @return the number of AP messages that the sender sent to the receiver
+     *         in the session being resumed
+     */
+    public long getLastSentSequence() {
+        return lastSentSequence;
+    }
+
+    private final long lastReceivedSequence;
+
+    /**
+     * @return the number of AP messages that the sender received from the
+     *         receiver in the session being resumed
+     */
+    public long getLastReceivedSequence() {
+        return lastReceivedSequence;
+    }
+
+    private final int dictionaryId;
+
+    /**
+     * @return the id of the sender's compression dictionary, see
+     *         {@link CompressionDictionary#getId()}, or
+     *         {@link #NO_DICTIONARY}
+     */
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    private final int identifierTableSize;
+
+    /**
+     * @return the maximum size of the identifier table of the sender, 0 if the
+     *         sender doesn't use one
+     */
+    public int getIdentifierTableSize() {
+        return identifierTableSize;
+    }
+
     /**
      * 
      * @param id
      *            see {@link #getId()}
      * @param nonce
      *            see {@link #getNonce()}
+     * @param capabilities
+     *            see {@link #getCapabilities()}
+     * @param sessionId
+     *            see {@link #getSessionId()}
+     * @param resumeSessionId
+     *            see {@link #getResumeSessionId()}
+     * @param lastSentSequence
+     *            see {@link #getLastSentSequence()}
+     * @param lastReceivedSequence
+     *            see {@link #getLastReceivedSequence()}
+     * @param dictionaryId
+     *            see {@link #getDictionaryId()}
+     * @param identifierTableSize
+     *            see {@link #getIdentifierTableSize()}
      */
-    public HelloMessage(final NodeIdentifier id, final int nonce) {
+    public HelloMessage(final NodeIdentifier id,
+            final int nonce,
+            final int capabilities,
+            final long sessionId,
+            final long resumeSessionId,
+            final long lastSentSequence,
+            final long lastReceivedSequence,
+            final int dictionaryId,
+            final int identifierTableSize) {
         this.id = id;
         this.nonce = nonce;
+        this.capabilities = capabilities;
+        this.sessionId = sessionId;
+        this.resumeSessionId = resumeSessionId;
+        this.lastSentSequence = lastSentSequence;
+        this.lastReceivedSequence = lastReceivedSequence;
+        this.dictionaryId = dictionaryId;
+        this.identifierTableSize = identifierTableSize;
     }
 
+    private static final int MINIMUM_ID_SIZE = 1;
+    private static final int MAXIMUM_ID_SIZE = 0xFFFF;
+
+    /**
+     * @throws IOException
+     *             if there is an error writing to the stream, the id is not a
+     *             {@link DnsNameIdentifier} or its name has an invalid size
+     */
     @Override
     public void writeMessage(final DataOutputStream stream) throws IOException {
-        final byte[] bytes = encodeData(id);
+        if (!(id instanceof DnsNameIdentifier)) {
+            throw new IOException("Hello messages can only carry a DnsNameIdentifier, not " + id.getClass().getName());
+        }
+        final byte[] idBytes = id.getName().getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length < MINIMUM_ID_SIZE || idBytes.length > MAXIMUM_ID_SIZE) {
+            throw new IOException("Node identifier has an invalid size: " + idBytes.length);
+        }
 
-        stream.writeInt(bytes.length);
-        stream.write(bytes);
+        stream.writeByte(PROTOCOL_VERSION);
+        stream.writeShort(idBytes.length);
+        stream.write(idBytes);
         stream.writeInt(nonce);
+        stream.writeInt(capabilities);
+        stream.writeLong(sessionId);
+        stream.writeLong(resumeSessionId);
+        stream.writeLong(lastSentSequence);
+        stream.writeLong(lastReceivedSequence);
+        stream.writeInt(dictionaryId);
+        stream.writeInt(identifierTableSize);
     }
 
-    private static final int MINIMUM_ID_SIZE = 1;
-
     /**
      * 
      * @param stream
@@ -92,22 +266,35 @@ public class HelloMessage extends ApMessage {
      * @throws IOException
      *             if there is an error reading from the stream
      * @throws StreamSyncLostException
-     *             if the message is too small, signaling that the stream should
-     *             be restarted
+     *             if the protocol version is not supported or the id is too
+     *             small, signaling that the stream should be restarted
      */
     public static HelloMessage readMessage(final DataInputStream stream) throws IOException, StreamSyncLostException {
-        final int size = stream.readInt();
+        final byte version = stream.readByte();
+        if (PROTOCOL_VERSION != version) {
+            throw new StreamSyncLostException("Unsupported protocol version: " + version);
+        }
+
+        final int size = stream.readUnsignedShort();
         if (size < MINIMUM_ID_SIZE) {
-            throw new StreamSyncLostException("Message size is too small: " + size);
+            throw new StreamSyncLostException("Node identifier size is too small: " + size);
         }
 
-        final byte[] bytes = new byte[size];
-        stream.readFully(bytes);
-        final NodeIdentifier id = decodeData(NodeIdentifier.class, bytes);
+        final byte[] idBytes = new byte[size];
+        stream.readFully(idBytes);
+        final NodeIdentifier id = new DnsNameIdentifier(new String(idBytes, StandardCharsets.UTF_8));
 
         final int nonce = stream.readInt();
+        final int capabilities = stream.readInt();
+        final long sessionId = stream.readLong();
+        final long resumeSessionId = stream.readLong();
+        final long lastSentSequence = stream.readLong();
+        final long lastReceivedSequence = stream.readLong();
+        final int dictionaryId = stream.readInt();
+        final int identifierTableSize = stream.readInt();
 
-        return new HelloMessage(id, nonce);
+        return new HelloMessage(id, nonce, capabilities, sessionId, resumeSessionId, lastSentSequence,
+                lastReceivedSequence, dictionaryId, identifierTableSize);
     }
 
 }
@@ -0,0 +1,357 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Per-connection table of identifier names, similar to the dynamic table of
+ * HPACK. The first time a name is written on a connection it is sent in full
+ * and added to the table. Later occurrences, in the same message or in later
+ * messages, are sent as the distance back to the entry, which is usually a
+ * single byte. The sender and receiver each keep a table for a direction and
+ * apply the same insertions and evictions in stream order, so the tables
+ * stay identical. The oldest entries are evicted when the size of the table
+ * is over the limit agreed in the hello exchange. Each entry is counted as
+ * the length of the name plus {@link #ENTRY_OVERHEAD}.
+ * 
+ * The table is used by the serialization of {@link DnsNameIdentifier},
+ * {@link StringServiceIdentifier}, {@link StringRegionIdentifier} and
+ * {@link InterfaceIdentifier} while it is active on the current thread, see
+ * {@link #activate()}. Otherwise these objects serialize normally. This class
+ * is not thread-safe.
+ */
+/* package */ final class IdentifierTable {
+
+    /**
+     * Size added to each entry for the bookkeeping, as in HPACK.
+     */
+    /* package */ static final int ENTRY_OVERHEAD = 32;
+
+    private static final ThreadLocal<IdentifierTable> CURRENT = new ThreadLocal<>();
+
+    private static final int LITERAL = 0;
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_CONTINUE = 0x80;
+
+    private final int maxSize;
+    private int size = 0;
+    /** sequence number of the next entry */
+    private int nextSequence = 0;
+    /** sequence number of the oldest entry */
+    private int oldestSequence = 0;
+    private final Map<Integer, String> names = new HashMap<>();
+    private final Map<String, Integer> sequences = new HashMap<>();
+    private long references = 0;
+    private long literals = 0;
+
+    /**
+     * 
+     * @param maxSize
+     *            the maximum size of the table
+     * @throws IllegalArgumentException
+     *             if maxSize is not positive
+     */
+    /* package */ IdentifierTable(final int maxSize) throws IllegalArgumentException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Table size must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the current size of the table
+     */
+    /* package */ int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of names written or read as references to the table
+     */
+    /* package */ long getReferenceCount() {
+        return references;
+    }
+
+    /**
+     * @return the number of names written or read in full
+     */
+    /* package */ long getLiteralCount() {
+        return literals;
+    }
+
+    /**
+     * 
+     * @param localSize
+     *            the table size of this node, 0 if disabled
+     * @param remote
+     *            the hello message from the neighbor
+     * @return the table size to use for the connection, 0 if the table isn't
+     *         used
+     */
+    /* package */ static int agreeSize(final int localSize, @Nonnull final HelloMessage remote) {
+        if (localSize > 0 && remote.hasCapability(HelloMessage.CAPABILITY_IDENTIFIER_TABLE)) {
+            return Math.max(0, Math.min(localSize, remote.getIdentifierTableSize()));
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Make this the table used by identifiers serialized or deserialized on
+     * the current thread until {@link #restore(IdentifierTable)} is called
+     * with the returned value, which should be done in a finally block.
+     * 
+     * @return the table that was active before, may be null
+     */
+    /* package */ IdentifierTable activate() {
+        final IdentifierTable previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Make {@code previous} the active table on the current thread again.
+     * 
+     * @param previous
+     *            the value returned from {@link #activate()}
+     */
+    /* package */ static void restore(final IdentifierTable previous) {
+        if (null == previous) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Write {@code name} as a reference to the table if it's there, otherwise
+     * in full and add it to the table.
+     * 
+     * @param output
+     *            where to write
+     * @param name
+     *            the name to write
+     * @throws IOException
+     *             if there is an error writing
+     */
+    /* package */ void writeName(@Nonnull final DataOutput output, @Nonnull final String name) throws IOException {
+        final Integer sequence = sequences.get(name);
+        if (null != sequence) {
+            writeVarint(output, nextSequence - sequence);
+            ++references;
+        } else {
+            writeVarint(output, LITERAL);
+            output.writeUTF(name);
+            insert(name);
+            ++literals;
+        }
+    }
+
+    /**
+     * Inverse of {@link #writeName(DataOutput, String)}.
+     * 
+     * @param input
+     *            where to read from
+     * @return the name
+     * @throws IOException
+     *             if there is an error reading
+     * @throws InvalidObjectException
+     *             if the name refers to an entry that isn't in the table
+     */
+    /* package */ String readName(@Nonnull final DataInput input) throws IOException {
+        final int distance = readVarint(input);
+        if (LITERAL == distance) {
+            final String name = input.readUTF();
+            insert(name);
+            ++literals;
+            return name;
+        } else {
+            final String name = distance < 0 ? null : names.get(nextSequence - distance);
+            if (null == name) {
+                throw new InvalidObjectException("Identifier table reference " + distance + " is not in the table");
+            }
+            ++references;
+            return name;
+        }
+    }
+
+    private void insert(final String name) {
+        final int sequence = nextSequence++;
+        names.put(sequence, name);
+        sequences.put(name, sequence);
+        size += entrySize(name);
+
+        // a name larger than the table evicts everything including itself
+        while (size > maxSize) {
+            final String evicted = names.remove(oldestSequence);
+            sequences.remove(evicted, oldestSequence);
+            size -= entrySize(evicted);
+            ++oldestSequence;
+        }
+    }
+
+    private static int entrySize(final String name) {
+        return name.length() + ENTRY_OVERHEAD;
+    }
+
+    private static void writeVarint(final DataOutput output, final int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            output.writeByte((remaining & VARINT_MASK) | VARINT_CONTINUE);
+            remaining >>>= VARINT_BITS;
+        }
+        output.writeByte(remaining);
+    }
+
+    private static int readVarint(final DataInput input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += VARINT_BITS) {
+            final int b = input.readUnsignedByte();
+            value |= (b & VARINT_MASK) << shift;
+            if ((b & VARINT_CONTINUE) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Identifier table reference is too long");
+    }
+
+    /**
+     * Called from the {@code writeReplace} method of the identifier classes.
+     * 
+     * @param identifier
+     *            the object being serialized
+     * @return a {@link Proxy} if a table is active on the current thread,
+     *         otherwise {@code identifier}
+     */
+    /* package */ static Object replace(@Nonnull final Object identifier) {
+        if (null == CURRENT.get()) {
+            return identifier;
+        } else if (identifier instanceof DnsNameIdentifier) {
+            return new Proxy(Proxy.NODE, ((DnsNameIdentifier) identifier).getName(), null);
+        } else if (identifier instanceof StringServiceIdentifier) {
+            return new Proxy(Proxy.SERVICE, ((StringServiceIdentifier) identifier).getName(), null);
+        } else if (identifier instanceof StringRegionIdentifier) {
+            return new Proxy(Proxy.REGION, ((StringRegionIdentifier) identifier).getName(), null);
+        } else if (identifier instanceof InterfaceIdentifier) {
+            final InterfaceIdentifier ifce = (InterfaceIdentifier) identifier;
+            return new Proxy(Proxy.INTERFACE, ifce.getName(), ifce.getNeighbors());
+        } else {
+            return identifier;
+        }
+    }
+
+    private static IdentifierTable current() throws InvalidObjectException {
+        final IdentifierTable table = CURRENT.get();
+        if (null == table) {
+            throw new InvalidObjectException("Identifier read outside of an AP connection");
+        }
+        return table;
+    }
+
+    /**
+     * Serialized form of an identifier while a table is active. The name is
+     * written through the table at the point in the stream where the proxy
+     * is, so the sender and receiver update their tables in the same order.
+     */
+    private static final class Proxy implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private static final byte NODE = 1;
+        private static final byte SERVICE = 2;
+        private static final byte REGION = 3;
+        private static final byte INTERFACE = 4;
+
+        private transient byte kind;
+        private transient String name;
+        private transient ImmutableSet<NodeIdentifier> neighbors;
+
+        Proxy(final byte kind, final String name, final ImmutableSet<NodeIdentifier> neighbors) {
+            this.kind = kind;
+            this.name = name;
+            this.neighbors = neighbors;
+        }
+
+        private void writeObject(final ObjectOutputStream output) throws IOException {
+            output.defaultWriteObject();
+            output.writeByte(kind);
+            current().writeName(output, name);
+            if (INTERFACE == kind) {
+                output.writeObject(neighbors);
+            }
+        }
+
+        private void readObject(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+            input.defaultReadObject();
+            kind = input.readByte();
+            name = current().readName(input);
+            if (INTERFACE == kind) {
+                final Object value = input.readObject();
+                if (!(value instanceof ImmutableSet)) {
+                    throw new InvalidObjectException("Interface neighbors are not a set");
+                }
+                @SuppressWarnings("unchecked")
+                final ImmutableSet<NodeIdentifier> set = (ImmutableSet<NodeIdentifier>) value;
+                neighbors = set;
+            }
+        }
+
+        private Object readResolve() throws InvalidObjectException {
+            switch (kind) {
+            case NODE:
+                return new DnsNameIdentifier(name);
+            case SERVICE:
+                return new StringServiceIdentifier(name);
+            case REGION:
+                return new StringRegionIdentifier(name);
+            case INTERFACE:
+                return new InterfaceIdentifier(name, neighbors);
+            default:
+                throw new InvalidObjectException("Unknown identifier kind " + kind);
+            }
+        }
+    }
+
+}
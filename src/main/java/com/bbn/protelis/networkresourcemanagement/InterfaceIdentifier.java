@@ -121,4 +121,13 @@ public class InterfaceIdentifier implements Serializable {
         sb.append(getNeighbors().stream().map(NodeIdentifier::getName).collect(Collectors.joining(",")));
         return sb.toString();
     }
+
+    /**
+     * Sent through the identifier table when serialized on an AP connection.
+     * 
+     * @return the object to serialize
+     */
+    private Object writeReplace() {
+        return IdentifierTable.replace(this);
+    }
 }
@@ -0,0 +1,576 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bbn.protelis.utils.VirtualClock;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link ResourceManager} that measures the Linux host that it is running on.
+ * A background thread samples /proc/stat, /proc/meminfo, /proc/net/dev and
+ * the cgroup v2 CPU and memory files into ring buffers and publishes the
+ * computed capacity, load and demand. {@link #getCurrentResourceReport}
+ * only reads the published values, so the Protelis round never waits on
+ * file I/O.
+ * 
+ * When the cgroup v2 files are present they limit the capacity and provide
+ * the usage, otherwise the host values are used. {@link NodeAttribute#CPU}
+ * is reported in CPUs, the capacity is the number of CPUs available and the
+ * load the number of CPUs busy. {@link NodeAttribute#MEMORY} is reported in
+ * gigabytes. Interface traffic can't be
+ * attributed to clients or services, so it is reported as a flow through this
+ * node for {@link #HOST_TRAFFIC_SERVICE}.
+ * 
+ * Services are tracked the same way as in {@link BasicResourceManager}, no
+ * containers are started.
+ */
+public class LinuxResourceManager implements ResourceManager<NetworkServer> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinuxResourceManager.class);
+
+    /**
+     * Default for how often the host is sampled.
+     */
+    public static final long DEFAULT_SAMPLE_PERIOD_MS = 1000;
+
+    /**
+     * Default number of samples averaged to compute the load.
+     */
+    public static final int DEFAULT_HISTORY_SIZE = DemandEstimation.DEFAULT_SHORT_WINDOW_SIZE;
+
+    /**
+     * The service that interface traffic is attributed to.
+     */
+    public static final ServiceIdentifier<?> HOST_TRAFFIC_SERVICE = new StringServiceIdentifier("host-traffic");
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MICROSECOND = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final double BITS_PER_BYTE = 8;
+    private static final double BITS_PER_MEGABIT = 1E6;
+    private static final double BYTES_PER_KILOBYTE = 1024;
+    private static final double BYTES_PER_GIGABYTE = 1024 * 1024 * 1024;
+
+    private final VirtualClock clock;
+    private final Path procRoot;
+    private final Path cgroupRoot;
+    private final Path netClassRoot;
+    private final long samplePeriodMs;
+    private final int historySize;
+    private final int maximumContainers = Integer.MAX_VALUE;
+
+    /**
+     * Construct a resource manager that reads the files of the running host.
+     * 
+     * @param clock
+     *            the clock to be used for timing
+     */
+    public LinuxResourceManager(@Nonnull final VirtualClock clock) {
+        this(clock, Paths.get("/proc"), Paths.get("/sys"), DEFAULT_SAMPLE_PERIOD_MS, DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * 
+     * @param clock
+     *            the clock to be used for timing
+     * @param procRoot
+     *            where the proc filesystem is mounted
+     * @param sysRoot
+     *            where the sys filesystem is mounted, the cgroup v2 files are
+     *            read from fs/cgroup and the interface speeds from class/net
+     * @param samplePeriodMs
+     *            how often to sample the host in milliseconds
+     * @param historySize
+     *            the number of samples averaged to compute the load
+     * @throws IllegalArgumentException
+     *             if the sample period or history size is not positive
+     */
+    public LinuxResourceManager(@Nonnull final VirtualClock clock,
+            @Nonnull final Path procRoot,
+            @Nonnull final Path sysRoot,
+            final long samplePeriodMs,
+            final int historySize) throws IllegalArgumentException {
+        if (samplePeriodMs < 1) {
+            throw new IllegalArgumentException("Sample period must be positive: " + samplePeriodMs);
+        }
+        if (historySize < 1) {
+            throw new IllegalArgumentException("History size must be positive: " + historySize);
+        }
+        this.clock = clock;
+        this.procRoot = procRoot;
+        this.cgroupRoot = sysRoot.resolve("fs").resolve("cgroup");
+        this.netClassRoot = sysRoot.resolve("class").resolve("net");
+        this.samplePeriodMs = samplePeriodMs;
+        this.historySize = historySize;
+        this.cpuLoad = new SampleRingBuffer(historySize);
+        this.memoryLoad = new SampleRingBuffer(historySize);
+    }
+
+    private NetworkServer node;
+
+    private ScheduledExecutorService sampler;
+
+    /**
+     * Takes the first sample and starts the background sampler.
+     */
+    @Override
+    public void init(@Nonnull final NetworkServer node, @Nonnull final Map<String, Object> extraData) {
+        this.node = node;
+
+        sample(System.nanoTime());
+
+        synchronized (sampleLock) {
+            if (null == sampler) {
+                sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("LinuxResourceManager-" + node.getName() + "-%d").setDaemon(true).build());
+                sampler.scheduleAtFixedRate(() -> sample(System.nanoTime()), samplePeriodMs, samplePeriodMs,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stop the background sampler. The last published values continue to be
+     * reported.
+     */
+    public void shutdown() {
+        synchronized (sampleLock) {
+            if (null != sampler) {
+                sampler.shutdownNow();
+                sampler = null;
+            }
+        }
+    }
+
+    /**
+     * The values computed by the last sample. Immutable.
+     */
+    private static final class Snapshot {
+        private final ImmutableMap<NodeAttribute, Double> computeCapacity;
+        private final ImmutableMap<NodeAttribute, Double> computeLoad;
+        private final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> networkCapacity;
+        private final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad;
+        private final EnumMap<ResourceReport.EstimationWindow, ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>> networkDemand;
+
+        /* package */ Snapshot(final ImmutableMap<NodeAttribute, Double> computeCapacity,
+                final ImmutableMap<NodeAttribute, Double> computeLoad,
+                final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> networkCapacity,
+                final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad,
+                final EnumMap<ResourceReport.EstimationWindow, ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>> networkDemand) {
+            this.computeCapacity = computeCapacity;
+            this.computeLoad = computeLoad;
+            this.networkCapacity = networkCapacity;
+            this.networkLoad = networkLoad;
+            this.networkDemand = networkDemand;
+        }
+
+        /* package */ ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>
+                getNetworkDemand(final ResourceReport.EstimationWindow window) {
+            final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> demand = networkDemand
+                    .get(window);
+            return null == demand ? ImmutableMap.of() : demand;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of(),
+            ImmutableMap.of(), new EnumMap<>(ResourceReport.EstimationWindow.class));
+
+    // the sample state is guarded by sampleLock
+    private final Object sampleLock = new Object();
+    private final DemandEstimation demandEstimation = new DemandEstimation();
+    private final SampleRingBuffer cpuLoad;
+    private final SampleRingBuffer memoryLoad;
+    private final Map<String, SampleRingBuffer[]> interfaceLoad = new HashMap<>();
+    private long previousSampleNanos;
+    private boolean havePreviousSample = false;
+    private LinuxStatsParser.CpuTimes previousCpuTimes = null;
+    private long previousCgroupCpuUsage = -1;
+    private Map<String, long[]> previousNetDev = new HashMap<>();
+
+    private static final int RX_INDEX = 0;
+    private static final int TX_INDEX = 1;
+
+    /**
+     * Read the host files and publish new values. Rates are computed from the
+     * difference to the previous sample. If there is no previous sample or
+     * time hasn't moved forward, only the counters are recorded.
+     * 
+     * @param nowNanos
+     *            the time of the sample as from {@link System#nanoTime()}
+     */
+    /* package */ void sample(final long nowNanos) {
+        synchronized (sampleLock) {
+            final LinuxStatsParser.CpuTimes cpuTimes = readCpuTimes();
+            final Map<String, Long> meminfo = readMeminfo();
+            final Map<String, long[]> netDev = readNetDev();
+            final double cgroupCpuQuota = readCgroupCpuQuota();
+            final long cgroupCpuUsage = readCgroupCpuUsage();
+            final long cgroupMemoryMax = readCgroupBytes("memory.max");
+            final long cgroupMemoryCurrent = readCgroupBytes("memory.current");
+
+            // capacity
+            double availableCpus = null == cpuTimes ? Double.NaN : cpuTimes.getNumCpus();
+            if (!Double.isNaN(cgroupCpuQuota) && !(availableCpus <= cgroupCpuQuota)) {
+                availableCpus = cgroupCpuQuota;
+            }
+            final Long memTotalKb = meminfo.get("MemTotal");
+            double memoryCapacity = null == memTotalKb ? Double.NaN
+                    : memTotalKb * BYTES_PER_KILOBYTE / BYTES_PER_GIGABYTE;
+            if (cgroupMemoryMax >= 0 && !(memoryCapacity <= cgroupMemoryMax / BYTES_PER_GIGABYTE)) {
+                memoryCapacity = cgroupMemoryMax / BYTES_PER_GIGABYTE;
+            }
+
+            final ImmutableMap.Builder<NodeAttribute, Double> computeCapacity = ImmutableMap.builder();
+            if (!Double.isNaN(availableCpus)) {
+                computeCapacity.put(NodeAttribute.CPU, availableCpus);
+            }
+            if (!Double.isNaN(memoryCapacity)) {
+                computeCapacity.put(NodeAttribute.MEMORY, memoryCapacity);
+            }
+
+            // memory doesn't need a previous sample
+            if (cgroupMemoryCurrent >= 0) {
+                memoryLoad.add(cgroupMemoryCurrent / BYTES_PER_GIGABYTE);
+            } else if (null != memTotalKb && meminfo.containsKey("MemAvailable")) {
+                memoryLoad.add((memTotalKb - meminfo.get("MemAvailable")) * BYTES_PER_KILOBYTE / BYTES_PER_GIGABYTE);
+            }
+
+            final long elapsedNanos = nowNanos - previousSampleNanos;
+            final Map<String, double[]> interfaceRates = new HashMap<>();
+            if (havePreviousSample && elapsedNanos > 0) {
+                // CPU
+                final double usedCpus;
+                if (cgroupCpuUsage >= 0 && previousCgroupCpuUsage >= 0) {
+                    usedCpus = (cgroupCpuUsage - previousCgroupCpuUsage) * NANOS_PER_MICROSECOND / elapsedNanos;
+                } else if (null != cpuTimes && null != previousCpuTimes
+                        && cpuTimes.getTotal() > previousCpuTimes.getTotal()) {
+                    final double total = cpuTimes.getTotal() - previousCpuTimes.getTotal();
+                    final double idle = cpuTimes.getIdle() - previousCpuTimes.getIdle();
+                    usedCpus = (1 - idle / total) * cpuTimes.getNumCpus();
+                } else {
+                    usedCpus = Double.NaN;
+                }
+                if (!Double.isNaN(usedCpus)) {
+                    cpuLoad.add(Math.max(0, usedCpus));
+                }
+
+                // network
+                final double elapsedSeconds = elapsedNanos / NANOS_PER_SECOND;
+                netDev.forEach((name, bytes) -> {
+                    final long[] previous = previousNetDev.get(name);
+                    if (null != previous && bytes[RX_INDEX] >= previous[RX_INDEX]
+                            && bytes[TX_INDEX] >= previous[TX_INDEX]) {
+                        final double rx = (bytes[RX_INDEX] - previous[RX_INDEX]) * BITS_PER_BYTE / BITS_PER_MEGABIT
+                                / elapsedSeconds;
+                        final double tx = (bytes[TX_INDEX] - previous[TX_INDEX]) * BITS_PER_BYTE / BITS_PER_MEGABIT
+                                / elapsedSeconds;
+                        interfaceRates.put(name, new double[] { rx, tx });
+                    }
+                    // otherwise the interface is new or the counters were reset
+                });
+            }
+
+            previousSampleNanos = nowNanos;
+            havePreviousSample = true;
+            previousCpuTimes = cpuTimes;
+            previousCgroupCpuUsage = cgroupCpuUsage;
+            previousNetDev = netDev;
+
+            publish(computeCapacity.build(), netDev, interfaceRates);
+        }
+    }
+
+    private void publish(final ImmutableMap<NodeAttribute, Double> computeCapacity,
+            final Map<String, long[]> netDev,
+            final Map<String, double[]> interfaceRates) {
+        final ImmutableMap.Builder<NodeAttribute, Double> computeLoad = ImmutableMap.builder();
+        if (cpuLoad.size() > 0) {
+            computeLoad.put(NodeAttribute.CPU, cpuLoad.getMean());
+        }
+        if (memoryLoad.size() > 0) {
+            computeLoad.put(NodeAttribute.MEMORY, memoryLoad.getMean());
+        }
+
+        interfaceLoad.keySet().retainAll(netDev.keySet());
+        interfaceRates.forEach((name, rates) -> {
+            final SampleRingBuffer[] buffers = interfaceLoad.computeIfAbsent(name,
+                    k -> new SampleRingBuffer[] { new SampleRingBuffer(historySize),
+                            new SampleRingBuffer(historySize) });
+            buffers[RX_INDEX].add(rates[RX_INDEX]);
+            buffers[TX_INDEX].add(rates[TX_INDEX]);
+        });
+
+        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> networkCapacity = ImmutableMap
+                .builder();
+        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad = ImmutableMap
+                .builder();
+        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoadSample = ImmutableMap
+                .builder();
+        final NodeNetworkFlow flow = new NodeNetworkFlow(node.getNodeIdentifier(), node.getNodeIdentifier(),
+                node.getNodeIdentifier());
+        for (final String name : netDev.keySet()) {
+            final InterfaceIdentifier ii = new InterfaceIdentifier(name, ImmutableSet.of());
+
+            final double speed = readInterfaceSpeed(name);
+            if (speed > 0) {
+                networkCapacity.put(ii, ImmutableMap.of(LinkAttribute.DATARATE_TX, speed, LinkAttribute.DATARATE_RX,
+                        speed));
+            }
+
+            final SampleRingBuffer[] buffers = interfaceLoad.get(name);
+            if (null != buffers) {
+                networkLoad.put(ii, flowLoad(flow, buffers[RX_INDEX].getMean(), buffers[TX_INDEX].getMean()));
+            }
+
+            final double[] rates = interfaceRates.get(name);
+            if (null != rates) {
+                networkLoadSample.put(ii, flowLoad(flow, rates[RX_INDEX], rates[TX_INDEX]));
+            }
+        }
+
+        if (!interfaceRates.isEmpty()) {
+            demandEstimation.addNetworkLoadSample(networkLoadSample.build());
+        }
+        final EnumMap<ResourceReport.EstimationWindow, ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>>> networkDemand = new EnumMap<>(
+                ResourceReport.EstimationWindow.class);
+        for (final ResourceReport.EstimationWindow window : ResourceReport.EstimationWindow.values()) {
+            networkDemand.put(window, demandEstimation.getNetworkDemand(window));
+        }
+
+        snapshot = new Snapshot(computeCapacity, computeLoad.build(), networkCapacity.build(), networkLoad.build(),
+                networkDemand);
+    }
+
+    private static ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>
+            flowLoad(final NodeNetworkFlow flow, final double rx, final double tx) {
+        return ImmutableMap.of(flow, ImmutableMap.of(HOST_TRAFFIC_SERVICE,
+                ImmutableMap.of(LinkAttribute.DATARATE_RX, rx, LinkAttribute.DATARATE_TX, tx)));
+    }
+
+    private static List<String> readLines(final Path path) {
+        try {
+            return Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (final NoSuchFileException e) {
+            LOGGER.trace("{} does not exist", path);
+            return null;
+        } catch (final IOException e) {
+            LOGGER.debug("Unable to read {}", path, e);
+            return null;
+        }
+    }
+
+    private static String readContent(final Path path) {
+        final List<String> lines = readLines(path);
+        if (null == lines || lines.isEmpty()) {
+            return null;
+        } else {
+            return lines.get(0);
+        }
+    }
+
+    private LinuxStatsParser.CpuTimes readCpuTimes() {
+        final List<String> lines = readLines(procRoot.resolve("stat"));
+        return null == lines ? null : LinuxStatsParser.parseProcStat(lines);
+    }
+
+    private Map<String, Long> readMeminfo() {
+        final List<String> lines = readLines(procRoot.resolve("meminfo"));
+        return null == lines ? ImmutableMap.of() : LinuxStatsParser.parseMeminfo(lines);
+    }
+
+    private Map<String, long[]> readNetDev() {
+        final List<String> lines = readLines(procRoot.resolve("net").resolve("dev"));
+        return null == lines ? ImmutableMap.of() : LinuxStatsParser.parseNetDev(lines);
+    }
+
+    private double readCgroupCpuQuota() {
+        final String content = readContent(cgroupRoot.resolve("cpu.max"));
+        return null == content ? Double.NaN : LinuxStatsParser.parseCgroupCpuMax(content);
+    }
+
+    private long readCgroupCpuUsage() {
+        final List<String> lines = readLines(cgroupRoot.resolve("cpu.stat"));
+        return null == lines ? -1 : LinuxStatsParser.parseCgroupCpuUsage(lines);
+    }
+
+    private long readCgroupBytes(final String filename) {
+        final String content = readContent(cgroupRoot.resolve(filename));
+        return null == content ? -1 : LinuxStatsParser.parseCgroupBytes(content);
+    }
+
+    /**
+     * @return the speed of the interface in megabits per second, -1 if unknown
+     */
+    private double readInterfaceSpeed(final String name) {
+        final String content = readContent(netClassRoot.resolve(name).resolve("speed"));
+        if (null == content) {
+            return -1;
+        }
+        try {
+            return Double.parseDouble(content.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the most recently computed compute load, {@link NodeAttribute#CPU}
+     *         is the number of CPUs busy and {@link NodeAttribute#MEMORY} is
+     *         in gigabytes
+     */
+    @Nonnull
+    public ImmutableMap<NodeAttribute, Double> getComputeLoad() {
+        return snapshot.computeLoad;
+    }
+
+    @Override
+    @Nonnull
+    public ResourceReport getCurrentResourceReport(@Nonnull final ResourceReport.EstimationWindow demandWindow) {
+        final Snapshot current = snapshot;
+        final int allocatedContainers;
+        synchronized (runningServices) {
+            allocatedContainers = runningServices.size();
+        }
+        return new ResourceReport(node.getNodeIdentifier(), getClock().getCurrentTime(), demandWindow,
+                current.computeCapacity, current.networkCapacity, current.networkLoad,
+                current.getNetworkDemand(demandWindow), ImmutableMap.of(), maximumContainers, allocatedContainers);
+    }
+
+    private int containerCounter = 0;
+
+    private final Map<NodeIdentifier, ServiceIdentifier<?>> runningServices = new HashMap<>();
+
+    @Override
+    public NodeIdentifier startService(@Nonnull final ServiceIdentifier<?> service,
+            @Nonnull final ContainerParameters parameters) {
+        final NodeIdentifier containerName;
+        synchronized (runningServices) {
+            containerName = new DnsNameIdentifier("Container-" + containerCounter);
+            ++containerCounter;
+            runningServices.put(containerName, service);
+        }
+        LOGGER.info("Started service {} in container {}", service, containerName);
+        node.invalidateResourceReportCache();
+        return containerName;
+    }
+
+    @Override
+    public boolean stopService(@Nonnull final NodeIdentifier containerName) {
+        final ServiceIdentifier<?> existingService;
+        synchronized (runningServices) {
+            existingService = runningServices.remove(containerName);
+        }
+        if (null == existingService) {
+            LOGGER.warn("stopService failed: container {} is not running a service.", containerName);
+            return false;
+        } else {
+            LOGGER.info("Stopped service {} in container {}", existingService, containerName);
+            node.invalidateResourceReportCache();
+            return true;
+        }
+    }
+
+    @Override
+    @Nonnull
+    public ServiceReport getServiceReport() {
+        final ImmutableMap.Builder<NodeIdentifier, ServiceState> builder = ImmutableMap.builder();
+        synchronized (runningServices) {
+            runningServices.forEach((name, service) -> builder.put(name,
+                    new ServiceState(service, ServiceStatus.RUNNING)));
+        }
+        return new ServiceReport(node.getNodeIdentifier(), getClock().getCurrentTime(), builder.build());
+    }
+
+    @Override
+    @Nonnull
+    public ImmutableMap<NodeAttribute, Double> getComputeCapacity() {
+        return snapshot.computeCapacity;
+    }
+
+    @Override
+    @Nonnull
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Do nothing.
+     * 
+     * @param service
+     *            the service to get the image for
+     */
+    @Override
+    public void fetchImage(@Nonnull final ServiceIdentifier<?> service) {
+        // do nothing
+    }
+
+    /**
+     * @return true
+     */
+    @Override
+    public boolean waitForImage(@Nonnull final ServiceIdentifier<?> service) {
+        return true;
+    }
+
+    /**
+     * Do nothing.
+     */
+    @Override
+    public void addFailedRequest(final NodeIdentifier client,
+            final NodeIdentifier containerId,
+            final long serverEndTime,
+            final Map<NodeAttribute, Double> serverLoad,
+            final long networkEndTime,
+            final Map<LinkAttribute, Double> networkLoad) {
+        // do nothing
+    }
+}
@@ -0,0 +1,286 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Parsers for the Linux /proc and cgroup v2 files read by
+ * {@link LinuxResourceManager}. Malformed lines are skipped.
+ */
+/* package */ final class LinuxStatsParser {
+
+    private LinuxStatsParser() {
+    }
+
+    /**
+     * Index of the idle time in the cpu line of /proc/stat after the label.
+     */
+    private static final int PROC_STAT_IDLE_INDEX = 3;
+
+    /**
+     * Index of the iowait time in the cpu line of /proc/stat after the label.
+     */
+    private static final int PROC_STAT_IOWAIT_INDEX = 4;
+
+    /**
+     * Index of the received bytes in a line of /proc/net/dev after the
+     * interface name.
+     */
+    private static final int NET_DEV_RX_BYTES_INDEX = 0;
+
+    /**
+     * Index of the transmitted bytes in a line of /proc/net/dev after the
+     * interface name.
+     */
+    private static final int NET_DEV_TX_BYTES_INDEX = 8;
+
+    /**
+     * The value used in cgroup files to specify no limit.
+     */
+    private static final String CGROUP_UNLIMITED = "max";
+
+    /**
+     * Aggregate CPU times from /proc/stat.
+     */
+    /* package */ static final class CpuTimes {
+        private final long total;
+        private final long idle;
+        private final int numCpus;
+
+        /* package */ CpuTimes(final long total, final long idle, final int numCpus) {
+            this.total = total;
+            this.idle = idle;
+            this.numCpus = numCpus;
+        }
+
+        /**
+         * @return the total time spent by all CPUs in clock ticks
+         */
+        /* package */ long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the time spent idle or waiting for I/O by all CPUs in clock
+         *         ticks
+         */
+        /* package */ long getIdle() {
+            return idle;
+        }
+
+        /**
+         * @return the number of CPUs listed
+         */
+        /* package */ int getNumCpus() {
+            return numCpus;
+        }
+    }
+
+    /**
+     * Parse the contents of /proc/stat.
+     * 
+     * @param lines
+     *            the lines of the file
+     * @return the aggregate CPU times, null if the aggregate cpu line is
+     *         missing
+     */
+    /* package */ static CpuTimes parseProcStat(@Nonnull final List<String> lines) {
+        long total = -1;
+        long idle = 0;
+        int numCpus = 0;
+        for (final String line : lines) {
+            if (!line.startsWith("cpu")) {
+                continue;
+            }
+
+            final String[] tokens = line.trim().split("\\s+");
+            if ("cpu".equals(tokens[0])) {
+                try {
+                    total = 0;
+                    for (int i = 1; i < tokens.length; ++i) {
+                        total += Long.parseLong(tokens[i]);
+                    }
+                    idle = Long.parseLong(tokens[1 + PROC_STAT_IDLE_INDEX]);
+                    if (tokens.length > 1 + PROC_STAT_IOWAIT_INDEX) {
+                        idle += Long.parseLong(tokens[1 + PROC_STAT_IOWAIT_INDEX]);
+                    }
+                } catch (final NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    total = -1;
+                }
+            } else {
+                ++numCpus;
+            }
+        }
+
+        if (total < 0) {
+            return null;
+        } else {
+            return new CpuTimes(total, idle, numCpus);
+        }
+    }
+
+    /**
+     * Parse the contents of /proc/meminfo.
+     * 
+     * @param lines
+     *            the lines of the file
+     * @return field name -> value in kilobytes
+     */
+    @Nonnull
+    /* package */ static Map<String, Long> parseMeminfo(@Nonnull final List<String> lines) {
+        final Map<String, Long> values = new HashMap<>();
+        for (final String line : lines) {
+            final int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+
+            final String[] tokens = line.substring(colon + 1).trim().split("\\s+");
+            try {
+                values.put(line.substring(0, colon).trim(), Long.parseLong(tokens[0]));
+            } catch (final NumberFormatException e) {
+                // skip malformed line
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Parse the contents of /proc/net/dev. The loopback interface is skipped.
+     * 
+     * @param lines
+     *            the lines of the file
+     * @return interface name -> {received bytes, transmitted bytes}
+     */
+    @Nonnull
+    /* package */ static Map<String, long[]> parseNetDev(@Nonnull final List<String> lines) {
+        final Map<String, long[]> values = new HashMap<>();
+        for (final String line : lines) {
+            final int colon = line.indexOf(':');
+            if (colon < 0) {
+                // header
+                continue;
+            }
+
+            final String name = line.substring(0, colon).trim();
+            if ("lo".equals(name)) {
+                continue;
+            }
+
+            final String[] tokens = line.substring(colon + 1).trim().split("\\s+");
+            try {
+                final long rx = Long.parseLong(tokens[NET_DEV_RX_BYTES_INDEX]);
+                final long tx = Long.parseLong(tokens[NET_DEV_TX_BYTES_INDEX]);
+                values.put(name, new long[] { rx, tx });
+            } catch (final NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // skip malformed line
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Parse the contents of the cgroup v2 cpu.max file.
+     * 
+     * @param content
+     *            the contents of the file
+     * @return the number of CPUs that the quota allows, NaN if there is no
+     *         limit or the content cannot be parsed
+     */
+    /* package */ static double parseCgroupCpuMax(@Nonnull final String content) {
+        final String[] tokens = content.trim().split("\\s+");
+        if (tokens.length != 2 || CGROUP_UNLIMITED.equals(tokens[0])) {
+            return Double.NaN;
+        }
+
+        try {
+            final double quota = Long.parseLong(tokens[0]);
+            final double period = Long.parseLong(tokens[1]);
+            if (period <= 0) {
+                return Double.NaN;
+            } else {
+                return quota / period;
+            }
+        } catch (final NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parse the usage from the contents of the cgroup v2 cpu.stat file.
+     * 
+     * @param lines
+     *            the lines of the file
+     * @return the CPU usage in microseconds, -1 if not found
+     */
+    /* package */ static long parseCgroupCpuUsage(@Nonnull final List<String> lines) {
+        for (final String line : lines) {
+            final String[] tokens = line.trim().split("\\s+");
+            if (tokens.length == 2 && "usage_usec".equals(tokens[0])) {
+                try {
+                    return Long.parseLong(tokens[1]);
+                } catch (final NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a cgroup v2 file containing a single number of bytes, such as
+     * memory.max or memory.current.
+     * 
+     * @param content
+     *            the contents of the file
+     * @return the number of bytes, -1 if there is no limit or the content
+     *         cannot be parsed
+     */
+    /* package */ static long parseCgroupBytes(@Nonnull final String content) {
+        final String value = content.trim();
+        if (CGROUP_UNLIMITED.equals(value)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -31,16 +31,10 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 BBN_LICENSE_END*/
 package com.bbn.protelis.networkresourcemanagement;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -53,7 +47,10 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 /**
- * Used to build up a {@link LoadBalancerPlan} object incrementally.
+ * Used to build up a {@link LoadBalancerPlan} object incrementally. The
+ * containers for each node are indexed by container id and by service for
+ * containers that are not yet started, so each modification is constant time
+ * and creating the plan is linear in the number of containers.
  * 
  * @author jschewe
  *
@@ -85,19 +82,18 @@ public class LoadBalancerPlanBuilder {
         this.region = prevPlan.getRegion();
 
         // need a mutable version of previous plan state
-        final Map<NodeIdentifier, List<LoadBalancerPlan.ContainerInfo>> previousPlanState = new HashMap<>();
+        final Map<NodeIdentifier, NodeContainerInfos> previousPlanState = new HashMap<>();
         prevPlan.getServicePlan().forEach((node, containerInfos) -> {
-            previousPlanState.put(node, new LinkedList<>(containerInfos));
+            previousPlanState.put(node, new NodeContainerInfos(containerInfos));
         });
 
         resourceReports.forEach(report -> {
             final NodeIdentifier nodeId = report.getNodeName();
 
-            final List<LoadBalancerPlan.ContainerInfo> previousNodePlanState = previousPlanState.computeIfAbsent(nodeId,
-                    k -> new LinkedList<>());
+            final NodeContainerInfos previousNodePlanState = previousPlanState.computeIfAbsent(nodeId,
+                    k -> new NodeContainerInfos());
 
-            final Collection<LoadBalancerPlan.ContainerInfo> nodeState = plan.computeIfAbsent(nodeId,
-                    k -> new LinkedList<>());
+            final NodeContainerInfos nodeState = getNodeContainers(nodeId);
 
             report.getContainerReports().forEach((container, containerReport) -> {
                 // don't add stopped or stopping containers to the plan as there
@@ -120,31 +116,27 @@ public class LoadBalancerPlanBuilder {
 
     }
 
-    private void addToNewNodeState(final Collection<LoadBalancerPlan.ContainerInfo> nodeState,
-            final List<LoadBalancerPlan.ContainerInfo> previousNodePlanState,
+    private void addToNewNodeState(final NodeContainerInfos nodeState,
+            final NodeContainerInfos previousNodePlanState,
             final ContainerResourceReport containerReport) {
         // check for a match by container ID
-        final Optional<LoadBalancerPlan.ContainerInfo> idMatch = previousNodePlanState.stream()
-                .filter(c -> Objects.equals(c.getId(), containerReport.getContainerName())).findFirst();
-        if (idMatch.isPresent()) {
-            final LoadBalancerPlan.ContainerInfo cinfo = idMatch.get();
-            if (!containerReport.getService().equals(cinfo.getService())) {
+        final LoadBalancerPlan.ContainerInfo idMatch = previousNodePlanState
+                .removeById(containerReport.getContainerName());
+        if (null != idMatch) {
+            if (!containerReport.getService().equals(idMatch.getService())) {
                 LOGGER.warn(
                         "Service running on container {} is {}, however the previous plan wanted {} running on this container",
-                        containerReport.getContainerName(), containerReport.getService(), cinfo.getService());
+                        containerReport.getContainerName(), containerReport.getService(), idMatch.getService());
             }
-            nodeState.add(createNewContainerInfo(containerReport, cinfo));
-            previousNodePlanState.remove(cinfo);
+            nodeState.add(createNewContainerInfo(containerReport, idMatch));
             return;
         }
 
         // check for a new container on the node with the same service
-        final Optional<LoadBalancerPlan.ContainerInfo> newContainerMatch = previousNodePlanState.stream()
-                .filter(c -> null == c.getId() && c.getService().equals(containerReport.getService())).findFirst();
-        if (newContainerMatch.isPresent()) {
-            final LoadBalancerPlan.ContainerInfo cinfo = newContainerMatch.get();
-            nodeState.add(createNewContainerInfo(containerReport, cinfo));
-            previousNodePlanState.remove(cinfo);
+        final LoadBalancerPlan.ContainerInfo newContainerMatch = previousNodePlanState
+                .removeUnnamed(containerReport.getService());
+        if (null != newContainerMatch) {
+            nodeState.add(createNewContainerInfo(containerReport, newContainerMatch));
             return;
         }
 
@@ -198,6 +190,24 @@ public class LoadBalancerPlanBuilder {
         return plan;
     }
 
+    /**
+     * Get the indexed containers for a node, creating them if needed. If a
+     * different collection was stored through {@link #getPlan()} it is
+     * replaced with an indexed copy.
+     */
+    @Nonnull
+    private NodeContainerInfos getNodeContainers(@Nonnull final NodeIdentifier node) {
+        final Collection<LoadBalancerPlan.ContainerInfo> existing = plan.get(node);
+        if (existing instanceof NodeContainerInfos) {
+            return (NodeContainerInfos) existing;
+        } else {
+            final NodeContainerInfos containers = null == existing ? new NodeContainerInfos()
+                    : new NodeContainerInfos(existing);
+            plan.put(node, containers);
+            return containers;
+        }
+    }
+
     /**
      * Add a new instance of the specified service container.
      * 
@@ -213,7 +223,7 @@ public class LoadBalancerPlanBuilder {
             final double weight) {
         final LoadBalancerPlan.ContainerInfo info = new LoadBalancerPlan.ContainerInfo(null, service, weight, false,
                 false);
-        plan.computeIfAbsent(node, k -> new LinkedList<>()).add(info);
+        getNodeContainers(node).add(info);
     }
 
     /**
@@ -229,12 +239,12 @@ public class LoadBalancerPlanBuilder {
      */
     public void stopTrafficToContainer(@Nonnull final NodeIdentifier node, @Nonnull final NodeIdentifier container)
             throws IllegalArgumentException {
-        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(node, container);
-        plan.get(node).remove(oldInfo);
+        final NodeContainerInfos containers = getNodeContainers(node);
+        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(containers, node, container);
 
         final LoadBalancerPlan.ContainerInfo newInfo = new LoadBalancerPlan.ContainerInfo(oldInfo.getId(),
                 oldInfo.getService(), oldInfo.getWeight(), true, oldInfo.isStop());
-        plan.get(node).add(newInfo);
+        containers.replaceById(newInfo);
     }
 
     /**
@@ -251,12 +261,12 @@ public class LoadBalancerPlanBuilder {
      */
     public void allowTrafficToContainer(@Nonnull final NodeIdentifier node, @Nonnull final NodeIdentifier container)
             throws IllegalArgumentException {
-        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(node, container);
-        plan.get(node).remove(oldInfo);
+        final NodeContainerInfos containers = getNodeContainers(node);
+        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(containers, node, container);
 
         final LoadBalancerPlan.ContainerInfo newInfo = new LoadBalancerPlan.ContainerInfo(oldInfo.getId(),
                 oldInfo.getService(), oldInfo.getWeight(), false, oldInfo.isStop());
-        plan.get(node).add(newInfo);
+        containers.replaceById(newInfo);
     }
 
     /**
@@ -272,12 +282,12 @@ public class LoadBalancerPlanBuilder {
      */
     public void stopContainer(@Nonnull final NodeIdentifier node, @Nonnull final NodeIdentifier container)
             throws IllegalArgumentException {
-        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(node, container);
-        plan.get(node).remove(oldInfo);
+        final NodeContainerInfos containers = getNodeContainers(node);
+        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(containers, node, container);
 
         final LoadBalancerPlan.ContainerInfo newInfo = new LoadBalancerPlan.ContainerInfo(oldInfo.getId(),
                 oldInfo.getService(), oldInfo.getWeight(), oldInfo.isStopTrafficTo(), true);
-        plan.get(node).add(newInfo);
+        containers.replaceById(newInfo);
     }
 
     /**
@@ -294,12 +304,12 @@ public class LoadBalancerPlanBuilder {
      */
     public void unstopContainer(@Nonnull final NodeIdentifier node, @Nonnull final NodeIdentifier container)
             throws IllegalArgumentException {
-        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(node, container);
-        plan.get(node).remove(oldInfo);
+        final NodeContainerInfos containers = getNodeContainers(node);
+        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(containers, node, container);
 
         final LoadBalancerPlan.ContainerInfo newInfo = new LoadBalancerPlan.ContainerInfo(oldInfo.getId(),
                 oldInfo.getService(), oldInfo.getWeight(), oldInfo.isStopTrafficTo(), false);
-        plan.get(node).add(newInfo);
+        containers.replaceById(newInfo);
     }
 
     /**
@@ -320,12 +330,12 @@ public class LoadBalancerPlanBuilder {
     public void setContainerWeight(@Nonnull final NodeIdentifier node,
             @Nonnull final NodeIdentifier container,
             final double newWeight) throws IllegalArgumentException {
-        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(node, container);
-        plan.get(node).remove(oldInfo);
+        final NodeContainerInfos containers = getNodeContainers(node);
+        final LoadBalancerPlan.ContainerInfo oldInfo = findContainerInfo(containers, node, container);
 
         final LoadBalancerPlan.ContainerInfo newInfo = new LoadBalancerPlan.ContainerInfo(oldInfo.getId(),
                 oldInfo.getService(), newWeight, oldInfo.isStopTrafficTo(), oldInfo.isStop());
-        plan.get(node).add(newInfo);
+        containers.replaceById(newInfo);
     }
 
     /**
@@ -363,31 +373,26 @@ public class LoadBalancerPlanBuilder {
             throws IllegalArgumentException {
 
         // check for duplicate containers
-        plan.forEach((node, containers) -> {
-            final Set<NodeIdentifier> seenContainers = new HashSet<>();
-
-            containers.forEach(info -> {
-                if (null != info.getId()) {
-                    final boolean added = seenContainers.add(info.getId());
-                    if (!added) {
-                        throw new IllegalArgumentException(
-                                "Two containers on node '" + node + "' have the name '" + info.getId() + "'");
-                    }
-                }
-            });
-        });
+        for (final NodeIdentifier node : new ArrayList<>(plan.keySet())) {
+            final NodeIdentifier duplicate = getNodeContainers(node).findDuplicateId();
+            if (null != duplicate) {
+                throw new IllegalArgumentException(
+                        "Two containers on node '" + node + "' have the name '" + duplicate + "'");
+            }
+        }
 
         resourceReports.forEach(resourceReport -> {
             final NodeIdentifier nodeName = resourceReport.getNodeName();
 
-            final Collection<LoadBalancerPlan.ContainerInfo> nodeContainerInfo = plan.getOrDefault(nodeName,
-                    Collections.emptyList());
+            final Collection<LoadBalancerPlan.ContainerInfo> nodeContainers = plan.get(nodeName);
+            final NodeContainerInfos nodeContainerInfo = nodeContainers instanceof NodeContainerInfos
+                    ? (NodeContainerInfos) nodeContainers
+                    : new NodeContainerInfos();
             resourceReport.getContainerReports().forEach((containerId, containerReport) -> {
 
-                final Optional<LoadBalancerPlan.ContainerInfo> found = nodeContainerInfo.stream()
-                        .filter(info -> containerId.equals(info.getId())).findAny();
+                final LoadBalancerPlan.ContainerInfo info = nodeContainerInfo.getById(containerId);
 
-                if (!found.isPresent()) {
+                if (null == info) {
                     // make sure all containers not STOPPING or STOPPED in the
                     // ServiceState are referenced
                     if (!ServiceStatus.STOPPED.equals(containerReport.getServiceStatus())
@@ -397,7 +402,6 @@ public class LoadBalancerPlanBuilder {
                     }
                 } else {
                     // make sure the service on a container isn't changing
-                    final LoadBalancerPlan.ContainerInfo info = found.get();
                     if (!containerReport.getService().equals(info.getService())) {
                         throw new IllegalArgumentException("Container '" + containerId + "' on node '" + nodeName
                                 + "' is currently running service '" + containerReport.getService()
@@ -412,6 +416,8 @@ public class LoadBalancerPlanBuilder {
 
     /**
      * 
+     * @param containers
+     *            the containers on the node
      * @param node
      *            the node to find the container on
      * @param container
@@ -421,16 +427,16 @@ public class LoadBalancerPlanBuilder {
      *             if the information cannot be found
      */
     @Nonnull
-    private LoadBalancerPlan.ContainerInfo findContainerInfo(@Nonnull final NodeIdentifier node,
+    private LoadBalancerPlan.ContainerInfo findContainerInfo(@Nonnull final NodeContainerInfos containers,
+            @Nonnull final NodeIdentifier node,
             @Nonnull final NodeIdentifier container) throws IllegalArgumentException {
-        final Optional<LoadBalancerPlan.ContainerInfo> infoFound = plan.getOrDefault(node, Collections.emptyList())
-                .stream().filter(i -> container.equals(i.getId())).findAny();
-        if (!infoFound.isPresent()) {
+        final LoadBalancerPlan.ContainerInfo info = containers.getById(container);
+        if (null == info) {
             throw new IllegalArgumentException(
                     "Cannot find container '" + container + "' on node '" + node + "' in " + plan);
         }
 
-        return infoFound.get();
+        return info;
     }
 
     @Override
@@ -0,0 +1,200 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The changes between 2 versions of a {@link LoadBalancerPlan}. The service
+ * plan is patched per node, the overflow plan per service. A patch records the
+ * version of the plan that it was computed against and can only be applied to
+ * that version.
+ */
+public final class LoadBalancerPlanPatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Compute the patch that turns one plan into another.
+     * 
+     * @param oldPlan
+     *            the original plan
+     * @param newPlan
+     *            the new plan
+     * @return the patch
+     * @throws IllegalArgumentException
+     *             if the plans are for different regions
+     */
+    @Nonnull
+    public static LoadBalancerPlanPatch diff(@Nonnull final LoadBalancerPlan oldPlan,
+            @Nonnull final LoadBalancerPlan newPlan) throws IllegalArgumentException {
+        if (!oldPlan.getRegion().equals(newPlan.getRegion())) {
+            throw new IllegalArgumentException("Cannot compute a patch between plans for different regions: "
+                    + oldPlan.getRegion() + " and " + newPlan.getRegion());
+        }
+
+        return new LoadBalancerPlanPatch(newPlan.getRegion(), version(oldPlan), newPlan.getTimestamp(),
+                MapPatch.diff(oldPlan.getServicePlan(), newPlan.getServicePlan()),
+                MapPatch.diff(oldPlan.getOverflowPlan(), newPlan.getOverflowPlan()));
+    }
+
+    /**
+     * Identify the contents of a plan. This is computed from the exact values
+     * in the plan rather than {@link LoadBalancerPlan#hashCode()} so that it's
+     * the same for any copy of the plan.
+     */
+    private static int version(final LoadBalancerPlan plan) {
+        return Objects.hash(plan.getRegion(), plan.getTimestamp(), plan.getServicePlan(), plan.getOverflowPlan());
+    }
+
+    private LoadBalancerPlanPatch(final RegionIdentifier region,
+            final int baseVersion,
+            final long timestamp,
+            final MapPatch<NodeIdentifier, ImmutableCollection<LoadBalancerPlan.ContainerInfo>> servicePlan,
+            final MapPatch<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> overflowPlan) {
+        this.region = region;
+        this.baseVersion = baseVersion;
+        this.timestamp = timestamp;
+        this.servicePlan = servicePlan;
+        this.overflowPlan = overflowPlan;
+    }
+
+    private final RegionIdentifier region;
+
+    /**
+     * @return the region of the plan
+     */
+    @Nonnull
+    public RegionIdentifier getRegion() {
+        return region;
+    }
+
+    private final int baseVersion;
+
+    private final long timestamp;
+
+    /**
+     * @return the timestamp of the new plan
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    private final MapPatch<NodeIdentifier, ImmutableCollection<LoadBalancerPlan.ContainerInfo>> servicePlan;
+
+    /**
+     * @return the changes to {@link LoadBalancerPlan#getServicePlan()}
+     */
+    @Nonnull
+    public MapPatch<NodeIdentifier, ImmutableCollection<LoadBalancerPlan.ContainerInfo>> getServicePlan() {
+        return servicePlan;
+    }
+
+    private final MapPatch<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> overflowPlan;
+
+    /**
+     * @return the changes to {@link LoadBalancerPlan#getOverflowPlan()}
+     */
+    @Nonnull
+    public MapPatch<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> getOverflowPlan() {
+        return overflowPlan;
+    }
+
+    /**
+     * @return the number of nodes and services changed by the patch
+     */
+    public int size() {
+        return servicePlan.size() + overflowPlan.size();
+    }
+
+    /**
+     * @param plan
+     *            the plan to check
+     * @return true if this patch was computed against the plan
+     */
+    public boolean appliesTo(@Nonnull final LoadBalancerPlan plan) {
+        return region.equals(plan.getRegion()) && baseVersion == version(plan);
+    }
+
+    /**
+     * Apply the patch.
+     * 
+     * @param base
+     *            the plan that the patch was computed against
+     * @return the new plan
+     * @throws IllegalArgumentException
+     *             if the patch was not computed against the plan
+     * @see #appliesTo(LoadBalancerPlan)
+     */
+    @Nonnull
+    public LoadBalancerPlan apply(@Nonnull final LoadBalancerPlan base) throws IllegalArgumentException {
+        if (!appliesTo(base)) {
+            throw new IllegalArgumentException("Patch for region " + region + " does not apply to " + base);
+        }
+        return new LoadBalancerPlan(region, timestamp, servicePlan.apply(base.getServicePlan()),
+                overflowPlan.apply(base.getOverflowPlan()));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(region, baseVersion, timestamp, servicePlan, overflowPlan);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (null == o) {
+            return false;
+        } else if (this == o) {
+            return true;
+        } else if (this.getClass().equals(o.getClass())) {
+            final LoadBalancerPlanPatch other = (LoadBalancerPlanPatch) o;
+            return baseVersion == other.baseVersion && timestamp == other.timestamp
+                    && Objects.equals(region, other.region) && Objects.equals(servicePlan, other.servicePlan)
+                    && Objects.equals(overflowPlan, other.overflowPlan);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + " [" + " region: " + region + " timestamp: " + timestamp
+                + " servicePlan: " + servicePlan + " overflowPlan: " + overflowPlan + " ]";
+    }
+
+}
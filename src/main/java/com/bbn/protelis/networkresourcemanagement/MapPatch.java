@@ -0,0 +1,178 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The changes between 2 maps. Entries are compared with
+ * {@link Objects#equals(Object, Object)}.
+ * 
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public final class MapPatch<K, V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Compute the changes needed to turn one map into another.
+     * 
+     * @param oldMap
+     *            the original map
+     * @param newMap
+     *            the new map
+     * @return the patch
+     * @param <K>
+     *            the key type
+     * @param <V>
+     *            the value type
+     */
+    @Nonnull
+    public static <K, V> MapPatch<K, V> diff(@Nonnull final Map<K, V> oldMap, @Nonnull final Map<K, V> newMap) {
+        final ImmutableMap.Builder<K, V> changed = ImmutableMap.builder();
+        newMap.forEach((key, value) -> {
+            if (!Objects.equals(value, oldMap.get(key))) {
+                changed.put(key, value);
+            }
+        });
+
+        final ImmutableSet.Builder<K> removed = ImmutableSet.builder();
+        oldMap.forEach((key, value) -> {
+            if (!newMap.containsKey(key)) {
+                removed.add(key);
+            }
+        });
+
+        return new MapPatch<>(changed.build(), removed.build());
+    }
+
+    /**
+     * 
+     * @param changed
+     *            see {@link #getChanged()}
+     * @param removed
+     *            see {@link #getRemoved()}
+     */
+    public MapPatch(@Nonnull final ImmutableMap<K, V> changed, @Nonnull final ImmutableSet<K> removed) {
+        this.changed = changed;
+        this.removed = removed;
+    }
+
+    private final ImmutableMap<K, V> changed;
+
+    /**
+     * @return entries that were added or have a new value
+     */
+    @Nonnull
+    public ImmutableMap<K, V> getChanged() {
+        return changed;
+    }
+
+    private final ImmutableSet<K> removed;
+
+    /**
+     * @return keys that were removed
+     */
+    @Nonnull
+    public ImmutableSet<K> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if the patch doesn't change anything
+     */
+    public boolean isEmpty() {
+        return changed.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * @return the number of entries added, changed or removed
+     */
+    public int size() {
+        return changed.size() + removed.size();
+    }
+
+    /**
+     * Apply this patch.
+     * 
+     * @param base
+     *            the map to apply the patch to
+     * @return a new map with the changes applied, base if the patch is empty
+     */
+    @Nonnull
+    public ImmutableMap<K, V> apply(@Nonnull final ImmutableMap<K, V> base) {
+        if (isEmpty()) {
+            return base;
+        }
+
+        final Map<K, V> result = new HashMap<>(base);
+        removed.forEach(result::remove);
+        result.putAll(changed);
+        return ImmutableMap.copyOf(result);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(changed, removed);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (null == o) {
+            return false;
+        } else if (this == o) {
+            return true;
+        } else if (this.getClass().equals(o.getClass())) {
+            final MapPatch<?, ?> other = (MapPatch<?, ?>) o;
+            return Objects.equals(changed, other.changed) && Objects.equals(removed, other.removed);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + " [ changed: " + changed + " removed: " + removed + " ]";
+    }
+
+}
@@ -0,0 +1,461 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Manages outgoing connections to neighbors of a {@link NodeNetworkManager}.
+ * Connection attempts are executed on an {@link Executor} so that the caller
+ * never blocks. A neighbor that fails to connect is not retried until its
+ * backoff has expired. The backoff doubles with each consecutive failure up to
+ * {@link #getMaxBackoff()} and is randomized to avoid all nodes redialing a
+ * neighbor at the same time.
+ */
+public final class NeighborConnectionManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NeighborConnectionManager.class);
+
+    /**
+     * Default value for {@link #getConnectTimeout()}.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 2000;
+
+    /**
+     * Default value for {@link #getHandshakeTimeout()}.
+     */
+    public static final int DEFAULT_HANDSHAKE_TIMEOUT_MS = 2000;
+
+    /**
+     * Default value for {@link #getInitialBackoff()}.
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 100;
+
+    /**
+     * Default value for {@link #getMaxBackoff()}.
+     */
+    public static final long DEFAULT_MAX_BACKOFF_MS = 30 * 1000;
+
+    /**
+     * Backoff is randomized between this fraction of the computed backoff and
+     * the full computed backoff.
+     */
+    private static final double MIN_JITTER_FRACTION = 0.5;
+
+    /**
+     * Limit on the shift used to compute the backoff so that it cannot
+     * overflow.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    /**
+     * The state of the connection to a neighbor.
+     */
+    public enum ConnectionState {
+        /**
+         * Not connected and a connection may be attempted.
+         */
+        IDLE,
+        /**
+         * A connection attempt is in progress.
+         */
+        CONNECTING,
+        /**
+         * The last attempt failed and the neighbor won't be contacted until
+         * the backoff expires.
+         */
+        BACKOFF,
+        /**
+         * Connected to the neighbor.
+         */
+        CONNECTED;
+    }
+
+    /**
+     * Connects to a neighbor. Called on a thread from the executor.
+     */
+    @FunctionalInterface
+    /* package */ interface Dialer {
+        /**
+         * Connect to a neighbor and complete the handshake.
+         * 
+         * @param neighbor
+         *            the neighbor to connect to
+         * @throws IOException
+         *             if the connection fails, {@link SocketTimeoutException}
+         *             is counted as a timeout
+         */
+        void dial(@Nonnull NodeIdentifier neighbor) throws IOException;
+    }
+
+    private static final class NeighborState {
+        private ConnectionState state = ConnectionState.IDLE;
+        private int consecutiveFailures = 0;
+        private long retryTime = 0;
+    }
+
+    private final Dialer dialer;
+    private final Executor executor;
+    private final LongSupplier nanoTime;
+    private final Random random;
+    private final Object lock = new Object();
+    private final Map<NodeIdentifier, NeighborState> states = new HashMap<>();
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong successfulDialTime = new AtomicLong();
+
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MS;
+    private volatile int handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT_MS;
+    private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF_MS;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF_MS;
+
+    /**
+     * 
+     * @param dialer
+     *            used to connect to neighbors
+     * @param executor
+     *            where connection attempts are executed
+     * @param nanoTime
+     *            the source of time for the backoff, normally
+     *            {@link System#nanoTime()}
+     * @param random
+     *            used to randomize the backoff
+     */
+    /* package */ NeighborConnectionManager(@Nonnull final Dialer dialer,
+            @Nonnull final Executor executor,
+            @Nonnull final LongSupplier nanoTime,
+            @Nonnull final Random random) {
+        this.dialer = dialer;
+        this.executor = executor;
+        this.nanoTime = nanoTime;
+        this.random = random;
+    }
+
+    /**
+     * @return how long to wait for a TCP connection to be established in
+     *         milliseconds
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getConnectTimeout()}
+     * @throws IllegalArgumentException
+     *             if the value is not positive
+     */
+    public void setConnectTimeout(final int v) {
+        if (v <= 0) {
+            throw new IllegalArgumentException("Connect timeout must be positive: " + v);
+        }
+        connectTimeout = v;
+    }
+
+    /**
+     * @return how long to wait for the neighbor to respond to the hello
+     *         message in milliseconds
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getHandshakeTimeout()}
+     * @throws IllegalArgumentException
+     *             if the value is not positive
+     */
+    public void setHandshakeTimeout(final int v) {
+        if (v <= 0) {
+            throw new IllegalArgumentException("Handshake timeout must be positive: " + v);
+        }
+        handshakeTimeout = v;
+    }
+
+    /**
+     * @return the backoff after the first failure in milliseconds
+     */
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * @return the largest backoff in milliseconds
+     */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * 
+     * @param initial
+     *            see {@link #getInitialBackoff()}
+     * @param max
+     *            see {@link #getMaxBackoff()}
+     * @throws IllegalArgumentException
+     *             if initial is not positive or max is less than initial
+     */
+    public void setBackoff(final long initial, final long max) {
+        if (initial <= 0 || max < initial) {
+            throw new IllegalArgumentException(
+                    "Backoff must be positive and max must be at least initial: " + initial + " " + max);
+        }
+        synchronized (lock) {
+            initialBackoff = initial;
+            maxBackoff = max;
+        }
+    }
+
+    /**
+     * Start connecting to a neighbor unless it's already connected, a
+     * connection attempt is in progress or the neighbor is in backoff. This
+     * method does not block.
+     * 
+     * @param neighbor
+     *            the neighbor to connect to
+     */
+    public void requestConnection(@Nonnull final NodeIdentifier neighbor) {
+        synchronized (lock) {
+            final NeighborState ns = states.computeIfAbsent(neighbor, k -> new NeighborState());
+            switch (ns.state) {
+            case CONNECTING:
+            case CONNECTED:
+                return;
+            case BACKOFF:
+                if (nanoTime.getAsLong() - ns.retryTime < 0) {
+                    return;
+                }
+                break;
+            case IDLE:
+                break;
+            default:
+                throw new IllegalStateException("Unknown connection state: " + ns.state);
+            }
+            ns.state = ConnectionState.CONNECTING;
+        }
+
+        attempts.incrementAndGet();
+        try {
+            executor.execute(() -> attemptConnection(neighbor));
+        } catch (final RejectedExecutionException e) {
+            LOGGER.debug("Connection attempt to {} rejected, the executor is full or shut down", neighbor, e);
+            synchronized (lock) {
+                states.get(neighbor).state = ConnectionState.IDLE;
+            }
+        }
+    }
+
+    private void attemptConnection(final NodeIdentifier neighbor) {
+        final long start = nanoTime.getAsLong();
+        try {
+            dialer.dial(neighbor);
+            successes.incrementAndGet();
+            successfulDialTime.addAndGet(nanoTime.getAsLong() - start);
+            synchronized (lock) {
+                final NeighborState ns = states.get(neighbor);
+                ns.consecutiveFailures = 0;
+                // the state is set to connected by the dialer through
+                // connected() if the connection was kept
+                if (ConnectionState.CONNECTING == ns.state) {
+                    ns.state = ConnectionState.IDLE;
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            if (e instanceof SocketTimeoutException) {
+                timeouts.incrementAndGet();
+            }
+
+            synchronized (lock) {
+                final NeighborState ns = states.get(neighbor);
+                ++ns.consecutiveFailures;
+                final long backoff = computeBackoff(ns.consecutiveFailures, initialBackoff, maxBackoff, random);
+                ns.retryTime = nanoTime.getAsLong() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                if (ConnectionState.CONNECTING == ns.state) {
+                    ns.state = ConnectionState.BACKOFF;
+                }
+                LOGGER.debug("Couldn't connect to neighbor: {}. Will try again in {} ms.", neighbor, backoff, e);
+            }
+        }
+    }
+
+    /**
+     * Compute the backoff after a number of consecutive failures.
+     * 
+     * @param failures
+     *            the number of consecutive failures, at least 1
+     * @param initial
+     *            the backoff after the first failure
+     * @param max
+     *            the largest backoff
+     * @param random
+     *            source of jitter
+     * @return the backoff in the same units as initial and max, between half
+     *         of the exponential backoff and the exponential backoff
+     */
+    /* package */ static long computeBackoff(final int failures,
+            final long initial,
+            final long max,
+            final Random random) {
+        final int shift = Math.min(Math.max(failures - 1, 0), MAX_BACKOFF_SHIFT);
+        final long exponential = initial << shift;
+        final long capped = exponential < initial ? max : Math.min(exponential, max);
+        final double fraction = MIN_JITTER_FRACTION + random.nextDouble() * (1 - MIN_JITTER_FRACTION);
+        return Math.max(1, Math.round(capped * fraction));
+    }
+
+    /**
+     * Called when a connection to the neighbor is established, either by this
+     * manager or by the neighbor connecting to this node.
+     * 
+     * @param neighbor
+     *            the neighbor
+     */
+    public void connected(@Nonnull final NodeIdentifier neighbor) {
+        synchronized (lock) {
+            final NeighborState ns = states.computeIfAbsent(neighbor, k -> new NeighborState());
+            ns.state = ConnectionState.CONNECTED;
+            ns.consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * Called when a connection to the neighbor is lost. The neighbor may be
+     * reconnected immediately.
+     * 
+     * @param neighbor
+     *            the neighbor
+     */
+    public void disconnected(@Nonnull final NodeIdentifier neighbor) {
+        synchronized (lock) {
+            final NeighborState ns = states.get(neighbor);
+            if (null != ns && ConnectionState.CONNECTED == ns.state) {
+                ns.state = ConnectionState.IDLE;
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param neighbor
+     *            the neighbor
+     * @return the state of the connection to the neighbor
+     */
+    @Nonnull
+    public ConnectionState getState(@Nonnull final NodeIdentifier neighbor) {
+        synchronized (lock) {
+            final NeighborState ns = states.get(neighbor);
+            return null == ns ? ConnectionState.IDLE : ns.state;
+        }
+    }
+
+    /**
+     * @return the number of neighbors in each state, neighbors that have never
+     *         been seen are not counted
+     */
+    @Nonnull
+    public ImmutableMap<ConnectionState, Integer> getStateCounts() {
+        final Map<ConnectionState, Integer> counts = new EnumMap<>(ConnectionState.class);
+        for (final ConnectionState state : ConnectionState.values()) {
+            counts.put(state, 0);
+        }
+        synchronized (lock) {
+            states.forEach((k, v) -> counts.merge(v.state, 1, Integer::sum));
+        }
+        return ImmutableMap.copyOf(counts);
+    }
+
+    /**
+     * @return the number of connection attempts started
+     */
+    public long getAttemptCount() {
+        return attempts.get();
+    }
+
+    /**
+     * @return the number of connection attempts that succeeded
+     */
+    public long getSuccessCount() {
+        return successes.get();
+    }
+
+    /**
+     * Divide by {@link #getSuccessCount()} to get the average connection setup
+     * time.
+     * 
+     * @return the total time spent in successful connection attempts,
+     *         including the handshake, in nanoseconds
+     */
+    public long getSuccessfulDialTime() {
+        return successfulDialTime.get();
+    }
+
+    /**
+     * @return the number of connection attempts that failed, including
+     *         timeouts
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return the number of connection attempts that failed because of a
+     *         connect or handshake timeout
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+}
@@ -41,6 +41,8 @@ import javax.annotation.Nonnull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableMap;
+
 /**
  * Represents a set of clients of for services in the network. Clients are an
  * endpoint in a network topology. Clients can only connect to nodes, they
@@ -56,6 +58,14 @@ public class NetworkClient implements NetworkNode {
      */
     public static final String EXTRA_DATA_NUM_CLIENTS_KEY = "numClients";
 
+    /**
+     * The key into extra data passed to
+     * {@link #NetworkClient(NodeIdentifier, Map)} that specifies the requests
+     * sent by each client. The value is a map of service name to a map parsed
+     * by {@link ClientLoadProfile#parse(Map)}.
+     */
+    public static final String EXTRA_DATA_LOAD_PROFILES_KEY = "loadProfiles";
+
     /**
      * Create a client with the specified name.
      * 
@@ -86,6 +96,46 @@ public class NetworkClient implements NetworkNode {
             }
         }
 
+        this.loadProfiles = parseLoadProfiles(extraData.get(EXTRA_DATA_LOAD_PROFILES_KEY));
+    }
+
+    @Nonnull
+    private ImmutableMap<ServiceIdentifier<?>, ClientLoadProfile> parseLoadProfiles(final Object raw) {
+        if (null == raw) {
+            return ImmutableMap.of();
+        } else if (!(raw instanceof Map)) {
+            LOGGER.warn("Load profiles for {} are not a map, ignoring: {}", uid, raw);
+            return ImmutableMap.of();
+        }
+
+        final ImmutableMap.Builder<ServiceIdentifier<?>, ClientLoadProfile> builder = ImmutableMap.builder();
+        ((Map<?, ?>) raw).forEach((serviceName, v) -> {
+            if (v instanceof Map) {
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> values = (Map<String, Object>) v;
+                try {
+                    builder.put(new StringServiceIdentifier(serviceName.toString()), ClientLoadProfile.parse(values));
+                } catch (final IllegalArgumentException e) {
+                    LOGGER.warn("Unable to parse load profile for service {} on {}: {}", serviceName, uid,
+                            e.getMessage());
+                }
+            } else {
+                LOGGER.warn("Load profile for service {} on {} is not a map, ignoring", serviceName, uid);
+            }
+        });
+        return builder.build();
+    }
+
+    private final ImmutableMap<ServiceIdentifier<?>, ClientLoadProfile> loadProfiles;
+
+    /**
+     * @return service -> requests sent by each of the {@link #getNumClients()}
+     *         clients
+     * @see #EXTRA_DATA_LOAD_PROFILES_KEY
+     */
+    @Nonnull
+    public ImmutableMap<ServiceIdentifier<?>, ClientLoadProfile> getLoadProfiles() {
+        return loadProfiles;
     }
 
     private final NodeIdentifier uid;
@@ -37,11 +37,13 @@ import java.io.IOException;
 import java.io.OptionalDataException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.checkerframework.checker.lock.qual.GuardedBy;
@@ -59,7 +61,7 @@ final class NetworkNeighbor {
     private final Logger logger;
 
     @GuardedBy("sharedValuesLock")
-    private Map<CodePath, Object> sharedValues = new HashMap<>();
+    private Map<CodePath, Object> sharedValues;
     private final Object sharedValuesLock = new Object();
 
     /**
@@ -96,13 +98,31 @@ final class NetworkNeighbor {
     private final Thread readThread;
     private final Thread sendThread;
 
+    /**
+     * 
+     * @param session
+     *            the initial delta state, see
+     *            {@link ApSession#resume(long, ApSession, HelloMessage)}
+     * @param dictionary
+     *            the compression dictionary agreed with the neighbor, null if
+     *            there isn't one
+     * @param identifierTableSize
+     *            the identifier table size agreed with the neighbor, 0 to not
+     *            use an identifier table
+     * @param metrics
+     *            where to record messages sent and frames dropped
+     */
     /* package */ NetworkNeighbor(final NetworkServer selfNode,
             final NodeIdentifier neighborUid,
             final int nonce,
             final InetSocketAddress addr,
             final Socket s,
             final DataInputStream input,
-            final DataOutputStream output) {
+            final DataOutputStream output,
+            final ApSession session,
+            final CompressionDictionary dictionary,
+            final int identifierTableSize,
+            final ApConnectionMetrics metrics) {
         final String baseName = String.format("%s_to_%s_port_%d", selfNode.getNodeIdentifier(), neighborUid,
                 addr.getPort());
 
@@ -115,6 +135,109 @@ final class NetworkNeighbor {
         this.output = output;
         this.socket = s;
         this.nonce = nonce;
+        this.metrics = metrics;
+        this.selfNode = selfNode;
+        this.dictionary = dictionary;
+        this.identifierTableSize = identifierTableSize;
+        if (identifierTableSize > 0) {
+            this.sendIdentifiers = new IdentifierTable(identifierTableSize);
+            this.receiveIdentifiers = new IdentifierTable(identifierTableSize);
+        } else {
+            this.sendIdentifiers = null;
+            this.receiveIdentifiers = null;
+        }
+        this.neighborUid = neighborUid;
+        this.compressionStatistics = metrics.getCompressionStatistics(neighborUid);
+        this.droppedFrames = metrics.getDroppedFramesCounter();
+
+        this.peerSessionId = session.getPeerSessionId();
+        this.sharedValues = new HashMap<>(session.getReceivedState());
+        this.receivedSequence = session.getReceivedSequence();
+        this.previouslySentState = session.getSentState();
+        this.sentSequence = session.getSentSequence();
+    }
+
+    private final long peerSessionId;
+    private final ApConnectionMetrics metrics;
+    private final NetworkServer selfNode;
+    private final CompressionDictionary dictionary;
+    private final int identifierTableSize;
+    /**
+     * Only used by the send thread, null if not used. Replaced with an empty
+     * table when the neighbor starts a new epoch.
+     */
+    private IdentifierTable sendIdentifiers;
+    /**
+     * Only used by the send thread, the epoch that {@link #sendIdentifiers}
+     * belongs to.
+     */
+    private byte sendIdentifiersEpoch = 0;
+    /**
+     * Only used by the receive thread, null if not used. Replaced with an
+     * empty table each time {@link #receiveEpoch} changes.
+     */
+    private IdentifierTable receiveIdentifiers;
+    /**
+     * Only used by the receive thread. AP shares from other epochs were sent
+     * before the neighbor saw the last full state request and are ignored.
+     */
+    private byte receiveEpoch = 0;
+    private final NodeIdentifier neighborUid;
+    private final CompressionStatistics compressionStatistics;
+    private final AtomicLong droppedFrames;
+
+    /**
+     * Sequence number of the last AP message from the neighbor that was
+     * applied to {@link #sharedValues}.
+     */
+    @GuardedBy("sharedValuesLock")
+    private long receivedSequence;
+
+    /**
+     * Number of AP messages sent to the neighbor, which is also the sequence
+     * number of the last message sent.
+     */
+    @GuardedBy("sessionLock")
+    private long sentSequence;
+
+    /**
+     * Set when the neighbor asks for the full state, the next AP message is
+     * then sent without delta compression.
+     */
+    @GuardedBy("sessionLock")
+    private boolean fullStateRequested = false;
+
+    /**
+     * Epoch written in AP shares, set from the last full state request of the
+     * neighbor.
+     */
+    @GuardedBy("sessionLock")
+    private byte sendEpoch = 0;
+
+    private final Object sessionLock = new Object();
+
+    /**
+     * The state is consistent with what has been sent and received when the
+     * connection is no longer running.
+     * 
+     * @return the delta state of this connection
+     */
+    /* package */ ApSession getSession() {
+        final Map<CodePath, Object> sent;
+        final long sentSeq;
+        synchronized (sessionLock) {
+            sent = previouslySentState;
+            sentSeq = sentSequence;
+        }
+
+        final Map<CodePath, Object> received;
+        final long receivedSeq;
+        synchronized (sharedValuesLock) {
+            received = sharedValues;
+            receivedSeq = receivedSequence;
+        }
+
+        return new ApSession(peerSessionId, sent, sentSeq, received, receivedSeq);
     }
 
     private AtomicBoolean running = new AtomicBoolean(false);
@@ -144,6 +267,18 @@ final class NetworkNeighbor {
 
     private final Random random = new Random();
 
+    /**
+     * Decide if a received AP share should be dropped to simulate a lost
+     * message, see {@link GlobalNetworkConfiguration#getMessageDropPercentage()}.
+     * A dropped share is treated like a frame lost on the network. It isn't
+     * applied and the sequence number isn't advanced. The next share then
+     * shows a gap, so the receiver asks the neighbor for its full state and
+     * ignores deltas until the full state arrives. Each simulated drop
+     * therefore costs a full state round trip, not just the loss of a single
+     * share as it did before the sequence numbers were added.
+     * 
+     * @return true if the share should be dropped
+     */
     private boolean simulateDroppedMessage() {
         final double messageDropPercentage = GlobalNetworkConfiguration.getInstance().getMessageDropPercentage();
         if (messageDropPercentage > 0) {
@@ -156,31 +291,110 @@ final class NetworkNeighbor {
     }
 
     /**
-     * Listen for incoming packets
+     * Listen for incoming packets. Frames that are corrupt or can't be decoded
+     * are dropped and counted rather than closing the connection. A dropped AP
+     * share isn't counted as received so that a later session resumption
+     * sends the full state. A delta can only be applied on top of the message
+     * before it, so when a share is dropped, the sequence numbers show a gap
+     * or a plan patch doesn't apply to the current plan, the neighbor is asked
+     * for its full state and deltas are ignored until it arrives.
+     * 
+     * Asking for the full state starts a new epoch, which is carried in the
+     * request and in each AP share. Both sides start the epoch with empty
+     * identifier tables, so a lost or undecodable share that left the tables
+     * out of step is recovered from like any other lost share. Shares from an
+     * earlier epoch are ignored without being decoded, each one repeats the
+     * request in case it was lost. With an identifier table a resync also
+     * starts a new epoch, as the lost frame may have added names to the
+     * neighbor's table and later shares would then decode to the wrong
+     * names.
      */
     private void readData() {
-        try {
+        try (ApFraming.Reader reader = new ApFraming.Reader(input, droppedFrames)) {
+            long resyncs = 0;
             while (running.get()) {
-                final byte messageType = input.readByte();
+                reader.next();
+                if (resyncs != reader.getResyncCount()) {
+                    resyncs = reader.getResyncCount();
+                    if (null != receiveIdentifiers) {
+                        logger.warn("Lost a frame while using an identifier table, asking for the full state");
+                        startEpoch();
+                    }
+                }
+
+                final byte messageType = reader.getType();
                 if (NodeNetworkManager.MESSAGE_TYPE_AP_SHARE == messageType) {
-                    final ShareDataMessage msg = ShareDataMessage.readMessage(input);
+                    if (reader.getPayloadLength() < AP_SHARE_HEADER_SIZE) {
+                        // the gap in the sequence numbers is seen with the
+                        // next share
+                        logger.warn("AP share is too small for its header ({} bytes), dropping it",
+                                reader.getPayloadLength());
+                        droppedFrames.incrementAndGet();
+                        if (null != receiveIdentifiers) {
+                            startEpoch();
+                        }
+                        continue;
+                    }
+                    final byte[] payload = reader.getPayloadBuffer();
+                    final int headerOffset = reader.getPayloadOffset();
+                    final long sequence = ApFraming.getLong(payload, headerOffset);
+                    final boolean fullState = AP_SHARE_FULL_STATE == payload[headerOffset + Long.BYTES];
+                    final byte epoch = payload[headerOffset + Long.BYTES + Byte.BYTES];
+                    if (receiveEpoch != epoch) {
+                        logger.debug("Ignoring AP share {} from epoch {} while waiting for the full state in {}",
+                                sequence, epoch, receiveEpoch);
+                        requestFullState();
+                        continue;
+                    }
+
+                    final ShareDataMessage msg;
+                    try {
+                        msg = decodeApShare(reader);
+                    } catch (final StreamSyncLostException e) {
+                        droppedFrames.incrementAndGet();
+                        logger.warn("Unable to decode AP share {}, dropping it and asking for the full state",
+                                sequence, e);
+                        startEpoch();
+                        continue;
+                    }
 
-                    if (!simulateDroppedMessage()) {
-                        synchronized (sharedValuesLock) {
-                            sharedValues = applyDelta(msg.getData());
+                    boolean missed = false;
+                    synchronized (sharedValuesLock) {
+                        if (simulateDroppedMessage()) {
+                            // like a lost frame, the gap is seen with the next
+                            // share
+                            logger.trace("Simulating a dropped AP share {}", sequence);
+                        } else if (fullState) {
+                            sharedValues = new HashMap<>(msg.getData());
+                            receivedSequence = sequence;
+                        } else if (sequence == receivedSequence + 1) {
+                            final Map<CodePath, Object> updated = applyDelta(msg.getData());
+                            if (null == updated) {
+                                missed = true;
+                            } else {
+                                sharedValues = updated;
+                                receivedSequence = sequence;
+                            }
+                        } else {
+                            logger.debug("Received AP share {} after {}, ignoring deltas until the full state arrives",
+                                    sequence, receivedSequence);
+                            missed = true;
                         }
                     }
+                    if (missed) {
+                        startEpoch();
+                    }
+                } else if (NodeNetworkManager.MESSAGE_TYPE_FULL_STATE_REQUEST == messageType) {
+                    receiveFullStateRequest(reader);
                 } else if (NodeNetworkManager.MESSAGE_TYPE_CLOSE == messageType) {
                     logger.debug("Received close connection message, exiting");
                     break;
                 } else {
-                    logger.error("Received unexpected message type ({}), assuming corrupted stream and exiting",
+                    logger.warn("Received unexpected message type ({}), dropping it",
                             String.format("%02x", messageType));
-                    break;
+                    droppedFrames.incrementAndGet();
                 }
             }
-        } catch (final StreamSyncLostException e) {
-            logger.error("Lost sync of the AP stream", e);
         } catch (final OptionalDataException e) {
             logger.error("failed to read data from neighbor. eof: " + e.eof + " length: " + e.length, e);
         } catch (final IOException e) {
@@ -267,7 +481,7 @@ final class NetworkNeighbor {
     }
 
     private void sendData() {
-        try {
+        try (ApFraming.Writer frame = new ApFraming.Writer(FrameBufferPool.SHARED)) {
             while (running.get()) {
                 final Map<CodePath, Object> toSend;
 
@@ -286,7 +500,7 @@ final class NetworkNeighbor {
 
                 if (null != toSend) {
                     logger.trace("Sending ap state");
-                    sendApState(toSend);
+                    sendApState(frame, toSend);
                 }
             }
         } catch (final IOException e) {
@@ -305,97 +519,295 @@ final class NetworkNeighbor {
         }
     }
 
-    private Map<CodePath, Object> previouslySentState = new HashMap<>();
+    /**
+     * Start a new receive epoch with an empty identifier table and ask the
+     * neighbor for its full state in that epoch. Only called from the receive
+     * thread.
+     * 
+     * @throws IOException
+     *             if there is an error writing to the neighbor
+     */
+    private void startEpoch() throws IOException {
+        ++receiveEpoch;
+        if (null != receiveIdentifiers) {
+            receiveIdentifiers = new IdentifierTable(identifierTableSize);
+        }
+        requestFullState();
+    }
+
+    /**
+     * Ask the neighbor to send its full state in {@link #receiveEpoch}.
+     * 
+     * @throws IOException
+     *             if there is an error writing to the neighbor
+     */
+    private void requestFullState() throws IOException {
+        final byte[] payload = new byte[] { receiveEpoch };
+        synchronized (sendLock) {
+            ApFraming.writeFrame(output, NodeNetworkManager.MESSAGE_TYPE_FULL_STATE_REQUEST, payload, 0,
+                    payload.length);
+            output.flush();
+        }
+    }
+
+    /**
+     * Handle a request from the neighbor for the full state. A request for
+     * the current epoch was already handled and is ignored. Otherwise the next
+     * AP share starts the requested epoch with the full state and an empty
+     * identifier table, and the last state is sent again if nothing new is
+     * waiting to be sent.
+     */
+    private void receiveFullStateRequest(final ApFraming.Reader reader) {
+        if (Byte.BYTES != reader.getPayloadLength()) {
+            logger.warn("Full state request has an invalid size ({} bytes), dropping it",
+                    reader.getPayloadLength());
+            droppedFrames.incrementAndGet();
+            return;
+        }
+        final byte epoch = reader.getPayloadBuffer()[reader.getPayloadOffset()];
+
+        final Map<CodePath, Object> lastSent;
+        synchronized (sessionLock) {
+            if (sendEpoch == epoch) {
+                logger.debug("Already sending in epoch {}, ignoring the full state request", epoch);
+                return;
+            }
+            logger.debug("Neighbor asked for the full state in epoch {}", epoch);
+            sendEpoch = epoch;
+            fullStateRequested = true;
+            lastSent = previouslySentState;
+        }
+
+        synchronized (apDataLock) {
+            if (null == nextApStateToShare && null != lastSent) {
+                nextApStateToShare = lastSent;
+                apDataLock.notifyAll();
+            }
+        }
+    }
+
+    private ShareDataMessage decodeApShare(final ApFraming.Reader reader)
+            throws IOException, StreamSyncLostException {
+        final int offset = reader.getPayloadOffset() + AP_SHARE_HEADER_SIZE;
+        final int length = reader.getPayloadLength() - AP_SHARE_HEADER_SIZE;
+        if (null == receiveIdentifiers) {
+            return ShareDataMessage.decode(reader.getPayloadBuffer(), offset, length, reader.getFlags(),
+                    dictionary);
+        } else {
+            final IdentifierTable previousTable = receiveIdentifiers.activate();
+            try {
+                return ShareDataMessage.decode(reader.getPayloadBuffer(), offset, length, reader.getFlags(),
+                        dictionary);
+            } finally {
+                IdentifierTable.restore(previousTable);
+            }
+        }
+    }
+
+    /**
+     * Size of the header at the start of the payload of an AP share, the
+     * sequence number of the message, {@link #AP_SHARE_DELTA} or
+     * {@link #AP_SHARE_FULL_STATE}, and the epoch.
+     */
+    private static final int AP_SHARE_HEADER_SIZE = Long.BYTES + Byte.BYTES + Byte.BYTES;
+    /**
+     * The AP share is a delta against the previous message.
+     */
+    private static final byte AP_SHARE_DELTA = 0;
+    /**
+     * The AP share contains the full state and replaces the shared values.
+     */
+    private static final byte AP_SHARE_FULL_STATE = 1;
+
+    @GuardedBy("sessionLock")
+    private Map<CodePath, Object> previouslySentState;
 
     private static final String AP_STATE_DELETE_KEY = "delete-key";
 
+    /**
+     * Apply a delta received from the neighbor to the current shared values.
+     * Called with {@link #sharedValuesLock} held.
+     * 
+     * @return the new shared values or null if a plan patch in the delta
+     *         doesn't apply to the current value, in which case the full state
+     *         needs to be requested from the neighbor
+     */
     private Map<CodePath, Object> applyDelta(final Map<CodePath, Object> receivedData) {
-        if (GlobalNetworkConfiguration.getInstance().getUseDeltaCompression()) {
-            final Map<CodePath, Object> newShared = getSharedValues();
-            receivedData.forEach((codePath, newValue) -> {
-                if (AP_STATE_DELETE_KEY.equals(newValue)) {
-                    newShared.remove(codePath);
+        final Map<CodePath, Object> newShared = getSharedValues();
+        for (final Map.Entry<CodePath, Object> entry : receivedData.entrySet()) {
+            final CodePath codePath = entry.getKey();
+            final Object newValue = entry.getValue();
+            if (AP_STATE_DELETE_KEY.equals(newValue)) {
+                newShared.remove(codePath);
+            } else if (newValue instanceof LoadBalancerPlanPatch || newValue instanceof RegionPlanPatch) {
+                final Object patched = applyPlanPatch(newShared.get(codePath), newValue);
+                if (null == patched) {
+                    logger.warn("Received a plan patch for {} that doesn't apply to the current value", codePath);
+                    return null;
                 } else {
-                    newShared.put(codePath, newValue);
+                    newShared.put(codePath, patched);
                 }
-            });
-            return newShared;
-        } else {
-            return receivedData;
+            } else {
+                newShared.put(codePath, newValue);
+            }
         }
+        return newShared;
     }
 
-    private Map<CodePath, Object> doDeltaCompression(final Map<CodePath, Object> toSend) {
-        if (GlobalNetworkConfiguration.getInstance().getUseDeltaCompression()) {
-            // use parallel stream in case the equals implementation is slow
-            final Map<CodePath, Object> newData = toSend.entrySet().parallelStream() //
-                    .map(entry -> {
-                        final CodePath path = entry.getKey();
-                        final Object data = entry.getValue();
-                        if (previouslySentState.containsKey(path)) {
-                            final Object prevData = previouslySentState.get(path);
-                            if (Objects.equals(prevData, data)) {
-                                // if the data hasn't changed, don't send it
-                                return null;
-                            } else {
-                                return entry;
-                            }
+    private Map<CodePath, Object> doDeltaCompression(final Map<CodePath, Object> previous,
+            final Map<CodePath, Object> toSend) {
+        // use parallel stream in case the equals implementation is slow
+        final Map<CodePath, Object> newData = toSend.entrySet().parallelStream() //
+                .map(entry -> {
+                    final CodePath path = entry.getKey();
+                    final Object data = entry.getValue();
+                    if (previous.containsKey(path)) {
+                        final Object prevData = previous.get(path);
+                        if (Objects.equals(prevData, data)) {
+                            // if the data hasn't changed, don't send it
+                            return null;
                         } else {
-                            return entry;
+                            return new AbstractMap.SimpleImmutableEntry<>(path, createPlanPatch(prevData, data));
                         }
-                    }) //
-                    .filter(e -> null != e) //
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-            previouslySentState.forEach((codePath, value) -> {
-                if (!toSend.containsKey(codePath)) {
-                    newData.put(codePath, AP_STATE_DELETE_KEY);
+                    } else {
+                        return entry;
+                    }
+                }) //
+                .filter(e -> null != e) //
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        previous.forEach((codePath, value) -> {
+            if (!toSend.containsKey(codePath)) {
+                newData.put(codePath, AP_STATE_DELETE_KEY);
+            }
+        });
+        return newData;
+    }
+
+    /**
+     * If both values are the same type of plan and the patch between them
+     * changes less than the whole plan, return the patch. Otherwise return
+     * the new value.
+     */
+    private static Object createPlanPatch(final Object prevData, final Object data) {
+        if (!GlobalNetworkConfiguration.getInstance().getUsePlanPatches()) {
+            return data;
+        } else if (prevData instanceof LoadBalancerPlan && data instanceof LoadBalancerPlan) {
+            final LoadBalancerPlan prevPlan = (LoadBalancerPlan) prevData;
+            final LoadBalancerPlan plan = (LoadBalancerPlan) data;
+            if (prevPlan.getRegion().equals(plan.getRegion())) {
+                final LoadBalancerPlanPatch patch = LoadBalancerPlanPatch.diff(prevPlan, plan);
+                if (patch.size() < plan.getServicePlan().size() + plan.getOverflowPlan().size()) {
+                    return patch;
                 }
-            });
-            return newData;
-        } else {
-            return toSend;
+            }
+        } else if (prevData instanceof RegionPlan && data instanceof RegionPlan) {
+            final RegionPlan prevPlan = (RegionPlan) prevData;
+            final RegionPlan plan = (RegionPlan) data;
+            if (prevPlan.getRegion().equals(plan.getRegion())) {
+                final RegionPlanPatch patch = RegionPlanPatch.diff(prevPlan, plan);
+                if (patch.size() < plan.getPlan().size()) {
+                    return patch;
+                }
+            }
         }
+        return data;
     }
 
-    private void sendApState(final Map<CodePath, Object> fullToSend) throws IOException {
+    /**
+     * @return the patched plan or null if the patch doesn't apply to the base
+     */
+    private static Object applyPlanPatch(final Object base, final Object patch) {
+        if (patch instanceof LoadBalancerPlanPatch && base instanceof LoadBalancerPlan) {
+            final LoadBalancerPlanPatch p = (LoadBalancerPlanPatch) patch;
+            final LoadBalancerPlan plan = (LoadBalancerPlan) base;
+            if (p.appliesTo(plan)) {
+                return p.apply(plan);
+            }
+        } else if (patch instanceof RegionPlanPatch && base instanceof RegionPlan) {
+            final RegionPlanPatch p = (RegionPlanPatch) patch;
+            final RegionPlan plan = (RegionPlan) base;
+            if (p.appliesTo(plan)) {
+                return p.apply(plan);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encode the AP state directly into the frame buffer owned by the send
+     * thread and write the frame to the socket in one call. Compression is
+     * chosen using the bandwidth of the link to the neighbor. The full state
+     * is sent when delta compression is disabled or the neighbor asked for it.
+     */
+    private void sendApState(final ApFraming.Writer frame, final Map<CodePath, Object> fullToSend)
+            throws IOException {
 
         // The encoding of the message is done here rather than in
         // NodeNetworkManager so that we can do delta
         // compression on the Map.
-        final Map<CodePath, Object> deltaToSend = doDeltaCompression(fullToSend);
+        final Map<CodePath, Object> previous;
+        final boolean fullState;
+        final long sequence;
+        final byte epoch;
+        synchronized (sessionLock) {
+            previous = previouslySentState;
+            fullState = fullStateRequested || !GlobalNetworkConfiguration.getInstance().getUseDeltaCompression();
+            fullStateRequested = false;
+            sequence = sentSequence + 1;
+            epoch = sendEpoch;
+        }
+        final Map<CodePath, Object> deltaToSend = fullState ? fullToSend : doDeltaCompression(previous, fullToSend);
+
+        if (!running.get()) {
+            return;
+        }
+
+        final long allocationStart = ApConnectionMetrics.startAllocationMeasurement();
 
         logger.debug("Start encode AP data");
-        final ShareDataMessage message = new ShareDataMessage(deltaToSend);
+        final Double bandwidth = selfNode.getNeighborsWithBandwidth().get(neighborUid);
+        frame.begin(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE);
+        frame.writeLong(sequence);
+        frame.write(fullState ? AP_SHARE_FULL_STATE : AP_SHARE_DELTA);
+        frame.write(epoch);
+        if (null != sendIdentifiers && sendIdentifiersEpoch != epoch) {
+            // the neighbor emptied its table when it started the epoch
+            sendIdentifiers = new IdentifierTable(identifierTableSize);
+            sendIdentifiersEpoch = epoch;
+        }
+        if (null == sendIdentifiers) {
+            ShareDataMessage.encode(deltaToSend, frame, null == bandwidth ? Double.NaN : bandwidth, dictionary,
+                    compressionStatistics);
+        } else {
+            // an exception here leaves the table out of step with the
+            // neighbor, sendData() then closes the connection
+            final IdentifierTable previousTable = sendIdentifiers.activate();
+            try {
+                ShareDataMessage.encode(deltaToSend, frame, null == bandwidth ? Double.NaN : bandwidth,
+                        dictionary, compressionStatistics);
+            } finally {
+                IdentifierTable.restore(previousTable);
+            }
+        }
         logger.debug("End encode AP data");
 
         logger.debug("Start send of AP data");
-        sendMessage(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE, message);
-        logger.debug("End send of AP data");
-
-        // if sendMessage didn't throw an exception, we assume that the state
-        // has been sent
-        previouslySentState = fullToSend;
-    }
+        final int frameSize;
+        synchronized (sendLock) {
+            frameSize = frame.writeTo(output);
 
-    /**
-     * Send a message to this neighbor.
-     * 
-     * @param toSend
-     *            what to send
-     * @throws IOException
-     *             when there is an error writing
-     */
-    private void sendMessage(final byte messageType, final ApMessage msg) throws IOException {
-        if (running.get()) {
-            synchronized (sendLock) {
-                output.writeByte(messageType);
-                msg.writeMessage(output);
+            logger.trace("sendApState is calling flush");
+            output.flush();
+        }
+        logger.debug("End send of AP data");
 
-                logger.trace("sendMessage is calling flush");
-                output.flush();
+        metrics.recordSend(allocationStart, frameSize);
 
-                logger.trace("sendMessage finished");
-            }
+        // if writing didn't throw an exception, we assume that the state
+        // has been sent
+        synchronized (sessionLock) {
+            previouslySentState = fullToSend;
+            sentSequence = sequence;
         }
     }
 
@@ -31,10 +31,14 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 BBN_LICENSE_END*/
 package com.bbn.protelis.networkresourcemanagement;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -156,34 +160,60 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
      * The neighboring nodes with the bandwidth to the neighbor.
      * 
      * @return Key is the neighbor, value is the datarate in megabits per
-     *         second.
+     *         second. This is an immutable snapshot that doesn't change when
+     *         neighbors are added, modifying it throws
+     *         {@link UnsupportedOperationException}. Callers that need a
+     *         modifiable map must copy it.
      * @see #addNeighbor(NodeIdentifier, double)
      */
     public Map<NodeIdentifier, Double> getNeighborsWithBandwidth() {
-        synchronized (lock) {
-            return new HashMap<>(neighbors);
-        }
+        return neighborSnapshot.getNeighborsWithBandwidth();
     }
 
-    private final Map<NodeIdentifier, Double> neighbors = new HashMap<>();
-    private final Set<NodeIdentifier> apNeighbors = new HashSet<>();
-
+    /**
+     * {@inheritDoc}
+     * 
+     * @return an immutable snapshot that doesn't change when neighbors are
+     *         added, modifying it throws
+     *         {@link UnsupportedOperationException}. Callers that need a
+     *         modifiable set must copy it.
+     */
     @Override
     @Nonnull
     public final Set<NodeIdentifier> getNeighbors() {
-        synchronized (lock) {
-            return new HashSet<>(neighbors.keySet());
-        }
+        return neighborSnapshot.getNeighbors();
     }
 
     /**
      * 
-     * @return all neighbors that participate in AP sharing
+     * @return all neighbors that participate in AP sharing. This is an
+     *         immutable snapshot that doesn't change when neighbors are
+     *         added, modifying it throws
+     *         {@link UnsupportedOperationException}. Callers that need a
+     *         modifiable set must copy it.
      */
     public Set<NodeIdentifier> getApNeighbors() {
-        synchronized (lock) {
-            return new HashSet<>(apNeighbors);
-        }
+        return neighborSnapshot.getApNeighbors();
+    }
+
+    /**
+     * Use this when more than one of the neighbor properties is needed to
+     * ensure that they are consistent with each other.
+     * 
+     * @return the current neighbor snapshot
+     */
+    @Nonnull
+    public NeighborSnapshot getNeighborSnapshot() {
+        return neighborSnapshot;
+    }
+
+    /**
+     * @return the version of the neighbor information, this changes each time
+     *         a neighbor is added
+     * @see NeighborSnapshot#getVersion()
+     */
+    public long getNeighborsVersion() {
+        return neighborSnapshot.getVersion();
     }
 
     /**
@@ -197,13 +227,23 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
 
     /**
      * 
-     * @return the set of neighbors that are currently connected to AP
+     * @return the set of neighbors that are currently connected to AP, an
+     *         immutable snapshot
      * @see NodeNetworkManager#getConnectedNeighbors()
      */
     public Set<NodeIdentifier> getConnectedNeighbors() {
         return accessNetworkManager().getConnectedNeighbors();
     }
 
+    /**
+     * 
+     * @return the version of the connected neighbors
+     * @see NodeNetworkManager#getConnectedNeighborsVersion()
+     */
+    public long getConnectedNeighborsVersion() {
+        return accessNetworkManager().getConnectedNeighborsVersion();
+    }
+
     /**
      * Add an AP neighbor by identifier. This neighbor will be contacted by AP.
      * When possible the method {link {@link #addNeighbor(NetworkNode, double)}
@@ -217,8 +257,7 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
      */
     public final void addApNeighbor(@Nonnull final NodeIdentifier v, final double bandwidth) {
         synchronized (lock) {
-            apNeighbors.add(v);
-            neighbors.put(v, bandwidth);
+            neighborSnapshot = neighborSnapshot.withNeighbor(v, bandwidth, true);
         }
     }
 
@@ -226,10 +265,137 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
     public final void addNeighbor(@Nonnull final NetworkNode v, final double bandwidth) {
         synchronized (lock) {
             // all NetworkServer instances are involved in AP
-            if (v instanceof NetworkServer) {
-                apNeighbors.add(v.getNodeIdentifier());
+            neighborSnapshot = neighborSnapshot.withNeighbor(v.getNodeIdentifier(), bandwidth,
+                    v instanceof NetworkServer);
+        }
+    }
+
+    /**
+     * Immutable view of the neighbors of a node. A new snapshot with a higher
+     * version is created each time the neighbors change, so readers don't need
+     * to lock or copy and can skip work if the version hasn't changed. The
+     * only mutable state is a cache of capacity maps, which only ever has
+     * values added.
+     */
+    public static final class NeighborSnapshot {
+        private final long version;
+        private final ImmutableMap<NodeIdentifier, Double> bandwidth;
+        private final ImmutableSet<NodeIdentifier> apNeighbors;
+        private final ImmutableMap<NodeIdentifier, InterfaceIdentifier> interfaces;
+        private final ConcurrentMap<LinkAttribute, ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>>> capacity = new ConcurrentHashMap<>();
+
+        private NeighborSnapshot(final long version,
+                final ImmutableMap<NodeIdentifier, Double> bandwidth,
+                final ImmutableSet<NodeIdentifier> apNeighbors,
+                final ImmutableMap<NodeIdentifier, InterfaceIdentifier> interfaces) {
+            this.version = version;
+            this.bandwidth = bandwidth;
+            this.apNeighbors = apNeighbors;
+            this.interfaces = interfaces;
+        }
+
+        /**
+         * @return the version of this snapshot, starts at 0 and increases each
+         *         time the neighbors change
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return all neighbors
+         */
+        @Nonnull
+        public ImmutableSet<NodeIdentifier> getNeighbors() {
+            return bandwidth.keySet();
+        }
+
+        /**
+         * @return the neighbors that participate in AP sharing
+         */
+        @Nonnull
+        public ImmutableSet<NodeIdentifier> getApNeighbors() {
+            return apNeighbors;
+        }
+
+        /**
+         * @return neighbor to datarate in megabits per second
+         */
+        @Nonnull
+        public ImmutableMap<NodeIdentifier, Double> getNeighborsWithBandwidth() {
+            return bandwidth;
+        }
+
+        /**
+         * Create a new snapshot with a neighbor added or its bandwidth
+         * replaced. Interface identifiers of existing neighbors are reused.
+         */
+        private NeighborSnapshot withNeighbor(final NodeIdentifier neighbor,
+                final double neighborBandwidth,
+                final boolean ap) {
+            final Map<NodeIdentifier, Double> newBandwidth = new HashMap<>(bandwidth);
+            newBandwidth.put(neighbor, neighborBandwidth);
+
+            final ImmutableSet<NodeIdentifier> newApNeighbors;
+            if (ap && !apNeighbors.contains(neighbor)) {
+                newApNeighbors = ImmutableSet.<NodeIdentifier> builder().addAll(apNeighbors).add(neighbor).build();
+            } else {
+                newApNeighbors = apNeighbors;
+            }
+
+            final ImmutableMap<NodeIdentifier, InterfaceIdentifier> newInterfaces;
+            if (interfaces.containsKey(neighbor)) {
+                newInterfaces = interfaces;
+            } else {
+                newInterfaces = ImmutableMap.<NodeIdentifier, InterfaceIdentifier> builder().putAll(interfaces)
+                        .put(neighbor, BasicResourceManager.createInterfaceIdentifierForNeighbor(neighbor)).build();
             }
-            neighbors.put(v.getNodeIdentifier(), bandwidth);
+
+            return new NeighborSnapshot(version + 1, ImmutableMap.copyOf(newBandwidth), newApNeighbors,
+                    newInterfaces);
+        }
+
+        private ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>>
+                getCapacity(final LinkAttribute attribute) {
+            final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> cached = capacity
+                    .get(attribute);
+            if (null != cached) {
+                return cached;
+            }
+
+            final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> builder = ImmutableMap
+                    .builder();
+            bandwidth.forEach((k, v) -> builder.put(interfaces.get(k), ImmutableMap.of(attribute, v)));
+            final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> computed = builder.build();
+            final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> existing = capacity
+                    .putIfAbsent(attribute, computed);
+            return null == existing ? computed : existing;
+        }
+    }
+
+    /**
+     * Copy-on-write, replaced while holding {@link #lock} whenever the
+     * neighbors change.
+     */
+    private volatile NeighborSnapshot neighborSnapshot = new NeighborSnapshot(0, ImmutableMap.of(),
+            ImmutableSet.of(), ImmutableMap.of());
+
+    /**
+     * Get the interface used to reach a neighbor. For neighbors the identifier
+     * is created once when the neighbor is added.
+     * 
+     * @param neighbor
+     *            the neighbor
+     * @return the interface, see
+     *         {@link BasicResourceManager#createInterfaceIdentifierForNeighbor(NodeIdentifier)}
+     */
+    @Nonnull
+    public InterfaceIdentifier getNeighborInterface(@Nonnull final NodeIdentifier neighbor) {
+        final InterfaceIdentifier ii = neighborSnapshot.interfaces.get(neighbor);
+        if (null == ii) {
+            return BasicResourceManager.createInterfaceIdentifierForNeighbor(neighbor);
+        } else {
+            return ii;
         }
     }
 
@@ -239,22 +405,15 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
      * @param bandwidthLinkAttribute
      *            the {@link LinkAttribute} to associate with each bandwidth
      *            value
-     * @return link capacity to neighbors in megabits per second
+     * @return link capacity to neighbors in megabits per second, the same
+     *         object is returned until the neighbors change
      * @see #addNeighbor(NodeIdentifier, double)
      * @see ResourceReport#getNetworkCapacity()
      */
     @Nonnull
     public ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>>
             getNeighborLinkCapacity(final LinkAttribute bandwidthLinkAttribute) {
-        final ImmutableMap.Builder<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> builder = ImmutableMap
-                .builder();
-        synchronized (lock) {
-            neighbors.forEach((k, v) -> {
-                builder.put(BasicResourceManager.createInterfaceIdentifierForNeighbor(k),
-                        ImmutableMap.of(bandwidthLinkAttribute, v));
-            });
-        }
-        return builder.build();
+        return neighborSnapshot.getCapacity(bandwidthLinkAttribute);
     }
 
     /**
@@ -504,9 +663,115 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
     }
 
     /**
-     * Get the latest resource report. This method should be called once per
-     * cycle and then used to make decisions. This method may call directly to
-     * the {@link ResourceManager} to provide gather the information.
+     * A report from the {@link ResourceManager} along with when it was
+     * retrieved.
+     */
+    private static final class CachedResourceReport {
+        private final ResourceReport report;
+        private final long executionCount;
+        private final long time;
+
+        /* package */ CachedResourceReport(@Nonnull final ResourceReport report,
+                final long executionCount,
+                final long time) {
+            this.report = report;
+            this.executionCount = executionCount;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Default value for {@link #getResourceReportCacheTtl()}.
+     */
+    public static final long DEFAULT_RESOURCE_REPORT_CACHE_TTL = 0;
+
+    private final Object resourceReportCacheLock = new Object();
+
+    private final Map<ResourceReport.EstimationWindow, CachedResourceReport> resourceReportCache = new EnumMap<>(
+            ResourceReport.EstimationWindow.class);
+
+    /**
+     * Incremented each time the cache is invalidated so that a report that was
+     * being retrieved during an invalidation isn't stored.
+     */
+    private long resourceReportCacheGeneration = 0;
+
+    private long resourceReportCacheTtl = DEFAULT_RESOURCE_REPORT_CACHE_TTL;
+
+    private final AtomicLong resourceReportCacheHits = new AtomicLong(0);
+
+    private final AtomicLong resourceReportCacheMisses = new AtomicLong(0);
+
+    /**
+     * A cached resource report is always valid for the execution round that
+     * it was retrieved in. If the time to live is positive, the report is
+     * also valid in later rounds until this many milliseconds have passed on
+     * the clock of the {@link ResourceManager}.
+     * 
+     * @return the time to live for cached resource reports in milliseconds.
+     *         Defaults to {@link #DEFAULT_RESOURCE_REPORT_CACHE_TTL}.
+     * @see #getResourceReport(ResourceReport.EstimationWindow)
+     */
+    public final long getResourceReportCacheTtl() {
+        synchronized (resourceReportCacheLock) {
+            return resourceReportCacheTtl;
+        }
+    }
+
+    /**
+     * @param v
+     *            the new time to live in milliseconds
+     * @see #getResourceReportCacheTtl()
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public final void setResourceReportCacheTtl(final long v) {
+        if (v < 0) {
+            throw new IllegalArgumentException("The resource report cache TTL cannot be negative: " + v);
+        }
+        synchronized (resourceReportCacheLock) {
+            resourceReportCacheTtl = v;
+        }
+    }
+
+    /**
+     * Discard all cached resource reports. This is called by the
+     * {@link ResourceManager} when services are started or stopped so that
+     * the next report reflects the change.
+     * 
+     * @see ResourceManager#startService(ServiceIdentifier, ContainerParameters)
+     * @see ResourceManager#stopService(NodeIdentifier)
+     */
+    public final void invalidateResourceReportCache() {
+        synchronized (resourceReportCacheLock) {
+            ++resourceReportCacheGeneration;
+            resourceReportCache.clear();
+        }
+    }
+
+    /**
+     * @return the number of calls to
+     *         {@link #getResourceReport(ResourceReport.EstimationWindow)} that
+     *         were answered from the cache
+     */
+    public final long getResourceReportCacheHits() {
+        return resourceReportCacheHits.get();
+    }
+
+    /**
+     * @return the number of calls to
+     *         {@link #getResourceReport(ResourceReport.EstimationWindow)} that
+     *         needed to ask the {@link ResourceManager} for a report
+     */
+    public final long getResourceReportCacheMisses() {
+        return resourceReportCacheMisses.get();
+    }
+
+    /**
+     * Get the latest resource report. This method may be called many times
+     * per cycle. The report is retrieved from the {@link ResourceManager} at
+     * most once per round for each estimation window, see
+     * {@link #getResourceReportCacheTtl()}.
      * 
      * @return the latest resource report
      * @param demandWindow
@@ -514,13 +779,33 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
      */
     @Nonnull
     public ResourceReport getResourceReport(@Nonnull final ResourceReport.EstimationWindow demandWindow) {
-        final ResourceReport report = resourceManager.getCurrentResourceReport(demandWindow);
+        final long round = getExecutionCount();
         final long time = getResourceManager().getClock().getCurrentTime();
 
+        final long generation;
+        synchronized (resourceReportCacheLock) {
+            final CachedResourceReport cached = resourceReportCache.get(demandWindow);
+            if (null != cached && (cached.executionCount == round
+                    || (resourceReportCacheTtl > 0 && time - cached.time < resourceReportCacheTtl))) {
+                resourceReportCacheHits.incrementAndGet();
+                return cached.report;
+            }
+            generation = resourceReportCacheGeneration;
+        }
+
+        resourceReportCacheMisses.incrementAndGet();
+        final ResourceReport report = resourceManager.getCurrentResourceReport(demandWindow);
+
         logger.debug(
                 "getResourceReport: retrieving report contructed at time {}, which was {} ms ago. current time = {}",
                 report.getTimestamp(), time - report.getTimestamp(), time);
 
+        synchronized (resourceReportCacheLock) {
+            if (generation == resourceReportCacheGeneration) {
+                resourceReportCache.put(demandWindow, new CachedResourceReport(report, round, time));
+            }
+        }
+
         return report;
     }
 
@@ -579,12 +864,6 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
             return regionServiceState;
         }
     }
-
-    private void setRegionServiceState(final RegionServiceState state) {
-        synchronized (regionServiceStateLock) {
-            regionServiceState = state;
-        }
-    }
     // --- end RegionServiceStateProvider
 
     @Override
@@ -594,7 +873,7 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
 
     /**
      * This method is used by AP to call
-     * {@link RegionServiceState#setServiceReports(ImmutableSet)}.
+     * {@link RegionServiceState#update(Iterable)}.
      * 
      * @param tuple
      *            the list of reports as a tuple
@@ -606,34 +885,29 @@ public class NetworkServer implements NetworkStateProvider, RegionServiceStatePr
             logger.trace("Setting region service reports. Region: " + getRegionIdentifier());
         }
 
-        final Map<NodeIdentifier, ServiceReport> reportMap = new HashMap<>();
+        final List<ServiceReport> reports = new ArrayList<>(tuple.size());
         for (final Object entry : tuple) {
             final ServiceReport report = (ServiceReport) entry;
-            final long propagationDelay = time - report.getTimestamp();
-
-            logger.debug(
-                    "Received ServiceReport with timestamp {} from {} at time {} after a propagation delay of {} ms.",
-                    report.getTimestamp(), report.getNodeName(), time, propagationDelay);
-
-            if (reportMap.containsKey(report.getNodeName())) {
-                final long oneTimestamp = reportMap.get(report.getNodeName()).getTimestamp();
-                final long twoTimestamp = report.getTimestamp();
-                logger.warn(
-                        "Saw duplicate service report from {}, using the one with the latest timestamp. one timestamp: {} two timestamp: {}",
-                        report.getNodeName(), oneTimestamp, twoTimestamp);
-                if (oneTimestamp < twoTimestamp) {
-                    reportMap.put(report.getNodeName(), report);
-                }
-            } else {
-                reportMap.put(report.getNodeName(), report);
+
+            if (logger.isDebugEnabled()) {
+                final long propagationDelay = time - report.getTimestamp();
+                logger.debug(
+                        "Received ServiceReport with timestamp {} from {} at time {} after a propagation delay of {} ms.",
+                        report.getTimestamp(), report.getNodeName(), time, propagationDelay);
             }
 
-            if (logger.isTraceEnabled()) {
-                logger.trace("Adding report for " + report.getNodeName());
+            reports.add(report);
+        }
+
+        // only nodes with newer reports are updated, if nothing changed the
+        // current state is kept so that consumers can check the version
+        synchronized (regionServiceStateLock) {
+            final RegionServiceState newState = regionServiceState.update(reports);
+            if (newState != regionServiceState) {
+                logger.trace("Region service state changed to version {}", newState.getVersion());
+                regionServiceState = newState;
             }
         }
-        final ImmutableSet<ServiceReport> reports = ImmutableSet.copyOf(reportMap.values());
-        setRegionServiceState(new RegionServiceState(getRegionIdentifier(), reports));
 
         if (logger.isTraceEnabled()) {
             logger.trace("Finished setting region service reports.");
@@ -48,6 +48,7 @@ public class NetworkState {
         this.region = region;
         this.regionPlan = RegionPlan.getNullRegionPlan(region);
         this.loadBalancerPlan = LoadBalancerPlan.getNullLoadBalancerPlan(region);
+        this.routingTable = new RoutingTable(regionPlan, loadBalancerPlan);
     }
 
     private final RegionIdentifier region;
@@ -60,7 +61,7 @@ public class NetworkState {
         return region;
     }
 
-    private RegionPlan regionPlan;
+    private volatile RegionPlan regionPlan;
 
     /**
      * @return the current plan for the region
@@ -77,16 +78,20 @@ public class NetworkState {
      * @throws IllegalArgumentException
      *             if the plan is for a different region than the node
      */
-    public void setRegionPlan(@Nonnull final RegionPlan plan) {
+    public synchronized void setRegionPlan(@Nonnull final RegionPlan plan) {
         if (!plan.getRegion().equals(this.region)) {
             throw new IllegalArgumentException("Region plan (" + plan.getRegion()
                     + ") must be for the same region as the network state object (" + getRegion() + ")");
         }
 
+        // compile before publishing so readers never see a table that is
+        // behind the plan
+        final RoutingTable newRoutingTable = routingTable.withRegionPlan(plan);
         this.regionPlan = plan;
+        this.routingTable = newRoutingTable;
     }
 
-    private LoadBalancerPlan loadBalancerPlan;
+    private volatile LoadBalancerPlan loadBalancerPlan;
 
     /**
      * @return the current plan for the region
@@ -103,13 +108,31 @@ public class NetworkState {
      * @throws IllegalArgumentException
      *             if the plan is for a different region than the node
      */
-    public void setLoadBalancerPlan(@Nonnull final LoadBalancerPlan plan) {
+    public synchronized void setLoadBalancerPlan(@Nonnull final LoadBalancerPlan plan) {
         if (!plan.getRegion().equals(this.region)) {
             throw new IllegalArgumentException("Load balancer plan (" + plan.getRegion()
                     + ") must be for the same region as the network state object (" + getRegion() + ")");
         }
 
+        final RoutingTable newRoutingTable = routingTable.withLoadBalancerPlan(plan);
         this.loadBalancerPlan = plan;
+        this.routingTable = newRoutingTable;
+    }
+
+    private volatile RoutingTable routingTable;
+
+    /**
+     * The routing table is replaced whenever
+     * {@link #setRegionPlan(RegionPlan)} or
+     * {@link #setLoadBalancerPlan(LoadBalancerPlan)} is called. Hold on to the
+     * returned object to route a batch of requests against a consistent pair
+     * of plans.
+     * 
+     * @return the routing table compiled from the current plans
+     */
+    @Nonnull
+    public RoutingTable getRoutingTable() {
+        return routingTable;
     }
 
 }
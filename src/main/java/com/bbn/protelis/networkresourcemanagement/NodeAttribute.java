@@ -59,9 +59,10 @@ public class NodeAttribute implements Serializable {
     public static final NodeAttribute QUEUE_LENGTH = new NodeAttribute("QueueLength", true);
 
     /**
-     * Node attribute for CPU usage. This is a number between 0 and 1
-     * representing the percentage of the total CPUs busy. This attribute is not
-     * application specific.
+     * Node attribute for CPU usage, measured in CPUs. The capacity is the number
+     * of CPUs available and the load is the number of CPUs busy, so the load
+     * divided by the capacity is the fraction of the CPUs busy. This attribute
+     * is not application specific.
      */
     public static final NodeAttribute CPU = new NodeAttribute("CPU");
 
@@ -0,0 +1,300 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The containers planned for a single node in a
+ * {@link LoadBalancerPlanBuilder}. Containers with an id are indexed by id and
+ * containers that are yet to be started are indexed by service, so lookups and
+ * updates are constant time. Iteration order is the order that containers were
+ * added, replacing a container keeps its position.
+ * 
+ * Multiple containers with the same id are allowed so that the builder can
+ * report them when the plan is validated.
+ */
+/* package */ final class NodeContainerInfos extends AbstractCollection<LoadBalancerPlan.ContainerInfo> {
+
+    /**
+     * Key for a container in this collection.
+     */
+    private static final class Token {
+    }
+
+    private final Map<Token, LoadBalancerPlan.ContainerInfo> entries = new LinkedHashMap<>();
+    private final Map<NodeIdentifier, Token> byId = new HashMap<>();
+    private final Map<ServiceIdentifier<?>, Set<Token>> unnamedByService = new HashMap<>();
+    private final Map<NodeIdentifier, Deque<Token>> duplicates = new HashMap<>();
+
+    /**
+     * Create an empty collection.
+     */
+    /* package */ NodeContainerInfos() {
+    }
+
+    /**
+     * @param source
+     *            the initial contents
+     */
+    /* package */ NodeContainerInfos(@Nonnull final Collection<LoadBalancerPlan.ContainerInfo> source) {
+        addAll(source);
+    }
+
+    @Override
+    public boolean add(@Nonnull final LoadBalancerPlan.ContainerInfo info) {
+        final Token token = new Token();
+        entries.put(token, info);
+
+        final NodeIdentifier id = info.getId();
+        if (null == id) {
+            unnamedByService.computeIfAbsent(info.getService(), k -> new LinkedHashSet<>()).add(token);
+        } else if (byId.containsKey(id)) {
+            duplicates.computeIfAbsent(id, k -> new ArrayDeque<>()).add(token);
+        } else {
+            byId.put(id, token);
+        }
+        return true;
+    }
+
+    /**
+     * @param id
+     *            the container id
+     * @return the container with the id or null if not found
+     */
+    /* package */ LoadBalancerPlan.ContainerInfo getById(@Nonnull final NodeIdentifier id) {
+        final Token token = byId.get(id);
+        return null == token ? null : entries.get(token);
+    }
+
+    /**
+     * Replace the container with the same id as {@code info}, keeping its
+     * position.
+     * 
+     * @param info
+     *            the new information for the container
+     * @throws IllegalArgumentException
+     *             if the container does not have an id or is not in this
+     *             collection
+     */
+    /* package */ void replaceById(@Nonnull final LoadBalancerPlan.ContainerInfo info)
+            throws IllegalArgumentException {
+        final NodeIdentifier id = info.getId();
+        final Token token = null == id ? null : byId.get(id);
+        if (null == token) {
+            throw new IllegalArgumentException("Cannot find container '" + id + "' to replace");
+        }
+        entries.put(token, info);
+    }
+
+    /**
+     * Remove the container with the specified id.
+     * 
+     * @param id
+     *            the container id
+     * @return the container removed or null if not found
+     */
+    /* package */ LoadBalancerPlan.ContainerInfo removeById(@Nonnull final NodeIdentifier id) {
+        final Token token = byId.get(id);
+        if (null == token) {
+            return null;
+        } else {
+            final LoadBalancerPlan.ContainerInfo info = entries.remove(token);
+            unindex(token, info);
+            return info;
+        }
+    }
+
+    /**
+     * Remove the first container without an id running the specified service.
+     * 
+     * @param service
+     *            the service
+     * @return the container removed or null if not found
+     */
+    /* package */ LoadBalancerPlan.ContainerInfo removeUnnamed(@Nonnull final ServiceIdentifier<?> service) {
+        final Set<Token> tokens = unnamedByService.get(service);
+        if (null == tokens) {
+            return null;
+        } else {
+            final Token token = tokens.iterator().next();
+            final LoadBalancerPlan.ContainerInfo info = entries.remove(token);
+            unindex(token, info);
+            return info;
+        }
+    }
+
+    /**
+     * @return an id that is used by more than one container, null if all ids
+     *         are unique
+     */
+    /* package */ NodeIdentifier findDuplicateId() {
+        if (duplicates.isEmpty()) {
+            return null;
+        } else {
+            return duplicates.keySet().iterator().next();
+        }
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        final Token token = findToken(o);
+        if (null == token) {
+            return false;
+        } else {
+            unindex(token, entries.remove(token));
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return null != findToken(o);
+    }
+
+    private Token findToken(final Object o) {
+        if (!(o instanceof LoadBalancerPlan.ContainerInfo)) {
+            return null;
+        }
+
+        final LoadBalancerPlan.ContainerInfo info = (LoadBalancerPlan.ContainerInfo) o;
+        final NodeIdentifier id = info.getId();
+        final Collection<Token> candidates;
+        if (null == id) {
+            candidates = unnamedByService.get(info.getService());
+        } else {
+            final Token token = byId.get(id);
+            if (null != token && info.equals(entries.get(token))) {
+                return token;
+            }
+            candidates = duplicates.get(id);
+        }
+
+        if (null != candidates) {
+            for (final Token token : candidates) {
+                if (info.equals(entries.get(token))) {
+                    return token;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove a container that has been removed from {@link #entries} from the
+     * indexes.
+     */
+    private void unindex(final Token token, final LoadBalancerPlan.ContainerInfo info) {
+        final NodeIdentifier id = info.getId();
+        if (null == id) {
+            final Set<Token> tokens = unnamedByService.get(info.getService());
+            tokens.remove(token);
+            if (tokens.isEmpty()) {
+                unnamedByService.remove(info.getService());
+            }
+        } else {
+            final Deque<Token> idDuplicates = duplicates.get(id);
+            if (token.equals(byId.get(id))) {
+                if (null == idDuplicates) {
+                    byId.remove(id);
+                } else {
+                    // promote a duplicate to be the container found by id
+                    byId.put(id, idDuplicates.poll());
+                }
+            } else if (null != idDuplicates) {
+                idDuplicates.remove(token);
+            }
+
+            if (null != idDuplicates && idDuplicates.isEmpty()) {
+                duplicates.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<LoadBalancerPlan.ContainerInfo> iterator() {
+        final Iterator<Map.Entry<Token, LoadBalancerPlan.ContainerInfo>> iter = entries.entrySet().iterator();
+        return new Iterator<LoadBalancerPlan.ContainerInfo>() {
+            private Map.Entry<Token, LoadBalancerPlan.ContainerInfo> current = null;
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public LoadBalancerPlan.ContainerInfo next() {
+                if (!iter.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = iter.next();
+                return current.getValue();
+            }
+
+            @Override
+            public void remove() {
+                if (null == current) {
+                    throw new IllegalStateException("next() has not been called");
+                }
+                iter.remove();
+                unindex(current.getKey(), current.getValue());
+                current = null;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        byId.clear();
+        unnamedByService.clear();
+        duplicates.clear();
+    }
+
+}
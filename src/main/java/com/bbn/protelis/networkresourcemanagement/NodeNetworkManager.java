@@ -40,12 +40,19 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nonnull;
+
 import org.nustaq.serialization.FSTObjectOutput;
 import org.protelis.lang.datatype.DeviceUID;
 import org.protelis.lang.datatype.Tuple;
@@ -54,6 +61,9 @@ import org.protelis.vm.NetworkManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Network manager for a {@link NetworkServer}.
  */
@@ -78,6 +88,84 @@ public class NodeNetworkManager implements NetworkManager {
      */
     public NodeNetworkManager(final NodeLookupService lookupService) {
         this.lookupService = lookupService;
+
+        this.connectionManager = new NeighborConnectionManager(this::connectToNeighbor,
+                createExecutor(CONNECT_THREADS, CONNECT_QUEUE_CAPACITY, "NodeNetworkManager-connect-%d"),
+                System::nanoTime, RANDOM);
+        this.handshakeExecutor = createExecutor(HANDSHAKE_THREADS, HANDSHAKE_QUEUE_CAPACITY,
+                "NodeNetworkManager-handshake-%d");
+    }
+
+    /**
+     * The threads time out when idle so the executor doesn't need to be
+     * shutdown. Tasks that don't fit in the queue are rejected with a
+     * {@link RejectedExecutionException}.
+     */
+    private static ThreadPoolExecutor createExecutor(final int threads,
+            final int queueCapacity,
+            final String nameFormat) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Maximum number of concurrent outgoing connection attempts.
+     */
+    private static final int CONNECT_THREADS = 4;
+    /**
+     * Maximum number of outgoing connection attempts waiting for a thread. A
+     * rejected attempt is retried on the next request for the neighbor.
+     */
+    private static final int CONNECT_QUEUE_CAPACITY = 64;
+    /**
+     * Maximum number of concurrent handshakes with neighbors that connected to
+     * this node.
+     */
+    /* package */ static final int HANDSHAKE_THREADS = 4;
+    /**
+     * Maximum number of accepted connections waiting for a handshake thread.
+     * Connections accepted while the queue is full are closed.
+     */
+    /* package */ static final int HANDSHAKE_QUEUE_CAPACITY = 16;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Executes the handshake for accepted connections so that a slow neighbor
+     * doesn't block the accept thread.
+     */
+    private final ThreadPoolExecutor handshakeExecutor;
+
+    private final AtomicInteger pendingHandshakes = new AtomicInteger();
+    private final AtomicInteger maxPendingHandshakes = new AtomicInteger();
+
+    /**
+     * @return the number of accepted connections that are waiting for or in
+     *         the middle of the handshake
+     */
+    public int getPendingHandshakeCount() {
+        return pendingHandshakes.get();
+    }
+
+    /**
+     * @return the largest value seen for {@link #getPendingHandshakeCount()}
+     */
+    public int getMaxPendingHandshakeCount() {
+        return maxPendingHandshakes.get();
+    }
+
+    private final NeighborConnectionManager connectionManager;
+
+    /**
+     * 
+     * @return the manager for outgoing connections, used to configure
+     *         timeouts and backoff and to read connection metrics
+     */
+    public NeighborConnectionManager getConnectionManager() {
+        return connectionManager;
     }
 
     @Override
@@ -232,7 +320,10 @@ public class NodeNetworkManager implements NetworkManager {
                 for (final Map.Entry<DeviceUID, NetworkNeighbor> entry : toRemove.entrySet()) {
                     entry.getValue().terminate();
                     nbrs.remove(entry.getKey());
+                    savedSessions.put((NodeIdentifier) entry.getKey(), entry.getValue().getSession());
+                    connectionManager.disconnected((NodeIdentifier) entry.getKey());
                 }
+                connectedNeighborsChanged();
             }
         }
 
@@ -264,55 +355,233 @@ public class NodeNetworkManager implements NetworkManager {
     /**
      * Connect to all neighbors that aren't currently connected and remove any
      * neighbors that aren't running. This should be called at regular intervals
-     * to ensure that all neighbors are connected.
+     * to ensure that all neighbors are connected. This method does not block
+     * on the connections, see {@link NeighborConnectionManager}.
      */
     public void updateNeighbors() {
-        // copy the list so that we don't hold the lock while sending all of
-        // the messages and to ensure we don't end up with a
-        // concurrent modification exception below
-        final Map<DeviceUID, NetworkNeighbor> nbrsCopy = new HashMap<>();
         synchronized (lock) {
             // remove any disconnected neighbors
-            nbrs.entrySet().removeIf(e -> !e.getValue().isRunning());
+            if (nbrs.entrySet().removeIf(e -> {
+                if (!e.getValue().isRunning()) {
+                    connectionManager.disconnected(e.getKey());
+                    savedSessions.put(e.getKey(), e.getValue().getSession());
+                    return true;
+                } else {
+                    return false;
+                }
+            })) {
+                connectedNeighborsChanged();
+            }
+        }
 
-            nbrsCopy.putAll(nbrs);
+        if (isConnectedToAllNeighbors()) {
+            return;
         }
 
-        node.getApNeighbors().parallelStream().forEach(neighborUID -> {
-            if (!nbrsCopy.containsKey(neighborUID)) {
-                connectToNeighbor(neighborUID);
+        final Set<NodeIdentifier> connected = getConnectedNeighbors();
+        final boolean smallerDials = DialerSelection.SMALLER_DIALS == dialerSelection;
+        final NodeIdentifier localId = node.getNodeIdentifier();
+        node.getApNeighbors().forEach(neighborUID -> {
+            if (!connected.contains(neighborUID) && (!smallerDials || isDialer(localId, neighborUID))) {
+                connectionManager.requestConnection(neighborUID);
             }
         });
     }
 
     /**
+     * How to decide which side of a link creates the connection.
+     */
+    public enum DialerSelection {
+        /**
+         * Both sides dial each other and random nonces decide which
+         * connection is kept.
+         */
+        BOTH_DIAL,
+        /**
+         * The side with the smaller {@link NodeIdentifier} dials and the other
+         * side only accepts. If both connections exist, the one dialed by the
+         * smaller identifier is kept.
+         */
+        SMALLER_DIALS;
+    }
+
+    private volatile DialerSelection dialerSelection = DialerSelection.BOTH_DIAL;
+
+    /**
+     * All nodes in a network should use the same value.
+     * 
+     * @return how the dialing side of a link is chosen
+     */
+    public DialerSelection getDialerSelection() {
+        return dialerSelection;
+    }
+
+    /**
+     * 
+     * @param v
+     *            see {@link #getDialerSelection()}
+     */
+    public void setDialerSelection(final DialerSelection v) {
+        dialerSelection = v;
+    }
+
+    /**
+     * Node identifiers are compared case-insensitive on their names so that
+     * both sides agree regardless of the implementation of
+     * {@link NodeIdentifier}.
+     * 
+     * @param local
+     *            this node
+     * @param remote
+     *            the neighbor
+     * @return true if local dials remote when using
+     *         {@link DialerSelection#SMALLER_DIALS}
+     */
+    /* package */ static boolean isDialer(final NodeIdentifier local, final NodeIdentifier remote) {
+        return String.CASE_INSENSITIVE_ORDER.compare(local.getName(), remote.getName()) < 0;
+    }
+
+    /**
+     * Decide if a new connection to a neighbor should replace an existing
+     * connection. Both sides of the link must come to the same decision.
+     * 
+     * @param selection
+     *            the dialer selection in use
+     * @param local
+     *            this node
+     * @param remote
+     *            the neighbor
+     * @param outgoing
+     *            true if this node dialed the new connection
+     * @param nonce
+     *            the nonce of the new connection
+     * @param other
+     *            the existing connection, may be null
+     * @return true if the new connection should be kept
+     */
+    /* package */ static boolean keepNewConnection(final DialerSelection selection,
+            final NodeIdentifier local,
+            final NodeIdentifier remote,
+            final boolean outgoing,
+            final int nonce,
+            final NetworkNeighbor other) {
+        if (null == other) {
+            return true;
+        } else if (DialerSelection.SMALLER_DIALS == selection) {
+            // simultaneous open or a reconnect, keep the connection dialed by
+            // the smaller identifier
+            final boolean preferred = outgoing == isDialer(local, remote);
+            return preferred || !other.isRunning();
+        } else {
+            return other.getNonce() < nonce;
+        }
+    }
+
+    private final AtomicLong duplicateConnections = new AtomicLong();
+
+    /**
+     * @return the number of connections that were closed because there was
+     *         already a connection to the neighbor
+     */
+    public long getDuplicateConnectionCount() {
+        return duplicateConnections.get();
+    }
+
+    /**
+     * The result of the last call to {@link #isConnectedToAllNeighbors()} and
+     * the versions it was computed from.
+     */
+    private static final class ConnectionCheck {
+        private final long neighborsVersion;
+        private final long connectedVersion;
+        private final boolean connectedToAll;
+
+        /* package */ ConnectionCheck(final long neighborsVersion,
+                final long connectedVersion,
+                final boolean connectedToAll) {
+            this.neighborsVersion = neighborsVersion;
+            this.connectedVersion = connectedVersion;
+            this.connectedToAll = connectedToAll;
+        }
+    }
+
+    private volatile ConnectionCheck lastConnectionCheck = null;
+
+    /**
+     * The result is only recomputed when the neighbors of the node or the
+     * connected neighbors change.
+     * 
      * @return if this node has connected to all of it's neighbors for AP
      *         communication
      */
     public boolean isConnectedToAllNeighbors() {
-        synchronized (lock) {
-            if (!node.getApNeighbors().stream().allMatch(n -> nbrs.containsKey(n))) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Round {}: {} not connected: {}", node.getExecutionCount(), node.getName(), node
-                            .getApNeighbors().stream().filter(n -> !nbrs.containsKey(n)).collect(Collectors.toList()));
-                }
-                return false;
-            } else {
-                return true;
-            }
+        final NetworkServer.NeighborSnapshot neighbors = node.getNeighborSnapshot();
+        final ConnectedNeighbors connected = connectedNeighbors;
+
+        final ConnectionCheck previous = lastConnectionCheck;
+        if (null != previous && previous.neighborsVersion == neighbors.getVersion()
+                && previous.connectedVersion == connected.version) {
+            return previous.connectedToAll;
         }
+
+        final boolean connectedToAll = connected.neighbors.containsAll(neighbors.getApNeighbors());
+        if (!connectedToAll && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Round {}: {} not connected: {}", node.getExecutionCount(), node.getName(),
+                    neighbors.getApNeighbors().stream().filter(n -> !connected.neighbors.contains(n))
+                            .collect(Collectors.toList()));
+        }
+        lastConnectionCheck = new ConnectionCheck(neighbors.getVersion(), connected.version, connectedToAll);
+        return connectedToAll;
     }
 
     /**
      * 
-     * @return the set of neighbors that are currently connected to AP
+     * @return the set of neighbors that are currently connected to AP, this is
+     *         an immutable snapshot that is replaced when the neighbors
+     *         change
+     * @see #getConnectedNeighborsVersion()
      */
     public Set<NodeIdentifier> getConnectedNeighbors() {
-        synchronized (lock) {
-            return new HashSet<>(nbrs.keySet());
+        return connectedNeighbors.neighbors;
+    }
+
+    /**
+     * 
+     * @return the version of the connected neighbors, this increases each
+     *         time a neighbor connects or disconnects
+     */
+    public long getConnectedNeighborsVersion() {
+        return connectedNeighbors.version;
+    }
+
+    /**
+     * Immutable copy of the keys of {@link #nbrs} with a version.
+     */
+    private static final class ConnectedNeighbors {
+        private final long version;
+        private final ImmutableSet<NodeIdentifier> neighbors;
+
+        /* package */ ConnectedNeighbors(final long version, final ImmutableSet<NodeIdentifier> neighbors) {
+            this.version = version;
+            this.neighbors = neighbors;
         }
     }
 
+    /**
+     * Replaced while holding {@link #lock} whenever the neighbors change so
+     * that readers don't need to lock or copy.
+     */
+    private volatile ConnectedNeighbors connectedNeighbors = new ConnectedNeighbors(0, ImmutableSet.of());
+
+    /**
+     * Must be called while holding {@link #lock} after {@link #nbrs} is
+     * modified.
+     */
+    private void connectedNeighborsChanged() {
+        connectedNeighbors = new ConnectedNeighbors(connectedNeighbors.version + 1,
+                ImmutableSet.copyOf(nbrs.keySet()));
+    }
+
     private boolean running = false;
 
     /**
@@ -343,31 +612,66 @@ public class NodeNetworkManager implements NetworkManager {
     /** neighbor -> connection */
     private final Map<NodeIdentifier, NetworkNeighbor> nbrs = new HashMap<>();
 
+    /**
+     * Identifies this instance in {@link HelloMessage#getSessionId()}. Never
+     * {@link HelloMessage#NO_SESSION}.
+     */
+    private final long sessionId = createSessionId();
+
+    private static long createSessionId() {
+        long id;
+        do {
+            id = RANDOM.nextLong();
+        } while (HelloMessage.NO_SESSION == id);
+        return id;
+    }
+
+    /**
+     * Session state of connections that were lost, used to resume delta
+     * compression when the neighbor reconnects. Guarded by {@link #lock}.
+     */
+    private final Map<NodeIdentifier, ApSession> savedSessions = new HashMap<>();
+
+    private ApSession getSavedSession(final NodeIdentifier neighbor) {
+        synchronized (lock) {
+            return savedSessions.get(neighbor);
+        }
+    }
+
     private void addNeighbor(final int nonce,
             final NodeIdentifier neighborId,
+            final boolean outgoing,
             final Socket s,
             final DataInputStream input,
-            final DataOutputStream output) {
+            final DataOutputStream output,
+            final ApSession session,
+            final CompressionDictionary dictionary,
+            final int identifierTableSize) {
         synchronized (lock) {
             // symmetry-break nonce
             // If UID isn't already linked, add a new neighbor
 
             final InetSocketAddress remoteAddr = new InetSocketAddress(s.getInetAddress(), s.getPort());
             final NetworkNeighbor other = nbrs.get(neighborId);
-            if (null == other || other.getNonce() < nonce) {
+            if (keepNewConnection(dialerSelection, node.getNodeIdentifier(), neighborId, outgoing, nonce, other)) {
                 if (null != other) {
                     LOGGER.debug("Closing remote connection from {} because there's a connection to them", neighborId);
                     other.terminate();
+                    duplicateConnections.incrementAndGet();
                 }
 
                 final NetworkNeighbor neighbor = new NetworkNeighbor(node, neighborId, nonce, remoteAddr, s, input,
-                        output);
+                        output, session, dictionary, identifierTableSize, connectionMetrics);
+                savedSessions.remove(neighborId);
                 nbrs.put(neighborId, neighbor);
+                connectedNeighborsChanged();
+                connectionManager.connected(neighborId);
                 neighbor.start();
                 LOGGER.debug("Started new neighbor connection with {}", neighborId);
             } else {
                 LOGGER.debug("Closing connection to {} because we already have a connection from them", neighborId,
                         node.getNodeIdentifier());
+                duplicateConnections.incrementAndGet();
                 try {
                     writeCloseConnection(output);
                 } catch (final IOException e) {
@@ -397,8 +701,11 @@ public class NodeNetworkManager implements NetworkManager {
         } // lock so that we don't add 2 connections to the neighbor
     }
 
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
     /**
-     * Write the message that the connection should close.
+     * Write the message that the connection should close. This is framed like
+     * all messages after the handshake.
      * 
      * @param output
      *            where to write the message
@@ -406,10 +713,29 @@ public class NodeNetworkManager implements NetworkManager {
      *             if there is an error writing to {@code output}
      */
     public static void writeCloseConnection(final DataOutputStream output) throws IOException {
-        output.write(MESSAGE_TYPE_CLOSE);
+        ApFraming.writeFrame(output, MESSAGE_TYPE_CLOSE, EMPTY_PAYLOAD, 0, 0);
         output.flush();
     }
 
+    private final ApConnectionMetrics connectionMetrics = new ApConnectionMetrics();
+
+    /**
+     * @return counters for the connections to neighbors
+     */
+    @Nonnull
+    public ApConnectionMetrics getConnectionMetrics() {
+        return connectionMetrics;
+    }
+
+    /**
+     * @return the number of frames from neighbors that were dropped because
+     *         they were corrupt, couldn't be decoded or had an unknown type
+     * @see ApConnectionMetrics#getDroppedFrameCount()
+     */
+    public long getDroppedFrameCount() {
+        return connectionMetrics.getDroppedFrameCount();
+    }
+
     private ServerSocket server = null;
 
     /**
@@ -442,36 +768,26 @@ public class NodeNetworkManager implements NetworkManager {
 
                         LOGGER.debug("Got a connection from {}", s.getRemoteSocketAddress());
 
-                        // don't need a thread here since addNeighbor will take
-                        // care of creating a thread to service the connection.
+                        final int pending = pendingHandshakes.incrementAndGet();
+                        maxPendingHandshakes.accumulateAndGet(pending, Math::max);
                         try {
-                            final DataOutputStream output = new DataOutputStream(s.getOutputStream());
-                            final DataInputStream input = new DataInputStream(s.getInputStream());
-
-                            // If the link connects, trade UIDs
-
-                            // write uid for neighbor
-                            LOGGER.trace("Writing node identifier to new connection");
-                            writeHello(output, RANDOM.nextInt(), node.getNodeIdentifier());
-
-                            // reads data from connectToNeighbor()
-                            LOGGER.trace("Reading node identifier and nonce from neighbor {}",
-                                    s.getRemoteSocketAddress());
-                            final byte remoteMessageType = input.readByte();
-                            if (remoteMessageType == MESSAGE_TYPE_HELLO) {
-                                final HelloMessage remoteHello = HelloMessage.readMessage(input);
-
-                                addNeighbor(remoteHello.getNonce(), remoteHello.getId(), s, input, output);
-                                LOGGER.trace("Received uid {} and nonce {} from {}", remoteHello.getId(),
-                                        remoteHello.getNonce(), s.getRemoteSocketAddress());
-                            } else {
-                                LOGGER.error("Unexpected message type from neighbor: "
-                                        + String.format("%02x", remoteMessageType));
+                            handshakeExecutor.execute(() -> {
+                                try {
+                                    acceptNeighbor(s);
+                                } finally {
+                                    pendingHandshakes.decrementAndGet();
+                                }
+                            });
+                        } catch (final RejectedExecutionException e) {
+                            // too many connections are waiting for a
+                            // handshake, the neighbor will retry
+                            pendingHandshakes.decrementAndGet();
+                            LOGGER.warn("Handshake queue is full, closing the connection from {}",
+                                    s.getRemoteSocketAddress(), e);
+                            try {
                                 s.close();
-                            }
-                        } catch (final IOException e) {
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug("Got exception creating link to neighbor that connected to us.", e);
+                            } catch (final IOException ce) {
+                                LOGGER.debug("Error closing socket to neighbor, ignoring", ce);
                             }
                         }
 
@@ -505,6 +821,61 @@ public class NodeNetworkManager implements NetworkManager {
 
     }
 
+    /**
+     * Exchange hello messages with a neighbor that connected to this node and
+     * add it as a neighbor. Executed by {@link #handshakeExecutor}.
+     * 
+     * @param s
+     *            the accepted connection
+     */
+    private void acceptNeighbor(final Socket s) {
+        try {
+            s.setSoTimeout(connectionManager.getHandshakeTimeout());
+
+            final DataOutputStream output = new DataOutputStream(s.getOutputStream());
+            final DataInputStream input = new DataInputStream(s.getInputStream());
+
+            // read the hello from connectToNeighbor() first so that the
+            // reply can include the session state for the neighbor
+            LOGGER.trace("Reading node identifier and nonce from neighbor {}", s.getRemoteSocketAddress());
+            final byte remoteMessageType = input.readByte();
+            if (remoteMessageType == MESSAGE_TYPE_HELLO) {
+                final HelloMessage remoteHello = HelloMessage.readMessage(input);
+                LOGGER.trace("Received uid {} and nonce {} from {}", remoteHello.getId(), remoteHello.getNonce(),
+                        s.getRemoteSocketAddress());
+
+                final ApSession saved = getSavedSession(remoteHello.getId());
+                final CompressionDictionary dictionary = GlobalNetworkConfiguration.getInstance()
+                        .getCompressionDictionary();
+                final int identifierTableSize = GlobalNetworkConfiguration.getInstance().getIdentifierTableSize();
+
+                LOGGER.trace("Writing node identifier to new connection");
+                writeHello(output, ApSession.createHello(node.getNodeIdentifier(), RANDOM.nextInt(), sessionId,
+                        saved, dictionary, identifierTableSize));
+
+                // the handshake is complete, reads from the neighbor block
+                // until data arrives
+                s.setSoTimeout(0);
+                addNeighbor(remoteHello.getNonce(), remoteHello.getId(), false, s, input, output,
+                        ApSession.resume(sessionId, saved, remoteHello),
+                        CompressionDictionary.agree(dictionary, remoteHello),
+                        IdentifierTable.agreeSize(identifierTableSize, remoteHello));
+            } else {
+                LOGGER.error("Unexpected message type from neighbor: " + String.format("%02x", remoteMessageType));
+                s.close();
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Got exception creating link to neighbor that connected to us.", e);
+            }
+            try {
+                s.close();
+            } catch (final IOException ce) {
+                LOGGER.debug("Error closing socket to neighbor, ignoring", ce);
+            }
+        }
+    }
+
     /**
      * 
      * @param output
@@ -518,31 +889,49 @@ public class NodeNetworkManager implements NetworkManager {
      */
     public static void writeHello(final DataOutputStream output, final int nonce, final NodeIdentifier id)
             throws IOException {
-        final HelloMessage localHello = new HelloMessage(id, nonce);
+        writeHello(output, new HelloMessage(id, nonce, 0, HelloMessage.NO_SESSION, HelloMessage.NO_SESSION, 0, 0,
+                HelloMessage.NO_DICTIONARY, 0));
+    }
+
+    /**
+     * 
+     * @param output
+     *            where to write the message
+     * @param localHello
+     *            the message to write
+     * @throws IOException
+     *             if there is an error writing to or flushing the stream
+     */
+    public static void writeHello(final DataOutputStream output, final HelloMessage localHello) throws IOException {
         output.writeByte(MESSAGE_TYPE_HELLO);
         localHello.writeMessage(output);
         output.flush();
     }
 
     /**
-     * Attempt to create a connection to a neighbor.
+     * Attempt to create a connection to a neighbor. This is executed by the
+     * {@link NeighborConnectionManager}.
      * 
-     * @param neighborNode
+     * @param neighborUID
      *            the neighbor to connect to
+     * @throws IOException
+     *             if the connection or the handshake fails or times out
      */
-    private void connectToNeighbor(final NodeIdentifier neighborUID) {
+    private void connectToNeighbor(final NodeIdentifier neighborUID) throws IOException {
         final InetSocketAddress addr = lookupService.getInetAddressForNode(neighborUID);
         if (null == addr) {
             LOGGER.warn(neighborUID
                     + " is not found in the lookup service, not connecting to this neighbor for AP sharing");
-            return;
+            throw new IOException(neighborUID + " is not found in the lookup service");
         }
 
         LOGGER.debug("Connecting to {} from {}", neighborUID, node.getNodeIdentifier());
 
+        final Socket s = new Socket();
         try {
             // Try to link
-            final Socket s = new Socket(addr.getAddress(), addr.getPort());
+            s.connect(addr, connectionManager.getConnectTimeout());
+            s.setSoTimeout(connectionManager.getHandshakeTimeout());
 
             final int nonce = RANDOM.nextInt();
 
@@ -550,21 +939,40 @@ public class NodeNetworkManager implements NetworkManager {
             final DataInputStream input = new DataInputStream(s.getInputStream());
 
             // If the link connects, trade UIDs
-            writeHello(output, nonce, node.getNodeIdentifier());
+            final ApSession saved = getSavedSession(neighborUID);
+            final CompressionDictionary dictionary = GlobalNetworkConfiguration.getInstance()
+                    .getCompressionDictionary();
+            final int identifierTableSize = GlobalNetworkConfiguration.getInstance().getIdentifierTableSize();
+            writeHello(output, ApSession.createHello(node.getNodeIdentifier(), nonce, sessionId, saved, dictionary,
+                    identifierTableSize));
 
             LOGGER.debug("Reading identifier from neighbor {}", node.getNodeIdentifier());
             final byte remoteMessageType = input.readByte();
             if (remoteMessageType == MESSAGE_TYPE_HELLO) {
                 final HelloMessage remoteHello = HelloMessage.readMessage(input);
 
-                addNeighbor(nonce, remoteHello.getId(), s, input, output);
+                // the handshake is complete, reads from the neighbor block
+                // until data arrives
+                s.setSoTimeout(0);
+                if (!neighborUID.equals(remoteHello.getId())) {
+                    throw new IOException(
+                            "Connected to " + remoteHello.getId() + " when expecting to connect to " + neighborUID);
+                }
+                addNeighbor(nonce, remoteHello.getId(), true, s, input, output,
+                        ApSession.resume(sessionId, saved, remoteHello),
+                        CompressionDictionary.agree(dictionary, remoteHello),
+                        IdentifierTable.agreeSize(identifierTableSize, remoteHello));
             } else {
-                LOGGER.error("Unexpected message type connecting to neighbor {}: {}", neighborUID,
-                        String.format("%02x", remoteMessageType));
+                throw new IOException(String.format("Unexpected message type connecting to neighbor %s: %02x",
+                        neighborUID, remoteMessageType));
+            }
+        } catch (final IOException | RuntimeException e) {
+            try {
                 s.close();
+            } catch (final IOException ce) {
+                LOGGER.debug("Error closing socket to neighbor, ignoring", ce);
             }
-        } catch (final Exception e) {
-            LOGGER.debug("Couldn't connect to neighbor: {} at {}. Will try again later.", neighborUID, addr, e);
+            throw e;
         }
     }
 
@@ -580,5 +988,11 @@ public class NodeNetworkManager implements NetworkManager {
      * Message type for closing of the connection.
      */
     public static final byte MESSAGE_TYPE_CLOSE = 3;
+    /**
+     * Message type asking the neighbor to send its full AP state in the next
+     * share instead of a delta. The payload is the epoch (byte) that the
+     * sender of this message expects in the AP shares from now on.
+     */
+    public static final byte MESSAGE_TYPE_FULL_STATE_REQUEST = 4;
 
 }
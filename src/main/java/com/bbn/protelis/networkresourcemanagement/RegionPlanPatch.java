@@ -0,0 +1,182 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The changes between 2 versions of a {@link RegionPlan}, patched per service.
+ * A patch records the version of the plan that it was computed against and
+ * can only be applied to that version.
+ */
+public final class RegionPlanPatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Compute the patch that turns one plan into another.
+     * 
+     * @param oldPlan
+     *            the original plan
+     * @param newPlan
+     *            the new plan
+     * @return the patch
+     * @throws IllegalArgumentException
+     *             if the plans are for different regions
+     */
+    @Nonnull
+    public static RegionPlanPatch diff(@Nonnull final RegionPlan oldPlan, @Nonnull final RegionPlan newPlan)
+            throws IllegalArgumentException {
+        if (!oldPlan.getRegion().equals(newPlan.getRegion())) {
+            throw new IllegalArgumentException("Cannot compute a patch between plans for different regions: "
+                    + oldPlan.getRegion() + " and " + newPlan.getRegion());
+        }
+
+        return new RegionPlanPatch(newPlan.getRegion(), version(oldPlan), newPlan.getTimestamp(),
+                MapPatch.diff(oldPlan.getPlan(), newPlan.getPlan()));
+    }
+
+    /**
+     * Identify the contents of a plan from the exact values so that it's the
+     * same for any copy of the plan.
+     */
+    private static int version(final RegionPlan plan) {
+        return Objects.hash(plan.getRegion(), plan.getTimestamp(), plan.getPlan());
+    }
+
+    private RegionPlanPatch(final RegionIdentifier region,
+            final int baseVersion,
+            final long timestamp,
+            final MapPatch<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> plan) {
+        this.region = region;
+        this.baseVersion = baseVersion;
+        this.timestamp = timestamp;
+        this.plan = plan;
+    }
+
+    private final RegionIdentifier region;
+
+    /**
+     * @return the region of the plan
+     */
+    @Nonnull
+    public RegionIdentifier getRegion() {
+        return region;
+    }
+
+    private final int baseVersion;
+
+    private final long timestamp;
+
+    /**
+     * @return the timestamp of the new plan
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    private final MapPatch<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> plan;
+
+    /**
+     * @return the changes to {@link RegionPlan#getPlan()}
+     */
+    @Nonnull
+    public MapPatch<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the number of services changed by the patch
+     */
+    public int size() {
+        return plan.size();
+    }
+
+    /**
+     * @param base
+     *            the plan to check
+     * @return true if this patch was computed against the plan
+     */
+    public boolean appliesTo(@Nonnull final RegionPlan base) {
+        return region.equals(base.getRegion()) && baseVersion == version(base);
+    }
+
+    /**
+     * Apply the patch.
+     * 
+     * @param base
+     *            the plan that the patch was computed against
+     * @return the new plan
+     * @throws IllegalArgumentException
+     *             if the patch was not computed against the plan
+     * @see #appliesTo(RegionPlan)
+     */
+    @Nonnull
+    public RegionPlan apply(@Nonnull final RegionPlan base) throws IllegalArgumentException {
+        if (!appliesTo(base)) {
+            throw new IllegalArgumentException("Patch for region " + region + " does not apply to " + base);
+        }
+        return new RegionPlan(region, timestamp, plan.apply(base.getPlan()));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(region, baseVersion, timestamp, plan);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (null == o) {
+            return false;
+        } else if (this == o) {
+            return true;
+        } else if (this.getClass().equals(o.getClass())) {
+            final RegionPlanPatch other = (RegionPlanPatch) o;
+            return baseVersion == other.baseVersion && timestamp == other.timestamp
+                    && Objects.equals(region, other.region) && Objects.equals(plan, other.plan);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + " [" + " region: " + region + " timestamp: " + timestamp
+                + " plan: " + plan + " ]";
+    }
+
+}
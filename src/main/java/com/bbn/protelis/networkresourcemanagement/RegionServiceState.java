@@ -32,19 +32,32 @@ BBN_LICENSE_END*/
 package com.bbn.protelis.networkresourcemanagement;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 /**
- * Information for the services in a region.
+ * Information for the services in a region. Objects of this class are
+ * immutable, {@link #update(Iterable)} creates a new version of the state when
+ * newer reports arrive.
  */
 public class RegionServiceState implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegionServiceState.class);
+
     /**
      * 
      * Create an empty regional service state.
@@ -56,11 +69,36 @@ public class RegionServiceState implements Serializable {
      */
     public RegionServiceState(@Nonnull final RegionIdentifier region,
             @Nonnull final ImmutableSet<ServiceReport> reports) {
+        this(region, 0, latestPerNode(reports));
+    }
+
+    private RegionServiceState(final RegionIdentifier region,
+            final long version,
+            final ImmutableMap<NodeIdentifier, ServiceReport> reportsByNode) {
+        this(region, version, reportsByNode, indexServices(reportsByNode.values()));
+    }
+
+    private RegionServiceState(final RegionIdentifier region,
+            final long version,
+            final ImmutableMap<NodeIdentifier, ServiceReport> reportsByNode,
+            final ImmutableMap<ServiceIdentifier<?>, ImmutableSet<NodeIdentifier>> nodesByService) {
         this.region = region;
-        this.reports = reports;
+        this.version = version;
+        this.reportsByNode = reportsByNode;
+        this.nodesByService = nodesByService;
+        this.reports = ImmutableSet.copyOf(reportsByNode.values());
         this.hashCode = Objects.hashCode(this.region, this.reports);
     }
 
+    private static ImmutableMap<NodeIdentifier, ServiceReport> latestPerNode(final Iterable<ServiceReport> reports) {
+        final Map<NodeIdentifier, ServiceReport> latest = new HashMap<>();
+        for (final ServiceReport report : reports) {
+            latest.merge(report.getNodeName(), report,
+                    (one, two) -> one.getTimestamp() < two.getTimestamp() ? two : one);
+        }
+        return ImmutableMap.copyOf(latest);
+    }
+
     private final RegionIdentifier region;
 
     /**
@@ -71,7 +109,57 @@ public class RegionServiceState implements Serializable {
         return this.region;
     }
 
-    private ImmutableSet<ServiceReport> reports;
+    private final long version;
+
+    /**
+     * The version is incremented each time {@link #update(Iterable)} changes
+     * the state. It is not considered in {@link #equals(Object)}.
+     * 
+     * @return the version of this state
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 
+     * @param previousVersion
+     *            a version returned from {@link #getVersion()} on an earlier
+     *            state
+     * @return true if this state was created by an update after that version
+     */
+    public boolean hasChangedSince(final long previousVersion) {
+        return version > previousVersion;
+    }
+
+    private final ImmutableMap<NodeIdentifier, ServiceReport> reportsByNode;
+
+    /**
+     * 
+     * @param node
+     *            the node
+     * @return the latest report for the node or null if there is no report
+     */
+    public ServiceReport getServiceReport(@Nonnull final NodeIdentifier node) {
+        return reportsByNode.get(node);
+    }
+
+    private final ImmutableMap<ServiceIdentifier<?>, ImmutableSet<NodeIdentifier>> nodesByService;
+
+    /**
+     * 
+     * @param service
+     *            the service
+     * @return the nodes that have a container that is
+     *         {@link ServiceStatus#STARTING} or {@link ServiceStatus#RUNNING}
+     *         for the service
+     */
+    @Nonnull
+    public ImmutableSet<NodeIdentifier> getNodesRunningService(@Nonnull final ServiceIdentifier<?> service) {
+        return nodesByService.getOrDefault(service, ImmutableSet.of());
+    }
+
+    private final ImmutableSet<ServiceReport> reports;
 
     /**
      * 
@@ -82,9 +170,142 @@ public class RegionServiceState implements Serializable {
         return this.reports;
     }
 
+    /**
+     * Apply the latest set of reports for the region. A node's report is only
+     * replaced when a report with a newer timestamp arrives and nodes that are
+     * not in {@code latestReports} are removed. If multiple reports are
+     * included for a node, the one with the latest timestamp is used and a
+     * warning is logged.
+     * 
+     * @param latestReports
+     *            the reports for all nodes in the region
+     * @return this object if nothing changed, otherwise a new state with the
+     *         next version
+     */
+    @Nonnull
+    public RegionServiceState update(@Nonnull final Iterable<ServiceReport> latestReports) {
+        final Map<NodeIdentifier, ServiceReport> changed = new HashMap<>();
+        final Map<NodeIdentifier, ServiceReport> seenReports = new HashMap<>();
+        for (final ServiceReport report : latestReports) {
+            final NodeIdentifier node = report.getNodeName();
+            final ServiceReport duplicate = seenReports.get(node);
+            if (null != duplicate) {
+                LOGGER.warn(
+                        "Saw duplicate service report from {}, using the one with the latest timestamp. one timestamp: {} two timestamp: {}",
+                        node, duplicate.getTimestamp(), report.getTimestamp());
+            }
+            if (null == duplicate || duplicate.getTimestamp() < report.getTimestamp()) {
+                seenReports.put(node, report);
+            }
+
+            final ServiceReport current = changed.getOrDefault(node, reportsByNode.get(node));
+            if (null == current || current.getTimestamp() < report.getTimestamp()) {
+                changed.put(node, report);
+            }
+        }
+
+        final Set<NodeIdentifier> seen = seenReports.keySet();
+        final boolean removed = seen.size() - countNew(changed) < reportsByNode.size();
+        if (changed.isEmpty() && !removed) {
+            return this;
+        }
+
+        final Map<NodeIdentifier, ServiceReport> newReports = new HashMap<>(reportsByNode);
+        if (removed) {
+            newReports.keySet().retainAll(seen);
+        }
+        newReports.putAll(changed);
+
+        // only rebuild the index entries for services on nodes that changed
+        final Set<NodeIdentifier> changedNodes = new HashSet<>(changed.keySet());
+        reportsByNode.keySet().forEach(node -> {
+            if (!seen.contains(node)) {
+                changedNodes.add(node);
+            }
+        });
+        final Set<ServiceIdentifier<?>> affectedServices = new HashSet<>();
+        changedNodes.forEach(node -> {
+            addRunningServices(reportsByNode.get(node), affectedServices);
+            addRunningServices(newReports.get(node), affectedServices);
+        });
+
+        final Map<ServiceIdentifier<?>, ImmutableSet<NodeIdentifier>> newIndex = new HashMap<>(nodesByService);
+        affectedServices.forEach(service -> {
+            final Set<NodeIdentifier> nodes = new HashSet<>(getNodesRunningService(service));
+            changedNodes.forEach(node -> {
+                if (isRunningService(newReports.get(node), service)) {
+                    nodes.add(node);
+                } else {
+                    nodes.remove(node);
+                }
+            });
+            if (nodes.isEmpty()) {
+                newIndex.remove(service);
+            } else {
+                newIndex.put(service, ImmutableSet.copyOf(nodes));
+            }
+        });
+
+        return new RegionServiceState(region, version + 1, ImmutableMap.copyOf(newReports),
+                ImmutableMap.copyOf(newIndex));
+    }
+
+    private int countNew(final Map<NodeIdentifier, ServiceReport> changed) {
+        int count = 0;
+        for (final NodeIdentifier node : changed.keySet()) {
+            if (!reportsByNode.containsKey(node)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isRunning(final ServiceState state) {
+        return ServiceStatus.RUNNING.equals(state.getStatus()) || ServiceStatus.STARTING.equals(state.getStatus());
+    }
+
+    private static void addRunningServices(final ServiceReport report, final Set<ServiceIdentifier<?>> services) {
+        if (null != report) {
+            report.getServiceState().forEach((container, state) -> {
+                if (isRunning(state)) {
+                    services.add(state.getService());
+                }
+            });
+        }
+    }
+
+    private static boolean isRunningService(final ServiceReport report, final ServiceIdentifier<?> service) {
+        if (null == report) {
+            return false;
+        }
+        for (final ServiceState state : report.getServiceState().values()) {
+            if (isRunning(state) && service.equals(state.getService())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ImmutableMap<ServiceIdentifier<?>, ImmutableSet<NodeIdentifier>> indexServices(
+            final Collection<ServiceReport> reports) {
+        final Map<ServiceIdentifier<?>, ImmutableSet.Builder<NodeIdentifier>> index = new HashMap<>();
+        reports.forEach(report -> {
+            final Set<ServiceIdentifier<?>> services = new HashSet<>();
+            addRunningServices(report, services);
+            services.forEach(service -> index.computeIfAbsent(service, k -> ImmutableSet.builder())
+                    .add(report.getNodeName()));
+        });
+
+        final ImmutableMap.Builder<ServiceIdentifier<?>, ImmutableSet<NodeIdentifier>> builder = ImmutableMap
+                .builder();
+        index.forEach((service, nodes) -> builder.put(service, nodes.build()));
+        return builder.build();
+    }
+
     @Override
     public String toString() {
-        return "{" + " region: " + getRegion() + " reports: " + getServiceReports() + "}";
+        return "{" + " region: " + getRegion() + " version: " + getVersion() + " reports: " + getServiceReports()
+                + "}";
     }
 
     private final int hashCode;
@@ -76,7 +76,9 @@ public interface ResourceManager<T extends NetworkServer> {
     ServiceReport getServiceReport();
 
     /**
-     * Start a service in a container.
+     * Start a service in a container. Implementations should call
+     * {@link NetworkServer#invalidateResourceReportCache()} on the managed node
+     * once the service has been started.
      * 
      * @param service
      *            the service to start
@@ -86,6 +88,7 @@ public interface ResourceManager<T extends NetworkServer> {
      * @param parameters
      *            the parameters for starting the service container
      * @see ContainerResourceReport
+     * @see NetworkServer#invalidateResourceReportCache()
      */
     NodeIdentifier startService(@Nonnull ServiceIdentifier<?> service, @Nonnull ContainerParameters parameters);
 
@@ -93,11 +96,15 @@ public interface ResourceManager<T extends NetworkServer> {
      * Stop the service running in the specified container. This method will
      * return immediately after telling the service to stop. Once the service
      * has shutdown the container will be cleaned up by the implementation.
+     * Implementations should call
+     * {@link NetworkServer#invalidateResourceReportCache()} on the managed node
+     * when the service is told to stop.
      * 
      * @param containerName
      *            the identifier for the container used with
      *            {@link #startService(ServiceIdentifier)}
      * @return if the service was able to be notified to stop
+     * @see NetworkServer#invalidateResourceReportCache()
      */
     boolean stopService(@Nonnull NodeIdentifier containerName);
 
@@ -51,6 +51,35 @@ public class ResourceSummary implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Timestamp for null summaries.
+     */
+    public static final long NULL_TIMESTAMP = -1;
+
+    /**
+     * Create a summary with no data. The timestamps are set to
+     * {@link #NULL_TIMESTAMP}.
+     * 
+     * @param region
+     *            the region for the summary
+     * @param demandWindow
+     *            the estimation window for this null summary
+     * @return empty summary for a region
+     */
+    @Nonnull
+    public static ResourceSummary getNullSummary(@Nonnull final RegionIdentifier region,
+            @Nonnull final ResourceReport.EstimationWindow demandWindow) {
+        return new ResourceSummary(region, NULL_TIMESTAMP, NULL_TIMESTAMP, demandWindow, //
+                ImmutableMap.of(), // serverCapacity
+                ImmutableMap.of(), // serverLoad
+                ImmutableMap.of(), // serverDemand
+                ImmutableMap.of(), // serverAverageProcessingTime
+                ImmutableMap.of(), // networkCapacity
+                ImmutableMap.of(), // networkLoad
+                ImmutableMap.of(), // networkDemand
+                0, 0);
+    }
+
     /**
      * 
      * @param region
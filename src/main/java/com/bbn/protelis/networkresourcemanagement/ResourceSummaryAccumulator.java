@@ -0,0 +1,338 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+import com.bbn.protelis.utils.ImmutableUtils;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Mutable state used while merging {@link ResourceSummary} and
+ * {@link ResourceReport} objects. All values are summed except for the
+ * timestamps, which track the minimum and maximum, and the average processing
+ * time, which is the mean of the values reported for each service.
+ * 
+ * The merge operation is associative, so accumulators built over disjoint
+ * pieces of the input can be combined in any grouping. Nested maps that only
+ * exist in the accumulator being merged in are moved rather than copied.
+ * 
+ * This class is not thread-safe.
+ */
+/* package */ final class ResourceSummaryAccumulator {
+
+    private final ResourceReport.EstimationWindow demandEstimationWindow;
+
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private long maximumServiceContainers = 0;
+    private long allocatedServiceContainers = 0;
+
+    private final Map<NodeAttribute, Double> serverCapacity = new HashMap<>();
+    private final Map<ServiceIdentifier<?>, Map<RegionIdentifier, Map<NodeAttribute, Double>>> serverLoad = new HashMap<>();
+    private final Map<ServiceIdentifier<?>, Map<RegionIdentifier, Map<NodeAttribute, Double>>> serverDemand = new HashMap<>();
+    private final Map<ServiceIdentifier<?>, Double> serverProcessingTimeSum = new HashMap<>();
+    private final Map<ServiceIdentifier<?>, Double> serverProcessingTimeCount = new HashMap<>();
+    private final Map<RegionIdentifier, Map<LinkAttribute, Double>> networkCapacity = new HashMap<>();
+    private final Map<RegionIdentifier, Map<RegionNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> networkLoad = new HashMap<>();
+    private final Map<RegionIdentifier, Map<RegionNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> networkDemand = new HashMap<>();
+
+    /**
+     * 
+     * @param demandEstimationWindow
+     *            the estimation window that all merged values must have
+     */
+    /* package */ ResourceSummaryAccumulator(@Nonnull final ResourceReport.EstimationWindow demandEstimationWindow) {
+        this.demandEstimationWindow = Objects.requireNonNull(demandEstimationWindow);
+    }
+
+    private void checkWindow(final ResourceReport.EstimationWindow window) {
+        if (!demandEstimationWindow.equals(window)) {
+            throw new IllegalArgumentException("Cannot merge values with estimation window " + window
+                    + " into a summary with estimation window " + demandEstimationWindow);
+        }
+    }
+
+    private void addTimestamps(final long min, final long max) {
+        // null reports and summaries don't contribute to the time range
+        if (ResourceSummary.NULL_TIMESTAMP != min) {
+            minTimestamp = Math.min(minTimestamp, min);
+        }
+        if (ResourceSummary.NULL_TIMESTAMP != max) {
+            maxTimestamp = Math.max(maxTimestamp, max);
+        }
+    }
+
+    /**
+     * Add a summary to this accumulator.
+     * 
+     * @param summary
+     *            the summary to add
+     * @throws IllegalArgumentException
+     *             if the estimation window of the summary doesn't match this
+     *             accumulator
+     */
+    /* package */ void add(@Nonnull final ResourceSummary summary) throws IllegalArgumentException {
+        checkWindow(summary.getDemandEstimationWindow());
+
+        addTimestamps(summary.getMinTimestamp(), summary.getMaxTimestamp());
+        maximumServiceContainers += summary.getMaximumServiceContainers();
+        allocatedServiceContainers += summary.getAllocatedServiceContainers();
+
+        addValues(serverCapacity, summary.getServerCapacity());
+        addValues3(serverLoad, summary.getServerLoad());
+        addValues3(serverDemand, summary.getServerDemand());
+        summary.getServerAverageProcessingTime().forEach(this::addProcessingTime);
+        addValues2(networkCapacity, summary.getNetworkCapacity());
+        addValues4(networkLoad, summary.getNetworkLoad());
+        addValues4(networkDemand, summary.getNetworkDemand());
+    }
+
+    /**
+     * Add a report to this accumulator. Nodes are mapped to their regions with
+     * {@code regionLookup}. Network interfaces are mapped to the region of the
+     * first neighbor on the interface and interfaces that stay inside the
+     * region of the reporting node are skipped.
+     * 
+     * @param report
+     *            the report to add
+     * @param regionLookup
+     *            used to find the region for each node
+     * @throws IllegalArgumentException
+     *             if the estimation window of the report doesn't match this
+     *             accumulator
+     */
+    /* package */ void add(@Nonnull final ResourceReport report, @Nonnull final RegionLookupService regionLookup)
+            throws IllegalArgumentException {
+        checkWindow(report.getDemandEstimationWindow());
+
+        addTimestamps(report.getTimestamp(), report.getTimestamp());
+        maximumServiceContainers += report.getMaximumServiceContainers();
+        allocatedServiceContainers += report.getAllocatedServiceContainers();
+
+        addValues(serverCapacity, report.getNodeComputeCapacity());
+        addNodeValues(serverLoad, report.getComputeLoad(), regionLookup);
+        addNodeValues(serverDemand, report.getComputeDemand(), regionLookup);
+        report.getAverageProcessingTime().forEach(this::addProcessingTime);
+
+        final RegionIdentifier reportRegion = regionLookup.getRegionForNode(report.getNodeName());
+        report.getNetworkCapacity().forEach((ii, values) -> {
+            final RegionIdentifier neighborRegion = getInterfaceRegion(ii, regionLookup);
+            if (null != neighborRegion && !reportRegion.equals(neighborRegion)) {
+                addValues(networkCapacity.computeIfAbsent(neighborRegion, k -> new HashMap<>()), values);
+            }
+        });
+        addInterfaceValues(networkLoad, report.getNetworkLoad(), reportRegion, regionLookup);
+        addInterfaceValues(networkDemand, report.getNetworkDemand(), reportRegion, regionLookup);
+    }
+
+    /**
+     * Merge another accumulator into this one. {@code other} must not be used
+     * after this call as some of its maps may now be owned by this object.
+     * 
+     * @param other
+     *            the accumulator to merge in
+     * @throws IllegalArgumentException
+     *             if the estimation windows don't match
+     */
+    /* package */ void merge(@Nonnull final ResourceSummaryAccumulator other) throws IllegalArgumentException {
+        checkWindow(other.demandEstimationWindow);
+
+        minTimestamp = Math.min(minTimestamp, other.minTimestamp);
+        maxTimestamp = Math.max(maxTimestamp, other.maxTimestamp);
+        maximumServiceContainers += other.maximumServiceContainers;
+        allocatedServiceContainers += other.allocatedServiceContainers;
+
+        mergeValues(serverCapacity, other.serverCapacity);
+        mergeNested(serverLoad, other.serverLoad, ResourceSummaryAccumulator::mergeNested2);
+        mergeNested(serverDemand, other.serverDemand, ResourceSummaryAccumulator::mergeNested2);
+        mergeValues(serverProcessingTimeSum, other.serverProcessingTimeSum);
+        mergeValues(serverProcessingTimeCount, other.serverProcessingTimeCount);
+        mergeNested2(networkCapacity, other.networkCapacity);
+        mergeNested(networkLoad, other.networkLoad, ResourceSummaryAccumulator::mergeNested3);
+        mergeNested(networkDemand, other.networkDemand, ResourceSummaryAccumulator::mergeNested3);
+    }
+
+    /**
+     * Create the summary for the values added so far. If nothing has been
+     * added the timestamps are {@link ResourceSummary#NULL_TIMESTAMP}.
+     * 
+     * @param region
+     *            the region for the summary
+     * @return the summary
+     */
+    @Nonnull
+    /* package */ ResourceSummary toResourceSummary(@Nonnull final RegionIdentifier region) {
+        final ImmutableMap.Builder<ServiceIdentifier<?>, Double> avgProcTime = ImmutableMap.builder();
+        serverProcessingTimeSum.forEach((service, sum) -> {
+            final double count = serverProcessingTimeCount.getOrDefault(service, 0D);
+            if (count > 0) {
+                avgProcTime.put(service, sum / count);
+            }
+        });
+
+        final boolean empty = minTimestamp > maxTimestamp;
+        return new ResourceSummary(region, //
+                empty ? ResourceSummary.NULL_TIMESTAMP : minTimestamp, //
+                empty ? ResourceSummary.NULL_TIMESTAMP : maxTimestamp, //
+                demandEstimationWindow, //
+                ImmutableMap.copyOf(serverCapacity), //
+                ImmutableUtils.makeImmutableMap3(serverLoad), //
+                ImmutableUtils.makeImmutableMap3(serverDemand), //
+                avgProcTime.build(), //
+                ImmutableUtils.makeImmutableMap2(networkCapacity), //
+                ImmutableUtils.makeImmutableMap4(networkLoad), //
+                ImmutableUtils.makeImmutableMap4(networkDemand), //
+                saturatedCast(maximumServiceContainers), //
+                saturatedCast(allocatedServiceContainers));
+    }
+
+    private static int saturatedCast(final long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private void addProcessingTime(final ServiceIdentifier<?> service, final Double time) {
+        if (!Double.isNaN(time)) {
+            serverProcessingTimeSum.merge(service, time, Double::sum);
+            serverProcessingTimeCount.merge(service, 1D, Double::sum);
+        }
+    }
+
+    private static RegionIdentifier getInterfaceRegion(final InterfaceIdentifier ii,
+            final RegionLookupService regionLookup) {
+        for (final NodeIdentifier neighbor : ii.getNeighbors()) {
+            final RegionIdentifier region = regionLookup.getRegionForNode(neighbor);
+            if (null != region && !RegionIdentifier.UNKNOWN.equals(region)) {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    private static void addNodeValues(final Map<ServiceIdentifier<?>, Map<RegionIdentifier, Map<NodeAttribute, Double>>> dest,
+            final Map<ServiceIdentifier<?>, ImmutableMap<NodeIdentifier, ImmutableMap<NodeAttribute, Double>>> source,
+            final RegionLookupService regionLookup) {
+        source.forEach((service, nodeValues) -> {
+            final Map<RegionIdentifier, Map<NodeAttribute, Double>> serviceDest = dest.computeIfAbsent(service,
+                    k -> new HashMap<>());
+            nodeValues.forEach((node, values) -> {
+                final RegionIdentifier region = regionLookup.getRegionForNode(node);
+                addValues(serviceDest.computeIfAbsent(region, k -> new HashMap<>()), values);
+            });
+        });
+    }
+
+    private static void addInterfaceValues(
+            final Map<RegionIdentifier, Map<RegionNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>>> dest,
+            final Map<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> source,
+            final RegionIdentifier reportRegion,
+            final RegionLookupService regionLookup) {
+        source.forEach((ii, flowValues) -> {
+            final RegionIdentifier neighborRegion = getInterfaceRegion(ii, regionLookup);
+            if (null != neighborRegion && !reportRegion.equals(neighborRegion)) {
+                final Map<RegionNetworkFlow, Map<ServiceIdentifier<?>, Map<LinkAttribute, Double>>> neighborDest = dest
+                        .computeIfAbsent(neighborRegion, k -> new HashMap<>());
+                flowValues.forEach((flow, serviceValues) -> {
+                    final RegionNetworkFlow regionFlow = new RegionNetworkFlow(
+                            regionLookup.getRegionForNode(flow.getSource()),
+                            regionLookup.getRegionForNode(flow.getDestination()),
+                            regionLookup.getRegionForNode(flow.getServer()));
+                    addValues2(neighborDest.computeIfAbsent(regionFlow, k -> new HashMap<>()), serviceValues);
+                });
+            }
+        });
+    }
+
+    // ---- adding immutable values, these always need to be copied
+
+    private static <K> void addValues(final Map<K, Double> dest, final Map<K, Double> source) {
+        source.forEach((k, v) -> dest.merge(k, v, Double::sum));
+    }
+
+    private static <K1, K2, M extends Map<K2, Double>> void addValues2(final Map<K1, Map<K2, Double>> dest,
+            final Map<K1, M> source) {
+        source.forEach((k, v) -> addValues(dest.computeIfAbsent(k, x -> new HashMap<>()), v));
+    }
+
+    private static <K1, K2, K3, M2 extends Map<K3, Double>, M1 extends Map<K2, M2>> void addValues3(
+            final Map<K1, Map<K2, Map<K3, Double>>> dest,
+            final Map<K1, M1> source) {
+        source.forEach((k, v) -> addValues2(dest.computeIfAbsent(k, x -> new HashMap<>()), v));
+    }
+
+    private static <K1, K2, K3, K4, M3 extends Map<K4, Double>, M2 extends Map<K3, M3>, M1 extends Map<K2, M2>> void addValues4(
+            final Map<K1, Map<K2, Map<K3, Map<K4, Double>>>> dest,
+            final Map<K1, M1> source) {
+        source.forEach((k, v) -> addValues3(dest.computeIfAbsent(k, x -> new HashMap<>()), v));
+    }
+
+    // ---- merging mutable values owned by another accumulator, these can be
+    // moved
+
+    /**
+     * Merge a nested level.
+     */
+    @FunctionalInterface
+    private interface LevelMerger<V> {
+        void merge(V dest, V source);
+    }
+
+    private static <K, V> void mergeNested(final Map<K, V> dest,
+            final Map<K, V> source,
+            final LevelMerger<V> valueMerger) {
+        source.forEach((k, v) -> {
+            final V existing = dest.putIfAbsent(k, v);
+            if (null != existing) {
+                valueMerger.merge(existing, v);
+            }
+        });
+    }
+
+    private static <K> void mergeValues(final Map<K, Double> dest, final Map<K, Double> source) {
+        source.forEach((k, v) -> dest.merge(k, v, Double::sum));
+    }
+
+    private static <K1, K2> void mergeNested2(final Map<K1, Map<K2, Double>> dest,
+            final Map<K1, Map<K2, Double>> source) {
+        mergeNested(dest, source, ResourceSummaryAccumulator::mergeValues);
+    }
+
+    private static <K1, K2, K3> void mergeNested3(final Map<K1, Map<K2, Map<K3, Double>>> dest,
+            final Map<K1, Map<K2, Map<K3, Double>>> source) {
+        mergeNested(dest, source, ResourceSummaryAccumulator::mergeNested2);
+    }
+
+}
@@ -0,0 +1,288 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Merge {@link ResourceSummary} and {@link ResourceReport} objects into a
+ * single {@link ResourceSummary}. This is used when a controller needs to
+ * combine the information from many nodes or regions.
+ * 
+ * The sequential and parallel methods produce summaries that are equal, the
+ * only differences being in the order that floating point values are summed.
+ * The parallel methods split the input into ranges, merge each range
+ * sequentially and then combine the partial results as a tree using
+ * {@link ForkJoinPool}.
+ * 
+ * Capacity, load, demand and container counts are summed. The timestamps are
+ * the minimum and maximum timestamps of the inputs. The average processing
+ * time for a service is the mean of the average processing times that were
+ * reported for that service.
+ */
+public final class ResourceSummaryMerger {
+
+    private ResourceSummaryMerger() {
+    }
+
+    /**
+     * Inputs smaller than this are merged sequentially by the parallel merge.
+     */
+    public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 64;
+
+    /**
+     * Merge summaries sequentially.
+     * 
+     * @param region
+     *            the region for the resulting summary
+     * @param demandWindow
+     *            the estimation window, all summaries must have this window
+     * @param summaries
+     *            the summaries to merge
+     * @return the merged summary
+     * @throws IllegalArgumentException
+     *             if a summary has a different estimation window
+     */
+    @Nonnull
+    public static ResourceSummary mergeSummaries(@Nonnull final RegionIdentifier region,
+            @Nonnull final ResourceReport.EstimationWindow demandWindow,
+            @Nonnull final Collection<ResourceSummary> summaries) throws IllegalArgumentException {
+        final ResourceSummaryAccumulator accumulator = new ResourceSummaryAccumulator(demandWindow);
+        summaries.forEach(accumulator::add);
+        return accumulator.toResourceSummary(region);
+    }
+
+    /**
+     * Merge summaries in parallel using the common {@link ForkJoinPool}.
+     * 
+     * @param region
+     *            the region for the resulting summary
+     * @param demandWindow
+     *            the estimation window, all summaries must have this window
+     * @param summaries
+     *            the summaries to merge
+     * @return the merged summary
+     * @throws IllegalArgumentException
+     *             if a summary has a different estimation window
+     * @see #mergeSummaries(RegionIdentifier, ResourceReport.EstimationWindow,
+     *      Collection)
+     */
+    @Nonnull
+    public static ResourceSummary parallelMergeSummaries(@Nonnull final RegionIdentifier region,
+            @Nonnull final ResourceReport.EstimationWindow demandWindow,
+            @Nonnull final Collection<ResourceSummary> summaries) throws IllegalArgumentException {
+        return parallelMergeSummaries(ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_THRESHOLD, region, demandWindow,
+                summaries);
+    }
+
+    /**
+     * Merge summaries in parallel.
+     * 
+     * @param pool
+     *            the pool to execute the merge in
+     * @param sequentialThreshold
+     *            ranges of inputs at or below this size are merged
+     *            sequentially
+     * @param region
+     *            the region for the resulting summary
+     * @param demandWindow
+     *            the estimation window, all summaries must have this window
+     * @param summaries
+     *            the summaries to merge
+     * @return the merged summary
+     * @throws IllegalArgumentException
+     *             if a summary has a different estimation window
+     */
+    @Nonnull
+    public static ResourceSummary parallelMergeSummaries(@Nonnull final ForkJoinPool pool,
+            final int sequentialThreshold,
+            @Nonnull final RegionIdentifier region,
+            @Nonnull final ResourceReport.EstimationWindow demandWindow,
+            @Nonnull final Collection<ResourceSummary> summaries) throws IllegalArgumentException {
+        final MergeTask<ResourceSummary> task = new MergeTask<>(toList(summaries), 0, summaries.size(),
+                sequentialThreshold, demandWindow, (accumulator, summary) -> accumulator.add(summary));
+        return pool.invoke(task).toResourceSummary(region);
+    }
+
+    /**
+     * Merge reports sequentially.
+     * 
+     * @param region
+     *            the region for the resulting summary
+     * @param demandWindow
+     *            the estimation window, all reports must have this window
+     * @param regionLookup
+     *            used to map nodes to regions
+     * @param reports
+     *            the reports to merge
+     * @return the merged summary
+     * @throws IllegalArgumentException
+     *             if a report has a different estimation window
+     */
+    @Nonnull
+    public static ResourceSummary mergeReports(@Nonnull final RegionIdentifier region,
+            @Nonnull final ResourceReport.EstimationWindow demandWindow,
+            @Nonnull final RegionLookupService regionLookup,
+            @Nonnull final Collection<ResourceReport> reports) throws IllegalArgumentException {
+        final ResourceSummaryAccumulator accumulator = new ResourceSummaryAccumulator(demandWindow);
+        reports.forEach(report -> accumulator.add(report, regionLookup));
+        return accumulator.toResourceSummary(region);
+    }
+
+    /**
+     * Merge reports in parallel using the common {@link ForkJoinPool}.
+     * 
+     * @param region
+     *            the region for the resulting summary
+     * @param demandWindow
+     *            the estimation window, all reports must have this window
+     * @param regionLookup
+     *            used to map nodes to regions, must be safe to call from
+     *            multiple threads
+     * @param reports
+     *            the reports to merge
+     * @return the merged summary
+     * @throws IllegalArgumentException
+     *             if a report has a different estimation window
+     * @see #mergeReports(RegionIdentifier, ResourceReport.EstimationWindow,
+     *      RegionLookupService, Collection)
+     */
+    @Nonnull
+    public static ResourceSummary parallelMergeReports(@Nonnull final RegionIdentifier region,
+            @Nonnull final ResourceReport.EstimationWindow demandWindow,
+            @Nonnull final RegionLookupService regionLookup,
+            @Nonnull final Collection<ResourceReport> reports) throws IllegalArgumentException {
+        return parallelMergeReports(ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_THRESHOLD, region, demandWindow,
+                regionLookup, reports);
+    }
+
+    /**
+     * Merge reports in parallel.
+     * 
+     * @param pool
+     *            the pool to execute the merge in
+     * @param sequentialThreshold
+     *            ranges of inputs at or below this size are merged
+     *            sequentially
+     * @param region
+     *            the region for the resulting summary
+     * @param demandWindow
+     *            the estimation window, all reports must have this window
+     * @param regionLookup
+     *            used to map nodes to regions, must be safe to call from
+     *            multiple threads
+     * @param reports
+     *            the reports to merge
+     * @return the merged summary
+     * @throws IllegalArgumentException
+     *             if a report has a different estimation window
+     */
+    @Nonnull
+    public static ResourceSummary parallelMergeReports(@Nonnull final ForkJoinPool pool,
+            final int sequentialThreshold,
+            @Nonnull final RegionIdentifier region,
+            @Nonnull final ResourceReport.EstimationWindow demandWindow,
+            @Nonnull final RegionLookupService regionLookup,
+            @Nonnull final Collection<ResourceReport> reports) throws IllegalArgumentException {
+        final MergeTask<ResourceReport> task = new MergeTask<>(toList(reports), 0, reports.size(),
+                sequentialThreshold, demandWindow, (accumulator, report) -> accumulator.add(report, regionLookup));
+        return pool.invoke(task).toResourceSummary(region);
+    }
+
+    private static <T> List<T> toList(final Collection<T> values) {
+        if (values instanceof List && values instanceof RandomAccess) {
+            return (List<T>) values;
+        } else {
+            return new ArrayList<>(values);
+        }
+    }
+
+    /**
+     * Merge a range of the input, splitting it in half until the range is
+     * small enough to merge sequentially.
+     */
+    private static final class MergeTask<T> extends RecursiveTask<ResourceSummaryAccumulator> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> values;
+        private final int start;
+        private final int end;
+        private final int sequentialThreshold;
+        private final ResourceReport.EstimationWindow demandWindow;
+        private final BiConsumer<ResourceSummaryAccumulator, T> adder;
+
+        MergeTask(final List<T> values,
+                final int start,
+                final int end,
+                final int sequentialThreshold,
+                final ResourceReport.EstimationWindow demandWindow,
+                final BiConsumer<ResourceSummaryAccumulator, T> adder) {
+            this.values = values;
+            this.start = start;
+            this.end = end;
+            this.sequentialThreshold = Math.max(1, sequentialThreshold);
+            this.demandWindow = demandWindow;
+            this.adder = adder;
+        }
+
+        @Override
+        protected ResourceSummaryAccumulator compute() {
+            if (end - start <= sequentialThreshold) {
+                final ResourceSummaryAccumulator accumulator = new ResourceSummaryAccumulator(demandWindow);
+                for (int i = start; i < end; ++i) {
+                    adder.accept(accumulator, values.get(i));
+                }
+                return accumulator;
+            } else {
+                final int middle = (start + end) >>> 1;
+                final MergeTask<T> left = new MergeTask<>(values, start, middle, sequentialThreshold, demandWindow,
+                        adder);
+                final MergeTask<T> right = new MergeTask<>(values, middle, end, sequentialThreshold, demandWindow,
+                        adder);
+                left.fork();
+                final ResourceSummaryAccumulator rightResult = right.compute();
+                final ResourceSummaryAccumulator leftResult = left.join();
+                leftResult.merge(rightResult);
+                return leftResult;
+            }
+        }
+    }
+
+}
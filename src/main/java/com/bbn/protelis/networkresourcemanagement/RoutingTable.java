@@ -0,0 +1,298 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Routing decisions compiled from a {@link RegionPlan} and a
+ * {@link LoadBalancerPlan}. The weights in the plans are turned into
+ * {@link AliasTable}s once per plan so that choosing the region and container
+ * for a request is constant time. Objects of this class are immutable, a new
+ * table is compiled when either plan changes.
+ * 
+ * @see NetworkState#getRoutingTable()
+ */
+public final class RoutingTable {
+
+    private final RegionIdentifier region;
+    private final RegionPlan regionPlan;
+    private final LoadBalancerPlan loadBalancerPlan;
+    private final ImmutableMap<ServiceIdentifier<?>, AliasTable<RegionIdentifier>> regionPlanTables;
+    private final ImmutableMap<ServiceIdentifier<?>, AliasTable<RegionIdentifier>> overflowTables;
+    private final ImmutableMap<ServiceIdentifier<?>, AliasTable<NodeIdentifier>> containerTables;
+    private final ImmutableMap<NodeIdentifier, NodeIdentifier> containerNodes;
+
+    /**
+     * Compile the routing table for a pair of plans.
+     * 
+     * @param regionPlan
+     *            the plan for traffic between regions
+     * @param loadBalancerPlan
+     *            the plan for traffic within the region and overflow to
+     *            other regions
+     * @throws IllegalArgumentException
+     *             if the plans are for different regions
+     */
+    public RoutingTable(@Nonnull final RegionPlan regionPlan, @Nonnull final LoadBalancerPlan loadBalancerPlan)
+            throws IllegalArgumentException {
+        this(regionPlan, compileRegionWeights(regionPlan.getPlan()), loadBalancerPlan,
+                compileRegionWeights(loadBalancerPlan.getOverflowPlan()), compileContainers(loadBalancerPlan));
+    }
+
+    private RoutingTable(final RegionPlan regionPlan,
+            final ImmutableMap<ServiceIdentifier<?>, AliasTable<RegionIdentifier>> regionPlanTables,
+            final LoadBalancerPlan loadBalancerPlan,
+            final ImmutableMap<ServiceIdentifier<?>, AliasTable<RegionIdentifier>> overflowTables,
+            final ContainerTables containers) throws IllegalArgumentException {
+        if (!regionPlan.getRegion().equals(loadBalancerPlan.getRegion())) {
+            throw new IllegalArgumentException("Region plan (" + regionPlan.getRegion()
+                    + ") and load balancer plan (" + loadBalancerPlan.getRegion() + ") are for different regions");
+        }
+        this.region = regionPlan.getRegion();
+        this.regionPlan = regionPlan;
+        this.regionPlanTables = regionPlanTables;
+        this.loadBalancerPlan = loadBalancerPlan;
+        this.overflowTables = overflowTables;
+        this.containerTables = containers.tables;
+        this.containerNodes = containers.nodes;
+    }
+
+    /**
+     * Create a new table with a different region plan. The tables compiled
+     * from the load balancer plan are reused.
+     * 
+     * @param plan
+     *            the new region plan
+     * @return the new routing table
+     * @throws IllegalArgumentException
+     *             if the plan is for a different region
+     */
+    @Nonnull
+    public RoutingTable withRegionPlan(@Nonnull final RegionPlan plan) throws IllegalArgumentException {
+        return new RoutingTable(plan, compileRegionWeights(plan.getPlan()), loadBalancerPlan, overflowTables,
+                new ContainerTables(containerTables, containerNodes));
+    }
+
+    /**
+     * Create a new table with a different load balancer plan. The tables
+     * compiled from the region plan are reused.
+     * 
+     * @param plan
+     *            the new load balancer plan
+     * @return the new routing table
+     * @throws IllegalArgumentException
+     *             if the plan is for a different region
+     */
+    @Nonnull
+    public RoutingTable withLoadBalancerPlan(@Nonnull final LoadBalancerPlan plan) throws IllegalArgumentException {
+        return new RoutingTable(regionPlan, regionPlanTables, plan, compileRegionWeights(plan.getOverflowPlan()),
+                compileContainers(plan));
+    }
+
+    /**
+     * @return the region that the table routes for
+     */
+    @Nonnull
+    public RegionIdentifier getRegion() {
+        return region;
+    }
+
+    /**
+     * @return the region plan that this table was compiled from
+     */
+    @Nonnull
+    public RegionPlan getRegionPlan() {
+        return regionPlan;
+    }
+
+    /**
+     * @return the load balancer plan that this table was compiled from
+     */
+    @Nonnull
+    public LoadBalancerPlan getLoadBalancerPlan() {
+        return loadBalancerPlan;
+    }
+
+    /**
+     * Choose the region to send a request for a service to using
+     * {@link java.util.concurrent.ThreadLocalRandom}.
+     * 
+     * @param service
+     *            the service
+     * @return the region or null to use the default region for the service
+     * @see #chooseRegion(ServiceIdentifier, Random)
+     */
+    public RegionIdentifier chooseRegion(@Nonnull final ServiceIdentifier<?> service) {
+        return chooseRegion(service, null);
+    }
+
+    /**
+     * Choose the region to send a request for a service to. The overflow plan
+     * from the load balancer plan is used if it has an entry for the service,
+     * otherwise the region plan. If neither plan has an entry for the service,
+     * the current region is chosen when it has containers that can take
+     * traffic for the service.
+     * 
+     * @param service
+     *            the service
+     * @param random
+     *            the source of randomness, null to use
+     *            {@link java.util.concurrent.ThreadLocalRandom}
+     * @return the region or null to use the default region for the service
+     */
+    public RegionIdentifier chooseRegion(@Nonnull final ServiceIdentifier<?> service, final Random random) {
+        AliasTable<RegionIdentifier> table = overflowTables.get(service);
+        if (null == table) {
+            table = regionPlanTables.get(service);
+        }
+
+        if (null != table) {
+            return choose(table, random);
+        } else if (containerTables.containsKey(service)) {
+            return region;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Choose the container in this region to send a request for a service to
+     * using {@link java.util.concurrent.ThreadLocalRandom}.
+     * 
+     * @param service
+     *            the service
+     * @return the container or null if no container can take traffic for the
+     *         service
+     * @see #chooseContainer(ServiceIdentifier, Random)
+     */
+    public NodeIdentifier chooseContainer(@Nonnull final ServiceIdentifier<?> service) {
+        return chooseContainer(service, null);
+    }
+
+    /**
+     * Choose the container in this region to send a request for a service to.
+     * Containers that are not started yet, are stopping or have traffic
+     * stopped are never chosen.
+     * 
+     * @param service
+     *            the service
+     * @param random
+     *            the source of randomness, null to use
+     *            {@link java.util.concurrent.ThreadLocalRandom}
+     * @return the container or null if no container can take traffic for the
+     *         service
+     */
+    public NodeIdentifier chooseContainer(@Nonnull final ServiceIdentifier<?> service, final Random random) {
+        final AliasTable<NodeIdentifier> table = containerTables.get(service);
+        if (null == table) {
+            return null;
+        } else {
+            return choose(table, random);
+        }
+    }
+
+    /**
+     * @param container
+     *            a container returned from
+     *            {@link #chooseContainer(ServiceIdentifier, Random)}
+     * @return the node that the container runs on, null if unknown
+     */
+    public NodeIdentifier getNodeForContainer(@Nonnull final NodeIdentifier container) {
+        return containerNodes.get(container);
+    }
+
+    private static <T> T choose(final AliasTable<T> table, final Random random) {
+        if (null == random) {
+            return table.choose();
+        } else {
+            return table.choose(random);
+        }
+    }
+
+    private static ImmutableMap<ServiceIdentifier<?>, AliasTable<RegionIdentifier>> compileRegionWeights(
+            final ImmutableMap<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> plan) {
+        final ImmutableMap.Builder<ServiceIdentifier<?>, AliasTable<RegionIdentifier>> builder = ImmutableMap
+                .builder();
+        plan.forEach((service, weights) -> {
+            final AliasTable<RegionIdentifier> table = new AliasTable<>(weights);
+            if (!table.isEmpty()) {
+                builder.put(service, table);
+            }
+        });
+        return builder.build();
+    }
+
+    private static ContainerTables compileContainers(final LoadBalancerPlan plan) {
+        final Map<ServiceIdentifier<?>, Map<NodeIdentifier, Double>> weights = new HashMap<>();
+        final Map<NodeIdentifier, NodeIdentifier> nodes = new HashMap<>();
+        plan.getServicePlan().forEach((node, containers) -> {
+            for (final LoadBalancerPlan.ContainerInfo info : containers) {
+                if (null != info.getId() && !info.isStop() && !info.isStopTrafficTo()) {
+                    weights.computeIfAbsent(info.getService(), k -> new HashMap<>()).merge(info.getId(),
+                            info.getWeight(), Double::sum);
+                    nodes.put(info.getId(), node);
+                }
+            }
+        });
+
+        final ImmutableMap.Builder<ServiceIdentifier<?>, AliasTable<NodeIdentifier>> tables = ImmutableMap.builder();
+        weights.forEach((service, containerWeights) -> {
+            final AliasTable<NodeIdentifier> table = new AliasTable<>(containerWeights);
+            if (!table.isEmpty()) {
+                tables.put(service, table);
+            }
+        });
+        return new ContainerTables(tables.build(), ImmutableMap.copyOf(nodes));
+    }
+
+    /**
+     * The tables compiled from the service plan.
+     */
+    private static final class ContainerTables {
+        private final ImmutableMap<ServiceIdentifier<?>, AliasTable<NodeIdentifier>> tables;
+        private final ImmutableMap<NodeIdentifier, NodeIdentifier> nodes;
+
+        ContainerTables(final ImmutableMap<ServiceIdentifier<?>, AliasTable<NodeIdentifier>> tables,
+                final ImmutableMap<NodeIdentifier, NodeIdentifier> nodes) {
+            this.tables = tables;
+            this.nodes = nodes;
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+/**
+ * Fixed capacity buffer of the most recent samples. Adding a sample and
+ * computing the mean of the samples in the buffer are constant time
+ * operations. The memory used is fixed at construction time.
+ */
+/* package */ final class SampleRingBuffer {
+
+    private final double[] samples;
+    private int head = 0;
+    private int size = 0;
+    private double sum = 0;
+    private int nonZeroCount = 0;
+
+    /**
+     * @param capacity
+     *            the maximum number of samples to keep
+     * @throws IllegalArgumentException
+     *             if the capacity is not positive
+     */
+    /* package */ SampleRingBuffer(final int capacity) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.samples = new double[capacity];
+    }
+
+    /**
+     * Add a sample, replacing the oldest sample if the buffer is full.
+     * 
+     * @param value
+     *            the sample value
+     */
+    /* package */ void add(final double value) {
+        if (size == samples.length) {
+            final double old = samples[head];
+            sum -= old;
+            if (old != 0) {
+                --nonZeroCount;
+            }
+        } else {
+            ++size;
+        }
+
+        samples[head] = value;
+        sum += value;
+        if (value != 0) {
+            ++nonZeroCount;
+        }
+
+        ++head;
+        if (head == samples.length) {
+            head = 0;
+            // recompute the sum once per pass through the buffer so that
+            // rounding errors from the running sum don't accumulate
+            double exact = 0;
+            for (int i = 0; i < size; ++i) {
+                exact += samples[i];
+            }
+            sum = exact;
+        }
+    }
+
+    /**
+     * @return the mean of the samples in the buffer, 0 if the buffer is empty
+     */
+    /* package */ double getMean() {
+        if (0 == size) {
+            return 0;
+        } else {
+            return sum / size;
+        }
+    }
+
+    /**
+     * @return the number of samples in the buffer
+     */
+    /* package */ int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of samples in the buffer
+     */
+    /* package */ int capacity() {
+        return samples.length;
+    }
+
+    /**
+     * @return true if the buffer is full and all samples are zero
+     */
+    /* package */ boolean isFullOfZeros() {
+        return size == samples.length && 0 == nonZeroCount;
+    }
+
+}
@@ -75,6 +75,15 @@ public class ShareDataMessage extends ApMessage {
         this.encoded = encodeData(this.data);
     }
 
+    /**
+     * Used for received messages, which are only read and never sent so they
+     * don't need to be encoded again.
+     */
+    private ShareDataMessage(final Map<CodePath, Object> data, final byte[] encoded) {
+        this.data = data;
+        this.encoded = encoded;
+    }
+
     /**
      * Write this message to {@code stream}.
      * 
@@ -84,10 +93,78 @@ public class ShareDataMessage extends ApMessage {
      *             if there is an error writing to the stream
      */
     public void writeMessage(final DataOutputStream stream) throws IOException {
-        LOGGER.trace("Sending message of size {}", encoded.length);
+        final byte[] bytes = null == encoded ? encodeData(data) : encoded;
+        LOGGER.trace("Sending message of size {}", bytes.length);
+
+        stream.writeInt(bytes.length);
+        stream.write(bytes);
+    }
+
+    /**
+     * Encode {@code data} into the payload of {@code frame} in the format read
+     * by {@link #decode(byte[], int, int, boolean)}. Unlike creating a message
+     * and calling {@link #writeMessage(DataOutputStream)}, the data is not
+     * copied into an intermediate array. The data is serialized first and
+     * then compressed as chosen by {@link CompressionPolicy} for its size and
+     * {@code bandwidth}. If compressing doesn't make the data smaller it is
+     * sent uncompressed. {@link ApFraming#FLAG_COMPRESSED} is set on the frame
+     * when the data is compressed and {@link ApFraming#FLAG_DICTIONARY} when
+     * {@code dictionary} was used.
+     * 
+     * @param data
+     *            the data to share
+     * @param frame
+     *            where to write the message, after
+     *            {@link ApFraming.Writer#begin(byte)} has been called
+     * @param bandwidth
+     *            the bandwidth of the link in megabits per second, NaN if
+     *            unknown
+     * @param dictionary
+     *            the dictionary agreed with the neighbor, may be null
+     * @param statistics
+     *            where to record the sizes and compression time
+     * @throws IOException
+     *             if there is an error encoding the data
+     */
+    /* package */ static void encode(final Map<CodePath, Object> data,
+            final ApFraming.Writer frame,
+            final double bandwidth,
+            final CompressionDictionary dictionary,
+            final CompressionStatistics statistics) throws IOException {
+        final int sizePosition = frame.reserveInt();
+        final int start = frame.getSize();
+        serializeData(data, frame);
+        final int rawSize = frame.getSize() - start;
+
+        final int level = CompressionPolicy.chooseLevel(rawSize, bandwidth);
+        boolean compressed = false;
+        long time = 0;
+        if (CompressionPolicy.UNCOMPRESSED != level) {
+            final long timeStart = CompressionStatistics.currentTime();
+            final byte[] raw = frame.copyFrom(start);
+            try {
+                frame.truncate(start);
+                compressData(raw, 0, rawSize, level, null == dictionary ? null : dictionary.getBytes(), frame);
+                if (frame.getSize() - start < rawSize) {
+                    compressed = true;
+                } else {
+                    frame.truncate(start);
+                    frame.write(raw, 0, rawSize);
+                }
+            } finally {
+                frame.recycle(raw);
+            }
+            time = CompressionStatistics.currentTime() - timeStart;
+        }
 
-        stream.writeInt(encoded.length);
-        stream.write(encoded);
+        final int size = frame.getSize() - start;
+        LOGGER.trace("Encoded message of size {} from {} bytes at level {}", size, rawSize, level);
+        frame.putInt(sizePosition, size);
+        if (compressed) {
+            frame.setFlags(null == dictionary ? ApFraming.FLAG_COMPRESSED
+                    : (byte) (ApFraming.FLAG_COMPRESSED | ApFraming.FLAG_DICTIONARY));
+        }
+        statistics.record(rawSize, size, compressed, time);
     }
 
     private static final int MINIMUM_DATA_SIZE = 1;
@@ -109,13 +186,114 @@ public class ShareDataMessage extends ApMessage {
         if (size < MINIMUM_DATA_SIZE) {
             throw new StreamSyncLostException("Message size is too small: " + size);
         }
+        final int maxSize = GlobalNetworkConfiguration.getInstance().getMaxFrameSize();
+        if (size > maxSize) {
+            throw new StreamSyncLostException("Message size " + size + " is larger than the maximum " + maxSize);
+        }
 
         final byte[] bytes = new byte[size];
         stream.readFully(bytes);
 
         @SuppressWarnings("unchecked")
         final Map<CodePath, Object> data = decodeData(Map.class, bytes);
-        return new ShareDataMessage(data);
+        return new ShareDataMessage(data, bytes);
+    }
+
+    /**
+     * Decode a message from the payload of a frame, as written by
+     * {@link #writeMessage(DataOutputStream)}. The data is decoded directly
+     * from {@code buffer}, which may be reused once this method returns.
+     * 
+     * @param buffer
+     *            contains the message
+     * @param offset
+     *            the start of the message in {@code buffer}
+     * @param length
+     *            the number of bytes in the message
+     * @return the message
+     * @throws IOException
+     *             if there is an error decoding the data
+     * @throws StreamSyncLostException
+     *             if the size written in the message doesn't match
+     *             {@code length} or the data can't be decoded
+     */
+    public static ShareDataMessage decode(final byte[] buffer, final int offset, final int length)
+            throws IOException, StreamSyncLostException {
+        return decode(buffer, offset, length, GlobalNetworkConfiguration.getInstance().getUseCompression());
+    }
+
+    /**
+     * Decode a message from the payload of a frame written without a
+     * dictionary.
+     * 
+     * @param buffer
+     *            contains the message
+     * @param offset
+     *            the start of the message in {@code buffer}
+     * @param length
+     *            the number of bytes in the message
+     * @param compressed
+     *            true if {@link ApFraming#FLAG_COMPRESSED} was set on the
+     *            frame
+     * @return the message
+     * @throws IOException
+     *             if there is an error decoding the data
+     * @throws StreamSyncLostException
+     *             if the size written in the message doesn't match
+     *             {@code length} or the data can't be decoded
+     */
+    /* package */ static ShareDataMessage decode(final byte[] buffer,
+            final int offset,
+            final int length,
+            final boolean compressed) throws IOException, StreamSyncLostException {
+        return decode(buffer, offset, length, compressed ? ApFraming.FLAG_COMPRESSED : 0, null);
+    }
+
+    /**
+     * Decode a message from the payload of a frame written by
+     * {@link #encode(Map, ApFraming.Writer, double, CompressionDictionary, CompressionStatistics)}.
+     * 
+     * @param buffer
+     *            contains the message
+     * @param offset
+     *            the start of the message in {@code buffer}
+     * @param length
+     *            the number of bytes in the message
+     * @param flags
+     *            the flags of the frame
+     * @param dictionary
+     *            the dictionary agreed with the neighbor, may be null
+     * @return the message
+     * @throws IOException
+     *             if there is an error decoding the data
+     * @throws StreamSyncLostException
+     *             if the size written in the message doesn't match
+     *             {@code length}, the data can't be decoded or it was
+     *             compressed with a dictionary and there isn't one
+     */
+    /* package */ static ShareDataMessage decode(final byte[] buffer,
+            final int offset,
+            final int length,
+            final byte flags,
+            final CompressionDictionary dictionary) throws IOException, StreamSyncLostException {
+        final boolean compressed = 0 != (flags & ApFraming.FLAG_COMPRESSED);
+        final boolean useDictionary = 0 != (flags & ApFraming.FLAG_DICTIONARY);
+        if (useDictionary && null == dictionary) {
+            throw new StreamSyncLostException("Message uses a compression dictionary that wasn't agreed");
+        }
+        if (length < Integer.BYTES + MINIMUM_DATA_SIZE) {
+            throw new StreamSyncLostException("Message size is too small: " + length);
+        }
+        final int size = ApFraming.getInt(buffer, offset);
+        if (size != length - Integer.BYTES) {
+            throw new StreamSyncLostException(
+                    "Message size " + size + " doesn't match the frame size " + (length - Integer.BYTES));
+        }
+
+        @SuppressWarnings("unchecked")
+        final Map<CodePath, Object> data = decodeData(Map.class, buffer, offset + Integer.BYTES, size, compressed,
+                useDictionary ? dictionary.getBytes() : null);
+        return new ShareDataMessage(data, null);
     }
 
 }
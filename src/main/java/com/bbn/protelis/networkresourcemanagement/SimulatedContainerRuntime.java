@@ -0,0 +1,570 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.bbn.protelis.utils.VirtualClock;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Model of a container runtime that is driven entirely by a
+ * {@link VirtualClock}. There are no background threads, the state is advanced
+ * to the current time of the clock whenever the runtime is accessed. This
+ * allows experiments to run faster than real time with a faster clock.
+ * 
+ * Images take {@link #getImagePullLatency()} to arrive. Containers are
+ * {@link ServiceStatus#STARTING} until the image is local and
+ * {@link #getStartLatency()} has passed, then {@link ServiceStatus#RUNNING}.
+ * Stopping a container makes it {@link ServiceStatus#STOPPING} for
+ * {@link #getStopLatency()}, then {@link ServiceStatus#STOPPED}. Stopped
+ * containers are reported for {@link #getStoppedRetention()} and then
+ * forgotten.
+ * 
+ * Each running container is modeled as a single server queue. Clients offer
+ * requests at a rate set with
+ * {@link #setClientRequestRate(NodeIdentifier, NodeIdentifier, double)}. A
+ * request takes {@link #getProcessingTime(ServiceIdentifier)} divided by the
+ * CPU capacity of the container. While the container is not overloaded the
+ * processing time is that of an M/M/1 queue. Once the offered rate exceeds the
+ * service rate the backlog grows with time and the processing time includes
+ * draining the backlog. The load reported for a client is its share of the
+ * served rate and the demand is its offered rate, both scaled by the capacity
+ * of the container.
+ * 
+ * All times are in the units of the clock, expected to be milliseconds.
+ */
+public class SimulatedContainerRuntime {
+
+    /**
+     * Default value for {@link #getImagePullLatency()}.
+     */
+    public static final long DEFAULT_IMAGE_PULL_LATENCY = 5000;
+
+    /**
+     * Default value for {@link #getStartLatency()}.
+     */
+    public static final long DEFAULT_START_LATENCY = 2000;
+
+    /**
+     * Default value for {@link #getStopLatency()}.
+     */
+    public static final long DEFAULT_STOP_LATENCY = 1000;
+
+    /**
+     * Default value for {@link #getStoppedRetention()}.
+     */
+    public static final long DEFAULT_STOPPED_RETENTION = 10000;
+
+    /**
+     * Default value for {@link #getProcessingTime(ServiceIdentifier)}.
+     */
+    public static final double DEFAULT_PROCESSING_TIME = 100;
+
+    /**
+     * The CPU capacity given to a container when the {@link ContainerParameters}
+     * don't specify it.
+     */
+    public static final double DEFAULT_CONTAINER_CPU_CAPACITY = 1;
+
+    /**
+     * Default value for {@link #getMaximumContainers()}.
+     */
+    public static final int DEFAULT_MAXIMUM_CONTAINERS = 10;
+
+    private static final double TIME_UNITS_PER_SECOND = 1000;
+
+    private final VirtualClock clock;
+    private long lastUpdate;
+
+    private long imagePullLatency = DEFAULT_IMAGE_PULL_LATENCY;
+    private long startLatency = DEFAULT_START_LATENCY;
+    private long stopLatency = DEFAULT_STOP_LATENCY;
+    private long stoppedRetention = DEFAULT_STOPPED_RETENTION;
+    private int maximumContainers = DEFAULT_MAXIMUM_CONTAINERS;
+    private final Map<ServiceIdentifier<?>, Double> processingTimes = new HashMap<>();
+
+    /**
+     * service -> time the image is local.
+     */
+    private final Map<ServiceIdentifier<?>, Long> images = new HashMap<>();
+
+    private final Map<NodeIdentifier, SimulatedContainer> containers = new LinkedHashMap<>();
+
+    /**
+     * 
+     * @param clock
+     *            the clock that drives the runtime
+     */
+    public SimulatedContainerRuntime(@Nonnull final VirtualClock clock) {
+        this.clock = clock;
+        this.lastUpdate = clock.getCurrentTime();
+    }
+
+    private static long checkNonNegative(final String name, final long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " cannot be negative: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * @return how long it takes for an image to become local
+     */
+    public synchronized long getImagePullLatency() {
+        return imagePullLatency;
+    }
+
+    /**
+     * Only affects images fetched after this call.
+     * 
+     * @param v
+     *            see {@link #getImagePullLatency()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public synchronized void setImagePullLatency(final long v) throws IllegalArgumentException {
+        imagePullLatency = checkNonNegative("Image pull latency", v);
+    }
+
+    /**
+     * @return how long a container is starting once its image is local
+     */
+    public synchronized long getStartLatency() {
+        return startLatency;
+    }
+
+    /**
+     * Only affects containers started after this call.
+     * 
+     * @param v
+     *            see {@link #getStartLatency()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public synchronized void setStartLatency(final long v) throws IllegalArgumentException {
+        startLatency = checkNonNegative("Start latency", v);
+    }
+
+    /**
+     * @return how long a container is stopping
+     */
+    public synchronized long getStopLatency() {
+        return stopLatency;
+    }
+
+    /**
+     * Only affects containers stopped after this call.
+     * 
+     * @param v
+     *            see {@link #getStopLatency()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public synchronized void setStopLatency(final long v) throws IllegalArgumentException {
+        stopLatency = checkNonNegative("Stop latency", v);
+    }
+
+    /**
+     * @return how long a stopped container continues to be reported
+     */
+    public synchronized long getStoppedRetention() {
+        return stoppedRetention;
+    }
+
+    /**
+     * @param v
+     *            see {@link #getStoppedRetention()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public synchronized void setStoppedRetention(final long v) throws IllegalArgumentException {
+        stoppedRetention = checkNonNegative("Stopped retention", v);
+    }
+
+    /**
+     * @return the maximum number of containers that are not stopped
+     */
+    public synchronized int getMaximumContainers() {
+        return maximumContainers;
+    }
+
+    /**
+     * @param v
+     *            see {@link #getMaximumContainers()}
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public synchronized void setMaximumContainers(final int v) throws IllegalArgumentException {
+        maximumContainers = (int) checkNonNegative("Maximum containers", v);
+    }
+
+    /**
+     * @param service
+     *            the service
+     * @return the time to process a request for the service on 1 CPU,
+     *         defaults to {@link #DEFAULT_PROCESSING_TIME}
+     */
+    public synchronized double getProcessingTime(@Nonnull final ServiceIdentifier<?> service) {
+        return processingTimes.getOrDefault(service, DEFAULT_PROCESSING_TIME);
+    }
+
+    /**
+     * @param service
+     *            the service
+     * @param v
+     *            see {@link #getProcessingTime(ServiceIdentifier)}
+     * @throws IllegalArgumentException
+     *             if the value is not positive and finite
+     */
+    public synchronized void setProcessingTime(@Nonnull final ServiceIdentifier<?> service, final double v)
+            throws IllegalArgumentException {
+        if (!(v > 0) || Double.isInfinite(v)) {
+            throw new IllegalArgumentException("Processing time must be positive: " + v);
+        }
+        advance();
+        processingTimes.put(service, v);
+        containers.values().stream().filter(c -> c.service.equals(service))
+                .forEach(c -> c.serviceRate = serviceRate(service, c.cpuCapacity));
+    }
+
+    private double serviceRate(final ServiceIdentifier<?> service, final double cpuCapacity) {
+        return cpuCapacity * TIME_UNITS_PER_SECOND / getProcessingTime(service);
+    }
+
+    /**
+     * Start fetching the image for a service if it isn't already local or
+     * being fetched.
+     * 
+     * @param service
+     *            the service
+     */
+    public synchronized void fetchImage(@Nonnull final ServiceIdentifier<?> service) {
+        internalFetchImage(service, clock.getCurrentTime());
+    }
+
+    private long internalFetchImage(final ServiceIdentifier<?> service, final long now) {
+        return images.computeIfAbsent(service, k -> now + imagePullLatency);
+    }
+
+    /**
+     * @param service
+     *            the service
+     * @return true if the image for the service is local
+     */
+    public synchronized boolean isImageLocal(@Nonnull final ServiceIdentifier<?> service) {
+        final Long ready = images.get(service);
+        return null != ready && ready <= clock.getCurrentTime();
+    }
+
+    /**
+     * Fetch the image if needed and wait on the clock for it to arrive.
+     * 
+     * @param service
+     *            the service
+     * @return if the image is local, false if the clock was shutdown first
+     */
+    public boolean waitForImage(@Nonnull final ServiceIdentifier<?> service) {
+        final long ready;
+        synchronized (this) {
+            ready = internalFetchImage(service, clock.getCurrentTime());
+        }
+        clock.waitUntilTime(ready);
+        return isImageLocal(service);
+    }
+
+    /**
+     * Start a container. The image is fetched if it isn't already local.
+     * 
+     * @param name
+     *            the name of the container
+     * @param service
+     *            the service to run
+     * @param parameters
+     *            the capacity of the container, if no CPU capacity is
+     *            specified {@link #DEFAULT_CONTAINER_CPU_CAPACITY} is used
+     * @return false if the name is in use or the maximum number of containers
+     *         are allocated
+     */
+    public synchronized boolean startContainer(@Nonnull final NodeIdentifier name,
+            @Nonnull final ServiceIdentifier<?> service,
+            @Nonnull final ContainerParameters parameters) {
+        advance();
+        if (containers.containsKey(name) || getAllocatedContainers() >= maximumContainers) {
+            return false;
+        }
+
+        final Map<NodeAttribute, Double> capacity = new HashMap<>(parameters.getComputeCapacity());
+        capacity.putIfAbsent(NodeAttribute.CPU, DEFAULT_CONTAINER_CPU_CAPACITY);
+        final double cpuCapacity = capacity.get(NodeAttribute.CPU);
+
+        final long imageReady = internalFetchImage(service, lastUpdate);
+        final SimulatedContainer container = new SimulatedContainer(service, ImmutableMap.copyOf(capacity),
+                serviceRate(service, cpuCapacity), Math.max(imageReady, lastUpdate) + startLatency);
+        containers.put(name, container);
+        return true;
+    }
+
+    /**
+     * Tell a container to stop. Requests are no longer accepted and the
+     * backlog is dropped.
+     * 
+     * @param name
+     *            the container
+     * @return false if the container doesn't exist or is already stopping or
+     *         stopped
+     */
+    public synchronized boolean stopContainer(@Nonnull final NodeIdentifier name) {
+        advance();
+        final SimulatedContainer container = containers.get(name);
+        if (null == container || ServiceStatus.STOPPING == container.status
+                || ServiceStatus.STOPPED == container.status) {
+            return false;
+        }
+
+        container.status = ServiceStatus.STOPPING;
+        container.transitionTime = lastUpdate + stopLatency;
+        container.backlog = 0;
+        container.clientRates.clear();
+        return true;
+    }
+
+    /**
+     * Set the rate at which a client sends requests to a container.
+     * 
+     * @param name
+     *            the container
+     * @param client
+     *            the client sending the requests
+     * @param requestsPerSecond
+     *            the rate of requests, 0 to remove the client
+     * @return false if the container doesn't exist or is stopping or stopped,
+     *         the rate is ignored in this case
+     * @throws IllegalArgumentException
+     *             if the rate is negative or not finite
+     */
+    public synchronized boolean setClientRequestRate(@Nonnull final NodeIdentifier name,
+            @Nonnull final NodeIdentifier client,
+            final double requestsPerSecond) throws IllegalArgumentException {
+        if (!(requestsPerSecond >= 0) || Double.isInfinite(requestsPerSecond)) {
+            throw new IllegalArgumentException("Request rate must be non-negative: " + requestsPerSecond);
+        }
+
+        advance();
+        final SimulatedContainer container = containers.get(name);
+        if (null == container || ServiceStatus.STOPPING == container.status
+                || ServiceStatus.STOPPED == container.status) {
+            return false;
+        }
+
+        if (0 == requestsPerSecond) {
+            container.clientRates.remove(client);
+        } else {
+            container.clientRates.put(client, requestsPerSecond);
+        }
+        return true;
+    }
+
+    /**
+     * @param name
+     *            the container
+     * @return the status of the container, {@link ServiceStatus#UNKNOWN} if
+     *         the container doesn't exist
+     */
+    @Nonnull
+    public synchronized ServiceStatus getStatus(@Nonnull final NodeIdentifier name) {
+        advance();
+        final SimulatedContainer container = containers.get(name);
+        return null == container ? ServiceStatus.UNKNOWN : container.status;
+    }
+
+    /**
+     * @return the number of containers that are not stopped
+     */
+    public synchronized int getAllocatedContainers() {
+        advance();
+        return (int) containers.values().stream().filter(c -> ServiceStatus.STOPPED != c.status).count();
+    }
+
+    /**
+     * @return container -> state of the service in the container
+     */
+    @Nonnull
+    public synchronized ImmutableMap<NodeIdentifier, ServiceState> getServiceState() {
+        advance();
+        final ImmutableMap.Builder<NodeIdentifier, ServiceState> builder = ImmutableMap.builder();
+        containers.forEach((name, container) -> builder.put(name,
+                new ServiceState(container.service, container.status)));
+        return builder.build();
+    }
+
+    /**
+     * @param demandWindow
+     *            the window to put in the reports, the demand is the currently
+     *            offered load for all windows
+     * @return container -> report
+     */
+    @Nonnull
+    public synchronized ImmutableMap<NodeIdentifier, ContainerResourceReport>
+            getContainerReports(@Nonnull final ResourceReport.EstimationWindow demandWindow) {
+        advance();
+        final ImmutableMap.Builder<NodeIdentifier, ContainerResourceReport> builder = ImmutableMap.builder();
+        containers.forEach((name, container) -> builder.put(name, container.createReport(name, lastUpdate,
+                demandWindow)));
+        return builder.build();
+    }
+
+    /**
+     * Bring the state of all containers up to the current time of the clock.
+     */
+    private void advance() {
+        final long now = clock.getCurrentTime();
+        if (now < lastUpdate) {
+            return;
+        }
+
+        final Iterator<SimulatedContainer> iter = containers.values().iterator();
+        while (iter.hasNext()) {
+            final SimulatedContainer container = iter.next();
+            if (ServiceStatus.STARTING == container.status && container.transitionTime <= now) {
+                container.status = ServiceStatus.RUNNING;
+                container.advanceQueue(container.transitionTime, now);
+            } else if (ServiceStatus.RUNNING == container.status) {
+                container.advanceQueue(lastUpdate, now);
+            } else if (ServiceStatus.STOPPING == container.status && container.transitionTime <= now) {
+                container.status = ServiceStatus.STOPPED;
+                container.transitionTime += stoppedRetention;
+            }
+
+            if (ServiceStatus.STOPPED == container.status && container.transitionTime <= now) {
+                iter.remove();
+            }
+        }
+        lastUpdate = now;
+    }
+
+    /**
+     * State of a single container.
+     */
+    private static final class SimulatedContainer {
+        private final ServiceIdentifier<?> service;
+        private final ImmutableMap<NodeAttribute, Double> capacity;
+        private final Map<NodeIdentifier, Double> clientRates = new HashMap<>();
+        private double serviceRate;
+        private ServiceStatus status = ServiceStatus.STARTING;
+
+        /**
+         * When STARTING or STOPPING the time of the next transition, when
+         * STOPPED the time to forget the container.
+         */
+        private long transitionTime;
+
+        /**
+         * Number of requests waiting.
+         */
+        private double backlog = 0;
+
+        private final double cpuCapacity;
+
+        /* package */ SimulatedContainer(final ServiceIdentifier<?> service,
+                final ImmutableMap<NodeAttribute, Double> capacity,
+                final double serviceRate,
+                final long runningTime) {
+            this.service = service;
+            this.capacity = capacity;
+            this.cpuCapacity = capacity.get(NodeAttribute.CPU);
+            this.serviceRate = serviceRate;
+            this.transitionTime = runningTime;
+        }
+
+        private double getArrivalRate() {
+            return clientRates.values().stream().mapToDouble(Double::doubleValue).sum();
+        }
+
+        /* package */ void advanceQueue(final long from, final long to) {
+            if (to > from) {
+                final double seconds = (to - from) / TIME_UNITS_PER_SECOND;
+                backlog = Math.max(0, backlog + (getArrivalRate() - serviceRate) * seconds);
+            }
+        }
+
+        private double getProcessingTime(final double arrivalRate) {
+            if (ServiceStatus.RUNNING != status || 0 == arrivalRate) {
+                return Double.NaN;
+            } else if (0 == backlog && arrivalRate < serviceRate) {
+                return TIME_UNITS_PER_SECOND / (serviceRate - arrivalRate);
+            } else {
+                return (backlog + 1) * TIME_UNITS_PER_SECOND / serviceRate;
+            }
+        }
+
+        /* package */ ContainerResourceReport createReport(final NodeIdentifier name,
+                final long timestamp,
+                final ResourceReport.EstimationWindow demandWindow) {
+            final double arrivalRate = getArrivalRate();
+            // fraction of the offered requests that are served
+            final double servedFraction;
+            if (ServiceStatus.RUNNING != status) {
+                servedFraction = 0;
+            } else if (arrivalRate > serviceRate || backlog > 0) {
+                servedFraction = serviceRate / arrivalRate;
+            } else {
+                servedFraction = 1;
+            }
+
+            final ImmutableMap.Builder<NodeIdentifier, ImmutableMap<NodeAttribute, Double>> load = ImmutableMap
+                    .builder();
+            final ImmutableMap.Builder<NodeIdentifier, ImmutableMap<NodeAttribute, Double>> demand = ImmutableMap
+                    .builder();
+            clientRates.forEach((client, rate) -> {
+                final double utilization = rate / serviceRate;
+                load.put(client, scale(utilization * servedFraction));
+                demand.put(client, scale(utilization));
+            });
+
+            return new ContainerResourceReport(name, timestamp, service, status, demandWindow, capacity,
+                    load.build(), demand.build(), getProcessingTime(arrivalRate));
+        }
+
+        private ImmutableMap<NodeAttribute, Double> scale(final double utilization) {
+            final ImmutableMap.Builder<NodeAttribute, Double> builder = ImmutableMap.builder();
+            capacity.forEach((attr, value) -> builder.put(attr, value * utilization));
+            return builder.build();
+        }
+    }
+
+}
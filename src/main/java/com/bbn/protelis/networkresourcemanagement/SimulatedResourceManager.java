@@ -0,0 +1,227 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bbn.protelis.utils.ImmutableUtils;
+import com.bbn.protelis.utils.VirtualClock;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * {@link ResourceManager} that runs services in a
+ * {@link SimulatedContainerRuntime}. Start up delays, capacity limits and the
+ * load of the containers follow the model of the runtime, which is driven by
+ * the {@link VirtualClock} of the scenario. Client requests and network load
+ * are supplied through {@link ClientLoadSink}, usually by a
+ * {@link ClientLoadGenerator}.
+ */
+public class SimulatedResourceManager implements ResourceManager<NetworkServer>, ClientLoadSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimulatedResourceManager.class);
+
+    private final VirtualClock clock;
+    private final SimulatedContainerRuntime runtime;
+    private NetworkServer node;
+    private int containerCounter = 0;
+
+    // guarded by networkLock
+    private final Object networkLock = new Object();
+    private final Map<InterfaceIdentifier, Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad = new HashMap<>();
+    private final DemandEstimation demandEstimation = new DemandEstimation();
+    private long lastSampleTime = -1;
+
+    /**
+     * 
+     * @param clock
+     *            the clock that drives the simulation
+     */
+    public SimulatedResourceManager(@Nonnull final VirtualClock clock) {
+        this.clock = clock;
+        this.runtime = new SimulatedContainerRuntime(clock);
+    }
+
+    /**
+     * @return the runtime used to configure the simulation and to offer
+     *         client load to the containers
+     */
+    @Nonnull
+    public SimulatedContainerRuntime getRuntime() {
+        return runtime;
+    }
+
+    @Override
+    public void init(@Nonnull final NetworkServer node, @Nonnull final Map<String, Object> extraData) {
+        this.node = node;
+    }
+
+    @Override
+    @Nonnull
+    public ResourceReport getCurrentResourceReport(@Nonnull final ResourceReport.EstimationWindow demandWindow) {
+        final ImmutableMap<NodeIdentifier, ContainerResourceReport> containerReports = runtime
+                .getContainerReports(demandWindow);
+        final long now = clock.getCurrentTime();
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> currentNetworkLoad;
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkDemand;
+        synchronized (networkLock) {
+            currentNetworkLoad = ImmutableUtils.makeImmutableMap3(networkLoad);
+            // at most one sample per clock tick
+            if (now != lastSampleTime) {
+                lastSampleTime = now;
+                demandEstimation.addNetworkLoadSample(currentNetworkLoad);
+            }
+            networkDemand = demandEstimation.getNetworkDemand(demandWindow);
+        }
+
+        return new ResourceReport(node.getNodeIdentifier(), now, demandWindow, getComputeCapacity(),
+                node.getNeighborLinkCapacity(LinkAttribute.DATARATE_TX), currentNetworkLoad, networkDemand,
+                containerReports, runtime.getMaximumContainers(), runtime.getAllocatedContainers());
+    }
+
+    @Override
+    public boolean setClientRequestRate(@Nonnull final NodeIdentifier container,
+            @Nonnull final NodeIdentifier client,
+            final double requestsPerSecond) {
+        return runtime.setClientRequestRate(container, client, requestsPerSecond);
+    }
+
+    @Override
+    public void setNetworkLoad(@Nonnull final InterfaceIdentifier ii,
+            @Nonnull final NodeNetworkFlow flow,
+            @Nonnull final ServiceIdentifier<?> service,
+            @Nonnull final ImmutableMap<LinkAttribute, Double> load) {
+        synchronized (networkLock) {
+            if (load.isEmpty()) {
+                final Map<NodeNetworkFlow, Map<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>> flows = networkLoad
+                        .get(ii);
+                if (null != flows) {
+                    final Map<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>> services = flows.get(flow);
+                    if (null != services) {
+                        services.remove(service);
+                        if (services.isEmpty()) {
+                            flows.remove(flow);
+                        }
+                    }
+                    if (flows.isEmpty()) {
+                        networkLoad.remove(ii);
+                    }
+                }
+            } else {
+                networkLoad.computeIfAbsent(ii, k -> new HashMap<>()).computeIfAbsent(flow, k -> new HashMap<>())
+                        .put(service, load);
+            }
+        }
+    }
+
+    @Override
+    @Nonnull
+    public ServiceReport getServiceReport() {
+        return new ServiceReport(node.getNodeIdentifier(), clock.getCurrentTime(), runtime.getServiceState());
+    }
+
+    private synchronized NodeIdentifier getNextContainerName() {
+        final NodeIdentifier id = new DnsNameIdentifier(node.getName() + "-container-" + containerCounter);
+        ++containerCounter;
+        return id;
+    }
+
+    @Override
+    public NodeIdentifier startService(@Nonnull final ServiceIdentifier<?> service,
+            @Nonnull final ContainerParameters parameters) {
+        final NodeIdentifier containerName = getNextContainerName();
+        if (runtime.startContainer(containerName, service, parameters)) {
+            LOGGER.info("Starting service {} in container {}", service, containerName);
+            node.invalidateResourceReportCache();
+            return containerName;
+        } else {
+            LOGGER.warn("startService failed: no container available for {}", service);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean stopService(@Nonnull final NodeIdentifier containerName) {
+        if (runtime.stopContainer(containerName)) {
+            LOGGER.info("Stopping container {}", containerName);
+            node.invalidateResourceReportCache();
+            return true;
+        } else {
+            LOGGER.warn("stopService failed: container {} is not running a service.", containerName);
+            return false;
+        }
+    }
+
+    /**
+     * @return {@link NodeAttribute#TASK_CONTAINERS} is the maximum number of
+     *         containers
+     */
+    @Override
+    @Nonnull
+    public ImmutableMap<NodeAttribute, Double> getComputeCapacity() {
+        return ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, (double) runtime.getMaximumContainers());
+    }
+
+    @Override
+    @Nonnull
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    @Override
+    public void fetchImage(@Nonnull final ServiceIdentifier<?> service) {
+        runtime.fetchImage(service);
+    }
+
+    @Override
+    public boolean waitForImage(@Nonnull final ServiceIdentifier<?> service) {
+        return runtime.waitForImage(service);
+    }
+
+    /**
+     * Do nothing.
+     */
+    @Override
+    public void addFailedRequest(final NodeIdentifier client,
+            final NodeIdentifier containerId,
+            final long serverEndTime,
+            final Map<NodeAttribute, Double> serverLoad,
+            final long networkEndTime,
+            final Map<LinkAttribute, Double> networkLoad) {
+        // do nothing
+    }
+}
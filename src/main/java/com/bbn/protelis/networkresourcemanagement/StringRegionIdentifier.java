@@ -97,4 +97,13 @@ public class StringRegionIdentifier implements RegionIdentifier, Comparable<Stri
         return getName();
     }
 
+    /**
+     * Sent through the identifier table when serialized on an AP connection.
+     * 
+     * @return the object to serialize
+     */
+    private Object writeReplace() {
+        return IdentifierTable.replace(this);
+    }
+
 }
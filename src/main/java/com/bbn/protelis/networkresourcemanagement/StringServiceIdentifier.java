@@ -106,4 +106,13 @@ public class StringServiceIdentifier implements ServiceIdentifier<String>, Compa
         return name;
     }
 
+    /**
+     * Sent through the identifier table when serialized on an AP connection.
+     * 
+     * @return the object to serialize
+     */
+    private Object writeReplace() {
+        return IdentifierTable.replace(this);
+    }
+
 }
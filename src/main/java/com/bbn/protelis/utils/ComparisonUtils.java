@@ -65,6 +65,65 @@ public final class ComparisonUtils {
     private ComparisonUtils() {
     }
 
+    /**
+     * Compare 2 values with a tolerance.
+     * 
+     * @param <V>
+     *            the type of the values
+     */
+    @FunctionalInterface
+    private interface ToleranceEquality<V> {
+        boolean matches(V one, V two, double tolerance);
+    }
+
+    private static boolean doubleEquals(final Double one, final Double two, final double tolerance) {
+        if (null == one && null == two) {
+            return true;
+        } else if (null == one || null == two) {
+            return false;
+        } else {
+            return Math.abs(one - two) < tolerance;
+        }
+    }
+
+    /**
+     * Compare 2 maps using the specified comparison for the values. This is
+     * used for each level of the nested map comparisons and is written as a
+     * plain loop with a single lookup per entry as it's called from the
+     * equals methods of the reports and plans.
+     */
+    private static <K, V> boolean mapEquals(final Map<K, ? extends V> one,
+            final Map<K, ? extends V> two,
+            final double tolerance,
+            final ToleranceEquality<? super V> valueEquals) {
+        if (one == two) {
+            return true;
+        } else if (null == one || null == two) {
+            // one of the maps is null and the other is not
+            return false;
+        } else if (one.size() != two.size()) {
+            return false;
+        } else {
+            for (final Map.Entry<K, ? extends V> entry : one.entrySet()) {
+                final K oneKey = entry.getKey();
+                final V oneValue = entry.getValue();
+                final V twoValue = two.get(oneKey);
+                if (oneValue == twoValue) {
+                    // includes both null, check for a missing key only when
+                    // the value is null
+                    if (null == twoValue && !two.containsKey(oneKey)) {
+                        return false;
+                    }
+                } else if (null == twoValue) {
+                    return false;
+                } else if (!valueEquals.matches(oneValue, twoValue, tolerance)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     /**
      * Compare 2 maps with a tolerance. The keys are compared with
      * {@link Objects#equals(Object, Object)} and the values are checked based
@@ -83,34 +142,7 @@ public final class ComparisonUtils {
     public static <T> boolean doubleMapEquals(final Map<T, Double> one,
             final Map<T, Double> two,
             final double tolerance) {
-        if (one == two) {
-            return true;
-        } else if (null == one || null == two) {
-            // one of the maps is null and the other is not
-            return false;
-        } else {
-            if (one.size() != two.size()) {
-                return false;
-            } else {
-                return one.entrySet().stream() //
-                        .allMatch(entry -> {
-                            final T oneKey = entry.getKey();
-                            final Double oneValue = entry.getValue();
-                            if (!two.containsKey(oneKey)) {
-                                return false;
-                            } else {
-                                final Double twoValue = two.get(oneKey);
-                                if (null == oneValue && null == twoValue) {
-                                    return true;
-                                } else if (null == oneValue || null == twoValue) {
-                                    return false;
-                                } else {
-                                    return Math.abs(oneValue - twoValue) < tolerance;
-                                }
-                            }
-                        });
-            } // equal size
-        } // not null
+        return mapEquals(one, two, tolerance, ComparisonUtils::doubleEquals);
     }
 
     /**
@@ -134,33 +166,7 @@ public final class ComparisonUtils {
     public static <K1, K2, M1 extends Map<K2, Double>> boolean doubleMapEquals2(final Map<K1, M1> mapOne,
             final Map<K1, M1> mapTwo,
             final double tolerance) {
-        if (mapOne == mapTwo) {
-            return true;
-        } else if (null == mapOne || null == mapTwo) {
-            return false;
-        } else {
-            if (mapOne.size() != mapTwo.size()) {
-                return false;
-            } else {
-                return mapOne.entrySet().stream() //
-                        .allMatch(entry -> {
-                            final K1 oneKey = entry.getKey();
-                            if (!mapTwo.containsKey(oneKey)) {
-                                return false;
-                            } else {
-                                final Map<K2, Double> oneValue = entry.getValue();
-                                final Map<K2, Double> twoValue = mapTwo.get(oneKey);
-                                if (oneValue == twoValue) {
-                                    return true;
-                                } else if (null == oneValue || null == twoValue) {
-                                    return false;
-                                } else {
-                                    return doubleMapEquals(oneValue, twoValue, tolerance);
-                                }
-                            }
-                        });
-            } // equal size
-        } // no null
+        return mapEquals(mapOne, mapTwo, tolerance, ComparisonUtils::doubleMapEquals);
     }
 
     /**
@@ -188,27 +194,7 @@ public final class ComparisonUtils {
     public static <K1, K2, K3, M1 extends Map<K2, M2>, M2 extends Map<K3, Double>>
             boolean
             doubleMapEquals3(final Map<K1, M1> mapOne, final Map<K1, M1> mapTwo, final double tolerance) {
-        if (mapOne == mapTwo) {
-            return true;
-        } else if (null == mapOne || null == mapTwo) {
-            return false;
-        } else {
-            if (mapOne.size() != mapTwo.size()) {
-                return false;
-            } else {
-                return mapOne.entrySet().stream() //
-                        .allMatch(entry -> {
-                            final K1 oneKey = entry.getKey();
-                            if (!mapTwo.containsKey(oneKey)) {
-                                return false;
-                            } else {
-                                final M1 oneValue = entry.getValue();
-                                final M1 twoValue = mapTwo.get(oneKey);
-                                return doubleMapEquals2(oneValue, twoValue, tolerance);
-                            }
-                        });
-            } // equal size
-        } // no null
+        return mapEquals(mapOne, mapTwo, tolerance, ComparisonUtils::doubleMapEquals2);
     }
 
     /**
@@ -240,27 +226,7 @@ public final class ComparisonUtils {
     public static <K1, K2, K3, K4, M1 extends Map<K2, M2>, M2 extends Map<K3, M3>, M3 extends Map<K4, Double>>
             boolean
             doubleMapEquals4(final Map<K1, M1> mapOne, final Map<K1, M1> mapTwo, final double tolerance) {
-        if (mapOne == mapTwo) {
-            return true;
-        } else if (null == mapOne || null == mapTwo) {
-            return false;
-        } else {
-            if (mapOne.size() != mapTwo.size()) {
-                return false;
-            } else {
-                return mapOne.entrySet().stream() //
-                        .allMatch(entry -> {
-                            final K1 oneKey = entry.getKey();
-                            if (!mapTwo.containsKey(oneKey)) {
-                                return false;
-                            } else {
-                                final M1 oneValue = entry.getValue();
-                                final M1 twoValue = mapTwo.get(oneKey);
-                                return doubleMapEquals3(oneValue, twoValue, tolerance);
-                            }
-                        });
-            } // equal size
-        } // no null
+        return mapEquals(mapOne, mapTwo, tolerance, ComparisonUtils::doubleMapEquals3);
     }
 
 }
@@ -32,6 +32,7 @@ BBN_LICENSE_END*/
 package com.bbn.protelis.utils;
 
 import java.util.Map;
+import java.util.function.BiFunction;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -62,14 +63,32 @@ public final class ImmutableUtils {
     public static <K1, K2, V>
             ImmutableMap<K1, ImmutableMap<K2, V>>
             makeImmutableMap2(final Map<K1, Map<K2, V>> source) {
-        // The final value is not generic to prevent one from using a mutable
-        // type as the value type
-        final ImmutableMap.Builder<K1, ImmutableMap<K2, V>> immutable = ImmutableMap.builder();
-        source.forEach((k1, v1) -> {
-            final ImmutableMap<K2, V> immutableV1 = ImmutableMap.copyOf(v1);
-            immutable.put(k1, immutableV1);
-        });
-        return immutable.build();
+        return makeImmutableMap2(source, null);
+    }
+
+    /**
+     * Make an immutable copy of a 2 level map reusing the parts of a previous
+     * copy that have not changed. Any level whose contents equal the
+     * corresponding level of {@code previous} is returned as the object from
+     * {@code previous}, so unchanged branches keep their identity. If nothing
+     * changed, {@code previous} itself is returned.
+     * 
+     * @param source
+     *            the map to copy
+     * @param previous
+     *            an earlier result to share structure with, may be null
+     * @return the immutable copy
+     * @param <K1>
+     *            key of the first level
+     * @param <K2>
+     *            the key of the second level
+     * @param <V>
+     *            the value of the second level
+     */
+    public static <K1, K2, V> ImmutableMap<K1, ImmutableMap<K2, V>> makeImmutableMap2(
+            final Map<K1, ? extends Map<K2, ? extends V>> source,
+            final ImmutableMap<K1, ImmutableMap<K2, V>> previous) {
+        return shareLevel(source, previous, ImmutableUtils::shareLeaf);
     }
 
     /**
@@ -89,18 +108,32 @@ public final class ImmutableUtils {
      */
     public static <K1, K2, K3, V> ImmutableMap<K1, ImmutableMap<K2, ImmutableMap<K3, V>>> makeImmutableMap3(
             final Map<K1, Map<K2, Map<K3, V>>> source) {
-        // The final value is not generic to prevent one from using a mutable
-        // type as the value type
-        final ImmutableMap.Builder<K1, ImmutableMap<K2, ImmutableMap<K3, V>>> immutable = ImmutableMap.builder();
-        source.forEach((k1, v1) -> {
-            final ImmutableMap.Builder<K2, ImmutableMap<K3, V>> immutableV1 = ImmutableMap.builder();
-            v1.forEach((k2, v2) -> {
-                final ImmutableMap<K3, V> immutableV2 = ImmutableMap.copyOf(v2);
-                immutableV1.put(k2, immutableV2);
-            });
-            immutable.put(k1, immutableV1.build());
-        });
-        return immutable.build();
+        return makeImmutableMap3(source, null);
+    }
+
+    /**
+     * Make an immutable copy of a 3 level map reusing the parts of a previous
+     * copy that have not changed.
+     * 
+     * @param source
+     *            the map to copy
+     * @param previous
+     *            an earlier result to share structure with, may be null
+     * @return the immutable copy
+     * @param <K1>
+     *            the key of the first level
+     * @param <K2>
+     *            the key of the second level
+     * @param <K3>
+     *            the key of the third level
+     * @param <V>
+     *            the value of the third level
+     * @see #makeImmutableMap2(Map, ImmutableMap)
+     */
+    public static <K1, K2, K3, V> ImmutableMap<K1, ImmutableMap<K2, ImmutableMap<K3, V>>> makeImmutableMap3(
+            final Map<K1, ? extends Map<K2, ? extends Map<K3, ? extends V>>> source,
+            final ImmutableMap<K1, ImmutableMap<K2, ImmutableMap<K3, V>>> previous) {
+        return shareLevel(source, previous, ImmutableUtils::makeImmutableMap2);
     }
 
     /**
@@ -123,29 +156,85 @@ public final class ImmutableUtils {
     public static <K1, K2, K3, K4, V>
             ImmutableMap<K1, ImmutableMap<K2, ImmutableMap<K3, ImmutableMap<K4, V>>>>
             makeImmutableMap4(final Map<K1, Map<K2, Map<K3, Map<K4, V>>>> source) {
-        // The final value is not generic to prevent one from using a mutable
-        // type as the value type
-        final ImmutableMap.Builder<K1, ImmutableMap<K2, ImmutableMap<K3, ImmutableMap<K4, V>>>> immutable = ImmutableMap
-                .builder();
-
-        source.forEach((k1, v1) -> {
-            final ImmutableMap.Builder<K2, ImmutableMap<K3, ImmutableMap<K4, V>>> immutableV1 = ImmutableMap.builder();
-
-            v1.forEach((k2, v2) -> {
-                final ImmutableMap.Builder<K3, ImmutableMap<K4, V>> immutableV2 = ImmutableMap.builder();
-
-                v2.forEach((k3, v3) -> {
-
-                    final ImmutableMap<K4, V> immutableV3 = ImmutableMap.copyOf(v3);
-                    immutableV2.put(k3, immutableV3);
+        return makeImmutableMap4(source, null);
+    }
 
-                });
+    /**
+     * Make an immutable copy of a 4 level map reusing the parts of a previous
+     * copy that have not changed.
+     * 
+     * @param source
+     *            the map to copy
+     * @param previous
+     *            an earlier result to share structure with, may be null
+     * @return the immutable copy
+     * @param <K1>
+     *            the key of the first level
+     * @param <K2>
+     *            the key of the second level
+     * @param <K3>
+     *            the key of the third level
+     * @param <K4>
+     *            the key of the fourth level
+     * @param <V>
+     *            the value of the fourth level
+     * @see #makeImmutableMap2(Map, ImmutableMap)
+     */
+    public static <K1, K2, K3, K4, V>
+            ImmutableMap<K1, ImmutableMap<K2, ImmutableMap<K3, ImmutableMap<K4, V>>>>
+            makeImmutableMap4(final Map<K1, ? extends Map<K2, ? extends Map<K3, ? extends Map<K4, ? extends V>>>> source,
+                    final ImmutableMap<K1, ImmutableMap<K2, ImmutableMap<K3, ImmutableMap<K4, V>>>> previous) {
+        return shareLevel(source, previous, ImmutableUtils::makeImmutableMap3);
+    }
 
-                immutableV1.put(k2, immutableV2.build());
+    /**
+     * Copy the last level of a nested map. The values are compared with
+     * equals.
+     */
+    private static <K, V> ImmutableMap<K, V> shareLeaf(final Map<K, ? extends V> source,
+            final ImmutableMap<K, V> previous) {
+        if (source == previous) {
+            return previous;
+        } else if (null != previous && previous.size() == source.size()) {
+            boolean same = true;
+            for (final Map.Entry<K, ? extends V> entry : source.entrySet()) {
+                // immutable maps don't contain null values, so null means the
+                // key is missing
+                final V previousValue = previous.get(entry.getKey());
+                if (null == previousValue || !previousValue.equals(entry.getValue())) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return previous;
+            }
+        }
+        return ImmutableMap.copyOf(source);
+    }
 
-            });
-            immutable.put(k1, immutableV1.build());
-        });
-        return immutable.build();
+    /**
+     * Copy one level of a nested map. The children are copied with
+     * {@code copyChild} and compared by identity with the children of
+     * {@code previous}.
+     */
+    private static <K, S, R> ImmutableMap<K, R> shareLevel(final Map<K, ? extends S> source,
+            final ImmutableMap<K, R> previous,
+            final BiFunction<? super S, R, R> copyChild) {
+        boolean same = null != previous && previous.size() == source.size();
+
+        final ImmutableMap.Builder<K, R> builder = ImmutableMap.builder();
+        for (final Map.Entry<K, ? extends S> entry : source.entrySet()) {
+            final R previousChild = null == previous ? null : previous.get(entry.getKey());
+            final R child = copyChild.apply(entry.getValue(), previousChild);
+            same &= null != previousChild && child == previousChild;
+            builder.put(entry.getKey(), child);
+        }
+
+        if (same) {
+            return previous;
+        } else {
+            return builder.build();
+        }
     }
 }
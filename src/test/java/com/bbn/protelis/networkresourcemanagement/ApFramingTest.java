@@ -0,0 +1,348 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link ApFraming}.
+ */
+public class ApFramingTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final byte TYPE = 7;
+
+    private static void write(final ByteArrayOutputStream output, final String payload) throws IOException {
+        final byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ApFraming.writeFrame(output, TYPE, bytes, 0, bytes.length);
+    }
+
+    private static String payload(final ApFraming.Reader reader) {
+        return new String(reader.getPayloadBuffer(), reader.getPayloadOffset(), reader.getPayloadLength(),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test that frames are read back.
+     * 
+     * @throws IOException
+     *             if there is an error reading or writing
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(output, "first");
+        write(output, "");
+        write(output, "third");
+
+        final AtomicLong dropped = new AtomicLong();
+        final ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                dropped);
+        reader.next();
+        Assert.assertEquals(TYPE, reader.getType());
+        Assert.assertEquals("first", payload(reader));
+        reader.next();
+        Assert.assertEquals("", payload(reader));
+        reader.next();
+        Assert.assertEquals("third", payload(reader));
+        Assert.assertEquals(0, dropped.get());
+    }
+
+    /**
+     * Test that a corrupted frame and leading garbage are dropped and the
+     * following frame is still read.
+     * 
+     * @throws IOException
+     *             if there is an error reading or writing
+     */
+    @Test
+    public void testResync() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(new byte[] { 1, 2, 3 });
+        write(output, "first");
+        final int secondStart = output.size();
+        write(output, "second");
+        write(output, "third");
+
+        final byte[] bytes = output.toByteArray();
+        // corrupt the payload of the second frame
+        bytes[secondStart + ApFraming.HEADER_SIZE] ^= 1;
+
+        final AtomicLong dropped = new AtomicLong();
+        final ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(bytes), dropped);
+        reader.next();
+        Assert.assertEquals("first", payload(reader));
+        Assert.assertEquals(1, dropped.get());
+
+        reader.next();
+        Assert.assertEquals("third", payload(reader));
+        Assert.assertEquals(2, dropped.get());
+    }
+
+    /**
+     * Test that a frame larger than the initial buffer is read.
+     * 
+     * @throws IOException
+     *             if there is an error reading or writing
+     */
+    @Test
+    public void testLargeFrame() throws IOException {
+        final int size = 100 * 1024;
+        final byte[] large = new byte[size];
+        Arrays.fill(large, (byte) 'x');
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(output, "small");
+        ApFraming.writeFrame(output, TYPE, large, 0, large.length);
+
+        final ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                new AtomicLong());
+        reader.next();
+        Assert.assertEquals("small", payload(reader));
+        reader.next();
+        Assert.assertEquals(size, reader.getPayloadLength());
+        Assert.assertEquals('x', reader.getPayloadBuffer()[reader.getPayloadOffset() + size - 1]);
+    }
+
+    /**
+     * Test that a frame larger than the maximum size is dropped without
+     * reading it into a buffer and that the buffers are returned to the pool.
+     * 
+     * @throws IOException
+     *             if there is an error reading or writing
+     */
+    @Test
+    public void testMaxFrameSize() throws IOException {
+        final int maxPayload = 16;
+        final byte[] large = new byte[FrameBufferPool.MIN_BUFFER_SIZE * 4];
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ApFraming.writeFrame(output, TYPE, large, 0, large.length);
+        write(output, "small");
+
+        final FrameBufferPool pool = new FrameBufferPool(() -> Long.MAX_VALUE);
+        final AtomicLong dropped = new AtomicLong();
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                dropped, maxPayload, pool)) {
+            reader.next();
+            Assert.assertEquals("small", payload(reader));
+            Assert.assertEquals(1, dropped.get());
+            Assert.assertEquals(FrameBufferPool.MIN_BUFFER_SIZE, reader.getPayloadBuffer().length);
+        }
+        Assert.assertEquals(FrameBufferPool.MIN_BUFFER_SIZE, pool.getPooledBytes());
+    }
+
+    /**
+     * Test that a large buffer is exchanged for a small one after the large
+     * frame is consumed and reused by the next large frame.
+     * 
+     * @throws IOException
+     *             if there is an error reading or writing
+     */
+    @Test
+    public void testBufferReuse() throws IOException {
+        final byte[] large = new byte[FrameBufferPool.MIN_BUFFER_SIZE * 4];
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ApFraming.writeFrame(output, TYPE, large, 0, large.length);
+        write(output, "small");
+        ApFraming.writeFrame(output, TYPE, large, 0, large.length);
+
+        final FrameBufferPool pool = new FrameBufferPool(() -> Long.MAX_VALUE);
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                new AtomicLong(), Integer.MAX_VALUE, pool)) {
+            reader.next();
+            Assert.assertEquals(large.length, reader.getPayloadLength());
+            final long allocations = pool.getAllocationCount();
+
+            reader.next();
+            Assert.assertEquals("small", payload(reader));
+
+            reader.next();
+            Assert.assertEquals(large.length, reader.getPayloadLength());
+            Assert.assertEquals(allocations, pool.getAllocationCount());
+        }
+    }
+
+    /**
+     * Test that a share message is decoded from a frame payload.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding
+     */
+    @Test
+    public void testShareDataDecode() throws IOException {
+        // the framing is what is being tested, not the serialization library
+        GlobalNetworkConfiguration.getInstance().setUseJavaSerialization(true);
+
+        final ShareDataMessage msg = new ShareDataMessage(new HashMap<>());
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream payloadOutput = new DataOutputStream(payload)) {
+            msg.writeMessage(payloadOutput);
+        }
+
+        final byte[] bytes = payload.toByteArray();
+        final ShareDataMessage decoded = ShareDataMessage.decode(bytes, 0, bytes.length);
+        Assert.assertTrue(decoded.getData().isEmpty());
+
+        // a size that doesn't match the frame is rejected
+        try {
+            ShareDataMessage.decode(bytes, 0, bytes.length - 1);
+            Assert.fail("Expected a StreamSyncLostException");
+        } catch (final StreamSyncLostException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that frames built with {@link ApFraming.Writer} are read back and
+     * that the writer's buffers come from the pool once it has warmed up.
+     * 
+     * @throws IOException
+     *             if there is an error reading or writing
+     */
+    @Test
+    public void testWriterRoundTrip() throws IOException {
+        final byte[] large = new byte[FrameBufferPool.MIN_BUFFER_SIZE * 4];
+        Arrays.fill(large, (byte) 1);
+
+        final FrameBufferPool pool = new FrameBufferPool(() -> Long.MAX_VALUE);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ApFraming.Writer writer = new ApFraming.Writer(pool)) {
+            writer.begin(TYPE);
+            writer.write(large, 0, large.length);
+            Assert.assertEquals(large.length + ApFraming.OVERHEAD, writer.writeTo(output));
+
+            writer.begin(TYPE);
+            final int position = writer.reserveInt();
+            writer.write("small".getBytes(StandardCharsets.UTF_8));
+            writer.putInt(position, writer.getPayloadLength());
+            writer.writeTo(output);
+
+            final long allocations = pool.getAllocationCount();
+            writer.begin(TYPE);
+            writer.write(large, 0, large.length);
+            writer.writeTo(output);
+            Assert.assertEquals(allocations, pool.getAllocationCount());
+        }
+
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                new AtomicLong(), Integer.MAX_VALUE, pool)) {
+            reader.next();
+            Assert.assertArrayEquals(large, Arrays.copyOfRange(reader.getPayloadBuffer(), reader.getPayloadOffset(),
+                    reader.getPayloadOffset() + reader.getPayloadLength()));
+
+            reader.next();
+            Assert.assertEquals(Integer.BYTES + "small".length(),
+                    ApFraming.getInt(reader.getPayloadBuffer(), reader.getPayloadOffset()));
+
+            reader.next();
+            Assert.assertEquals(large.length, reader.getPayloadLength());
+        }
+    }
+
+    /**
+     * Test that a share message encoded directly into a frame is decoded and
+     * counted by the metrics.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding
+     */
+    @Test
+    public void testShareDataEncode() throws IOException {
+        // the framing is what is being tested, not the serialization library
+        GlobalNetworkConfiguration.getInstance().setUseJavaSerialization(true);
+
+        final ApConnectionMetrics metrics = new ApConnectionMetrics();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ApFraming.Writer writer = new ApFraming.Writer(new FrameBufferPool(() -> Long.MAX_VALUE))) {
+            final long allocationStart = ApConnectionMetrics.startAllocationMeasurement();
+            writer.begin(TYPE);
+            ShareDataMessage.encode(new HashMap<>(), writer, Double.NaN, null, new CompressionStatistics());
+            metrics.recordSend(allocationStart, writer.writeTo(output));
+        }
+
+        Assert.assertEquals(1, metrics.getMessagesSent());
+        Assert.assertEquals(output.size(), metrics.getBytesSent());
+        if (ApConnectionMetrics.isAllocationMeasurementSupported()) {
+            Assert.assertTrue(metrics.getAllocatedBytesPerMessage() >= 0);
+        }
+
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                metrics.getDroppedFramesCounter())) {
+            reader.next();
+            final ShareDataMessage decoded = ShareDataMessage.decode(reader.getPayloadBuffer(),
+                    reader.getPayloadOffset(), reader.getPayloadLength(),
+                    0 != (reader.getFlags() & ApFraming.FLAG_COMPRESSED));
+            Assert.assertTrue(decoded.getData().isEmpty());
+        }
+        Assert.assertEquals(0, metrics.getDroppedFrameCount());
+    }
+
+    /**
+     * Test that a truncated stream ends with {@link EOFException}.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = EOFException.class)
+    public void testTruncated() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(output, "truncated");
+        final byte[] bytes = Arrays.copyOf(output.toByteArray(), output.size() - 1);
+
+        final ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(bytes), new AtomicLong());
+        reader.next();
+    }
+
+}
@@ -37,6 +37,7 @@ import java.io.ObjectOutputStream;
 import java.util.Collections;
 import java.util.Map;
 
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.RuleChain;
@@ -47,6 +48,7 @@ import com.bbn.protelis.networkresourcemanagement.ns2.NS2Parser;
 import com.bbn.protelis.networkresourcemanagement.testbed.LocalNodeLookupService;
 import com.bbn.protelis.utils.SimpleClock;
 import com.bbn.protelis.utils.VirtualClock;
+import com.google.common.collect.ImmutableMap;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -93,4 +95,45 @@ public class BasicResourceReportTest {
         }
     }
 
+    /**
+     * Test that a failed request adds its network load to the network demand
+     * of the report and that no container reports are created for it.
+     * 
+     * @throws IOException
+     *             if there is an error reading the test data.
+     */
+    @Test
+    public void testFailedRequestDemand() throws IOException {
+        final String nodeName = "nodeA3";
+        final Map<String, Object> extraData = NS2Parser.getNodeDataFromResource("ns2/multinode", nodeName);
+        final ProtelisProgram program = ProtelisLoader.parseAnonymousModule("true");
+        final int dummyBasePort = 5000;
+        final ManualClock clock = new ManualClock();
+        final ResourceManager<NetworkServer> resMgr = new BasicResourceManagerFactory(clock).createResourceManager();
+        final NodeIdentifier nodeId = new DnsNameIdentifier(nodeName);
+        final NetworkServer node = new NetworkServer(new LocalNodeLookupService(dummyBasePort), program, nodeId,
+                resMgr, extraData);
+        resMgr.init(node, Collections.emptyMap());
+
+        final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+        final NodeIdentifier container = resMgr.startService(service,
+                new ContainerParameters(ImmutableMap.of(), ImmutableMap.of()));
+        Assert.assertNotNull(container);
+
+        final NodeIdentifier client = new DnsNameIdentifier("client");
+        final long duration = FailedRequestLog.DEFAULT_SHORT_WINDOW_DURATION;
+        final double networkLoad = 2;
+        resMgr.addFailedRequest(client, container, duration, ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, 1D),
+                duration, ImmutableMap.of(LinkAttribute.DATARATE_TX, networkLoad));
+        clock.advance(duration);
+
+        final ResourceReport report = resMgr.getCurrentResourceReport(ResourceReport.EstimationWindow.SHORT);
+        Assert.assertTrue(report.getContainerReports().isEmpty());
+
+        final ImmutableMap<LinkAttribute, Double> demand = report.getNetworkDemand()
+                .get(BasicResourceManager.createInterfaceIdentifierForNeighbor(client))
+                .get(new NodeNetworkFlow(client, nodeId, nodeId)).get(service);
+        Assert.assertEquals(networkLoad, demand.get(LinkAttribute.DATARATE_TX), 0);
+    }
+
 }
@@ -0,0 +1,167 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisProgram;
+
+import com.bbn.protelis.networkresourcemanagement.ns2.NS2Parser;
+import com.bbn.protelis.networkresourcemanagement.testbed.LocalNodeLookupService;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link ClientLoadGenerator} and {@link ClientLoadProfile}.
+ */
+public class ClientLoadGeneratorTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final double TOLERANCE = 1E-6;
+    private static final long SEED = 42;
+    private static final long STEP = 10000;
+    private static final double RATE = 5;
+    private static final double REQUEST_SIZE = 0.5;
+
+    /**
+     * Test the rates of the profile types.
+     */
+    @Test
+    public void testProfiles() {
+        final long period = 1000;
+        final long burst = 100;
+        final double burstRate = 50;
+        final ClientLoadProfile bursty = ClientLoadProfile.parse(ImmutableMap.of(ClientLoadProfile.TYPE_KEY,
+                ClientLoadProfile.TYPE_BURSTY, ClientLoadProfile.RATE_KEY, RATE, ClientLoadProfile.BURST_RATE_KEY,
+                burstRate, ClientLoadProfile.PERIOD_KEY, period, ClientLoadProfile.BURST_DURATION_KEY, burst));
+        Assert.assertEquals(burstRate, bursty.getRequestRate(period + burst / 2), TOLERANCE);
+        Assert.assertEquals(RATE, bursty.getRequestRate(period + burst), TOLERANCE);
+
+        final ClientLoadProfile diurnal = ClientLoadProfile.diurnal(RATE, RATE, period, 0);
+        Assert.assertEquals(2 * RATE, diurnal.getRequestRate(period / 4), TOLERANCE);
+        Assert.assertEquals(0, diurnal.getRequestRate(3 * period / 4), TOLERANCE);
+
+        try {
+            ClientLoadProfile.parse(ImmutableMap.of(ClientLoadProfile.TYPE_KEY, "unknown"));
+            Assert.fail("Expected an exception for an unknown type");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that requests are routed with the load balancer plan to the
+     * container and that requests to a stopped container are dropped.
+     * 
+     * @throws IOException
+     *             test error
+     */
+    @Test
+    public void testClosedLoop() throws IOException {
+        final ManualClock clock = new ManualClock();
+        final SimulatedResourceManager resMgr = new SimulatedResourceManager(clock);
+        resMgr.getRuntime().setImagePullLatency(0);
+        resMgr.getRuntime().setStartLatency(0);
+
+        final String nodeName = "nodeA3";
+        final Map<String, Object> extraData = NS2Parser.getNodeDataFromResource("ns2/multinode", nodeName);
+        final ProtelisProgram program = ProtelisLoader.parseAnonymousModule("true");
+        final int dummyBasePort = 5000;
+        final NetworkServer server = new NetworkServer(new LocalNodeLookupService(dummyBasePort), program,
+                new DnsNameIdentifier(nodeName), resMgr, extraData);
+        resMgr.init(server, Collections.emptyMap());
+
+        final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+        final NodeIdentifier container = resMgr.startService(service,
+                new ContainerParameters(ImmutableMap.of(), ImmutableMap.of()));
+        Assert.assertNotNull(container);
+        server.getNetworkState().setLoadBalancerPlan(new LoadBalancerPlan(server.getRegionIdentifier(),
+                ImmutableMap.of(server.getNodeIdentifier(),
+                        ImmutableList.of(new LoadBalancerPlan.ContainerInfo(container, service, 1, false, false))),
+                ImmutableMap.of()));
+
+        final NetworkClient client = new NetworkClient(new DnsNameIdentifier("client"),
+                ImmutableMap.of(NetworkClient.EXTRA_DATA_LOAD_PROFILES_KEY,
+                        ImmutableMap.of(service.getIdentifier(), ImmutableMap.of(ClientLoadProfile.RATE_KEY, RATE,
+                                ClientLoadProfile.REQUEST_SIZE_KEY, REQUEST_SIZE))));
+        client.addNeighbor(server, 1);
+        Assert.assertEquals(1, client.getLoadProfiles().size());
+
+        final ClientLoadGenerator generator = new ClientLoadGenerator(clock, ImmutableList.of(client),
+                ImmutableList.of(server), SEED);
+        generator.step();
+        clock.advance(STEP);
+        generator.step();
+
+        final long count = generator.getRequestCount();
+        Assert.assertTrue("Expected requests", count > 0);
+        Assert.assertEquals(0, generator.getDroppedRequestCount());
+
+        final double seconds = STEP / 1000.0;
+        final double serviceRate = 1000 / SimulatedContainerRuntime.DEFAULT_PROCESSING_TIME;
+        final ResourceReport report = resMgr.getCurrentResourceReport(ResourceReport.EstimationWindow.SHORT);
+        final ContainerResourceReport containerReport = report.getContainerReports().get(container);
+        Assert.assertEquals(count / seconds / serviceRate,
+                containerReport.getComputeDemand().get(client.getNodeIdentifier()).get(NodeAttribute.CPU),
+                TOLERANCE);
+
+        final ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>> flows = report
+                .getNetworkLoad()
+                .get(BasicResourceManager.createInterfaceIdentifierForNeighbor(client.getNodeIdentifier()));
+        Assert.assertNotNull(flows);
+        Assert.assertEquals(count * REQUEST_SIZE / seconds,
+                flows.values().iterator().next().get(service).get(LinkAttribute.DATARATE_TX), TOLERANCE);
+
+        // the container no longer accepts requests
+        Assert.assertTrue(resMgr.stopService(container));
+        clock.advance(STEP);
+        generator.step();
+        Assert.assertTrue("Expected more requests", generator.getRequestCount() > count);
+        Assert.assertEquals(generator.getRequestCount() - count, generator.getDroppedRequestCount());
+    }
+
+}
@@ -0,0 +1,229 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.vm.CodePath;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link CompressionDictionary}.
+ */
+public class CompressionDictionaryTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final NodeIdentifier NODE = new DnsNameIdentifier("node");
+    private static final int NONCE = 42;
+    private static final long SESSION = 11;
+    private static final double SLOW = 1;
+    private static final double MEDIUM = 100;
+    private static final double FAST = 10000;
+
+    /**
+     * Compress everything and use the serialization that works in all test
+     * environments.
+     */
+    @Before
+    public void setUp() {
+        final GlobalNetworkConfiguration config = GlobalNetworkConfiguration.getInstance();
+        config.setUseCompression(true);
+        config.setCompressionThreshold(0);
+        config.setUseJavaSerialization(true);
+    }
+
+    /**
+     * Test that the dictionary is only used when both sides have the same
+     * one.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding the hello
+     */
+    @Test
+    public void testAgree() throws IOException {
+        final CompressionDictionary local = CompressionDictionary.createDefault();
+        Assert.assertEquals(local.getId(), CompressionDictionary.createDefault().getId());
+
+        final HelloMessage same = roundTrip(ApSession.createHello(NODE, NONCE, SESSION, null, local, 0));
+        Assert.assertEquals(local.getId(), same.getDictionaryId());
+        Assert.assertSame(local, CompressionDictionary.agree(local, same));
+        Assert.assertNull(CompressionDictionary.agree(null, same));
+
+        final CompressionDictionary other = new CompressionDictionary(new byte[] { 1, 2, 3 });
+        final HelloMessage different = roundTrip(ApSession.createHello(NODE, NONCE, SESSION, null, other, 0));
+        Assert.assertNull(CompressionDictionary.agree(local, different));
+
+        final HelloMessage none = roundTrip(ApSession.createHello(NODE, NONCE, SESSION, null, null, 0));
+        Assert.assertFalse(none.hasCapability(HelloMessage.CAPABILITY_COMPRESSION_DICTIONARY));
+        Assert.assertEquals(HelloMessage.NO_DICTIONARY, none.getDictionaryId());
+        Assert.assertNull(CompressionDictionary.agree(local, none));
+    }
+
+    /**
+     * Test that a trained dictionary makes small messages smaller and that
+     * they decode at each compression level.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding
+     */
+    @Test
+    public void testTrainedDictionary() throws IOException {
+        final CompressionDictionary.Trainer trainer = new CompressionDictionary.Trainer();
+        trainer.addSample(data("region1", ResourceSummary.class.getName()));
+        final CompressionDictionary dictionary = trainer.build();
+
+        final Map<CodePath, Object> message = data("region2", ResourceSummary.class.getName());
+        final CompressionStatistics without = new CompressionStatistics();
+        final CompressionStatistics with = new CompressionStatistics();
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ApFraming.Writer writer = new ApFraming.Writer(new FrameBufferPool(() -> Long.MAX_VALUE))) {
+            writer.begin(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE);
+            ShareDataMessage.encode(message, writer, MEDIUM, null, without);
+            writer.writeTo(new ByteArrayOutputStream());
+
+            // pooled compressors are reused across levels
+            for (final double bandwidth : new double[] { SLOW, MEDIUM, FAST, Double.NaN }) {
+                writer.begin(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE);
+                ShareDataMessage.encode(message, writer, bandwidth, dictionary, with);
+                writer.writeTo(output);
+            }
+        }
+        Assert.assertTrue(with.getEncodedBytes() / with.getMessageCount() < without.getEncodedBytes());
+
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                new AtomicLong())) {
+            for (int i = 0; i < with.getMessageCount(); ++i) {
+                reader.next();
+                Assert.assertEquals(ApFraming.FLAG_COMPRESSED | ApFraming.FLAG_DICTIONARY,
+                        reader.getFlags() & (ApFraming.FLAG_COMPRESSED | ApFraming.FLAG_DICTIONARY));
+                Assert.assertEquals(message, ShareDataMessage.decode(reader.getPayloadBuffer(),
+                        reader.getPayloadOffset(), reader.getPayloadLength(), reader.getFlags(), dictionary)
+                        .getData());
+            }
+        }
+    }
+
+    /**
+     * Test that a message compressed with a dictionary is rejected when there
+     * is no dictionary.
+     * 
+     * @throws IOException
+     *             if there is an error encoding
+     */
+    @Test(expected = StreamSyncLostException.class)
+    public void testMissingDictionary() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ApFraming.Writer writer = new ApFraming.Writer(new FrameBufferPool(() -> Long.MAX_VALUE))) {
+            writer.begin(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE);
+            ShareDataMessage.encode(data("region", ResourceSummary.class.getName()), writer, MEDIUM,
+                    CompressionDictionary.createDefault(), new CompressionStatistics());
+            writer.writeTo(output);
+        }
+
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                new AtomicLong())) {
+            reader.next();
+            ShareDataMessage.decode(reader.getPayloadBuffer(), reader.getPayloadOffset(), reader.getPayloadLength(),
+                    reader.getFlags(), null);
+        }
+    }
+
+    /**
+     * Test that a dictionary file is used when configured.
+     * 
+     * @throws IOException
+     *             if there is an error writing or reading the file
+     */
+    @Test
+    public void testLoad() throws IOException {
+        final CompressionDictionary dictionary = new CompressionDictionary(new byte[] { 1, 2, 3 });
+        final Path file = Files.createTempFile("dictionary", ".bin");
+        try {
+            dictionary.write(file);
+
+            final GlobalNetworkConfiguration config = GlobalNetworkConfiguration.getInstance();
+            Assert.assertEquals(CompressionDictionary.createDefault().getId(),
+                    config.getCompressionDictionary().getId());
+
+            config.setCompressionDictionaryPath(file.toString());
+            Assert.assertEquals(dictionary.getId(), config.getCompressionDictionary().getId());
+
+            config.setUseCompressionDictionary(false);
+            Assert.assertNull(config.getCompressionDictionary());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Map<CodePath, Object> data(final String key, final String value) {
+        // the keys are only serialized, so they don't need to be code paths
+        final Map<Object, Object> data = new HashMap<>();
+        data.put(key, value);
+
+        @SuppressWarnings("unchecked")
+        final Map<CodePath, Object> retval = (Map<CodePath, Object>) (Map<?, ?>) data;
+        return retval;
+    }
+
+    private static HelloMessage roundTrip(final HelloMessage msg) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            msg.writeMessage(output);
+        }
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return HelloMessage.readMessage(input);
+        }
+    }
+
+}
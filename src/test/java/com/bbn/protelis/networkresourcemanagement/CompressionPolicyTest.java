@@ -0,0 +1,163 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.vm.CodePath;
+
+import com.google.common.base.Strings;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link CompressionPolicy} and the compression of AP shares.
+ */
+public class CompressionPolicyTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final int THRESHOLD = 100;
+    private static final double FAST = 1000;
+    private static final double SLOW = 10;
+    private static final double MEDIUM = 100;
+    private static final int REPEATED_VALUE_SIZE = 10000;
+
+    /**
+     * Set a known policy.
+     */
+    @Before
+    public void setUp() {
+        final GlobalNetworkConfiguration config = GlobalNetworkConfiguration.getInstance();
+        config.setUseCompression(true);
+        config.setCompressionThreshold(THRESHOLD);
+        config.setFastLinkBandwidth(FAST);
+        config.setSlowLinkBandwidth(SLOW);
+        // the compression is what is being tested, not the serialization
+        // library
+        config.setUseJavaSerialization(true);
+    }
+
+    /**
+     * Test the level chosen for different sizes and bandwidths.
+     */
+    @Test
+    public void testChooseLevel() {
+        Assert.assertEquals(CompressionPolicy.UNCOMPRESSED, CompressionPolicy.chooseLevel(THRESHOLD - 1, SLOW));
+        Assert.assertEquals(Deflater.DEFAULT_COMPRESSION, CompressionPolicy.chooseLevel(THRESHOLD, Double.NaN));
+        Assert.assertEquals(Deflater.BEST_SPEED, CompressionPolicy.chooseLevel(THRESHOLD, FAST));
+        Assert.assertEquals(Deflater.BEST_COMPRESSION, CompressionPolicy.chooseLevel(THRESHOLD, SLOW));
+        Assert.assertEquals(Deflater.DEFAULT_COMPRESSION, CompressionPolicy.chooseLevel(THRESHOLD, MEDIUM));
+
+        final int large = CompressionPolicy.LARGE_MESSAGE_SIZE + 1;
+        Assert.assertEquals(Deflater.DEFAULT_COMPRESSION, CompressionPolicy.chooseLevel(large, SLOW));
+        Assert.assertEquals(Deflater.BEST_SPEED, CompressionPolicy.chooseLevel(large, MEDIUM));
+
+        GlobalNetworkConfiguration.getInstance().setUseCompression(false);
+        Assert.assertEquals(CompressionPolicy.UNCOMPRESSED, CompressionPolicy.chooseLevel(large, SLOW));
+    }
+
+    /**
+     * Test that large data is compressed, small data isn't and both are
+     * decoded using the frame flag.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding
+     */
+    @Test
+    public void testEncode() throws IOException {
+        final Map<CodePath, Object> large = data(Strings.repeat("a", REPEATED_VALUE_SIZE));
+        final Map<CodePath, Object> small = data("a");
+
+        final CompressionStatistics statistics = new CompressionStatistics();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ApFraming.Writer writer = new ApFraming.Writer(new FrameBufferPool(() -> Long.MAX_VALUE))) {
+            writer.begin(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE);
+            ShareDataMessage.encode(large, writer, SLOW, null, statistics);
+            writer.writeTo(output);
+
+            writer.begin(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE);
+            ShareDataMessage.encode(small, writer, SLOW, null, statistics);
+            writer.writeTo(output);
+        }
+
+        Assert.assertEquals(2, statistics.getMessageCount());
+        Assert.assertEquals(1, statistics.getCompressedMessageCount());
+        Assert.assertTrue(statistics.getCompressionRatio() < 1);
+        Assert.assertTrue(statistics.getCompressionTime() >= 0);
+
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                new AtomicLong())) {
+            reader.next();
+            Assert.assertEquals(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE, reader.getType());
+            Assert.assertEquals(ApFraming.FLAG_COMPRESSED, reader.getFlags());
+            Assert.assertEquals(large, decode(reader));
+
+            reader.next();
+            Assert.assertEquals(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE, reader.getType());
+            Assert.assertEquals(0, reader.getFlags());
+            Assert.assertEquals(small, decode(reader));
+        }
+    }
+
+    private static Map<CodePath, Object> data(final String value) {
+        // the keys are only serialized, so they don't need to be code paths
+        final Map<Object, Object> data = new HashMap<>();
+        data.put("key", value);
+
+        @SuppressWarnings("unchecked")
+        final Map<CodePath, Object> retval = (Map<CodePath, Object>) (Map<?, ?>) data;
+        return retval;
+    }
+
+    private static Map<CodePath, Object> decode(final ApFraming.Reader reader) throws IOException {
+        return ShareDataMessage.decode(reader.getPayloadBuffer(), reader.getPayloadOffset(),
+                reader.getPayloadLength(), 0 != (reader.getFlags() & ApFraming.FLAG_COMPRESSED)).getData();
+    }
+
+}
@@ -0,0 +1,142 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link DemandEstimator} and {@link DemandEstimation}.
+ */
+public class DemandEstimatorTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final double TOLERANCE = 1E-9;
+    private static final double TREND_TOLERANCE = 1E-3;
+    private static final int WINDOW_SIZE = 4;
+    private static final int NUM_SAMPLES = 100;
+
+    /**
+     * Test that the windowed mean only considers the most recent samples
+     * after the buffer wraps.
+     */
+    @Test
+    public void testWindowedMean() {
+        final DemandEstimator estimator = new DemandEstimator(WINDOW_SIZE, DemandEstimator.Method.WINDOWED_MEAN,
+                0);
+        for (int i = 1; i <= NUM_SAMPLES; ++i) {
+            estimator.addSample(i);
+        }
+
+        // mean of the last 4 samples
+        final double expected = (NUM_SAMPLES + NUM_SAMPLES - WINDOW_SIZE + 1) / 2.0;
+        Assert.assertEquals(expected, estimator.getWindowedMean(), TOLERANCE);
+        Assert.assertEquals(expected, estimator.getEstimate(), TOLERANCE);
+    }
+
+    /**
+     * Test that a constant load is estimated exactly by all methods.
+     */
+    @Test
+    public void testConstantLoad() {
+        final double load = 3.5;
+        for (final DemandEstimator.Method method : DemandEstimator.Method.values()) {
+            final DemandEstimator estimator = new DemandEstimator(WINDOW_SIZE, method,
+                    DemandEstimation.DEFAULT_TREND_SMOOTHING);
+            for (int i = 0; i < NUM_SAMPLES; ++i) {
+                estimator.addSample(load);
+            }
+            Assert.assertEquals(method.toString(), load, estimator.getEstimate(), TOLERANCE);
+        }
+    }
+
+    /**
+     * Test that the Holt forecast follows a linear trend while the moving
+     * average lags behind it.
+     */
+    @Test
+    public void testHoltFollowsTrend() {
+        final double slope = 2;
+        final DemandEstimator estimator = new DemandEstimator(WINDOW_SIZE, DemandEstimator.Method.HOLT,
+                DemandEstimation.DEFAULT_TREND_SMOOTHING);
+        for (int i = 0; i < NUM_SAMPLES; ++i) {
+            estimator.addSample(slope * i);
+        }
+
+        final double next = slope * NUM_SAMPLES;
+        Assert.assertEquals(next, estimator.getEstimate(), TREND_TOLERANCE);
+        Assert.assertTrue(estimator.getExponentialAverage() < next - slope);
+    }
+
+    /**
+     * Test that attributes missing from a sample decay to zero and are then
+     * dropped.
+     */
+    @Test
+    public void testMissingAttributesDropped() {
+        final double load = 10;
+        final DemandEstimation estimation = new DemandEstimation(1, WINDOW_SIZE, DemandEstimator.Method.EWMA,
+                DemandEstimation.DEFAULT_TREND_SMOOTHING);
+
+        final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+        final RegionIdentifier region = new StringRegionIdentifier("region");
+        estimation.addComputeLoadSample(
+                ImmutableMap.of(service, ImmutableMap.of(region, ImmutableMap.of(NodeAttribute.CPU, load))));
+
+        Assert.assertEquals(load, estimation.getComputeDemand(ResourceReport.EstimationWindow.SHORT).get(service)
+                .get(region).get(NodeAttribute.CPU), TOLERANCE);
+
+        estimation.addComputeLoadSample(ImmutableMap.of());
+        Assert.assertEquals(0, estimation.getComputeDemand(ResourceReport.EstimationWindow.SHORT).get(service)
+                .get(region).get(NodeAttribute.CPU), TOLERANCE);
+        Assert.assertTrue(estimation.getComputeDemand(ResourceReport.EstimationWindow.LONG).get(service).get(region)
+                .get(NodeAttribute.CPU) > 0);
+
+        for (int i = 0; i < NUM_SAMPLES; ++i) {
+            estimation.addComputeLoadSample(ImmutableMap.of());
+        }
+        Assert.assertTrue(estimation.getComputeDemand(ResourceReport.EstimationWindow.LONG).isEmpty());
+    }
+
+}
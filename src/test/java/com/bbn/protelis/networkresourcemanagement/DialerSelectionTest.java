@@ -0,0 +1,86 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.bbn.protelis.networkresourcemanagement.NodeNetworkManager.DialerSelection;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for choosing which side of a link dials in {@link NodeNetworkManager}.
+ */
+public class DialerSelectionTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    /**
+     * Test that exactly one side of a link is the dialer and that names are
+     * compared without regard to case.
+     */
+    @Test
+    public void testExactlyOneDialer() {
+        final NodeIdentifier nodeA = new DnsNameIdentifier("nodeA");
+        final NodeIdentifier nodeB = new DnsNameIdentifier("nodeB");
+        final NodeIdentifier nodeBUpper = new DnsNameIdentifier("NODEB");
+
+        Assert.assertTrue(NodeNetworkManager.isDialer(nodeA, nodeB));
+        Assert.assertFalse(NodeNetworkManager.isDialer(nodeB, nodeA));
+        Assert.assertTrue(NodeNetworkManager.isDialer(nodeA, nodeBUpper));
+        Assert.assertFalse(NodeNetworkManager.isDialer(nodeBUpper, nodeA));
+        Assert.assertFalse(NodeNetworkManager.isDialer(nodeB, nodeBUpper));
+    }
+
+    /**
+     * Test that the first connection to a neighbor is always kept.
+     */
+    @Test
+    public void testFirstConnectionKept() {
+        final NodeIdentifier nodeA = new DnsNameIdentifier("nodeA");
+        final NodeIdentifier nodeB = new DnsNameIdentifier("nodeB");
+
+        for (final DialerSelection selection : DialerSelection.values()) {
+            Assert.assertTrue(NodeNetworkManager.keepNewConnection(selection, nodeA, nodeB, true, 0, null));
+            Assert.assertTrue(NodeNetworkManager.keepNewConnection(selection, nodeB, nodeA, false, 0, null));
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link FailedRequestLog}.
+ */
+public class FailedRequestLogTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final double TOLERANCE = 1E-6;
+    private static final int CAPACITY = 4;
+    private static final long SHORT_DURATION = 100;
+    private static final long LONG_DURATION = 1000;
+
+    private final NodeIdentifier client = new DnsNameIdentifier("client");
+    private final NodeIdentifier container = new DnsNameIdentifier("container");
+
+    /**
+     * Test that the load is weighted by the overlap of the request with each
+     * window.
+     */
+    @Test
+    public void testWindowWeighting() {
+        final FailedRequestLog log = new FailedRequestLog(CAPACITY, SHORT_DURATION, LONG_DURATION);
+        final double cpu = 2;
+        final double datarate = 4;
+        log.add(0, client, container, SHORT_DURATION / 2, ImmutableMap.of(NodeAttribute.CPU, cpu), SHORT_DURATION,
+                ImmutableMap.of(LinkAttribute.DATARATE_TX, datarate));
+
+        final FailedRequestLog.Aggregate shortWindow = log.aggregate(SHORT_DURATION,
+                ResourceReport.EstimationWindow.SHORT);
+        Assert.assertEquals(cpu / 2,
+                shortWindow.getComputeDemand().get(container).get(client).get(NodeAttribute.CPU), TOLERANCE);
+        Assert.assertEquals(datarate,
+                shortWindow.getNetworkDemand().get(container).get(client).get(LinkAttribute.DATARATE_TX),
+                TOLERANCE);
+
+        final double longFraction = (double) SHORT_DURATION / LONG_DURATION;
+        final FailedRequestLog.Aggregate longWindow = log.aggregate(SHORT_DURATION,
+                ResourceReport.EstimationWindow.LONG);
+        Assert.assertEquals(cpu / 2 * longFraction,
+                longWindow.getComputeDemand().get(container).get(client).get(NodeAttribute.CPU), TOLERANCE);
+        Assert.assertEquals(datarate * longFraction,
+                longWindow.getNetworkDemand().get(container).get(client).get(LinkAttribute.DATARATE_TX),
+                TOLERANCE);
+
+        // once the window has moved past the request it no longer counts
+        final FailedRequestLog.Aggregate later = log.aggregate(2 * SHORT_DURATION,
+                ResourceReport.EstimationWindow.SHORT);
+        Assert.assertTrue(later.getComputeDemand().isEmpty());
+        Assert.assertTrue(later.getNetworkDemand().isEmpty());
+    }
+
+    /**
+     * Test that the oldest records are overwritten once the log is full.
+     */
+    @Test
+    public void testOverwrite() {
+        final FailedRequestLog log = new FailedRequestLog(CAPACITY - 1, SHORT_DURATION, LONG_DURATION);
+        Assert.assertEquals("Capacity is rounded up", CAPACITY, log.getCapacity());
+
+        for (int i = 0; i < CAPACITY + 1; ++i) {
+            log.add(0, client, container, SHORT_DURATION, ImmutableMap.of(NodeAttribute.CPU, 1D), 0,
+                    ImmutableMap.of());
+        }
+        final FailedRequestLog.Aggregate aggregate = log.aggregate(SHORT_DURATION,
+                ResourceReport.EstimationWindow.SHORT);
+        Assert.assertEquals(CAPACITY, aggregate.getComputeDemand().get(container).get(client).get(NodeAttribute.CPU),
+                TOLERANCE);
+    }
+
+}
@@ -0,0 +1,247 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.vm.CodePath;
+
+import com.google.common.collect.ImmutableSet;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link IdentifierTable}.
+ */
+public class IdentifierTableTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final int TABLE_SIZE = 4096;
+    private static final int EVICTION_LITERALS = 7;
+
+    private static final NodeIdentifier NODE_A = new DnsNameIdentifier("nodeA");
+    private static final NodeIdentifier NODE_B = new DnsNameIdentifier("nodeB");
+
+    /**
+     * Send the identifiers without compression so that the sizes show the
+     * effect of the table and use the serialization that works in all test
+     * environments.
+     */
+    @Before
+    public void setUp() {
+        GlobalNetworkConfiguration.getInstance().setUseCompression(false);
+        GlobalNetworkConfiguration.getInstance().setUseJavaSerialization(true);
+    }
+
+    /**
+     * Test that identifiers are decoded across messages and that repeated
+     * identifiers are sent as references.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Map<CodePath, Object> data = data();
+
+        final IdentifierTable sender = new IdentifierTable(TABLE_SIZE);
+        final IdentifierTable receiver = new IdentifierTable(TABLE_SIZE);
+
+        final int firstSize = send(sender, receiver, data);
+        final long firstLiterals = sender.getLiteralCount();
+        Assert.assertTrue(firstLiterals > 0);
+
+        final int secondSize = send(sender, receiver, data);
+        Assert.assertEquals(firstLiterals, sender.getLiteralCount());
+        Assert.assertTrue(secondSize < firstSize);
+
+        Assert.assertEquals(sender.getLiteralCount(), receiver.getLiteralCount());
+        Assert.assertEquals(sender.getReferenceCount(), receiver.getReferenceCount());
+        Assert.assertEquals(sender.getSize(), receiver.getSize());
+    }
+
+    /**
+     * Test that identifiers serialize normally when no table is active.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding
+     */
+    @Test
+    public void testWithoutTable() throws IOException {
+        final Map<CodePath, Object> data = data();
+        final byte[] bytes = ApMessage.encodeData(data);
+        Assert.assertEquals(data, ApMessage.decodeData(Map.class, bytes));
+    }
+
+    /**
+     * Test that the oldest entries are evicted to stay within the size and
+     * that both sides evict the same entries.
+     * 
+     * @throws IOException
+     *             if there is an error writing or reading
+     */
+    @Test
+    public void testEviction() throws IOException {
+        // room for two single character names
+        final int size = 2 * (1 + IdentifierTable.ENTRY_OVERHEAD);
+        final IdentifierTable sender = new IdentifierTable(size);
+        final IdentifierTable receiver = new IdentifierTable(size);
+
+        final String[] names = { "a", "b", "a", "c", "a", "b", "this name is larger than the table", "c" };
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            for (final String name : names) {
+                sender.writeName(output, name);
+                Assert.assertTrue(sender.getSize() <= size);
+            }
+        }
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (final String name : names) {
+                Assert.assertEquals(name, receiver.readName(input));
+            }
+        }
+
+        // only the second "a" is found in the table, the large name evicts
+        // everything including itself and only "c" is left
+        Assert.assertEquals(EVICTION_LITERALS, sender.getLiteralCount());
+        Assert.assertEquals(1, sender.getReferenceCount());
+        Assert.assertEquals(EVICTION_LITERALS, receiver.getLiteralCount());
+        Assert.assertEquals(1 + IdentifierTable.ENTRY_OVERHEAD, receiver.getSize());
+    }
+
+    /**
+     * Test that a reference to an entry that isn't in the table is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = InvalidObjectException.class)
+    public void testUnknownReference() throws IOException {
+        final IdentifierTable sender = new IdentifierTable(TABLE_SIZE);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            sender.writeName(output, "a");
+            sender.writeName(output, "a");
+        }
+        final byte[] reference = new byte[bytes.size() - (Byte.BYTES + Short.BYTES + 1)];
+        System.arraycopy(bytes.toByteArray(), Byte.BYTES + Short.BYTES + 1, reference, 0, reference.length);
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(reference))) {
+            new IdentifierTable(TABLE_SIZE).readName(input);
+        }
+    }
+
+    /**
+     * Test that the smaller table size is used when both nodes support the
+     * table.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding the hello
+     */
+    @Test
+    public void testAgreeSize() throws IOException {
+        final HelloMessage remote = ApSession.createHello(NODE_B, 1, 1, null, null, TABLE_SIZE / 2);
+        Assert.assertEquals(TABLE_SIZE / 2, IdentifierTable.agreeSize(TABLE_SIZE, remote));
+        Assert.assertEquals(0, IdentifierTable.agreeSize(0, remote));
+
+        final HelloMessage noTable = ApSession.createHello(NODE_B, 1, 1, null, null, 0);
+        Assert.assertFalse(noTable.hasCapability(HelloMessage.CAPABILITY_IDENTIFIER_TABLE));
+        Assert.assertEquals(0, IdentifierTable.agreeSize(TABLE_SIZE, noTable));
+    }
+
+    private static Map<CodePath, Object> data() {
+        final Map<Object, Object> data = new HashMap<>();
+        data.put("node", NODE_A);
+        data.put("service", new StringServiceIdentifier("service"));
+        data.put("region", new StringRegionIdentifier("region"));
+        data.put("interface", new InterfaceIdentifier("eth0", ImmutableSet.of(NODE_A, NODE_B)));
+        data.put("nodes", ImmutableSet.of(NODE_A, NODE_B));
+
+        // the keys are only serialized, so they don't need to be code paths
+        @SuppressWarnings("unchecked")
+        final Map<CodePath, Object> retval = (Map<CodePath, Object>) (Map<?, ?>) data;
+        return retval;
+    }
+
+    /**
+     * @return the size of the frame
+     */
+    private static int send(final IdentifierTable sender,
+            final IdentifierTable receiver,
+            final Map<CodePath, Object> data) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final IdentifierTable previousSender = sender.activate();
+        try (ApFraming.Writer writer = new ApFraming.Writer(new FrameBufferPool(() -> Long.MAX_VALUE))) {
+            writer.begin(NodeNetworkManager.MESSAGE_TYPE_AP_SHARE);
+            ShareDataMessage.encode(data, writer, Double.NaN, null, new CompressionStatistics());
+            writer.writeTo(output);
+        } finally {
+            IdentifierTable.restore(previousSender);
+        }
+
+        final IdentifierTable previousReceiver = receiver.activate();
+        try (ApFraming.Reader reader = new ApFraming.Reader(new ByteArrayInputStream(output.toByteArray()),
+                new AtomicLong())) {
+            reader.next();
+            final Map<CodePath, Object> decoded = ShareDataMessage.decode(reader.getPayloadBuffer(),
+                    reader.getPayloadOffset(), reader.getPayloadLength(), reader.getFlags(), null).getData();
+            Assert.assertEquals(data, decoded);
+            final InterfaceIdentifier ifce = (InterfaceIdentifier) ((Map<?, ?>) decoded).get("interface");
+            Assert.assertEquals(ImmutableSet.of(NODE_A, NODE_B), ifce.getNeighbors());
+        } finally {
+            IdentifierTable.restore(previousReceiver);
+        }
+        return output.size();
+    }
+
+}
@@ -0,0 +1,217 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisProgram;
+
+import com.bbn.protelis.networkresourcemanagement.ns2.NS2Parser;
+import com.bbn.protelis.networkresourcemanagement.testbed.LocalNodeLookupService;
+import com.bbn.protelis.utils.SimpleClock;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link LinuxResourceManager} using fake /proc and /sys trees.
+ */
+public class LinuxResourceManagerTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    /**
+     * Directory for the fake files.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final double TOLERANCE = 1E-6;
+
+    private static final long GIGABYTE_KB = 1024 * 1024;
+
+    private static final long GIGABYTE_BYTES = GIGABYTE_KB * 1024;
+
+    /**
+     * Bytes received in one second for 1 megabit per second.
+     */
+    private static final long ONE_MEGABIT_BYTES = 125000;
+
+    /**
+     * 2 of 5 time units busy on each of the 2 CPUs.
+     */
+    private static final double EXPECTED_HOST_CPU_LOAD = 0.8;
+    /**
+     * 250ms of CPU time in 1 second.
+     */
+    private static final double EXPECTED_CGROUP_CPU_LOAD = 0.25;
+    /**
+     * The cgroup quota of 50ms every 100ms.
+     */
+    private static final double EXPECTED_CGROUP_CPU_CAPACITY = 0.5;
+
+    private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String NET_DEV_HEADER = "Inter-|   Receive                                                |  Transmit\n"
+            + " face |bytes    packets errs drop fifo frame compressed multicast|bytes    packets errs drop fifo colls carrier compressed\n";
+
+    private static void write(final Path path, final String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String netDevLine(final String name, final long rx, final long tx) {
+        return String.format("%6s: %d 0 0 0 0 0 0 0 %d 0 0 0 0 0 0 0%n", name, rx, tx);
+    }
+
+    private static NetworkServer createNode(final LinuxResourceManager resMgr) throws IOException {
+        final String nodeName = "nodeA3";
+        final Map<String, Object> extraData = NS2Parser.getNodeDataFromResource("ns2/multinode", nodeName);
+        final ProtelisProgram program = ProtelisLoader.parseAnonymousModule("true");
+        final int dummyBasePort = 5000;
+        final NetworkServer node = new NetworkServer(new LocalNodeLookupService(dummyBasePort), program,
+                new DnsNameIdentifier(nodeName), resMgr, extraData);
+        resMgr.init(node, Collections.emptyMap());
+        return node;
+    }
+
+    /**
+     * Test that load and capacity are computed from the host files when there
+     * are no cgroup files.
+     * 
+     * @throws IOException
+     *             test error
+     */
+    @Test
+    public void testHostFiles() throws IOException {
+        final Path proc = folder.newFolder("proc").toPath();
+        final Path sys = folder.newFolder("sys").toPath();
+        write(proc.resolve("stat"), "cpu 100 0 100 700 100 0 0 0\ncpu0 50 0 50 350 50 0 0 0\n"
+                + "cpu1 50 0 50 350 50 0 0 0\nintr 12345\n");
+        write(proc.resolve("meminfo"),
+                "MemTotal: " + 2 * GIGABYTE_KB + " kB\nMemAvailable: " + GIGABYTE_KB + " kB\n");
+        write(proc.resolve("net").resolve("dev"), NET_DEV_HEADER + netDevLine("lo", 0, 0) + netDevLine("eth0", 0, 0));
+        write(sys.resolve("class").resolve("net").resolve("eth0").resolve("speed"), "100\n");
+
+        final LinuxResourceManager resMgr = new LinuxResourceManager(new SimpleClock(), proc, sys, NEVER_MS, 1);
+        try {
+            createNode(resMgr);
+
+            final long base = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+            resMgr.sample(base);
+
+            write(proc.resolve("stat"), "cpu 300 0 300 1200 200 0 0 0\ncpu0 150 0 150 600 100 0 0 0\n"
+                    + "cpu1 150 0 150 600 100 0 0 0\n");
+            write(proc.resolve("net").resolve("dev"),
+                    NET_DEV_HEADER + netDevLine("lo", 1, 1) + netDevLine("eth0", ONE_MEGABIT_BYTES, 2 * ONE_MEGABIT_BYTES));
+            resMgr.sample(base + TimeUnit.SECONDS.toNanos(1));
+
+            final ImmutableMap<NodeAttribute, Double> load = resMgr.getComputeLoad();
+            Assert.assertEquals(EXPECTED_HOST_CPU_LOAD, load.get(NodeAttribute.CPU), TOLERANCE);
+            Assert.assertEquals(2, resMgr.getComputeCapacity().get(NodeAttribute.CPU), TOLERANCE);
+            Assert.assertEquals(1, load.get(NodeAttribute.MEMORY), TOLERANCE);
+            Assert.assertEquals(2, resMgr.getComputeCapacity().get(NodeAttribute.MEMORY), TOLERANCE);
+
+            final ResourceReport report = resMgr.getCurrentResourceReport(ResourceReport.EstimationWindow.SHORT);
+            final InterfaceIdentifier eth0 = new InterfaceIdentifier("eth0", ImmutableSet.of());
+            Assert.assertEquals(ImmutableSet.of(eth0), report.getNetworkLoad().keySet());
+            final ImmutableMap<LinkAttribute, Double> linkLoad = report.getNetworkLoad().get(eth0).values()
+                    .iterator().next().get(LinuxResourceManager.HOST_TRAFFIC_SERVICE);
+            Assert.assertEquals(1, linkLoad.get(LinkAttribute.DATARATE_RX), TOLERANCE);
+            Assert.assertEquals(2, linkLoad.get(LinkAttribute.DATARATE_TX), TOLERANCE);
+            Assert.assertEquals(100,
+                    report.getNetworkCapacity().get(eth0).get(LinkAttribute.DATARATE_TX), TOLERANCE);
+            Assert.assertTrue(report.getNetworkDemand().containsKey(eth0));
+        } finally {
+            resMgr.shutdown();
+        }
+    }
+
+    /**
+     * Test that the cgroup files limit the capacity and provide the usage.
+     * 
+     * @throws IOException
+     *             test error
+     */
+    @Test
+    public void testCgroupFiles() throws IOException {
+        final Path proc = folder.newFolder("proc").toPath();
+        final Path sys = folder.newFolder("sys").toPath();
+        final Path cgroup = sys.resolve("fs").resolve("cgroup");
+        write(proc.resolve("stat"), "cpu 100 0 100 700 100 0 0 0\ncpu0 50 0 50 350 50 0 0 0\n"
+                + "cpu1 50 0 50 350 50 0 0 0\n");
+        write(proc.resolve("meminfo"), "MemTotal: " + 4 * GIGABYTE_KB + " kB\nMemAvailable: " + GIGABYTE_KB + " kB\n");
+        write(cgroup.resolve("cpu.max"), "50000 100000\n");
+        write(cgroup.resolve("cpu.stat"), "usage_usec 1000\nuser_usec 500\n");
+        write(cgroup.resolve("memory.max"), GIGABYTE_BYTES + "\n");
+        write(cgroup.resolve("memory.current"), GIGABYTE_BYTES / 2 + "\n");
+
+        final LinuxResourceManager resMgr = new LinuxResourceManager(new SimpleClock(), proc, sys, NEVER_MS, 1);
+        try {
+            createNode(resMgr);
+
+            final long base = System.nanoTime() + TimeUnit.HOURS.toNanos(1);
+            resMgr.sample(base);
+            write(cgroup.resolve("cpu.stat"), "usage_usec 251000\nuser_usec 500\n");
+            resMgr.sample(base + TimeUnit.SECONDS.toNanos(1));
+
+            Assert.assertEquals(EXPECTED_CGROUP_CPU_LOAD, resMgr.getComputeLoad().get(NodeAttribute.CPU),
+                    TOLERANCE);
+            Assert.assertEquals(EXPECTED_CGROUP_CPU_CAPACITY, resMgr.getComputeCapacity().get(NodeAttribute.CPU),
+                    TOLERANCE);
+            Assert.assertEquals(0.5, resMgr.getComputeLoad().get(NodeAttribute.MEMORY), TOLERANCE);
+            Assert.assertEquals(1, resMgr.getComputeCapacity().get(NodeAttribute.MEMORY), TOLERANCE);
+        } finally {
+            resMgr.shutdown();
+        }
+    }
+
+}
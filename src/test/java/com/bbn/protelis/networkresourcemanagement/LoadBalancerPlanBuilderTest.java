@@ -0,0 +1,154 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link LoadBalancerPlanBuilder}.
+ */
+public class LoadBalancerPlanBuilderTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final double TOLERANCE = 1E-6;
+    private static final double OLD_WEIGHT = 3;
+    private static final double NEW_WEIGHT = 5;
+
+    private final RegionIdentifier region = new StringRegionIdentifier("region");
+    private final NodeIdentifier node = new DnsNameIdentifier("node");
+    private final NodeIdentifier container1 = new DnsNameIdentifier("container1");
+    private final NodeIdentifier container2 = new DnsNameIdentifier("container2");
+    private final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+
+    private ResourceReport createReport(final NodeIdentifier... containers) {
+        final ImmutableMap.Builder<NodeIdentifier, ContainerResourceReport> containerReports = ImmutableMap.builder();
+        for (final NodeIdentifier container : containers) {
+            containerReports.put(container,
+                    new ContainerResourceReport(container, 0, service, ServiceStatus.RUNNING,
+                            ResourceReport.EstimationWindow.SHORT, ImmutableMap.of(), ImmutableMap.of(),
+                            ImmutableMap.of(), 0));
+        }
+        return new ResourceReport(node, 0, ResourceReport.EstimationWindow.SHORT, ImmutableMap.of(),
+                ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of(), containerReports.build(), Integer.MAX_VALUE,
+                containers.length);
+    }
+
+    /**
+     * Test that running containers are matched to the previous plan by id and
+     * then to planned containers with the same service.
+     */
+    @Test
+    public void testMatchPreviousPlan() {
+        final LoadBalancerPlan prevPlan = new LoadBalancerPlan(region,
+                ImmutableMap.of(node,
+                        ImmutableList.of(
+                                new LoadBalancerPlan.ContainerInfo(container1, service, OLD_WEIGHT, false, false),
+                                new LoadBalancerPlan.ContainerInfo(null, service, NEW_WEIGHT, false, false))),
+                ImmutableMap.of());
+
+        final ImmutableSet<ResourceReport> reports = ImmutableSet.of(createReport(container1, container2));
+        final LoadBalancerPlanBuilder builder = new LoadBalancerPlanBuilder(prevPlan, reports);
+        final LoadBalancerPlan plan = builder.toLoadBalancerPlan(reports, ImmutableMap.of());
+
+        final ImmutableList<LoadBalancerPlan.ContainerInfo> infos = ImmutableList
+                .copyOf(plan.getServicePlan().get(node));
+        Assert.assertEquals(2, infos.size());
+        Assert.assertEquals(container1, infos.get(0).getId());
+        Assert.assertEquals(OLD_WEIGHT, infos.get(0).getWeight(), TOLERANCE);
+        Assert.assertEquals(container2, infos.get(1).getId());
+        Assert.assertEquals(NEW_WEIGHT, infos.get(1).getWeight(), TOLERANCE);
+    }
+
+    /**
+     * Test that modifying a container keeps its position in the plan.
+     */
+    @Test
+    public void testModifyKeepsOrder() {
+        final ImmutableSet<ResourceReport> reports = ImmutableSet.of(createReport(container1, container2));
+        final LoadBalancerPlanBuilder builder = new LoadBalancerPlanBuilder(
+                LoadBalancerPlan.getNullLoadBalancerPlan(region), reports);
+
+        builder.setContainerWeight(node, container1, NEW_WEIGHT);
+        builder.stopTrafficToContainer(node, container1);
+        final LoadBalancerPlan plan = builder.toLoadBalancerPlan(reports, ImmutableMap.of());
+
+        final ImmutableList<LoadBalancerPlan.ContainerInfo> infos = ImmutableList
+                .copyOf(plan.getServicePlan().get(node));
+        Assert.assertEquals(container1, infos.get(0).getId());
+        Assert.assertEquals(NEW_WEIGHT, infos.get(0).getWeight(), TOLERANCE);
+        Assert.assertTrue(infos.get(0).isStopTrafficTo());
+        Assert.assertEquals(container2, infos.get(1).getId());
+    }
+
+    /**
+     * Test that a container added twice through {@link LoadBalancerPlanBuilder#getPlan()}
+     * is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateContainer() {
+        final ImmutableSet<ResourceReport> reports = ImmutableSet.of(createReport(container1));
+        final LoadBalancerPlanBuilder builder = new LoadBalancerPlanBuilder(
+                LoadBalancerPlan.getNullLoadBalancerPlan(region), reports);
+
+        builder.getPlan().get(node).add(new LoadBalancerPlan.ContainerInfo(container1, service, 1, false, false));
+        builder.toLoadBalancerPlan(reports, ImmutableMap.of());
+    }
+
+    /**
+     * Test that a running container missing from the plan is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingContainer() {
+        final ImmutableSet<ResourceReport> reports = ImmutableSet.of(createReport(container1));
+        final LoadBalancerPlanBuilder builder = new LoadBalancerPlanBuilder(
+                LoadBalancerPlan.getNullLoadBalancerPlan(region), reports);
+
+        Assert.assertTrue(builder.getPlan().get(node).removeIf(info -> container1.equals(info.getId())));
+        builder.toLoadBalancerPlan(reports, ImmutableMap.of());
+    }
+
+}
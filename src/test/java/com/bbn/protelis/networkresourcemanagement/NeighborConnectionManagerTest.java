@@ -0,0 +1,176 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.bbn.protelis.networkresourcemanagement.NeighborConnectionManager.ConnectionState;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link NeighborConnectionManager}.
+ */
+public class NeighborConnectionManagerTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final long INITIAL_BACKOFF = 100;
+    private static final long MAX_BACKOFF = 1000;
+    private static final int MAX_SHIFT = 30;
+
+    /**
+     * Test that the backoff grows exponentially, is capped and includes
+     * jitter.
+     */
+    @Test
+    public void testComputeBackoff() {
+        final Random random = new Random(0);
+        final int maxFailures = 64;
+        for (int failures = 1; failures <= maxFailures; ++failures) {
+            final long expected = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(failures - 1, MAX_SHIFT));
+            final long backoff = NeighborConnectionManager.computeBackoff(failures, INITIAL_BACKOFF, MAX_BACKOFF,
+                    random);
+            Assert.assertTrue("Backoff too large: " + backoff, backoff <= expected);
+            Assert.assertTrue("Backoff too small: " + backoff, backoff >= expected / 2);
+        }
+    }
+
+    /**
+     * Test that a failing neighbor isn't dialed again until the backoff
+     * expires and that a success resets the backoff.
+     */
+    @Test
+    public void testBackoff() {
+        final NodeIdentifier neighbor = new DnsNameIdentifier("neighbor");
+        final AtomicLong now = new AtomicLong(0);
+        final List<Runnable> pending = new ArrayList<>();
+        final boolean[] fail = { true };
+
+        final NeighborConnectionManager[] holder = new NeighborConnectionManager[1];
+        final NeighborConnectionManager manager = new NeighborConnectionManager(n -> {
+            if (fail[0]) {
+                throw new SocketTimeoutException("test");
+            } else {
+                holder[0].connected(n);
+            }
+        }, pending::add, now::get, new Random(0));
+        holder[0] = manager;
+        manager.setBackoff(INITIAL_BACKOFF, MAX_BACKOFF);
+
+        manager.requestConnection(neighbor);
+        Assert.assertEquals(ConnectionState.CONNECTING, manager.getState(neighbor));
+
+        // only one attempt at a time
+        manager.requestConnection(neighbor);
+        Assert.assertEquals(1, pending.size());
+        Assert.assertEquals(1, manager.getAttemptCount());
+
+        pending.remove(0).run();
+        Assert.assertEquals(ConnectionState.BACKOFF, manager.getState(neighbor));
+        Assert.assertEquals(1, manager.getFailureCount());
+        Assert.assertEquals(1, manager.getTimeoutCount());
+
+        // still in backoff
+        manager.requestConnection(neighbor);
+        Assert.assertTrue(pending.isEmpty());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(INITIAL_BACKOFF));
+        fail[0] = false;
+        manager.requestConnection(neighbor);
+        Assert.assertEquals(1, pending.size());
+        pending.remove(0).run();
+        Assert.assertEquals(ConnectionState.CONNECTED, manager.getState(neighbor));
+        Assert.assertEquals(1, manager.getSuccessCount());
+        Assert.assertEquals(1, (int) manager.getStateCounts().get(ConnectionState.CONNECTED));
+
+        // connected neighbors aren't dialed
+        manager.requestConnection(neighbor);
+        Assert.assertTrue(pending.isEmpty());
+
+        // a lost connection can be redialed immediately
+        manager.disconnected(neighbor);
+        Assert.assertEquals(ConnectionState.IDLE, manager.getState(neighbor));
+        manager.requestConnection(neighbor);
+        Assert.assertEquals(1, pending.size());
+    }
+
+    /**
+     * Test that an attempt which completes without the neighbor being
+     * connected, for instance because the neighbor already connected to us,
+     * leaves the neighbor idle.
+     */
+    @Test
+    public void testSuccessWithoutConnection() {
+        final NodeIdentifier neighbor = new DnsNameIdentifier("neighbor");
+        final NeighborConnectionManager manager = new NeighborConnectionManager(n -> {
+        }, Runnable::run, () -> 0, new Random(0));
+
+        manager.requestConnection(neighbor);
+        Assert.assertEquals(ConnectionState.IDLE, manager.getState(neighbor));
+        Assert.assertEquals(1, manager.getSuccessCount());
+    }
+
+    /**
+     * Test that a dialer throwing {@link IOException} is counted as a failure
+     * but not a timeout.
+     */
+    @Test
+    public void testFailureNotTimeout() {
+        final NodeIdentifier neighbor = new DnsNameIdentifier("neighbor");
+        final NeighborConnectionManager manager = new NeighborConnectionManager(n -> {
+            throw new IOException("test");
+        }, Runnable::run, () -> 0, new Random(0));
+
+        manager.requestConnection(neighbor);
+        Assert.assertEquals(ConnectionState.BACKOFF, manager.getState(neighbor));
+        Assert.assertEquals(1, manager.getFailureCount());
+        Assert.assertEquals(0, manager.getTimeoutCount());
+    }
+
+}
@@ -0,0 +1,141 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisProgram;
+
+import com.bbn.protelis.networkresourcemanagement.ns2.NS2Parser;
+import com.bbn.protelis.networkresourcemanagement.testbed.LocalNodeLookupService;
+import com.bbn.protelis.utils.SimpleClock;
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for the precomputed neighbor tables in {@link NetworkServer}.
+ */
+public class NeighborTablesTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final double BANDWIDTH = 100;
+
+    private static NetworkServer createNode() throws IOException {
+        final String nodeName = "nodeA3";
+        final String basePath = "ns2/multinode";
+        final Map<String, Object> extraData = NS2Parser.getNodeDataFromResource(basePath, nodeName);
+
+        final ResourceManager<NetworkServer> resMgr = new BasicResourceManagerFactory(new SimpleClock())
+                .createResourceManager();
+        final ProtelisProgram program = ProtelisLoader.parseAnonymousModule("true");
+        final int dummyBasePort = 5000;
+        final NetworkServer node = new NetworkServer(new LocalNodeLookupService(dummyBasePort), program,
+                new DnsNameIdentifier(nodeName), resMgr, extraData);
+        resMgr.init(node, Collections.emptyMap());
+        return node;
+    }
+
+    /**
+     * Test that the link capacity is only rebuilt when the neighbors change and
+     * that interface identifiers are reused.
+     * 
+     * @throws IOException
+     *             if there is an error reading the test data.
+     */
+    @Test
+    public void testCapacityRebuiltOnNeighborChange() throws IOException {
+        final NetworkServer node = createNode();
+        final NodeIdentifier neighborA = new DnsNameIdentifier("neighborA");
+        final NodeIdentifier neighborB = new DnsNameIdentifier("neighborB");
+
+        Assert.assertEquals(0, node.getNeighborsVersion());
+        node.addApNeighbor(neighborA, BANDWIDTH);
+        Assert.assertEquals(1, node.getNeighborsVersion());
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> first = node
+                .getNeighborLinkCapacity(LinkAttribute.DATARATE_TX);
+        Assert.assertSame(first, node.getNeighborLinkCapacity(LinkAttribute.DATARATE_TX));
+        Assert.assertEquals(1, first.size());
+
+        final InterfaceIdentifier iiA = node.getNeighborInterface(neighborA);
+        Assert.assertEquals(BasicResourceManager.createInterfaceIdentifierForNeighbor(neighborA), iiA);
+        Assert.assertEquals(BANDWIDTH, first.get(iiA).get(LinkAttribute.DATARATE_TX), 0);
+
+        node.addApNeighbor(neighborB, BANDWIDTH);
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<LinkAttribute, Double>> second = node
+                .getNeighborLinkCapacity(LinkAttribute.DATARATE_TX);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(2, second.size());
+        Assert.assertSame(iiA, node.getNeighborInterface(neighborA));
+    }
+
+    /**
+     * Test that neighbor snapshots are immutable and that readers get the
+     * same object until the neighbors change.
+     * 
+     * @throws IOException
+     *             if there is an error reading the test data.
+     */
+    @Test
+    public void testSnapshotVersions() throws IOException {
+        final NetworkServer node = createNode();
+        final NodeIdentifier neighborA = new DnsNameIdentifier("neighborA");
+
+        node.addApNeighbor(neighborA, BANDWIDTH);
+        final NetworkServer.NeighborSnapshot first = node.getNeighborSnapshot();
+        Assert.assertSame(first, node.getNeighborSnapshot());
+        Assert.assertSame(first.getApNeighbors(), node.getApNeighbors());
+        Assert.assertTrue(first.getApNeighbors().contains(neighborA));
+
+        // changing the bandwidth creates a new version
+        node.addApNeighbor(neighborA, BANDWIDTH * 2);
+        final NetworkServer.NeighborSnapshot second = node.getNeighborSnapshot();
+        Assert.assertEquals(first.getVersion() + 1, second.getVersion());
+        Assert.assertEquals(BANDWIDTH, first.getNeighborsWithBandwidth().get(neighborA), 0);
+        Assert.assertEquals(BANDWIDTH * 2, second.getNeighborsWithBandwidth().get(neighborA), 0);
+        Assert.assertSame(first.getApNeighbors(), second.getApNeighbors());
+    }
+
+}
@@ -0,0 +1,369 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.CodePath;
+import org.protelis.vm.ProtelisProgram;
+
+import com.bbn.protelis.networkresourcemanagement.ns2.NS2Parser;
+import com.bbn.protelis.networkresourcemanagement.testbed.LocalNodeLookupService;
+import com.bbn.protelis.utils.SimpleClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link NetworkNeighbor}.
+ */
+public class NetworkNeighborTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final NodeIdentifier NODE_A = new DnsNameIdentifier("nodeA");
+    private static final NodeIdentifier NODE_B = new DnsNameIdentifier("nodeB");
+    private static final int NONCE = 42;
+    private static final long SESSION_ID = 1;
+
+    private static final int ROUNDS = 6;
+    /**
+     * The AP share, counting from 1, that is corrupted on the way to the
+     * receiver.
+     */
+    private static final int CORRUPT_SHARE = 3;
+    private static final long WAIT_MS = 10000;
+    private static final long POLL_MS = 10;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int COPY_BUFFER_SIZE = 1024;
+    private static final long RESUMED_SEQUENCE = 5;
+    private static final long SENDER_PLAN_TIMESTAMP = 10;
+    private static final long RECEIVER_PLAN_TIMESTAMP = 9;
+    private static final long NEW_PLAN_TIMESTAMP = 11;
+    private static final double HALF = 0.5;
+    private static final int IDENTIFIER_TABLE_SIZE = 4096;
+
+    private static NetworkServer createNode() throws IOException {
+        final String nodeName = "nodeA3";
+        final Map<String, Object> extraData = NS2Parser.getNodeDataFromResource("ns2/multinode", nodeName);
+        final ResourceManager<NetworkServer> resMgr = new BasicResourceManagerFactory(new SimpleClock())
+                .createResourceManager();
+        final ProtelisProgram program = ProtelisLoader.parseAnonymousModule("true");
+        final int dummyBasePort = 5000;
+        final NetworkServer node = new NetworkServer(new LocalNodeLookupService(dummyBasePort), program,
+                new DnsNameIdentifier(nodeName), resMgr, extraData);
+        resMgr.init(node, Collections.emptyMap());
+        return node;
+    }
+
+    private static NetworkNeighbor createNeighbor(final NetworkServer node,
+            final NodeIdentifier neighborId,
+            final Socket s,
+            final int identifierTableSize) throws IOException {
+        return createNeighbor(node, neighborId, s,
+                new ApSession(SESSION_ID, Collections.emptyMap(), 0, Collections.emptyMap(), 0),
+                identifierTableSize);
+    }
+
+    private static NetworkNeighbor createNeighbor(final NetworkServer node,
+            final NodeIdentifier neighborId,
+            final Socket s,
+            final ApSession session,
+            final int identifierTableSize) throws IOException {
+        return new NetworkNeighbor(node, neighborId, NONCE, (InetSocketAddress) s.getRemoteSocketAddress(), s,
+                new DataInputStream(s.getInputStream()), new DataOutputStream(s.getOutputStream()), session, null,
+                identifierTableSize, new ApConnectionMetrics());
+    }
+
+    /**
+     * Code path identified by a name.
+     */
+    private static final class NamedCodePath implements CodePath {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        NamedCodePath(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof NamedCodePath && name.equals(((NamedCodePath) o).name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The state for a round. Each round adds a key and removes the key from
+     * the previous round so that a lost delta leaves a stale key behind. The
+     * value of the key names a new node and an existing one, so with an
+     * identifier table the lost delta adds a name to the sender's table and
+     * later references to the existing node only resolve if the tables were
+     * reset.
+     */
+    private static Map<CodePath, Object> state(final int round) {
+        final Map<CodePath, Object> data = new HashMap<>();
+        data.put(new NamedCodePath("round"), round);
+        data.put(new NamedCodePath("key" + round), ImmutableList.of(new DnsNameIdentifier("node" + round), NODE_A));
+        return data;
+    }
+
+    private static void waitFor(final String message, final BooleanSupplier condition) throws InterruptedException {
+        final long end = System.currentTimeMillis() + WAIT_MS;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue(message, System.currentTimeMillis() < end);
+            Thread.sleep(POLL_MS);
+        }
+    }
+
+    /**
+     * Copy frames from {@code input} to {@code output}, flipping a byte in the
+     * payload of the {@link #CORRUPT_SHARE} AP share so that it fails the CRC
+     * check.
+     */
+    private static void relayFrames(final InputStream input, final OutputStream output) {
+        try (DataInputStream in = new DataInputStream(input); DataOutputStream out = new DataOutputStream(output)) {
+            int shares = 0;
+            while (true) {
+                final int magic = in.readInt();
+                final byte type = in.readByte();
+                final int length = in.readInt();
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                final int crc = in.readInt();
+
+                if (NodeNetworkManager.MESSAGE_TYPE_AP_SHARE == (type & ApFraming.TYPE_MASK)) {
+                    ++shares;
+                    if (CORRUPT_SHARE == shares) {
+                        payload[length - 1] ^= BYTE_MASK;
+                    }
+                }
+
+                out.writeInt(magic);
+                out.writeByte(type);
+                out.writeInt(length);
+                out.write(payload);
+                out.writeInt(crc);
+                out.flush();
+            }
+        } catch (final IOException e) {
+            // connection closed
+        }
+    }
+
+    private static void relayBytes(final InputStream input, final OutputStream output) {
+        try {
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+                output.flush();
+            }
+        } catch (final IOException e) {
+            // connection closed
+        }
+    }
+
+    /**
+     * Test that when an AP share in the middle of a stream of deltas is
+     * corrupted, the receiver asks for the full state and catches up with the
+     * sender, including the removal of keys announced in the lost delta.
+     * 
+     * @throws IOException
+     *             if there is an error creating the connections
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testCatchUpAfterCorruptDelta() throws IOException, InterruptedException {
+        catchUpAfterCorruptDelta(0);
+    }
+
+    /**
+     * Test that when an AP share is corrupted while identifier tables are
+     * used, both sides reset their tables and the receiver catches up with
+     * the sender without closing the connection.
+     * 
+     * @throws IOException
+     *             if there is an error creating the connections
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testCatchUpAfterCorruptDeltaWithIdentifierTable() throws IOException, InterruptedException {
+        catchUpAfterCorruptDelta(IDENTIFIER_TABLE_SIZE);
+    }
+
+    private void catchUpAfterCorruptDelta(final int identifierTableSize) throws IOException, InterruptedException {
+        GlobalNetworkConfiguration.getInstance().setUseJavaSerialization(true);
+        GlobalNetworkConfiguration.getInstance().setUseDeltaCompression(true);
+
+        final NetworkServer node = createNode();
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocket senderServer = new ServerSocket(0, 1, loopback);
+                ServerSocket receiverServer = new ServerSocket(0, 1, loopback);
+                Socket senderSocket = new Socket(loopback, senderServer.getLocalPort());
+                Socket proxyFromSender = senderServer.accept();
+                Socket proxyToReceiver = new Socket(loopback, receiverServer.getLocalPort());
+                Socket receiverSocket = receiverServer.accept()) {
+
+            final InputStream fromSender = proxyFromSender.getInputStream();
+            final OutputStream toReceiver = proxyToReceiver.getOutputStream();
+            final InputStream fromReceiver = proxyToReceiver.getInputStream();
+            final OutputStream toSender = proxyFromSender.getOutputStream();
+            final Thread forward = new Thread(() -> relayFrames(fromSender, toReceiver));
+            final Thread backward = new Thread(() -> relayBytes(fromReceiver, toSender));
+
+            final NetworkNeighbor sender = createNeighbor(node, NODE_B, senderSocket, identifierTableSize);
+            final NetworkNeighbor receiver = createNeighbor(node, NODE_A, receiverSocket, identifierTableSize);
+            try {
+                forward.setDaemon(true);
+                backward.setDaemon(true);
+                forward.start();
+                backward.start();
+                sender.start();
+                receiver.start();
+
+                for (int round = 1; round <= ROUNDS; ++round) {
+                    sender.shareApState(state(round));
+                    final long expected = round;
+                    waitFor("share not sent", () -> sender.getSession().getSentSequence() >= expected);
+                }
+
+                final Map<CodePath, Object> expected = state(ROUNDS);
+                waitFor("receiver didn't catch up", () -> expected.equals(receiver.getSharedValues()));
+                Assert.assertTrue(receiver.isRunning());
+            } finally {
+                sender.terminate();
+                receiver.terminate();
+            }
+        }
+    }
+
+    /**
+     * Test that when the receiver's copy of a plan isn't the base of a plan
+     * patch, the receiver asks for the full state and ends up with the new
+     * plan.
+     * 
+     * @throws IOException
+     *             if there is an error creating the connections
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testFullStateWhenPlanPatchDoesNotApply() throws IOException, InterruptedException {
+        GlobalNetworkConfiguration.getInstance().setUseJavaSerialization(true);
+        GlobalNetworkConfiguration.getInstance().setUseDeltaCompression(true);
+        GlobalNetworkConfiguration.getInstance().setUsePlanPatches(true);
+
+        final RegionIdentifier regionA = new StringRegionIdentifier("A");
+        final RegionIdentifier regionB = new StringRegionIdentifier("B");
+        final ServiceIdentifier<?> service1 = new StringServiceIdentifier("service1");
+        final ServiceIdentifier<?> service2 = new StringServiceIdentifier("service2");
+        final ImmutableMap<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, Double>> basePlan = ImmutableMap
+                .of(service1, ImmutableMap.of(regionA, 1.0), service2, ImmutableMap.of(regionA, 1.0));
+        final RegionPlan senderBase = new RegionPlan(regionA, SENDER_PLAN_TIMESTAMP, basePlan);
+        final RegionPlan receiverBase = new RegionPlan(regionA, RECEIVER_PLAN_TIMESTAMP, basePlan);
+        // only one service changes so that a patch is sent
+        final RegionPlan newPlan = new RegionPlan(regionA, NEW_PLAN_TIMESTAMP,
+                ImmutableMap.of(service1, ImmutableMap.of(regionA, HALF, regionB, HALF), service2,
+                        ImmutableMap.of(regionA, 1.0)));
+
+        final CodePath planPath = new NamedCodePath("plan");
+        final Map<CodePath, Object> senderState = Collections.singletonMap(planPath, senderBase);
+        final Map<CodePath, Object> receiverState = Collections.singletonMap(planPath, receiverBase);
+
+        final NetworkServer node = createNode();
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (ServerSocket server = new ServerSocket(0, 1, loopback);
+                Socket senderSocket = new Socket(loopback, server.getLocalPort());
+                Socket receiverSocket = server.accept()) {
+
+            // the sessions were resumed with different copies of the plan
+            final NetworkNeighbor sender = createNeighbor(node, NODE_B, senderSocket,
+                    new ApSession(SESSION_ID, senderState, RESUMED_SEQUENCE, Collections.emptyMap(), 0), 0);
+            final NetworkNeighbor receiver = createNeighbor(node, NODE_A, receiverSocket,
+                    new ApSession(SESSION_ID, Collections.emptyMap(), 0, receiverState, RESUMED_SEQUENCE), 0);
+            try {
+                sender.start();
+                receiver.start();
+
+                sender.shareApState(Collections.singletonMap(planPath, newPlan));
+
+                waitFor("receiver didn't get the new plan",
+                        () -> newPlan.equals(receiver.getSharedValues().get(planPath)));
+
+                // the patch and then the full state
+                final long expectedSequence = RESUMED_SEQUENCE + 2;
+                Assert.assertEquals(expectedSequence, receiver.getSession().getReceivedSequence());
+                waitFor("sender sequence", () -> expectedSequence == sender.getSession().getSentSequence());
+            } finally {
+                sender.terminate();
+                receiver.terminate();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisProgram;
+
+import com.bbn.protelis.networkresourcemanagement.ns2.NS2Parser;
+import com.bbn.protelis.networkresourcemanagement.testbed.LocalNodeLookupService;
+import com.bbn.protelis.utils.SimpleClock;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for the handshake of connections accepted by
+ * {@link NodeNetworkManager}.
+ */
+public class NodeNetworkManagerTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final int HANDSHAKE_TIMEOUT_MS = 500;
+    /**
+     * How long to wait for something that should happen within the handshake
+     * timeout.
+     */
+    private static final long WAIT_MS = HANDSHAKE_TIMEOUT_MS * 10;
+    private static final long POLL_MS = 10;
+    private static final int NONCE = 42;
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitFor(final String message, final BooleanSupplier condition) throws InterruptedException {
+        final long end = System.currentTimeMillis() + WAIT_MS;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue(message, System.currentTimeMillis() < end);
+            Thread.sleep(POLL_MS);
+        }
+    }
+
+    private static Socket connect(final InetSocketAddress addr) throws InterruptedException {
+        final long end = System.currentTimeMillis() + WAIT_MS;
+        while (true) {
+            try {
+                final Socket s = new Socket();
+                try {
+                    s.connect(addr, HANDSHAKE_TIMEOUT_MS);
+                    return s;
+                } catch (final IOException e) {
+                    s.close();
+                    throw e;
+                }
+            } catch (final IOException e) {
+                // the server thread may not be listening yet
+                Assert.assertTrue("Unable to connect to " + addr + ": " + e, System.currentTimeMillis() < end);
+                Thread.sleep(POLL_MS);
+            }
+        }
+    }
+
+    private static NetworkServer createNode(final LocalNodeLookupService lookup, final NodeIdentifier nodeId)
+            throws IOException {
+        final Map<String, Object> extraData = NS2Parser.getNodeDataFromResource("ns2/multinode", nodeId.getName());
+        final ResourceManager<NetworkServer> resMgr = new BasicResourceManagerFactory(new SimpleClock())
+                .createResourceManager();
+        final ProtelisProgram program = ProtelisLoader.parseAnonymousModule("true");
+        final NetworkServer node = new NetworkServer(lookup, program, nodeId, resMgr, extraData);
+        resMgr.init(node, Collections.emptyMap());
+        return node;
+    }
+
+    /**
+     * Test that a connection accepted while all handshake threads are busy and
+     * the handshake queue is full is closed right away.
+     * 
+     * @throws IOException
+     *             if there is an error reading the test data or talking to the
+     *             network manager
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testHandshakeQueueFull() throws IOException, InterruptedException {
+        final LocalNodeLookupService lookup = new LocalNodeLookupService(findFreePort());
+        final NodeIdentifier nodeId = new DnsNameIdentifier("nodeA3");
+        final NetworkServer node = createNode(lookup, nodeId);
+
+        final NodeNetworkManager manager = node.accessNetworkManager();
+        // the queued peers must not time out during the test
+        manager.getConnectionManager().setHandshakeTimeout((int) (WAIT_MS * 2));
+        manager.start(node);
+        final List<Socket> silent = new LinkedList<>();
+        try {
+            final InetSocketAddress addr = lookup.getInetAddressForNode(nodeId);
+
+            final int capacity = NodeNetworkManager.HANDSHAKE_THREADS + NodeNetworkManager.HANDSHAKE_QUEUE_CAPACITY;
+            for (int i = 0; i < capacity; ++i) {
+                silent.add(connect(addr));
+            }
+            waitFor("silent peers not pending", () -> manager.getPendingHandshakeCount() == capacity);
+
+            try (Socket rejected = connect(addr)) {
+                rejected.setSoTimeout((int) WAIT_MS);
+                try {
+                    Assert.assertEquals(-1, rejected.getInputStream().read());
+                } catch (final SocketException e) {
+                    // a reset also shows the connection was closed
+                }
+            }
+            Assert.assertEquals(capacity, manager.getPendingHandshakeCount());
+        } finally {
+            for (final Socket s : silent) {
+                s.close();
+            }
+            manager.stop();
+        }
+    }
+
+    /**
+     * Test that a peer that connects and never sends its hello doesn't block
+     * the handshake of another peer and that its connection is closed after
+     * the handshake timeout.
+     * 
+     * @throws IOException
+     *             if there is an error reading the test data or talking to the
+     *             network manager
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testSilentPeer() throws IOException, InterruptedException {
+        final LocalNodeLookupService lookup = new LocalNodeLookupService(findFreePort());
+        final NodeIdentifier nodeId = new DnsNameIdentifier("nodeA3");
+        final NetworkServer node = createNode(lookup, nodeId);
+
+        final NodeNetworkManager manager = node.accessNetworkManager();
+        manager.getConnectionManager().setHandshakeTimeout(HANDSHAKE_TIMEOUT_MS);
+        manager.start(node);
+        try {
+            final InetSocketAddress addr = lookup.getInetAddressForNode(nodeId);
+
+            try (Socket silent = connect(addr)) {
+                final long silentConnected = System.currentTimeMillis();
+                waitFor("silent peer not pending", () -> manager.getPendingHandshakeCount() == 1);
+
+                // a second peer completes its handshake while the first is
+                // still pending
+                try (Socket peer = connect(addr)) {
+                    peer.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                    final DataOutputStream output = new DataOutputStream(peer.getOutputStream());
+                    NodeNetworkManager.writeHello(output, NONCE, new DnsNameIdentifier("peer"));
+
+                    final DataInputStream input = new DataInputStream(peer.getInputStream());
+                    Assert.assertEquals(NodeNetworkManager.MESSAGE_TYPE_HELLO, input.readByte());
+                    Assert.assertEquals(nodeId, HelloMessage.readMessage(input).getId());
+                    Assert.assertTrue(manager.getMaxPendingHandshakeCount() >= 2);
+
+                    NodeNetworkManager.writeCloseConnection(output);
+                }
+
+                // the silent peer is closed by the network manager after the
+                // handshake timeout
+                silent.setSoTimeout((int) WAIT_MS);
+                final InputStream silentInput = silent.getInputStream();
+                try {
+                    Assert.assertEquals(-1, silentInput.read());
+                } catch (final SocketException e) {
+                    // a reset also shows the connection was closed
+                }
+                Assert.assertTrue(System.currentTimeMillis() - silentConnected >= HANDSHAKE_TIMEOUT_MS);
+            }
+
+            waitFor("handshakes still pending", () -> manager.getPendingHandshakeCount() == 0);
+        } finally {
+            manager.stop();
+        }
+    }
+
+}
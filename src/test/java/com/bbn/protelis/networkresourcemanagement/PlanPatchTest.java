@@ -0,0 +1,157 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link LoadBalancerPlanPatch} and {@link RegionPlanPatch}.
+ */
+public class PlanPatchTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final long OLD_TIMESTAMP = 10;
+    private static final long NEW_TIMESTAMP = 20;
+    private static final double NEW_WEIGHT = 2;
+
+    private final RegionIdentifier regionA = new StringRegionIdentifier("A");
+    private final RegionIdentifier regionB = new StringRegionIdentifier("B");
+    private final NodeIdentifier node1 = new DnsNameIdentifier("node1");
+    private final NodeIdentifier node2 = new DnsNameIdentifier("node2");
+    private final NodeIdentifier node3 = new DnsNameIdentifier("node3");
+    private final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+
+    private LoadBalancerPlan.ContainerInfo container(final NodeIdentifier node, final double weight) {
+        return new LoadBalancerPlan.ContainerInfo(new DnsNameIdentifier(node.getName() + "-c"), service, weight,
+                false, false);
+    }
+
+    /**
+     * Test that applying the diff of 2 plans to the first gives the second and
+     * only the changed nodes are in the patch.
+     * 
+     * @throws IOException
+     *             test error
+     * @throws ClassNotFoundException
+     *             test error
+     */
+    @Test
+    public void testLoadBalancerPlanRoundTrip() throws IOException, ClassNotFoundException {
+        final LoadBalancerPlan oldPlan = new LoadBalancerPlan(regionA, OLD_TIMESTAMP,
+                ImmutableMap.of(node1, ImmutableList.of(container(node1, 1)), //
+                        node2, ImmutableList.of(container(node2, 1))),
+                ImmutableMap.of(service, ImmutableMap.of(regionA, 1.0)));
+        final LoadBalancerPlan newPlan = new LoadBalancerPlan(regionA, NEW_TIMESTAMP,
+                ImmutableMap.of(node1, ImmutableList.of(container(node1, NEW_WEIGHT)), //
+                        node3, ImmutableList.of(container(node3, 1))),
+                ImmutableMap.of(service, ImmutableMap.of(regionA, 1.0)));
+
+        final LoadBalancerPlanPatch patch = roundTrip(LoadBalancerPlanPatch.diff(oldPlan, newPlan));
+        Assert.assertEquals(ImmutableMap.of(node1, newPlan.getServicePlan().get(node1), node3,
+                newPlan.getServicePlan().get(node3)), patch.getServicePlan().getChanged());
+        Assert.assertEquals(ImmutableList.of(node2), patch.getServicePlan().getRemoved().asList());
+        Assert.assertTrue(patch.getOverflowPlan().isEmpty());
+
+        final LoadBalancerPlan receivedOldPlan = roundTrip(oldPlan);
+        Assert.assertTrue(patch.appliesTo(receivedOldPlan));
+        final LoadBalancerPlan patched = patch.apply(receivedOldPlan);
+        Assert.assertEquals(newPlan, patched);
+        Assert.assertEquals(NEW_TIMESTAMP, patched.getTimestamp());
+
+        // can't apply twice
+        Assert.assertFalse(patch.appliesTo(patched));
+    }
+
+    /**
+     * Test that applying the diff of 2 region plans to the first gives the
+     * second.
+     * 
+     * @throws IOException
+     *             test error
+     * @throws ClassNotFoundException
+     *             test error
+     */
+    @Test
+    public void testRegionPlanRoundTrip() throws IOException, ClassNotFoundException {
+        final RegionPlan oldPlan = new RegionPlan(regionA, OLD_TIMESTAMP,
+                ImmutableMap.of(service, ImmutableMap.of(regionA, 1.0)));
+        final RegionPlan newPlan = new RegionPlan(regionA, NEW_TIMESTAMP,
+                ImmutableMap.of(service, ImmutableMap.of(regionA, 0.5, regionB, 0.5)));
+
+        final RegionPlanPatch patch = roundTrip(RegionPlanPatch.diff(oldPlan, newPlan));
+        Assert.assertEquals(1, patch.size());
+        Assert.assertEquals(newPlan, patch.apply(roundTrip(oldPlan)));
+    }
+
+    /**
+     * Test that a patch is rejected for a different version of the plan.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongBase() {
+        final RegionPlan oldPlan = new RegionPlan(regionA, OLD_TIMESTAMP, ImmutableMap.of());
+        final RegionPlan newPlan = new RegionPlan(regionA, NEW_TIMESTAMP,
+                ImmutableMap.of(service, ImmutableMap.of(regionB, 1.0)));
+        RegionPlanPatch.diff(oldPlan, newPlan).apply(RegionPlan.getNullRegionPlan(regionA));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(final T value) throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+}
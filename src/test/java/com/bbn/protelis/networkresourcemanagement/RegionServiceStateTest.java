@@ -0,0 +1,157 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link RegionServiceState}.
+ */
+public class RegionServiceStateTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final long OLD_TIMESTAMP = 10;
+    private static final long NEW_TIMESTAMP = 20;
+
+    private final RegionIdentifier region = new StringRegionIdentifier("region");
+    private final NodeIdentifier node1 = new DnsNameIdentifier("node1");
+    private final NodeIdentifier node2 = new DnsNameIdentifier("node2");
+    private final NodeIdentifier container = new DnsNameIdentifier("container");
+    private final ServiceIdentifier<?> serviceA = new StringServiceIdentifier("A");
+    private final ServiceIdentifier<?> serviceB = new StringServiceIdentifier("B");
+
+    private ServiceReport report(final NodeIdentifier node,
+            final long timestamp,
+            final ServiceIdentifier<?> service,
+            final ServiceStatus status) {
+        return new ServiceReport(node, timestamp, ImmutableMap.of(container, new ServiceState(service, status)));
+    }
+
+    /**
+     * Test that only newer reports change the state and the version.
+     */
+    @Test
+    public void testUpdateOnlyWhenNewer() {
+        final RegionServiceState empty = new RegionServiceState(region, ImmutableSet.of());
+        final long emptyVersion = empty.getVersion();
+
+        final RegionServiceState first = empty.update(ImmutableList.of(
+                report(node1, OLD_TIMESTAMP, serviceA, ServiceStatus.RUNNING),
+                report(node2, OLD_TIMESTAMP, serviceA, ServiceStatus.STARTING)));
+        Assert.assertTrue(first.hasChangedSince(emptyVersion));
+        Assert.assertEquals(ImmutableSet.of(node1, node2), first.getNodesRunningService(serviceA));
+
+        // same reports again
+        final RegionServiceState same = first.update(first.getServiceReports());
+        Assert.assertSame(first, same);
+        Assert.assertFalse(same.hasChangedSince(first.getVersion()));
+
+        // an older report is ignored
+        final RegionServiceState older = first.update(ImmutableList.of(
+                report(node1, OLD_TIMESTAMP - 1, serviceB, ServiceStatus.RUNNING),
+                report(node2, OLD_TIMESTAMP, serviceA, ServiceStatus.STARTING)));
+        Assert.assertSame(first, older);
+
+        // a newer report moves node1 to service B
+        final RegionServiceState newer = first.update(ImmutableList.of(
+                report(node1, NEW_TIMESTAMP, serviceB, ServiceStatus.RUNNING),
+                report(node2, OLD_TIMESTAMP, serviceA, ServiceStatus.STARTING)));
+        Assert.assertTrue(newer.hasChangedSince(first.getVersion()));
+        Assert.assertEquals(ImmutableSet.of(node2), newer.getNodesRunningService(serviceA));
+        Assert.assertEquals(ImmutableSet.of(node1), newer.getNodesRunningService(serviceB));
+        Assert.assertEquals(NEW_TIMESTAMP, newer.getServiceReport(node1).getTimestamp());
+    }
+
+    /**
+     * Test that nodes missing from an update are removed along with their
+     * services.
+     */
+    @Test
+    public void testNodeRemoved() {
+        final RegionServiceState first = new RegionServiceState(region,
+                ImmutableSet.of(report(node1, OLD_TIMESTAMP, serviceA, ServiceStatus.RUNNING),
+                        report(node2, OLD_TIMESTAMP, serviceB, ServiceStatus.RUNNING)));
+
+        final RegionServiceState second = first
+                .update(ImmutableList.of(report(node1, OLD_TIMESTAMP, serviceA, ServiceStatus.RUNNING)));
+        Assert.assertTrue(second.hasChangedSince(first.getVersion()));
+        Assert.assertNull(second.getServiceReport(node2));
+        Assert.assertTrue(second.getNodesRunningService(serviceB).isEmpty());
+        Assert.assertEquals(
+                new RegionServiceState(region,
+                        ImmutableSet.of(report(node1, OLD_TIMESTAMP, serviceA, ServiceStatus.RUNNING))),
+                second);
+    }
+
+    /**
+     * Test that when an update contains duplicate reports for a node the one
+     * with the latest timestamp is used regardless of order.
+     */
+    @Test
+    public void testDuplicateReportsInUpdate() {
+        final RegionServiceState empty = new RegionServiceState(region, ImmutableSet.of());
+
+        final RegionServiceState state = empty.update(ImmutableList.of(
+                report(node1, NEW_TIMESTAMP, serviceB, ServiceStatus.RUNNING),
+                report(node1, OLD_TIMESTAMP, serviceA, ServiceStatus.RUNNING)));
+        Assert.assertEquals(1, state.getServiceReports().size());
+        Assert.assertEquals(NEW_TIMESTAMP, state.getServiceReport(node1).getTimestamp());
+        Assert.assertEquals(ImmutableSet.of(node1), state.getNodesRunningService(serviceB));
+        Assert.assertTrue(state.getNodesRunningService(serviceA).isEmpty());
+    }
+
+    /**
+     * Test that stopped containers are not in the service index.
+     */
+    @Test
+    public void testStoppedNotIndexed() {
+        final RegionServiceState state = new RegionServiceState(region,
+                ImmutableSet.of(report(node1, OLD_TIMESTAMP, serviceA, ServiceStatus.STOPPED)));
+        Assert.assertTrue(state.getNodesRunningService(serviceA).isEmpty());
+    }
+
+}
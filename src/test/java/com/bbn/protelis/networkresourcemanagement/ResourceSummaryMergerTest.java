@@ -0,0 +1,212 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link ResourceSummaryMerger}.
+ */
+public class ResourceSummaryMergerTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final int NUM_REGIONS = 5;
+    private static final int NUM_SERVICES = 4;
+    private static final int NUM_NODES_PER_REGION = 20;
+    private static final long SEED = 42;
+    private static final int ODD_THRESHOLD = 7;
+
+    private static RegionIdentifier region(final int index) {
+        return new StringRegionIdentifier("region" + index);
+    }
+
+    private static NodeIdentifier node(final int index) {
+        return new DnsNameIdentifier("node" + index);
+    }
+
+    private static ServiceIdentifier<?> service(final int index) {
+        return new StringServiceIdentifier("service" + index);
+    }
+
+    private static RegionIdentifier lookupRegion(final NodeIdentifier node) {
+        final int index = Integer.parseInt(node.getName().substring("node".length()));
+        return region(index / NUM_NODES_PER_REGION);
+    }
+
+    private static ResourceSummary createSummary(final Random random, final int index) {
+        final RegionIdentifier region = region(index % NUM_REGIONS);
+        final RegionIdentifier neighbor = region((index + 1) % NUM_REGIONS);
+        final ServiceIdentifier<?> service = service(random.nextInt(NUM_SERVICES));
+
+        final ImmutableMap<ServiceIdentifier<?>, ImmutableMap<RegionIdentifier, ImmutableMap<NodeAttribute, Double>>> serverLoad = ImmutableMap
+                .of(service, ImmutableMap.of(neighbor, ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble())));
+        final ImmutableMap<RegionIdentifier, ImmutableMap<RegionNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad = ImmutableMap
+                .of(neighbor, ImmutableMap.of(new RegionNetworkFlow(region, neighbor, neighbor),
+                        ImmutableMap.of(service, ImmutableMap.of(LinkAttribute.DATARATE_TX, random.nextDouble(),
+                                LinkAttribute.DATARATE_RX, random.nextDouble()))));
+
+        return new ResourceSummary(region, index, index + 1, ResourceReport.EstimationWindow.SHORT, //
+                ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble()), //
+                serverLoad, serverLoad, //
+                ImmutableMap.of(service, random.nextDouble()), //
+                ImmutableMap.of(neighbor, ImmutableMap.of(LinkAttribute.DATARATE_TX, random.nextDouble())), //
+                networkLoad, networkLoad, //
+                1 + random.nextInt(NUM_SERVICES), random.nextInt(NUM_SERVICES));
+    }
+
+    private static ResourceReport createReport(final Random random, final int index) {
+        final int numNodes = NUM_REGIONS * NUM_NODES_PER_REGION;
+        final NodeIdentifier nodeId = node(index % numNodes);
+        final NodeIdentifier neighborId = node((index + NUM_NODES_PER_REGION) % numNodes);
+        final NodeIdentifier clientId = node(random.nextInt(numNodes));
+        final ServiceIdentifier<?> service = service(random.nextInt(NUM_SERVICES));
+        final NodeIdentifier containerId = new DnsNameIdentifier("container" + index);
+
+        final ImmutableMap<NodeIdentifier, ImmutableMap<NodeAttribute, Double>> computeLoad = ImmutableMap.of(clientId,
+                ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble()));
+        final ContainerResourceReport containerReport = new ContainerResourceReport(containerId, index, service,
+                ServiceStatus.RUNNING, ResourceReport.EstimationWindow.SHORT,
+                ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, 1D), computeLoad, computeLoad, random.nextDouble());
+
+        final InterfaceIdentifier ii = new InterfaceIdentifier("interface-" + neighborId.getName(),
+                ImmutableSet.of(neighborId));
+        final ImmutableMap<InterfaceIdentifier, ImmutableMap<NodeNetworkFlow, ImmutableMap<ServiceIdentifier<?>, ImmutableMap<LinkAttribute, Double>>>> networkLoad = ImmutableMap
+                .of(ii, ImmutableMap.of(new NodeNetworkFlow(clientId, nodeId, nodeId),
+                        ImmutableMap.of(service, ImmutableMap.of(LinkAttribute.DATARATE_RX, random.nextDouble()))));
+
+        return new ResourceReport(nodeId, index, ResourceReport.EstimationWindow.SHORT,
+                ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, random.nextDouble()),
+                ImmutableMap.of(ii, ImmutableMap.of(LinkAttribute.DATARATE_TX, random.nextDouble())), //
+                networkLoad, networkLoad, //
+                ImmutableMap.of(containerId, containerReport), NUM_SERVICES, 1);
+    }
+
+    /**
+     * Check that the parallel merge of summaries matches the sequential merge
+     * regardless of how the input is split.
+     */
+    @Test
+    public void testParallelSummaryMergeMatchesSequential() {
+        final int numSummaries = 1000;
+        final Random random = new Random(SEED);
+        final List<ResourceSummary> summaries = new ArrayList<>();
+        for (int i = 0; i < numSummaries; ++i) {
+            summaries.add(createSummary(random, i));
+        }
+
+        final RegionIdentifier globalRegion = new StringRegionIdentifier("global");
+        final ResourceSummary sequential = ResourceSummaryMerger.mergeSummaries(globalRegion,
+                ResourceReport.EstimationWindow.SHORT, summaries);
+
+        Assert.assertEquals(0L, sequential.getMinTimestamp());
+        Assert.assertEquals((long) numSummaries, sequential.getMaxTimestamp());
+        Assert.assertEquals(NUM_SERVICES, sequential.getServerLoad().size());
+
+        final ForkJoinPool pool = new ForkJoinPool(NUM_SERVICES);
+        try {
+            for (final int threshold : new int[] { 1, ODD_THRESHOLD, ResourceSummaryMerger.DEFAULT_SEQUENTIAL_THRESHOLD,
+                    numSummaries }) {
+                final ResourceSummary parallel = ResourceSummaryMerger.parallelMergeSummaries(pool, threshold,
+                        globalRegion, ResourceReport.EstimationWindow.SHORT, summaries);
+                Assert.assertEquals("threshold: " + threshold, sequential, parallel);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Check that the parallel merge of reports matches the sequential merge
+     * and that traffic within a region isn't reported as network load.
+     */
+    @Test
+    public void testParallelReportMergeMatchesSequential() {
+        final int numReports = 1000;
+        final Random random = new Random(SEED);
+        final List<ResourceReport> reports = new ArrayList<>();
+        for (int i = 0; i < numReports; ++i) {
+            reports.add(createReport(random, i));
+        }
+
+        final RegionIdentifier globalRegion = new StringRegionIdentifier("global");
+        final ResourceSummary sequential = ResourceSummaryMerger.mergeReports(globalRegion,
+                ResourceReport.EstimationWindow.SHORT, ResourceSummaryMergerTest::lookupRegion, reports);
+        final ResourceSummary parallel = ResourceSummaryMerger.parallelMergeReports(globalRegion,
+                ResourceReport.EstimationWindow.SHORT, ResourceSummaryMergerTest::lookupRegion, reports);
+
+        Assert.assertEquals(sequential, parallel);
+        Assert.assertEquals(numReports, sequential.getAllocatedServiceContainers());
+        Assert.assertEquals(NUM_REGIONS, sequential.getNetworkCapacity().size());
+    }
+
+    /**
+     * Check that merging an empty collection produces a null summary.
+     */
+    @Test
+    public void testEmptyMerge() {
+        final RegionIdentifier region = region(0);
+        final ResourceSummary expected = ResourceSummary.getNullSummary(region, ResourceReport.EstimationWindow.LONG);
+        final ResourceSummary actual = ResourceSummaryMerger.parallelMergeSummaries(region,
+                ResourceReport.EstimationWindow.LONG, new ArrayList<>());
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Check that summaries with a different estimation window are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowMismatch() {
+        final List<ResourceSummary> summaries = new ArrayList<>();
+        summaries.add(createSummary(new Random(SEED), 0));
+        ResourceSummaryMerger.mergeSummaries(region(0), ResourceReport.EstimationWindow.LONG, summaries);
+    }
+
+}
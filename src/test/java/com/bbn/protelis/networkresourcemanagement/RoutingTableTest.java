@@ -0,0 +1,142 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link RoutingTable} and {@link AliasTable}.
+ */
+public class RoutingTableTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final long SEED = 42;
+    private static final int NUM_SAMPLES = 100000;
+    private static final double FREQUENCY_TOLERANCE = 0.01;
+
+    private final RegionIdentifier regionA = new StringRegionIdentifier("A");
+    private final RegionIdentifier regionB = new StringRegionIdentifier("B");
+    private final NodeIdentifier node = new DnsNameIdentifier("node");
+    private final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+
+    /**
+     * Test that values are chosen in proportion to their weights and values
+     * without a positive weight are never chosen.
+     */
+    @Test
+    public void testAliasTableFrequencies() {
+        final ImmutableMap<String, Double> weights = ImmutableMap.of("a", 1.0, "b", 2.0, "c", 5.0, "d", 0.0);
+        final double total = 8;
+        final AliasTable<String> table = new AliasTable<>(weights);
+        Assert.assertEquals(3, table.size());
+
+        final Random random = new Random(SEED);
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < NUM_SAMPLES; ++i) {
+            counts.merge(table.choose(random), 1, Integer::sum);
+        }
+
+        Assert.assertFalse(counts.containsKey("d"));
+        weights.forEach((value, weight) -> {
+            final double frequency = counts.getOrDefault(value, 0) / (double) NUM_SAMPLES;
+            Assert.assertEquals(value, weight / total, frequency, FREQUENCY_TOLERANCE);
+        });
+    }
+
+    /**
+     * Test that stopped containers, containers with traffic stopped and
+     * containers that are not started are not chosen.
+     */
+    @Test
+    public void testContainerChoice() {
+        final NodeIdentifier running = new DnsNameIdentifier("running");
+        final NodeIdentifier stopped = new DnsNameIdentifier("stopped");
+        final NodeIdentifier noTraffic = new DnsNameIdentifier("noTraffic");
+        final LoadBalancerPlan plan = new LoadBalancerPlan(regionA,
+                ImmutableMap.of(node,
+                        ImmutableList.of(new LoadBalancerPlan.ContainerInfo(running, service, 1, false, false),
+                                new LoadBalancerPlan.ContainerInfo(stopped, service, 1, false, true),
+                                new LoadBalancerPlan.ContainerInfo(noTraffic, service, 1, true, false),
+                                new LoadBalancerPlan.ContainerInfo(null, service, 1, false, false))),
+                ImmutableMap.of());
+        final RoutingTable table = new RoutingTable(RegionPlan.getNullRegionPlan(regionA), plan);
+
+        final Random random = new Random(SEED);
+        for (int i = 0; i < NUM_SAMPLES; ++i) {
+            Assert.assertEquals(running, table.chooseContainer(service, random));
+        }
+        Assert.assertEquals(node, table.getNodeForContainer(running));
+        // containers running and no overflow plan means stay local
+        Assert.assertEquals(regionA, table.chooseRegion(service, random));
+    }
+
+    /**
+     * Test that the overflow plan takes precedence over the region plan and
+     * that the network state swaps the table when a plan is set.
+     */
+    @Test
+    public void testRegionChoice() {
+        final NetworkState state = new NetworkState(regionA);
+        Assert.assertNull(state.getRoutingTable().chooseRegion(service));
+
+        state.setRegionPlan(new RegionPlan(regionA, ImmutableMap.of(service, ImmutableMap.of(regionB, 1.0))));
+        Assert.assertEquals(regionB, state.getRoutingTable().chooseRegion(service));
+
+        final RoutingTable beforeOverflow = state.getRoutingTable();
+        state.setLoadBalancerPlan(new LoadBalancerPlan(regionA, ImmutableMap.of(),
+                ImmutableMap.of(service, ImmutableMap.of(regionA, 1.0))));
+        Assert.assertEquals(regionA, state.getRoutingTable().chooseRegion(service));
+        Assert.assertSame(state.getLoadBalancerPlan(), state.getRoutingTable().getLoadBalancerPlan());
+
+        // the old table is unchanged
+        Assert.assertEquals(regionB, beforeOverflow.chooseRegion(service));
+    }
+
+}
@@ -0,0 +1,184 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.protelis.vm.CodePath;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link HelloMessage} and {@link ApSession}.
+ */
+public class SessionResumptionTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final long SESSION_A = 11;
+    private static final long SESSION_B = 22;
+    private static final long SENT_SEQUENCE = 5;
+    private static final long RECEIVED_SEQUENCE = 7;
+    private static final int NONCE = 42;
+
+    private static final NodeIdentifier NODE_A = new DnsNameIdentifier("nodeA");
+    private static final NodeIdentifier NODE_B = new DnsNameIdentifier("nodeB");
+
+    private static HelloMessage roundTrip(final HelloMessage msg) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            msg.writeMessage(output);
+        }
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return HelloMessage.readMessage(input);
+        }
+    }
+
+    /**
+     * Test that all fields of a hello message survive encoding.
+     * 
+     * @throws IOException
+     *             if there is an error encoding or decoding
+     */
+    @Test
+    public void testHelloRoundTrip() throws IOException {
+        final HelloMessage msg = new HelloMessage(NODE_A, NONCE, HelloMessage.CAPABILITY_SESSION_RESUMPTION,
+                SESSION_A, SESSION_B, SENT_SEQUENCE, RECEIVED_SEQUENCE, HelloMessage.NO_DICTIONARY, 0);
+        final HelloMessage read = roundTrip(msg);
+
+        Assert.assertEquals(NODE_A, read.getId());
+        Assert.assertEquals(NONCE, read.getNonce());
+        Assert.assertTrue(read.hasCapability(HelloMessage.CAPABILITY_SESSION_RESUMPTION));
+        Assert.assertEquals(SESSION_A, read.getSessionId());
+        Assert.assertEquals(SESSION_B, read.getResumeSessionId());
+        Assert.assertEquals(SENT_SEQUENCE, read.getLastSentSequence());
+        Assert.assertEquals(RECEIVED_SEQUENCE, read.getLastReceivedSequence());
+    }
+
+    /**
+     * Test that an id that would not be read back as the same type is
+     * rejected when writing.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = IOException.class)
+    public void testNonDnsIdRejected() throws IOException {
+        final NodeIdentifier other = new NodeIdentifier() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getName() {
+                return "other";
+            }
+        };
+        roundTrip(new HelloMessage(other, NONCE, 0, HelloMessage.NO_SESSION, HelloMessage.NO_SESSION, 0, 0,
+                HelloMessage.NO_DICTIONARY, 0));
+    }
+
+    /**
+     * Test that an unknown protocol version is rejected.
+     * 
+     * @throws IOException
+     *             expected
+     */
+    @Test(expected = StreamSyncLostException.class)
+    public void testUnknownVersion() throws IOException {
+        final byte[] bytes = { HelloMessage.PROTOCOL_VERSION + 1 };
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            HelloMessage.readMessage(input);
+        }
+    }
+
+    /**
+     * Test that both sides agree to resume when everything sent was received
+     * and that the direction with a lost message starts over.
+     */
+    @Test
+    public void testResumeDecisionsAgree() {
+        final Map<CodePath, Object> stateA = Collections.emptyMap();
+        final Map<CodePath, Object> stateB = Collections.emptyMap();
+
+        // A sent 5 messages and B received all of them, B sent 7 and A only
+        // received 6
+        final ApSession savedA = new ApSession(SESSION_B, stateA, SENT_SEQUENCE, stateB, RECEIVED_SEQUENCE - 1);
+        final ApSession savedB = new ApSession(SESSION_A, stateB, RECEIVED_SEQUENCE, stateA, SENT_SEQUENCE);
+
+        final HelloMessage helloA = ApSession.createHello(NODE_A, NONCE, SESSION_A, savedA, null, 0);
+        final HelloMessage helloB = ApSession.createHello(NODE_B, NONCE, SESSION_B, savedB, null, 0);
+
+        final ApSession resumedA = ApSession.resume(SESSION_A, savedA, helloB);
+        final ApSession resumedB = ApSession.resume(SESSION_B, savedB, helloA);
+
+        // A to B resumes
+        Assert.assertEquals(SENT_SEQUENCE, resumedA.getSentSequence());
+        Assert.assertEquals(SENT_SEQUENCE, resumedB.getReceivedSequence());
+
+        // B to A starts over
+        Assert.assertEquals(0, resumedB.getSentSequence());
+        Assert.assertEquals(0, resumedA.getReceivedSequence());
+    }
+
+    /**
+     * Test that a restarted neighbor with a new session id causes both
+     * directions to start over.
+     */
+    @Test
+    public void testRestartedPeer() {
+        final Map<CodePath, Object> state = Collections.emptyMap();
+        final ApSession savedA = new ApSession(SESSION_B, state, SENT_SEQUENCE, state, RECEIVED_SEQUENCE);
+
+        final long restartedSessionB = SESSION_B + 1;
+        final HelloMessage helloB = ApSession.createHello(NODE_B, NONCE, restartedSessionB, null, null, 0);
+        final ApSession resumedA = ApSession.resume(SESSION_A, savedA, helloB);
+
+        Assert.assertEquals(restartedSessionB, resumedA.getPeerSessionId());
+        Assert.assertEquals(0, resumedA.getSentSequence());
+        Assert.assertEquals(0, resumedA.getReceivedSequence());
+    }
+
+}
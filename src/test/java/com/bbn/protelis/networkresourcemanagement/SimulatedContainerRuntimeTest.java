@@ -0,0 +1,146 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.networkresourcemanagement;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link SimulatedContainerRuntime}.
+ */
+public class SimulatedContainerRuntimeTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final double TOLERANCE = 1E-6;
+
+    private static final ContainerParameters PARAMETERS = new ContainerParameters(
+            ImmutableMap.of(NodeAttribute.TASK_CONTAINERS, 1D), ImmutableMap.of());
+
+    /**
+     * Test the status transitions follow the configured latencies.
+     */
+    @Test
+    public void testLifecycle() {
+        final ManualClock clock = new ManualClock();
+        final SimulatedContainerRuntime runtime = new SimulatedContainerRuntime(clock);
+        final long pull = 500;
+        final long start = 200;
+        final long stop = 100;
+        final long retention = 50;
+        runtime.setImagePullLatency(pull);
+        runtime.setStartLatency(start);
+        runtime.setStopLatency(stop);
+        runtime.setStoppedRetention(retention);
+        runtime.setMaximumContainers(1);
+
+        final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+        final NodeIdentifier container = new DnsNameIdentifier("container");
+        final NodeIdentifier other = new DnsNameIdentifier("other");
+
+        Assert.assertTrue(runtime.startContainer(container, service, PARAMETERS));
+        Assert.assertFalse("Maximum containers", runtime.startContainer(other, service, PARAMETERS));
+        Assert.assertEquals(ServiceStatus.STARTING, runtime.getStatus(container));
+
+        clock.advance(pull);
+        Assert.assertTrue(runtime.isImageLocal(service));
+        Assert.assertEquals(ServiceStatus.STARTING, runtime.getStatus(container));
+
+        clock.advance(start);
+        Assert.assertEquals(ServiceStatus.RUNNING, runtime.getStatus(container));
+
+        Assert.assertTrue(runtime.stopContainer(container));
+        Assert.assertEquals(ServiceStatus.STOPPING, runtime.getStatus(container));
+        clock.advance(stop);
+        Assert.assertEquals(ServiceStatus.STOPPED, runtime.getStatus(container));
+        Assert.assertEquals(0, runtime.getAllocatedContainers());
+
+        clock.advance(retention);
+        Assert.assertEquals(ServiceStatus.UNKNOWN, runtime.getStatus(container));
+    }
+
+    /**
+     * Test the load, demand and processing time from the queueing model.
+     */
+    @Test
+    public void testQueueModel() {
+        final ManualClock clock = new ManualClock();
+        final SimulatedContainerRuntime runtime = new SimulatedContainerRuntime(clock);
+        runtime.setImagePullLatency(0);
+        runtime.setStartLatency(0);
+
+        final ServiceIdentifier<?> service = new StringServiceIdentifier("service");
+        final NodeIdentifier container = new DnsNameIdentifier("container");
+        final NodeIdentifier client = new DnsNameIdentifier("client");
+        // 10 requests per second on 1 CPU
+        final double processingTime = 100;
+        runtime.setProcessingTime(service, processingTime);
+        Assert.assertTrue(runtime.startContainer(container, service, PARAMETERS));
+
+        // half loaded, M/M/1 response time is 1 / (10 - 5) seconds
+        final double halfRate = 5;
+        final double expectedTime = 200;
+        Assert.assertTrue(runtime.setClientRequestRate(container, client, halfRate));
+        clock.advance(1);
+        ContainerResourceReport report = runtime.getContainerReports(ResourceReport.EstimationWindow.SHORT)
+                .get(container);
+        Assert.assertEquals(ServiceStatus.RUNNING, report.getServiceStatus());
+        Assert.assertEquals(0.5, report.getComputeLoad().get(client).get(NodeAttribute.CPU), TOLERANCE);
+        Assert.assertEquals(0.5, report.getComputeDemand().get(client).get(NodeAttribute.TASK_CONTAINERS),
+                TOLERANCE);
+        Assert.assertEquals(expectedTime, report.getAverageProcessingTime(), TOLERANCE);
+
+        // overloaded, the load is capped at the capacity and the backlog grows
+        final double doubleRate = 20;
+        Assert.assertTrue(runtime.setClientRequestRate(container, client, doubleRate));
+        final long oneSecond = 1000;
+        clock.advance(oneSecond);
+        report = runtime.getContainerReports(ResourceReport.EstimationWindow.SHORT).get(container);
+        Assert.assertEquals(1, report.getComputeLoad().get(client).get(NodeAttribute.CPU), TOLERANCE);
+        Assert.assertEquals(2, report.getComputeDemand().get(client).get(NodeAttribute.CPU), TOLERANCE);
+        // 10 requests waiting
+        final double backlogTime = 1100;
+        Assert.assertEquals(backlogTime, report.getAverageProcessingTime(), TOLERANCE);
+    }
+
+}
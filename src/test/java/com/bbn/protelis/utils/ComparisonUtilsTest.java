@@ -0,0 +1,198 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.bbn.protelis.networkresourcemanagement.NetworkResourceTestUtils;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link ComparisonUtils}.
+ */
+public class ComparisonUtilsTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static final double TOLERANCE = 1E-3;
+    private static final double INSIDE_TOLERANCE = TOLERANCE * 0.9;
+    private static final double OUTSIDE_TOLERANCE = TOLERANCE * 1.1;
+    private static final double VALUE = 1;
+
+    /**
+     * Compare 2 leaf maps after wrapping them to the depth of the method under
+     * test.
+     */
+    @FunctionalInterface
+    private interface LeafComparison {
+        boolean matches(Map<String, Double> one, Map<String, Double> two);
+    }
+
+    /**
+     * Compare 2 maps of maps with the method under test.
+     *
+     * @param <V>
+     *            the value type of the inner maps
+     */
+    @FunctionalInterface
+    private interface OuterComparison<V> {
+        boolean matches(Map<String, Map<String, V>> one, Map<String, Map<String, V>> two);
+    }
+
+    private static Map<String, Double> leaf(final Object... keysAndValues) {
+        final Map<String, Double> map = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], (Double) keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static <V> Map<String, V> wrap(final V value) {
+        final Map<String, V> map = new HashMap<>();
+        map.put("outer", value);
+        return map;
+    }
+
+    /**
+     * Check the cases that apply to the maps holding the double values.
+     */
+    private static void checkLeafCases(final LeafComparison comparison) {
+        Assert.assertTrue("equal maps", comparison.matches(leaf("a", VALUE, "b", VALUE), leaf("a", VALUE, "b", VALUE)));
+        Assert.assertTrue("empty maps", comparison.matches(leaf(), leaf()));
+
+        Assert.assertFalse("different sizes", comparison.matches(leaf("a", VALUE), leaf("a", VALUE, "b", VALUE)));
+        Assert.assertFalse("different sizes reversed",
+                comparison.matches(leaf("a", VALUE, "b", VALUE), leaf("a", VALUE)));
+
+        Assert.assertFalse("missing key", comparison.matches(leaf("a", VALUE), leaf("b", VALUE)));
+        Assert.assertFalse("null value for missing key", comparison.matches(leaf("a", null), leaf("b", VALUE)));
+        Assert.assertFalse("null value for missing key reversed",
+                comparison.matches(leaf("b", VALUE), leaf("a", null)));
+
+        Assert.assertTrue("both values null", comparison.matches(leaf("a", null), leaf("a", null)));
+        Assert.assertFalse("first value null", comparison.matches(leaf("a", null), leaf("a", VALUE)));
+        Assert.assertFalse("second value null", comparison.matches(leaf("a", VALUE), leaf("a", null)));
+
+        Assert.assertTrue("inside tolerance",
+                comparison.matches(leaf("a", VALUE), leaf("a", VALUE + INSIDE_TOLERANCE)));
+        Assert.assertTrue("inside tolerance below",
+                comparison.matches(leaf("a", VALUE), leaf("a", VALUE - INSIDE_TOLERANCE)));
+        Assert.assertFalse("outside tolerance",
+                comparison.matches(leaf("a", VALUE), leaf("a", VALUE + OUTSIDE_TOLERANCE)));
+        Assert.assertFalse("outside tolerance below",
+                comparison.matches(leaf("a", VALUE), leaf("a", VALUE - OUTSIDE_TOLERANCE)));
+    }
+
+    /**
+     * Check the cases that apply to a map whose values are maps.
+     */
+    private static <V> void checkOuterCases(final Map<String, V> value, final Map<String, V> otherValue,
+            final OuterComparison<V> comparison) {
+        Assert.assertTrue("null maps", comparison.matches(null, null));
+        Assert.assertFalse("first map null", comparison.matches(null, wrap(value)));
+        Assert.assertFalse("second map null", comparison.matches(wrap(value), null));
+
+        final Map<String, Map<String, V>> two = wrap(value);
+        two.put("other", value);
+        Assert.assertFalse("different sizes", comparison.matches(wrap(value), two));
+
+        final Map<String, Map<String, V>> otherKey = new HashMap<>();
+        otherKey.put("other", value);
+        Assert.assertFalse("missing key", comparison.matches(wrap(value), otherKey));
+
+        Assert.assertTrue("both inner maps null", comparison.matches(wrap(null), wrap(null)));
+        Assert.assertFalse("first inner map null", comparison.matches(wrap(null), wrap(value)));
+        Assert.assertFalse("second inner map null", comparison.matches(wrap(value), wrap(null)));
+
+        Assert.assertTrue("inner maps equal", comparison.matches(wrap(value), wrap(value)));
+        Assert.assertFalse("inner maps differ", comparison.matches(wrap(value), wrap(otherValue)));
+    }
+
+    /**
+     * Test {@link ComparisonUtils#doubleMapEquals(Map, Map, double)}.
+     */
+    @Test
+    public void testDoubleMapEquals() {
+        checkLeafCases((one, two) -> ComparisonUtils.doubleMapEquals(one, two, TOLERANCE));
+
+        Assert.assertTrue("null maps", ComparisonUtils.doubleMapEquals(null, null, TOLERANCE));
+        Assert.assertFalse("first map null", ComparisonUtils.doubleMapEquals(null, leaf(), TOLERANCE));
+        Assert.assertFalse("second map null", ComparisonUtils.doubleMapEquals(leaf(), null, TOLERANCE));
+    }
+
+    /**
+     * Test {@link ComparisonUtils#doubleMapEquals2(Map, Map, double)}.
+     */
+    @Test
+    public void testDoubleMapEquals2() {
+        checkLeafCases((one, two) -> ComparisonUtils.doubleMapEquals2(wrap(one), wrap(two), TOLERANCE));
+
+        checkOuterCases(leaf("a", VALUE), leaf("a", VALUE + OUTSIDE_TOLERANCE),
+                (one, two) -> ComparisonUtils.doubleMapEquals2(one, two, TOLERANCE));
+    }
+
+    /**
+     * Test {@link ComparisonUtils#doubleMapEquals3(Map, Map, double)}.
+     */
+    @Test
+    public void testDoubleMapEquals3() {
+        checkLeafCases((one, two) -> ComparisonUtils.doubleMapEquals3(wrap(wrap(one)), wrap(wrap(two)), TOLERANCE));
+
+        checkOuterCases(wrap(leaf("a", VALUE)), wrap(leaf("a", VALUE + OUTSIDE_TOLERANCE)),
+                (one, two) -> ComparisonUtils.doubleMapEquals3(one, two, TOLERANCE));
+    }
+
+    /**
+     * Test {@link ComparisonUtils#doubleMapEquals4(Map, Map, double)}.
+     */
+    @Test
+    public void testDoubleMapEquals4() {
+        checkLeafCases((one, two) -> ComparisonUtils.doubleMapEquals4(wrap(wrap(wrap(one))), wrap(wrap(wrap(two))),
+                TOLERANCE));
+
+        checkOuterCases(wrap(wrap(leaf("a", VALUE))), wrap(wrap(leaf("a", VALUE + OUTSIDE_TOLERANCE))),
+                (one, two) -> ComparisonUtils.doubleMapEquals4(one, two, TOLERANCE));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*BBN_LICENSE_START -- DO NOT MODIFY BETWEEN LICENSE_{START,END} Lines
+Copyright (c) <2017,2018,2019,2020,2021>, <Raytheon BBN Technologies>
+To be applied to the DCOMP/MAP Public Source Code Release dated 2018-04-19, with
+the exception of the dcop implementation identified below (see notes).
+
+Dispersed Computing (DCOMP)
+Mission-oriented Adaptive Placement of Task and Data (MAP) 
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+BBN_LICENSE_END*/
+package com.bbn.protelis.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+
+import com.bbn.protelis.networkresourcemanagement.NetworkResourceTestUtils;
+import com.google.common.collect.ImmutableMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Tests for {@link ImmutableUtils}.
+ */
+public class ImmutableUtilsTest {
+
+    /**
+     * Rules for running tests.
+     */
+    @SuppressFBWarnings(value = "URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD", justification = "Used by the JUnit framework")
+    @Rule
+    public RuleChain chain = NetworkResourceTestUtils.getStandardRuleChain();
+
+    private static Map<String, Map<String, Map<String, Double>>> createSource() {
+        final Map<String, Map<String, Map<String, Double>>> source = new HashMap<>();
+        for (final String k1 : new String[] { "a", "b" }) {
+            final Map<String, Map<String, Double>> level2 = new HashMap<>();
+            for (final String k2 : new String[] { "x", "y" }) {
+                final Map<String, Double> level3 = new HashMap<>();
+                level3.put("one", 1.0);
+                level3.put("two", 2.0);
+                level2.put(k2, level3);
+            }
+            source.put(k1, level2);
+        }
+        return source;
+    }
+
+    /**
+     * Test that an unchanged source returns the previous copy.
+     */
+    @Test
+    public void testUnchangedReturnsPrevious() {
+        final ImmutableMap<String, ImmutableMap<String, ImmutableMap<String, Double>>> previous = ImmutableUtils
+                .makeImmutableMap3(createSource());
+        final ImmutableMap<String, ImmutableMap<String, ImmutableMap<String, Double>>> result = ImmutableUtils
+                .makeImmutableMap3(createSource(), previous);
+
+        Assert.assertSame(previous, result);
+    }
+
+    /**
+     * Test that changing one leaf only replaces the branch containing it.
+     */
+    @Test
+    public void testChangedLeafSharesSiblings() {
+        final ImmutableMap<String, ImmutableMap<String, ImmutableMap<String, Double>>> previous = ImmutableUtils
+                .makeImmutableMap3(createSource());
+
+        final Map<String, Map<String, Map<String, Double>>> source = createSource();
+        source.get("a").get("x").put("two", 3.0);
+        final ImmutableMap<String, ImmutableMap<String, ImmutableMap<String, Double>>> result = ImmutableUtils
+                .makeImmutableMap3(source, previous);
+
+        Assert.assertEquals(source, result);
+        Assert.assertNotSame(previous, result);
+        Assert.assertNotSame(previous.get("a"), result.get("a"));
+        Assert.assertNotSame(previous.get("a").get("x"), result.get("a").get("x"));
+        Assert.assertSame(previous.get("a").get("y"), result.get("a").get("y"));
+        Assert.assertSame(previous.get("b"), result.get("b"));
+    }
+
+    /**
+     * Test that removing a key is seen as a change even though all remaining
+     * branches are shared.
+     */
+    @Test
+    public void testRemovedKey() {
+        final ImmutableMap<String, ImmutableMap<String, ImmutableMap<String, Double>>> previous = ImmutableUtils
+                .makeImmutableMap3(createSource());
+
+        final Map<String, Map<String, Map<String, Double>>> source = createSource();
+        source.remove("b");
+        final ImmutableMap<String, ImmutableMap<String, ImmutableMap<String, Double>>> result = ImmutableUtils
+                .makeImmutableMap3(source, previous);
+
+        Assert.assertEquals(source, result);
+        Assert.assertSame(previous.get("a"), result.get("a"));
+    }
+
+}